@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.benchmark;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.diamond.scisoft.ncd.core.Average;
+import uk.ac.diamond.scisoft.ncd.core.BackgroundSubtraction;
+import uk.ac.diamond.scisoft.ncd.core.DetectorResponse;
+import uk.ac.diamond.scisoft.ncd.core.Invariant;
+import uk.ac.diamond.scisoft.ncd.core.Normalisation;
+
+/**
+ * Throughput of the per-pixel reduction kernels on a single detector frame.
+ * <p>
+ * Input buffers are passed to the generic kernel entry points, so double frames include
+ * the cost of conversion to the float working type. These kernels don't take a mask,
+ * so masking is only benchmarked in sector integration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class FrameKernelBenchmark {
+
+	private static final int FRAMES = 1;
+
+	@Param({ "1024", "2048", "4096" })
+	public int size;
+
+	@Param({ "float", "double" })
+	public String type;
+
+	private int[] dimensions;
+	private Serializable data;
+	private double[] errors;
+	private float[] calibration;
+	private int[] calibrationDimensions;
+
+	private Normalisation normalisation;
+	private BackgroundSubtraction backgroundSubtraction;
+	private DetectorResponse detectorResponse;
+	private Invariant invariant;
+	private Average average;
+
+	@Setup
+	public void setup() {
+		dimensions = new int[] { FRAMES, size, size };
+		float[] frames = SyntheticData.createFrames(FRAMES, size);
+		errors = SyntheticData.createVariances(frames);
+		data = ("double".equals(type) ? SyntheticData.toDouble(frames) : frames);
+
+		calibration = new float[FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			calibration[i] = 1000.0f + i;
+		}
+		calibrationDimensions = new int[] { FRAMES, 1 };
+		normalisation = new Normalisation();
+		normalisation.setCalibChannel(0);
+		normalisation.setNormvalue(1.0);
+
+		float[] bgFrames = SyntheticData.createFrames(FRAMES, size);
+		Dataset background = DatasetFactory.createFromObject(bgFrames, dimensions).imultiply(0.1);
+		background.setErrorBuffer(DatasetFactory.createFromObject(SyntheticData.createVariances(bgFrames), dimensions).imultiply(0.01));
+		backgroundSubtraction = new BackgroundSubtraction();
+		backgroundSubtraction.setBackground(background);
+
+		Dataset response = DatasetFactory.ones(new int[] { size, size }, Dataset.FLOAT32).imultiply(1.05);
+		detectorResponse = new DetectorResponse();
+		detectorResponse.setResponse(response);
+
+		invariant = new Invariant();
+		average = new Average();
+	}
+
+	@Benchmark
+	public Object[] normalisation() {
+		return normalisation.process(data, errors, calibration, FRAMES, dimensions, calibrationDimensions);
+	}
+
+	@Benchmark
+	public Object[] backgroundSubtraction() {
+		return backgroundSubtraction.process(data, errors, dimensions);
+	}
+
+	@Benchmark
+	public Object[] detectorResponse() {
+		return detectorResponse.process(data, errors, FRAMES, dimensions);
+	}
+
+	@Benchmark
+	public Object[] invariant() {
+		return invariant.process(data, errors, dimensions);
+	}
+
+	@Benchmark
+	public float[] average() {
+		return average.process(data, dimensions);
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run NCD kernel benchmarks reporting throughput together with the allocation rate
+ * (gc.alloc.rate and gc.alloc.rate.norm) measured by the JMH GC profiler.
+ * <p>
+ * Optional arguments are the regular expression selecting benchmarks, e.g. <code>SectorIntegration</code>,
+ * and the name of the JSON file for the results.
+ */
+public class NcdBenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = (args.length > 0 ? args[0] : NcdBenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.include(include)
+				.addProfiler(GCProfiler.class);
+		if (args.length > 1) {
+			options.resultFormat(ResultFormatType.JSON).result(args[1]);
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.benchmark;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.diamond.scisoft.ncd.core.DegreeOfOrientation;
+import uk.ac.diamond.scisoft.ncd.core.SaxsInvariant;
+import uk.ac.diamond.scisoft.ncd.core.data.SaxsAnalysisPlotType;
+import uk.ac.diamond.scisoft.ncd.core.data.plots.SaxsPlotData;
+
+/**
+ * Throughput of the kernels working on integrated profiles. Profiles have the number
+ * of points produced by sector integration of a detector frame of the given size,
+ * i.e. half of the frame width for radial and full width for azimuthal profiles.
+ * Masking only affects the detector frames, so there are no masked variants.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ProfileKernelBenchmark {
+
+	private static final int SYMMETRY_FOLDS = 2;
+
+	@Param({ "1024", "2048", "4096" })
+	public int size;
+
+	@Param({ "float", "double" })
+	public String type;
+
+	private int[] radialDimensions;
+	private Serializable radialData;
+	private double[] radialErrors;
+	private double[] qaxis;
+
+	private int[] azimuthalDimensions;
+	private Serializable azimuthalData;
+	private double[] angles;
+
+	private Dataset profile;
+	private Dataset axis;
+
+	private SaxsInvariant saxsInvariant;
+	private DegreeOfOrientation degreeOfOrientation;
+
+	@Setup
+	public void setup() {
+		boolean isDouble = "double".equals(type);
+
+		int radialPoints = size / 2;
+		radialDimensions = new int[] { 1, radialPoints };
+		qaxis = SyntheticData.createQAxis(radialPoints);
+		float[] radialProfile = SyntheticData.createProfile(qaxis);
+		radialErrors = SyntheticData.createVariances(radialProfile);
+		radialData = (isDouble ? SyntheticData.toDouble(radialProfile) : radialProfile);
+
+		int azimuthalPoints = size;
+		azimuthalDimensions = new int[] { 1, azimuthalPoints };
+		angles = SyntheticData.createAngleAxis(azimuthalPoints);
+		float[] azimuthalProfile = SyntheticData.createAzimuthalProfile(angles);
+		azimuthalData = (isDouble ? SyntheticData.toDouble(azimuthalProfile) : azimuthalProfile);
+
+		profile = DatasetFactory.createFromObject(radialData, radialDimensions);
+		profile.setErrorBuffer(DatasetFactory.createFromObject(radialErrors, radialDimensions));
+		axis = DatasetFactory.createFromObject(qaxis, radialDimensions);
+
+		saxsInvariant = new SaxsInvariant();
+		degreeOfOrientation = new DegreeOfOrientation();
+	}
+
+	/**
+	 * Plot type is a separate state, so that only the plot data benchmarks run for every type
+	 */
+	@State(Scope.Benchmark)
+	public static class PlotState {
+
+		@Param({ "LOGNORM_PLOT", "LOGLOG_PLOT", "GUINIER_PLOT", "POROD_PLOT", "KRATKY_PLOT", "ZIMM_PLOT",
+				"DEBYE_BUECHE_PLOT", "POROD_BACKGROUND_PLOT" })
+		public String plot;
+
+		private SaxsPlotData plotData;
+
+		@Setup
+		public void setup() {
+			plotData = SaxsAnalysisPlotType.valueOf(plot).getSaxsPlotDataObject();
+		}
+	}
+
+	@Benchmark
+	public Dataset saxsPlotData(PlotState state) {
+		return state.plotData.getSaxsPlotDataset(profile, axis);
+	}
+
+	@Benchmark
+	public Dataset saxsPlotAxis(PlotState state) {
+		return state.plotData.getSaxsPlotAxis(axis);
+	}
+
+	@Benchmark
+	public Object[] saxsInvariant() {
+		return saxsInvariant.process(radialData, radialErrors, qaxis, radialDimensions);
+	}
+
+	@Benchmark
+	public Object[] degreeOfOrientation() {
+		return degreeOfOrientation.process(azimuthalData, angles, azimuthalDimensions, SYMMETRY_FOLDS);
+	}
+}
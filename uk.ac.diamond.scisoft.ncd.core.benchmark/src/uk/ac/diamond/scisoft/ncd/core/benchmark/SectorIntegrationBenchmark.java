@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.diamond.scisoft.ncd.core.SectorIntegration;
+import uk.ac.diamond.scisoft.ncd.core.SectorIntegrationPlan;
+
+/**
+ * Throughput of the sector integration of a single detector frame into radial and azimuthal profiles.
+ * <p>
+ * Sector geometry is integrated either for every frame with {@link SectorIntegration} alone or using
+ * a precomputed {@link SectorIntegrationPlan}. Area normalisation data and the plan are set up once,
+ * as in the reduction pipeline, and are not included in the measurements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+public class SectorIntegrationBenchmark {
+
+	private static final int FRAMES = 1;
+
+	@Param({ "1024", "2048", "4096" })
+	public int size;
+
+	@Param({ "float", "double" })
+	public String type;
+
+	@Param({ "false", "true" })
+	public boolean masked;
+
+	private Dataset data;
+	private Dataset mask;
+	private SectorIntegration sectorIntegration;
+	private SectorIntegration planIntegration;
+
+	@Setup
+	public void setup() {
+		int[] imageShape = new int[] { size, size };
+		int[] dimensions = new int[] { FRAMES, size, size };
+		float[] frames = SyntheticData.createFrames(FRAMES, size);
+		double[] errors = SyntheticData.createVariances(frames);
+		mask = (masked ? SyntheticData.createMask(size) : null);
+
+		if ("double".equals(type)) {
+			data = DatasetFactory.createFromObject(SyntheticData.toDouble(frames), dimensions);
+		} else {
+			data = DatasetFactory.createFromObject(frames, dimensions);
+		}
+		data.setErrorBuffer(DatasetFactory.createFromObject(errors, dimensions));
+
+		SectorROI sector = SyntheticData.createSector(size);
+		sectorIntegration = new SectorIntegration();
+		sectorIntegration.setROI(sector);
+		sectorIntegration.setFast(true);
+		sectorIntegration.setAreaData(SectorIntegration.getAreaData(imageShape, sector, mask, true, true, true));
+
+		SectorIntegrationPlan plan = SectorIntegrationPlan.create(imageShape, sector, mask);
+		planIntegration = new SectorIntegration();
+		planIntegration.setROI(sector);
+		planIntegration.setFast(true);
+		planIntegration.setAreaData(plan.getAreaData());
+		planIntegration.setIntegrationPlan(plan);
+	}
+
+	@Benchmark
+	public Dataset[] sectorIntegration() {
+		return sectorIntegration.process(data, FRAMES, mask);
+	}
+
+	@Benchmark
+	public Dataset[] sectorIntegrationPlan() {
+		return planIntegration.process(data, FRAMES, mask);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.benchmark;
+
+import java.util.Random;
+
+import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
+import org.eclipse.january.dataset.BooleanDataset;
+import org.eclipse.january.dataset.DatasetFactory;
+
+/**
+ * Synthetic SAXS detector data used as benchmark input. Frames have a square shape with
+ * the beam centre in the middle of the detector and an isotropic scattering pattern.
+ */
+public final class SyntheticData {
+
+	private static final long SEED = 12345L;
+
+	// Detector module size and width of the gaps between modules
+	private static final int MODULE_SIZE = 256;
+	private static final int MODULE_GAP = 8;
+
+	private SyntheticData() {
+	}
+
+	/**
+	 * Create scattering pattern with Poisson-like noise
+	 *
+	 * @param frames
+	 *            - number of frames
+	 * @param size
+	 *            - frame width and height in pixels
+	 * @return frame data stored consecutively
+	 */
+	public static float[] createFrames(int frames, int size) {
+		Random random = new Random(SEED);
+		int frameSize = size * size;
+		float[] data = new float[frames * frameSize];
+		double centre = size / 2.0;
+		double r0 = size / 16.0;
+		for (int n = 0; n < frames; n++) {
+			int offset = n * frameSize;
+			for (int i = 0; i < size; i++) {
+				double dy = (i - centre) / r0;
+				for (int j = 0; j < size; j++) {
+					double dx = (j - centre) / r0;
+					double q2 = 1.0 + dx * dx + dy * dy;
+					double value = 1e5 / (q2 * q2) + 10.0;
+					data[offset + i * size + j] = (float) Math.max(0.0, value + Math.sqrt(value) * random.nextGaussian());
+				}
+			}
+		}
+		return data;
+	}
+
+	public static double[] toDouble(float[] data) {
+		double[] result = new double[data.length];
+		for (int i = 0; i < data.length; i++) {
+			result[i] = data[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Counting statistics error estimates (variances) of the frame data
+	 */
+	public static double[] createVariances(float[] data) {
+		return toDouble(data);
+	}
+
+	/**
+	 * Create detector mask with a beamstop in the middle of the detector
+	 * and horizontal and vertical gaps between detector modules
+	 */
+	public static BooleanDataset createMask(int size) {
+		BooleanDataset mask = DatasetFactory.ones(BooleanDataset.class, size, size);
+		double centre = size / 2.0;
+		double beamstop = size / 32.0;
+		for (int i = 0; i < size; i++) {
+			boolean rowGap = (i % MODULE_SIZE) >= MODULE_SIZE - MODULE_GAP;
+			for (int j = 0; j < size; j++) {
+				boolean columnGap = (j % MODULE_SIZE) >= MODULE_SIZE - MODULE_GAP;
+				double dx = j - centre;
+				double dy = i - centre;
+				if (rowGap || columnGap || dx * dx + dy * dy < beamstop * beamstop) {
+					mask.set(false, i, j);
+				}
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Create full circle integration sector centred on the beam position
+	 */
+	public static SectorROI createSector(int size) {
+		double centre = size / 2.0;
+		SectorROI sector = new SectorROI(centre, centre, size / 32.0, size / 2.0, 0, 2.0 * Math.PI);
+		sector.setAverageArea(false);
+		return sector;
+	}
+
+	/**
+	 * Create radial axis in inverse Angstroms
+	 */
+	public static double[] createQAxis(int points) {
+		double[] axis = new double[points];
+		for (int i = 0; i < points; i++) {
+			axis[i] = 0.005 + 0.3 * i / points;
+		}
+		return axis;
+	}
+
+	/**
+	 * Create SAXS profile with Guinier region and Porod decay matching the q-axis
+	 */
+	public static float[] createProfile(double[] axis) {
+		Random random = new Random(SEED);
+		float[] profile = new float[axis.length];
+		double rg = 30.0;
+		for (int i = 0; i < axis.length; i++) {
+			double q = axis[i];
+			double guinier = Math.exp(-q * q * rg * rg / 3.0);
+			double porod = 1e-3 / Math.pow(q, 4);
+			double value = 1e4 * guinier + Math.min(porod, 1e4) + 1.0;
+			profile[i] = (float) (value * (1.0 + 0.01 * random.nextGaussian()));
+		}
+		return profile;
+	}
+
+	/**
+	 * Create azimuthal profile of an oriented sample with twofold symmetry
+	 *
+	 * @return profile sampled at the azimuthal axis points in degrees
+	 */
+	public static float[] createAzimuthalProfile(double[] angles) {
+		Random random = new Random(SEED);
+		float[] profile = new float[angles.length];
+		for (int i = 0; i < angles.length; i++) {
+			double phi = Math.toRadians(angles[i] - 30.0);
+			double value = 100.0 + 500.0 * Math.exp(2.0 * Math.cos(2.0 * phi));
+			profile[i] = (float) (value * (1.0 + 0.01 * random.nextGaussian()));
+		}
+		return profile;
+	}
+
+	public static double[] createAngleAxis(int points) {
+		double[] axis = new double[points];
+		for (int i = 0; i < points; i++) {
+			axis[i] = 360.0 * i / points;
+		}
+		return axis;
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.core.utils.AdaptiveBatchPlanner;
+
+public class AdaptiveBatchPlannerTest {
+
+	@Test
+	public void testSmallFrames() {
+		// Plan is limited by the number of jobs and the batch limit when frames are small
+		AdaptiveBatchPlanner planner = new AdaptiveBatchPlanner(0.5, 4, 16, 1024);
+		assertEquals(4, planner.getConcurrency());
+		assertEquals(16, planner.getFrameBatch());
+		assertEquals(1024, planner.getFrameBytes());
+	}
+
+	@Test
+	public void testLargeFrames() {
+		// Frames larger than the heap are processed one at a time
+		AdaptiveBatchPlanner planner = new AdaptiveBatchPlanner(0.5, 4, 16, Runtime.getRuntime().maxMemory());
+		assertEquals(1, planner.getConcurrency());
+		assertEquals(1, planner.getFrameBatch());
+	}
+
+	@Test
+	public void testMeasuredFootprint() {
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		AdaptiveBatchPlanner planner = new AdaptiveBatchPlanner(0.5, 4, 1000, 1024);
+		int batch = planner.getFrameBatch();
+		int jobs = planner.getConcurrency();
+
+		// Footprint smaller than the estimate doesn't grow the plan until jobs complete
+		planner.recordFootprint(10, 5 * 1024);
+		assertEquals(512, planner.getFrameBytes());
+		assertEquals(batch, planner.getFrameBatch());
+		assertEquals(jobs, planner.getConcurrency());
+
+		// Footprint of a quarter of the heap per frame allows single frame in flight
+		planner.recordFootprint(2, maxMemory / 2);
+		assertEquals(maxMemory / 4, planner.getFrameBytes());
+		assertEquals(1, planner.getFrameBatch());
+		assertTrue(planner.getConcurrency() <= 2);
+
+		// Invalid measurements are ignored
+		planner.recordFootprint(0, 1024);
+		planner.recordFootprint(10, 0);
+		assertEquals(maxMemory / 4, planner.getFrameBytes());
+	}
+
+	@Test
+	public void testMemoryPressure() {
+		TestPlanner planner = new TestPlanner(0.5, 4, 64, 1024);
+		assertEquals(4, planner.getConcurrency());
+		assertEquals(64, planner.getFrameBatch());
+
+		// Heap pool left above its limit by the last collection halves the batch size first
+		planner.poolAboveLimit = true;
+		planner.update();
+		assertEquals(32, planner.getFrameBatch());
+		assertEquals(4, planner.getConcurrency());
+
+		// Heap occupancy above the limit has the same effect
+		planner.poolAboveLimit = false;
+		planner.occupancy = planner.heapLimit + 1;
+		planner.update();
+		assertEquals(16, planner.getFrameBatch());
+
+		// Concurrency is reduced once jobs process single frames
+		for (int i = 0; i < 4; i++) {
+			planner.update();
+		}
+		assertEquals(1, planner.getFrameBatch());
+		assertEquals(4, planner.getConcurrency());
+		planner.update();
+		assertEquals(1, planner.getFrameBatch());
+		assertEquals(2, planner.getConcurrency());
+
+		// Occupancy close to the limit keeps the plan
+		planner.occupancy = planner.heapLimit - 1;
+		planner.update();
+		assertEquals(1, planner.getFrameBatch());
+		assertEquals(2, planner.getConcurrency());
+
+		// Low occupancy restores concurrency before growing the batch
+		planner.occupancy = 0;
+		planner.update();
+		assertEquals(3, planner.getConcurrency());
+		planner.update();
+		assertEquals(4, planner.getConcurrency());
+		assertEquals(1, planner.getFrameBatch());
+		planner.update();
+		assertEquals(4, planner.getConcurrency());
+		assertEquals(2, planner.getFrameBatch());
+	}
+
+	@Test
+	public void testCollectionThresholdsUnchanged() {
+		List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		List<Long> thresholds = new ArrayList<Long>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.isCollectionUsageThresholdSupported()) {
+				pools.add(pool);
+				thresholds.add(pool.getCollectionUsageThreshold());
+			}
+		}
+
+		// Planners only read memory usage, so several of them can run at the same time
+		AdaptiveBatchPlanner first = new AdaptiveBatchPlanner(0.5, 2, 8, 1024);
+		AdaptiveBatchPlanner second = new AdaptiveBatchPlanner(0.1, 2, 8, 1024);
+		first.update();
+		second.update();
+		for (int i = 0; i < pools.size(); i++) {
+			assertEquals(pools.get(i).getName(), thresholds.get(i).longValue(), pools.get(i).getCollectionUsageThreshold());
+		}
+	}
+
+	/**
+	 * Planner with heap occupancy and pool state set by the test
+	 */
+	private static class TestPlanner extends AdaptiveBatchPlanner {
+
+		private final long heapLimit;
+		private long occupancy;
+		private boolean poolAboveLimit;
+
+		public TestPlanner(double heapFraction, int maxConcurrency, int maxFrameBatch, long frameBytes) {
+			super(heapFraction, maxConcurrency, maxFrameBatch, frameBytes);
+			heapLimit = (long) (heapFraction * Runtime.getRuntime().maxMemory());
+		}
+
+		@Override
+		protected long getHeapOccupancy() {
+			return occupancy;
+		}
+
+		@Override
+		protected boolean isPoolAboveLimit() {
+			return poolAboveLimit;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.Slice;
+import org.eclipse.january.dataset.Stats;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.core.data.stats.AndersonDarlingNormalityTest;
+import uk.ac.diamond.scisoft.ncd.core.data.stats.FilterData;
+import uk.ac.diamond.scisoft.ncd.core.data.stats.SaxsAnalysisStatsParameters;
+
+public class FilterDataTest {
+
+	private static final int WINDOW = 10;
+	private static final double SIGMA = 10.0;
+
+	@Test
+	public void testStableData() {
+		compareWithReference(createData(300, 0));
+	}
+
+	@Test
+	public void testDriftingData() {
+		// Signal changing after 150 frames should limit the selected range
+		compareWithReference(createData(300, 150));
+	}
+
+	private static Dataset createData(int size, int driftStart) {
+		Random rnd = new Random(12345);
+		double[] values = new double[size];
+		double[] errors = new double[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = 100.0 + rnd.nextGaussian();
+			if (driftStart > 0 && i > driftStart) {
+				values[i] += 0.5 * (i - driftStart);
+			}
+			errors[i] = 1.0 + 0.1 * rnd.nextGaussian();
+		}
+		values[size / 3] = 1000.0;
+		Dataset data = DatasetFactory.createFromObject(values);
+		data.setErrorBuffer(DatasetFactory.createFromObject(errors));
+		return data;
+	}
+
+	private static void compareWithReference(Dataset data) {
+		FilterData filter = new FilterData();
+		filter.setReferenceData(data);
+		Dataset result = filter.getStatsData();
+
+		Dataset expected = referenceMask(data);
+		expected.imultiply(referenceMask(data.getErrors()));
+
+		for (int i = 0; i < data.getSize(); i++) {
+			assertEquals("Mask mismatch at index " + i, expected.getInt(i), result.getInt(i));
+		}
+	}
+
+	/**
+	 * Straightforward implementation that filters and tests every data slice
+	 */
+	private static Dataset referenceMask(Dataset inputData) {
+		int datasize = inputData.getSize();
+		Dataset result = DatasetFactory.ones(new int[] { datasize }, Dataset.INT);
+		AndersonDarlingNormalityTest test = new AndersonDarlingNormalityTest("2.5%");
+		int lastIdxTrue = 0;
+		for (int i = SaxsAnalysisStatsParameters.SAXS_FILTERING_MINPOINTS; i < datasize; i++) {
+			List<Double> filtered = new ArrayList<Double>();
+			for (int idx = 0; idx < i; idx++) {
+				if (isInlier(inputData, idx, i)) {
+					filtered.add(inputData.getDouble(idx));
+				}
+			}
+			boolean accept = !filtered.isEmpty() && test.acceptNullHypothesis(DatasetFactory.createFromList(filtered));
+			if (accept) {
+				lastIdxTrue = i;
+			}
+			result.set(accept, i);
+		}
+		for (int i = 0; i <= lastIdxTrue; i++) {
+			result.set(true, i);
+		}
+
+		Dataset selectedData = inputData.getSlice(new Slice(0, lastIdxTrue + 1));
+		for (int idx = 0; idx < selectedData.getSize(); idx++) {
+			double val = inputData.getDouble(idx);
+			if (Double.isInfinite(val) || Double.isNaN(val) || !isWithin(inputData, idx, selectedData.getSize(), SIGMA)) {
+				result.set(0, idx);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isInlier(Dataset data, int idx, int size) {
+		Dataset slice = data.getSlice(new Slice(Math.max(idx - WINDOW, 0), Math.min(idx + WINDOW + 1, size)));
+		double lowQ = Stats.quantile(slice, 0.25);
+		double highQ = Stats.quantile(slice, 0.75);
+		return Math.abs(data.getDouble(idx) - (highQ + lowQ) / 2.0) < SIGMA * (highQ - lowQ) / 2.0;
+	}
+
+	private static boolean isWithin(Dataset data, int idx, int size, double sigma) {
+		Dataset slice = data.getSlice(new Slice(Math.max(idx - WINDOW, 0), Math.min(idx + WINDOW + 1, size)));
+		double q14 = Stats.quantile(slice, 0.25);
+		double q34 = Stats.quantile(slice, 0.75);
+		return !(Math.abs(data.getDouble(idx) - (q34 + q14) / 2.0) > sigma * (q34 - q14) / 2.0);
+	}
+}
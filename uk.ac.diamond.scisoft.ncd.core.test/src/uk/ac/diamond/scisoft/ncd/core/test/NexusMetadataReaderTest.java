@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.NexusMetadataReader;
+
+public class NexusMetadataReaderTest {
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static String filePath;
+
+	@BeforeClass
+	public static void createFile() throws Exception {
+		filePath = new File(folder.getRoot(), "metadata.nxs").getAbsolutePath();
+		long fileID = H5.H5Fcreate(filePath, HDF5Constants.H5F_ACC_TRUNC, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+		long entryID = NcdNexusUtils.makegroup(fileID, "entry1", "NXentry");
+		long sampleID = NcdNexusUtils.makegroup(entryID, "sample", "NXsample");
+
+		String title = "Test scan";
+		long textType = H5.H5Tcopy(HDF5Constants.H5T_C_S1);
+		H5.H5Tset_size(textType, title.length() + 4);
+		long titleID = NcdNexusUtils.makedata(entryID, "title", textType, new long[] { 1 });
+		byte[] buffer = new byte[title.length() + 4];
+		System.arraycopy(title.getBytes(), 0, buffer, 0, title.length());
+		H5.H5Dwrite(titleID, textType, HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL, HDF5Constants.H5P_DEFAULT, buffer);
+
+		long scanID = NcdNexusUtils.makedata(entryID, "scan_identifier", HDF5Constants.H5T_NATIVE_INT32, new long[] { 1 });
+		H5.H5Dwrite(scanID, HDF5Constants.H5T_NATIVE_INT32, HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL, HDF5Constants.H5P_DEFAULT, new int[] { 12345 });
+
+		long thicknessID = NcdNexusUtils.makedata(sampleID, "thickness", HDF5Constants.H5T_NATIVE_DOUBLE, new long[] { 2 }, false, "mm");
+		H5.H5Dwrite(thicknessID, HDF5Constants.H5T_NATIVE_DOUBLE, HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL, HDF5Constants.H5P_DEFAULT, new double[] { 1.5, 2.5 });
+
+		H5.H5Dclose(thicknessID);
+		H5.H5Dclose(scanID);
+		H5.H5Dclose(titleID);
+		H5.H5Tclose(textType);
+		H5.H5Gclose(sampleID);
+		H5.H5Gclose(entryID);
+		H5.H5Fclose(fileID);
+	}
+
+	@Test
+	public void testReadMetadata() throws Exception {
+		NexusMetadataReader reader = new NexusMetadataReader(filePath);
+		try {
+			assertEquals("Test scan", reader.readString("/entry1/title"));
+			assertEquals("12345", reader.readString("/entry1/scan_identifier"));
+			assertEquals(1.5, reader.readDouble("/entry1/sample/thickness"), 1e-12);
+			assertEquals("mm", reader.readStringAttribute("/entry1/sample/thickness", "units"));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testMissingNodes() throws Exception {
+		NexusMetadataReader reader = new NexusMetadataReader(filePath);
+		try {
+			assertTrue(reader.exists("/entry1/sample"));
+			assertFalse(reader.exists("/entry1/detector/data"));
+			assertNull(reader.readString("/entry1/scan_command"));
+			assertNull(reader.readDouble("/entry1/instrument/thickness"));
+			assertNull(reader.readStringAttribute("/entry1/title", "units"));
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.core.data.stats.PixelSeriesSampler;
+import uk.ac.diamond.scisoft.ncd.core.data.stats.ReservoirSampler;
+
+public class PixelSeriesSamplerTest {
+
+	@Test
+	public void testSeriesFromFrameBlocks() {
+		int frameSize = 12;
+		int numFrames = 7;
+		int[] pixels = new int[] { 0, 5, 11, 5 };
+		PixelSeriesSampler sampler = new PixelSeriesSampler(frameSize, pixels, numFrames);
+
+		// Frames are added in blocks of different size, value encodes frame and pixel index
+		int frame = 0;
+		for (int blockSize : new int[] { 3, 3, 1 }) {
+			int[] block = new int[blockSize * frameSize];
+			for (int i = 0; i < block.length; i++) {
+				block[i] = 100 * (frame + i / frameSize) + i % frameSize;
+			}
+			Dataset data = DatasetFactory.createFromObject(block).reshape(blockSize, 3, 4);
+			sampler.add(data);
+			frame += blockSize;
+		}
+		assertEquals(numFrames, sampler.getFrameCount());
+
+		for (int i = 0; i < pixels.length; i++) {
+			float[] series = sampler.getSeries(i);
+			for (int f = 0; f < numFrames; f++) {
+				assertEquals(100 * f + pixels[i], series[f], 0.0);
+			}
+		}
+
+		float[] sum = new float[numFrames];
+		sampler.sumSeries(new int[] { 0, 2 }, sum);
+		for (int f = 0; f < numFrames; f++) {
+			assertEquals(200 * f + 11, sum[f], 0.0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPartialFrame() {
+		PixelSeriesSampler sampler = new PixelSeriesSampler(4, new int[] { 1 }, 2);
+		sampler.add(DatasetFactory.createFromObject(new float[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void testReservoirSample() {
+		ReservoirSampler sampler = new ReservoirSampler(5, new Random(1234));
+		for (int i = 0; i < 3; i++) {
+			sampler.offer(i);
+		}
+		assertArrayEquals(new int[] { 0, 1, 2 }, sampler.getSample());
+
+		int population = 1000;
+		for (int i = 3; i < population; i++) {
+			sampler.offer(i);
+		}
+		assertEquals(population, sampler.getCount());
+		int[] sample = sampler.getSample();
+		assertEquals(5, sample.length);
+		Set<Integer> values = new HashSet<Integer>();
+		for (int value : sample) {
+			assertTrue(value >= 0 && value < population);
+			values.add(value);
+		}
+		assertEquals(5, values.size());
+	}
+
+	@Test
+	public void testReservoirUniformity() {
+		int population = 20;
+		int size = 4;
+		int trials = 20000;
+		int[] hits = new int[population];
+		Random random = new Random(4321);
+		for (int t = 0; t < trials; t++) {
+			ReservoirSampler sampler = new ReservoirSampler(size, random);
+			for (int i = 0; i < population; i++) {
+				sampler.offer(i);
+			}
+			for (int value : sampler.getSample()) {
+				hits[value]++;
+			}
+		}
+		double expected = (double) trials * size / population;
+		for (int i = 0; i < population; i++) {
+			assertEquals(expected, hits[i], 0.05 * expected);
+		}
+	}
+}
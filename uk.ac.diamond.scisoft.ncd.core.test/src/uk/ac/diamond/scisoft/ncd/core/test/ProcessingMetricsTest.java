@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.core.utils.IStageMetricsListener;
+import uk.ac.diamond.scisoft.ncd.core.utils.LatencyHistogram;
+import uk.ac.diamond.scisoft.ncd.core.utils.ProcessingMetrics;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
+
+public class ProcessingMetricsTest {
+
+	private static final long MICROSECOND = 1000L;
+	private static final long MILLISECOND = 1000000L;
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(0.5));
+
+		// 90 short and 10 long operations
+		for (int i = 0; i < 90; i++) {
+			histogram.record(5 * MICROSECOND);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(3 * MILLISECOND);
+		}
+		histogram.record(-1);
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(90 * 5 * MICROSECOND + 10 * 3 * MILLISECOND, histogram.getTotal());
+		assertEquals(3 * MILLISECOND, histogram.getMax());
+		assertEquals(histogram.getTotal() / 100.0, histogram.getMean(), 1e-6);
+
+		// Percentiles are reported as bucket limits within factor of two of the recorded values
+		long median = histogram.getPercentile(0.5);
+		assertTrue(median >= 5 * MICROSECOND && median <= 10 * MICROSECOND);
+		assertEquals(3 * MILLISECOND, histogram.getPercentile(0.95));
+		assertEquals(3 * MILLISECOND, histogram.getPercentile(1.0));
+
+		long total = 0;
+		for (long n : histogram.getCounts()) {
+			total += n;
+		}
+		assertEquals(100, total);
+	}
+
+	@Test
+	public void testStageMetrics() throws Exception {
+		StageMetrics stage = new StageMetrics("Normalisation");
+		stage.start();
+		Thread.sleep(20);
+		stage.stop();
+		stage.addFrames(100);
+		stage.addBytesIn(4000);
+		stage.addBytesOut(2000);
+		stage.addBytesOut(2000);
+
+		long elapsed = stage.getElapsedTime();
+		assertTrue(elapsed >= 20 * MILLISECOND);
+		assertEquals(elapsed, stage.getElapsedTime());
+		assertEquals(100, stage.getFrames());
+		assertEquals(4000, stage.getBytesIn());
+		assertEquals(4000, stage.getBytesOut());
+		assertEquals(100 * 1e9 / elapsed, stage.getFramesPerSecond(), 1e-6);
+		assertTrue(stage.getGCTime() >= 0 && stage.getGCCount() >= 0);
+
+		// Repeated measurements accumulate
+		stage.start();
+		stage.stop();
+		assertTrue(stage.getElapsedTime() >= elapsed);
+	}
+
+	@Test
+	public void testStageReport() {
+		ProcessingMetrics metrics = new ProcessingMetrics();
+		StageMetrics sector = metrics.getStage("Sector Integration");
+		StageMetrics average = metrics.getStage("Average");
+		assertSame(sector, metrics.getStage("Sector Integration"));
+
+		List<StageMetrics> stages = metrics.getStages();
+		assertEquals(2, stages.size());
+		assertSame(sector, stages.get(0));
+		assertSame(average, stages.get(1));
+
+		final StageMetrics[] reported = new StageMetrics[1];
+		class ListenerMonitor extends NullProgressMonitor implements IStageMetricsListener {
+			@Override
+			public void stageCompleted(StageMetrics stage) {
+				reported[0] = stage;
+			}
+		}
+		ProcessingMetrics.report(new NullProgressMonitor(), sector);
+		ProcessingMetrics.report(new ListenerMonitor(), average);
+		assertSame(average, reported[0]);
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import javax.measure.quantity.Length;
+import javax.measure.unit.NonSI;
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+
+import org.eclipse.january.dataset.Dataset;
+import org.jscience.physics.amount.Amount;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVector;
+import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVectorOverDistance;
+import uk.ac.diamond.scisoft.ncd.core.utils.QAxisCalculator;
+
+public class QAxisCalculatorTest {
+
+	private static final int POINTS = 500;
+	private static final double OFFSET = 12.5;
+
+	private static Unit<ScatteringVector> angstrom = NonSI.ANGSTROM.inverse().asType(ScatteringVector.class);
+	private static Unit<ScatteringVector> nanometre = SI.NANO(SI.METRE).inverse().asType(ScatteringVector.class);
+	private static Amount<Length> pxSize = Amount.valueOf(0.172, SI.MILLIMETER);
+	private static Amount<ScatteringVectorOverDistance> gradient = Amount.valueOf(0.1, 0.002,
+			angstrom.divide(SI.MILLIMETER).asType(ScatteringVectorOverDistance.class));
+	private static Amount<ScatteringVector> intercept = Amount.valueOf(0.2, 0.01, angstrom);
+
+	private static void checkQAxis(Unit<ScatteringVector> unit) {
+		QAxisCalculator calculator = new QAxisCalculator(gradient, intercept, pxSize, unit);
+		Dataset qaxis = calculator.createDataset(POINTS, OFFSET, true);
+		Dataset qaxisErr = qaxis.getErrors();
+		assertEquals(Dataset.FLOAT32, qaxis.getDType());
+		assertEquals(POINTS, qaxis.getSize());
+		for (int i = 0; i < POINTS; i++) {
+			Amount<ScatteringVector> expected = gradient.times(i + OFFSET).times(pxSize).plus(intercept).to(unit);
+			double value = expected.getEstimatedValue();
+			double error = expected.getAbsoluteError();
+			assertEquals(value, calculator.getValue(i + OFFSET), 1e-12 * Math.abs(value));
+			assertEquals(error, calculator.getError(i + OFFSET), 1e-9 * error);
+			assertEquals((float) value, qaxis.getFloat(i), Math.ulp((float) value));
+			assertEquals((float) error, qaxisErr.getFloat(i), Math.ulp((float) error));
+		}
+	}
+
+	@Test
+	public void testQAxis() {
+		checkQAxis(angstrom);
+	}
+
+	@Test
+	public void testQAxisUnitConversion() {
+		checkQAxis(nanometre);
+	}
+
+	@Test
+	public void testQAxisWithoutErrors() {
+		QAxisCalculator calculator = new QAxisCalculator(gradient, intercept, pxSize, angstrom);
+		Dataset qaxis = calculator.createDataset(POINTS, 0.0, false);
+		assertNull(qaxis.getErrors());
+		assertEquals(0.2, qaxis.getDouble(0), 1e-6);
+		assertEquals(0.2 + 0.1 * 0.172 * (POINTS - 1), qaxis.getDouble(POINTS - 1), 1e-4);
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.core.BackgroundSubtraction;
+import uk.ac.diamond.scisoft.ncd.core.DetectorResponse;
+import uk.ac.diamond.scisoft.ncd.core.Normalisation;
+
+public class ReductionKernelsTest {
+
+	private static final int frames = 4;
+	private static final int[] shape = new int[] { frames, 16, 8 };
+	private static final int frameSize = 16 * 8;
+	private static final float delta = 1e-6f;
+
+	private static float[] data;
+	private static double[] errors;
+	private static float[] calib;
+	private static FloatDataset response;
+	private static FloatDataset background;
+
+	@BeforeClass
+	public static void setUp() {
+		data = new float[frames * frameSize];
+		errors = new double[frames * frameSize];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = i % 97 + 1.5f;
+			errors[i] = data[i];
+		}
+		calib = new float[] { 2.0f, 4.0f, 0.0f, 8.0f };
+
+		response = DatasetFactory.zeros(FloatDataset.class, 16, 8);
+		background = DatasetFactory.zeros(FloatDataset.class, 16, 8);
+		for (int i = 0; i < frameSize; i++) {
+			response.setAbs(i, 0.5f + i % 3);
+			background.setAbs(i, i % 5);
+		}
+		background.setErrorBuffer(DatasetFactory.createFromObject(DoubleDataset.class, background.getData(), background.getShape()));
+	}
+
+	@Test
+	public void testDetectorResponse() {
+		DetectorResponse dr = new DetectorResponse();
+		dr.setResponse(response);
+
+		float[] result = new float[data.length];
+		double[] resultErrors = new double[errors.length];
+		dr.process(data, errors, frames, shape, result, resultErrors);
+
+		for (int i = 0; i < data.length; i++) {
+			float r = response.getAbs(i % frameSize);
+			assertEquals(r * data[i], result[i], delta);
+			assertEquals(r * r * errors[i], resultErrors[i], delta);
+		}
+
+		Object[] legacy = dr.process(data, errors, frames, shape);
+		assertArrayEquals((float[]) legacy[0], result, 0.0f);
+		assertArrayEquals((double[]) legacy[1], resultErrors, 0.0);
+	}
+
+	@Test
+	public void testNormalisation() {
+		Normalisation nm = new Normalisation();
+		nm.setCalibChannel(0);
+		nm.setNormvalue(10.0);
+
+		float[] result = new float[data.length];
+		double[] resultErrors = new double[errors.length];
+		nm.process(data, errors, calib, frames, shape, new int[] { frames, 1 }, result, resultErrors);
+
+		for (int i = 0; i < data.length; i++) {
+			float cal = calib[i / frameSize];
+			double scale = 10.0 / (cal == 0 ? 1 : cal);
+			assertEquals(scale * data[i], result[i], delta * result[i]);
+			assertEquals(scale * scale * errors[i], resultErrors[i], delta * resultErrors[i]);
+		}
+	}
+
+	@Test
+	public void testBackgroundSubtraction() {
+		BackgroundSubtraction bs = new BackgroundSubtraction();
+		bs.setBackground(background);
+
+		// In-place processing of a copy of the input buffers
+		float[] result = data.clone();
+		double[] resultErrors = errors.clone();
+		bs.process(result, resultErrors, shape, result, resultErrors);
+
+		for (int i = 0; i < data.length; i++) {
+			assertEquals(data[i] - background.getAbs(i % frameSize), result[i], delta);
+			assertEquals(errors[i] + background.getAbs(i % frameSize), resultErrors[i], delta);
+		}
+	}
+
+	@Test
+	public void testKernelsDoNotAllocate() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+		DetectorResponse dr = new DetectorResponse();
+		dr.setResponse(response);
+		Normalisation nm = new Normalisation();
+		nm.setCalibChannel(0);
+		BackgroundSubtraction bs = new BackgroundSubtraction();
+		bs.setBackground(background);
+
+		float[] result = new float[data.length];
+		double[] resultErrors = new double[errors.length];
+		int[] cshape = new int[] { frames, 1 };
+		// Warm up background matching cache
+		bs.process(data, errors, shape, result, resultErrors);
+
+		long threadId = Thread.currentThread().getId();
+		long start = threadBean.getThreadAllocatedBytes(threadId);
+		for (int n = 0; n < 100; n++) {
+			dr.process(data, errors, frames, shape, result, resultErrors);
+			nm.process(result, resultErrors, calib, frames, shape, cshape, result, resultErrors);
+			bs.process(result, resultErrors, shape, result, resultErrors);
+		}
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - start;
+
+		// Allow for the allocation counter overhead, but not for any per-frame buffers
+		assertTrue("Kernels allocated " + allocated + " bytes", allocated < frameSize * 4);
+	}
+}
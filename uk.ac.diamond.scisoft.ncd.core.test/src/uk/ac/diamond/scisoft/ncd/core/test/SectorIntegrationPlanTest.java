@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
+import org.eclipse.january.dataset.BooleanDataset;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
+import uk.ac.diamond.scisoft.ncd.core.SectorIntegration;
+import uk.ac.diamond.scisoft.ncd.core.SectorIntegrationPlan;
+
+public class SectorIntegrationPlanTest {
+
+	private static final int[] imageShape = new int[] { 48, 64 };
+
+	private Dataset createFrame(double value) {
+		Dataset frame = DatasetFactory.ones(imageShape, Dataset.FLOAT32).imultiply(value);
+		frame.setErrorBuffer(DatasetFactory.ones(imageShape, Dataset.FLOAT64));
+		return frame;
+	}
+
+	private SectorROI createSector() {
+		SectorROI sector = new SectorROI(20, 16, 2, 40, 0, Math.PI / 2);
+		sector.setAverageArea(false);
+		return sector;
+	}
+
+	@Test
+	public void testConstantFrame() {
+		SectorIntegrationPlan plan = SectorIntegrationPlan.create(imageShape, createSector(), null);
+		Dataset[] area = plan.getAreaData();
+		Dataset[] result = plan.integrate(createFrame(3.0), true, true, true);
+		for (int i = 0; i < plan.getRadialBins(); i++) {
+			assertEquals("Radial profile of constant frame", 3.0 * area[0].getDouble(i), result[0].getDouble(i), 1e-4);
+		}
+		for (int i = 0; i < plan.getAzimuthalBins(); i++) {
+			assertEquals("Azimuthal profile of constant frame", 3.0 * area[1].getDouble(i), result[1].getDouble(i), 1e-4);
+		}
+		// Both profiles integrate the same set of pixels
+		assertEquals("Total intensity", ((Number) result[0].sum()).doubleValue(), ((Number) result[1].sum()).doubleValue(), 1e-3);
+		// Whole pixels have unit weights, so variances add up to the bin area
+		for (int i = 0; i < plan.getRadialBins(); i++) {
+			assertEquals("Radial profile errors", area[0].getDouble(i), result[0].getErrorBuffer().getDouble(i), 1e-6);
+		}
+	}
+
+	@Test
+	public void testMask() {
+		BooleanDataset mask = DatasetFactory.ones(BooleanDataset.class, imageShape);
+		for (int i = 0; i < imageShape[0]; i++) {
+			mask.set(false, i, 30);
+		}
+		SectorROI sector = createSector();
+		SectorIntegrationPlan plan = SectorIntegrationPlan.create(imageShape, sector, null);
+		SectorIntegrationPlan maskedPlan = SectorIntegrationPlan.create(imageShape, sector, mask);
+		double total = ((Number) plan.getAreaData()[0].sum()).doubleValue();
+		double maskedTotal = ((Number) maskedPlan.getAreaData()[0].sum()).doubleValue();
+		assertTrue("Masked pixels are excluded", maskedTotal < total);
+
+		assertTrue(maskedPlan.isCompatible(imageShape, sector, mask));
+		assertFalse(maskedPlan.isCompatible(imageShape, sector, null));
+		assertTrue(plan.isCompatible(imageShape, sector, null));
+
+		// Masks are compared by contents
+		assertTrue(maskedPlan.isCompatible(imageShape, sector, mask.clone()));
+		assertTrue(maskedPlan.isCompatible(imageShape, sector, mask.cast(Dataset.INT32)));
+		mask.set(false, 0, 0);
+		assertFalse(maskedPlan.isCompatible(imageShape, sector, mask));
+	}
+
+	@Test
+	public void testSectorIntegration() {
+		SectorROI sector = createSector();
+		SectorIntegrationPlan plan = SectorIntegrationPlan.create(imageShape, sector, null);
+
+		int frames = 3;
+		Dataset data = DatasetFactory.zeros(new int[] { frames, imageShape[0], imageShape[1] }, Dataset.FLOAT32);
+		DoubleDataset errors = DatasetFactory.zeros(DoubleDataset.class, frames, imageShape[0], imageShape[1]);
+		for (int n = 0; n < frames; n++) {
+			for (int i = 0; i < imageShape[0]; i++) {
+				for (int j = 0; j < imageShape[1]; j++) {
+					data.set(n + i + j, n, i, j);
+					errors.set(n + i + j, n, i, j);
+				}
+			}
+		}
+		data.setErrorBuffer(errors);
+
+		SectorIntegration sec = new SectorIntegration();
+		sec.setROI(sector);
+		sec.setFast(true);
+		sec.setIntegrationPlan(plan);
+		Dataset[] result = sec.process(data, frames, null);
+
+		for (int n = 0; n < frames; n++) {
+			Dataset frame = data.getSlice(new int[] { n, 0, 0 }, new int[] { n + 1, imageShape[0], imageShape[1] }, null).squeeze();
+			Dataset[] expected = plan.integrate(frame, true, true, true);
+			for (int i = 0; i < plan.getRadialBins(); i++) {
+				assertEquals("Radial profile", expected[0].getDouble(i), result[1].getDouble(n, i), 1e-6 * expected[0].getDouble(i));
+				assertEquals("Radial profile errors", expected[0].getError(i), result[1].getError(n, i), 1e-6 * expected[0].getError(i));
+			}
+			for (int i = 0; i < plan.getAzimuthalBins(); i++) {
+				assertEquals("Azimuthal profile", expected[1].getDouble(i), result[0].getDouble(n, i), 1e-6 * expected[1].getDouble(i));
+			}
+		}
+	}
+
+	private void checkProfile(String message, Dataset expected, Dataset result) {
+		assertEquals(message + " bins", expected.getSize(), result.getSize());
+		for (int i = 0; i < expected.getSize(); i++) {
+			double value = expected.getDouble(i);
+			assertEquals(String.format("%s at bin %d", message, i), value, result.getDouble(i), 1e-6 * Math.max(1.0, Math.abs(value)));
+			if (expected.hasErrors()) {
+				double error = expected.getError(i);
+				assertEquals(String.format("%s error at bin %d", message, i), error, result.getError(i), 1e-6 * Math.max(1.0, error));
+			}
+		}
+	}
+
+	private void checkROIProfile(SectorROI sector, BooleanDataset mask) {
+		Random rand = new Random(1234);
+		Dataset frame = DatasetFactory.zeros(imageShape, Dataset.FLOAT32);
+		DoubleDataset errors = DatasetFactory.zeros(DoubleDataset.class, imageShape);
+		for (int i = 0; i < imageShape[0]; i++) {
+			for (int j = 0; j < imageShape[1]; j++) {
+				double value = 100.0 * rand.nextDouble() + i;
+				frame.set(value, i, j);
+				errors.set(value, i, j);
+			}
+		}
+		frame.setErrorBuffer(errors);
+
+		SectorIntegrationPlan plan = SectorIntegrationPlan.create(imageShape, sector, mask);
+		Dataset[] area = ROIProfile.area(imageShape, Dataset.FLOAT64, mask, sector, true, true, true);
+		Dataset[] planArea = plan.getAreaData();
+		checkProfile("Radial area", area[0], planArea[0]);
+		checkProfile("Azimuthal area", area[1], planArea[1]);
+
+		Dataset[] expected = ROIProfile.sector(frame, mask, sector, true, true, true, null, null, true);
+		Dataset[] result = plan.integrate(frame, true, true, true);
+		checkProfile("Radial profile", expected[0], result[0]);
+		checkProfile("Azimuthal profile", expected[1], result[1]);
+	}
+
+	@Test
+	public void testROIProfileEquivalence() {
+		// Non-zero inner radius, partial azimuthal range and a centre away from pixel corners
+		SectorROI sector = new SectorROI(27.3, 19.6, 4.5, 38, Math.PI / 6, 5 * Math.PI / 6);
+		sector.setAverageArea(false);
+		checkROIProfile(sector, null);
+
+		Random rand = new Random(4321);
+		BooleanDataset mask = DatasetFactory.ones(BooleanDataset.class, imageShape);
+		for (int i = 0; i < imageShape[0]; i++) {
+			for (int j = 0; j < imageShape[1]; j++) {
+				if (rand.nextDouble() < 0.1) {
+					mask.set(false, i, j);
+				}
+			}
+			mask.set(false, i, 40);
+		}
+		checkROIProfile(sector, mask);
+
+		SectorROI fullSector = new SectorROI(27.3, 19.6, 4.5, 38, 0, Math.PI);
+		fullSector.setSymmetry(SectorROI.FULL);
+		fullSector.setAverageArea(false);
+		checkROIProfile(fullSector, mask);
+	}
+
+	@Test
+	public void testAreaCacheMaskEdit() {
+		SectorROI sector = createSector();
+		BooleanDataset mask = DatasetFactory.ones(BooleanDataset.class, imageShape);
+		Dataset[] area = SectorIntegration.getAreaData(imageShape, sector, mask, true, true, true);
+		double total = ((Number) area[0].sum()).doubleValue();
+		assertTrue("Cached area is reused for unchanged mask",
+				area == SectorIntegration.getAreaData(imageShape, sector, mask, true, true, true));
+
+		// Edit mask in place
+		for (int i = 0; i < imageShape[0]; i++) {
+			mask.set(false, i, 30);
+		}
+		Dataset[] maskedArea = SectorIntegration.getAreaData(imageShape, sector, mask, true, true, true);
+		Dataset[] expected = ROIProfile.area(imageShape, Dataset.FLOAT32, mask, sector, true, true, true);
+		assertTrue("Masked pixels are excluded", ((Number) maskedArea[0].sum()).doubleValue() < total);
+		checkProfile("Radial area of edited mask", expected[0], maskedArea[0]);
+		checkProfile("Azimuthal area of edited mask", expected[1], maskedArea[1]);
+
+		// Equal mask contents in a different instance
+		assertTrue("Cached area is matched on mask contents",
+				maskedArea == SectorIntegration.getAreaData(imageShape, sector, mask.clone(), true, true, true));
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.core.data.SliceGenerator;
+import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+
+public class SliceGeneratorTest {
+
+	// Four frame dimensions followed by 16x16 images
+	private static final long[] frames = new long[] {2, 3, 5, 4, 16, 16};
+	private static final int frameRank = 4;
+
+	@Test
+	public void testStepFrames() {
+		assertEquals(3 * 5 * 4, new SliceGenerator(frames, 0, frameRank).getStepFrames());
+		assertEquals(5 * 4, new SliceGenerator(frames, 1, frameRank).getStepFrames());
+		assertEquals(1, new SliceGenerator(frames, 3, frameRank).getStepFrames());
+	}
+
+	@Test
+	public void testChangingSteps() {
+		int[] steps = new int[] {1, 3, 2, 7, 1, 4};
+		for (int sliceDim = 0; sliceDim < frameRank; sliceDim++) {
+			SliceGenerator slices = new SliceGenerator(frames, sliceDim, frameRank);
+			boolean[] covered = new boolean[getFrameCount()];
+			int i = 0;
+			while (slices.hasNext()) {
+				SliceSettings slice = slices.next(steps[i++ % steps.length]);
+				cover(covered, slice);
+			}
+			assertCovered(covered);
+		}
+	}
+
+	@Test
+	public void testChangingBatch() {
+		// Frame batch as planned for consecutive jobs, including batches smaller than a single step
+		int[] batches = new int[] {7, 45, 100, 20, 61, 300, 1, 39};
+		int sliceDim = 1;
+		SliceGenerator slices = new SliceGenerator(frames, sliceDim, frameRank);
+		int stepFrames = slices.getStepFrames();
+		boolean[] covered = new boolean[getFrameCount()];
+		int i = 0;
+		while (slices.hasNext()) {
+			int batch = batches[i++ % batches.length];
+			SliceSettings slice = slices.nextBatch(batch);
+			int sliceFrames = slice.getSliceSize() * stepFrames;
+			assertTrue("Slice exceeds frame batch", sliceFrames <= Math.max(batch, stepFrames));
+			cover(covered, slice);
+		}
+		assertCovered(covered);
+	}
+
+	@Test
+	public void testEmptyDimension() {
+		SliceGenerator slices = new SliceGenerator(new long[] {2, 0, 5, 16, 16}, 1, 3);
+		assertFalse(slices.hasNext());
+	}
+
+	private static int getFrameCount() {
+		int count = 1;
+		for (int i = 0; i < frameRank; i++) {
+			count *= frames[i];
+		}
+		return count;
+	}
+
+	/**
+	 * Mark every frame in the slice and check that no frame was included in a previous slice
+	 */
+	private static void cover(boolean[] covered, SliceSettings slice) {
+		int sliceDim = slice.getSliceDim();
+		int[] start = slice.getStart();
+		assertEquals(sliceDim + 1, start.length);
+		assertTrue("Slice crosses end of slice dimension",
+				start[sliceDim] + slice.getSliceSize() <= frames[sliceDim]);
+
+		int[] pos = new int[frameRank];
+		System.arraycopy(start, 0, pos, 0, sliceDim + 1);
+		boolean hasNext = true;
+		while (hasNext) {
+			int index = 0;
+			for (int i = 0; i < frameRank; i++) {
+				index = index * (int) frames[i] + pos[i];
+			}
+			assertFalse("Frame " + index + " included in more than one slice", covered[index]);
+			covered[index] = true;
+
+			// Iterate over the slice dimension and all inner frame dimensions
+			int i = frameRank - 1;
+			for (; i > sliceDim; i--) {
+				if (++pos[i] < frames[i]) {
+					break;
+				}
+				pos[i] = 0;
+			}
+			if (i == sliceDim) {
+				hasNext = (++pos[sliceDim] < start[sliceDim] + slice.getSliceSize());
+			}
+		}
+	}
+
+	private static void assertCovered(boolean[] covered) {
+		for (int i = 0; i < covered.length; i++) {
+			assertTrue("Frame " + i + " not included in any slice", covered[i]);
+		}
+	}
+}
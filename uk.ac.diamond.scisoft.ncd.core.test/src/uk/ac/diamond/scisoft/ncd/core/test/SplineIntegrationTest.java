@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.math3.analysis.integration.BaseAbstractUnivariateIntegrator;
+import org.apache.commons.math3.analysis.integration.IterativeLegendreGaussIntegrator;
+import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+import org.apache.commons.math3.exception.OutOfRangeException;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.core.utils.SplineIntegration;
+
+public class SplineIntegrationTest {
+
+	@Test
+	public void testLinearSpline() {
+		// Natural cubic spline reproduces linear data exactly
+		double[] x = new double[] { 0.0, 0.5, 1.5, 2.0, 4.0 };
+		double[] y = new double[x.length];
+		for (int i = 0; i < x.length; i++) {
+			y[i] = 3.0 * x[i] + 1.0;
+		}
+		PolynomialSplineFunction spline = new SplineInterpolator().interpolate(x, y);
+
+		assertEquals(28.0, SplineIntegration.integrate(spline, 0.0, 4.0), 1e-12);
+		assertEquals(14.0, SplineIntegration.integrate(spline, 1.0, 3.0), 1e-12);
+		assertEquals(-28.0, SplineIntegration.integrate(spline, 4.0, 0.0), 1e-12);
+	}
+
+	@Test
+	public void testCompareWithQuadrature() {
+		int size = 200;
+		double[] x = new double[size];
+		double[] y = new double[size];
+		for (int i = 0; i < size; i++) {
+			x[i] = 0.01 * i + 0.001 * (i % 3);
+			y[i] = Math.exp(-x[i]) * Math.sin(5.0 * x[i]) + 0.1 * (i % 7);
+		}
+		PolynomialSplineFunction spline = new SplineInterpolator().interpolate(x, y);
+
+		IterativeLegendreGaussIntegrator integrator = new IterativeLegendreGaussIntegrator(15,
+				BaseAbstractUnivariateIntegrator.DEFAULT_RELATIVE_ACCURACY,
+				BaseAbstractUnivariateIntegrator.DEFAULT_ABSOLUTE_ACCURACY);
+		double expected = integrator.integrate(1000000, spline, x[0], x[size - 1]);
+		assertEquals(expected, SplineIntegration.integrate(spline, x[0], x[size - 1]), 1e-8 * Math.abs(expected));
+
+		expected = integrator.integrate(1000000, spline, 0.123, 1.456);
+		assertEquals(expected, SplineIntegration.integrate(spline, 0.123, 1.456), 1e-8 * Math.abs(expected));
+	}
+
+	@Test(expected = OutOfRangeException.class)
+	public void testOutOfRange() {
+		PolynomialSplineFunction spline = new SplineInterpolator().interpolate(new double[] { 0.0, 1.0, 2.0 },
+				new double[] { 1.0, 2.0, 0.0 });
+		SplineIntegration.integrate(spline, -1.0, 2.0);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.core.StreamingAverage;
+
+public class StreamingAverageTest {
+
+	private static final int FRAMES = 500;
+	private static final int SIZE = 64;
+
+	@Test
+	public void testCompareWithTwoPassAverage() {
+		Random rnd = new Random(1234);
+		double[][] data = new double[FRAMES][SIZE];
+		double[][] variances = new double[FRAMES][SIZE];
+		for (int i = 0; i < FRAMES; i++) {
+			for (int j = 0; j < SIZE; j++) {
+				data[i][j] = 1.0e6 + 100.0 * j + rnd.nextGaussian();
+				variances[i][j] = data[i][j];
+			}
+		}
+
+		// Add frames in batches of different sizes
+		StreamingAverage average = new StreamingAverage(SIZE);
+		int frame = 0;
+		int batch = 1;
+		while (frame < FRAMES) {
+			int frames = Math.min(batch, FRAMES - frame);
+			double[] values = new double[frames * SIZE];
+			double[] errors = new double[frames * SIZE];
+			for (int i = 0; i < frames; i++) {
+				System.arraycopy(data[frame + i], 0, values, i * SIZE, SIZE);
+				System.arraycopy(variances[frame + i], 0, errors, i * SIZE, SIZE);
+			}
+			average.add(values, errors);
+			frame += frames;
+			batch++;
+		}
+		assertEquals(FRAMES, average.getCount());
+
+		double[] mean = new double[SIZE];
+		double[] variance = new double[SIZE];
+		double[] error = new double[SIZE];
+		for (int j = 0; j < SIZE; j++) {
+			double sum = 0.0;
+			double varSum = 0.0;
+			for (int i = 0; i < FRAMES; i++) {
+				sum += data[i][j];
+				varSum += variances[i][j];
+			}
+			mean[j] = sum / FRAMES;
+			error[j] = Math.sqrt(varSum) / FRAMES;
+			double sq = 0.0;
+			for (int i = 0; i < FRAMES; i++) {
+				sq += (data[i][j] - mean[j]) * (data[i][j] - mean[j]);
+			}
+			variance[j] = sq / (FRAMES - 1);
+		}
+
+		assertArrayEquals(mean, average.getMean(), 1e-8);
+		assertArrayEquals(variance, average.getVariance(), 1e-6);
+		assertArrayEquals(error, average.getErrors(), 1e-8);
+	}
+
+	@Test
+	public void testWithoutErrors() {
+		StreamingAverage average = new StreamingAverage(2);
+		average.add(new float[] { 1.0f, 2.0f, 3.0f, 6.0f }, null);
+		assertFalse(average.hasErrors());
+		float[] mean = new float[2];
+		average.getMean(mean);
+		assertEquals(2.0f, mean[0], 0.0f);
+		assertEquals(4.0f, mean[1], 0.0f);
+
+		average.reset();
+		assertEquals(0, average.getCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIncompleteFrame() {
+		new StreamingAverage(3).add(new float[4], null);
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.core.data.stats.WindowedLinearRegression;
+
+public class WindowedLinearRegressionTest {
+
+	private static final double TOL = 1e-9;
+
+	@Test
+	public void testCompareWithSimpleRegression() {
+		int size = 300;
+		double[] x = new double[size];
+		double[] y = new double[size];
+		for (int i = 0; i < size; i++) {
+			double q = 0.001 + 0.0002 * i;
+			x[i] = q * q;
+			y[i] = Math.log(1000.0 * Math.exp(-q * q * 400.0 / 3.0) + 0.5 * Math.sin(i));
+		}
+		WindowedLinearRegression windowRegression = new WindowedLinearRegression(x, y);
+
+		int[][] windows = new int[][] { { 0, size }, { 0, 50 }, { 1, 120 }, { 100, 101 + 2 }, { 37, 299 } };
+		for (int[] window : windows) {
+			SimpleRegression regression = new SimpleRegression();
+			for (int i = window[0]; i < window[1]; i++) {
+				regression.addData(x[i], y[i]);
+			}
+			int start = window[0];
+			int end = window[1];
+			assertEquals(regression.getSlope(), windowRegression.getSlope(start, end), TOL * Math.abs(regression.getSlope()));
+			assertEquals(regression.getIntercept(), windowRegression.getIntercept(start, end), TOL * Math.abs(regression.getIntercept()));
+			assertEquals(regression.getR(), windowRegression.getR(start, end), 1e-7);
+			assertEquals(regression.getSumSquaredErrors(), windowRegression.getSumSquaredErrors(start, end), 1e-7);
+		}
+	}
+
+	@Test
+	public void testNonFiniteValues() {
+		double[] x = new double[] { 0.0, 1.0, 2.0, 3.0, 4.0, 5.0 };
+		double[] y = new double[] { 1.0, 3.0, Double.NEGATIVE_INFINITY, 7.0, 9.0, 11.0 };
+		WindowedLinearRegression windowRegression = new WindowedLinearRegression(x, y);
+
+		assertTrue(Double.isNaN(windowRegression.getSlope(0, 4)));
+		assertEquals(2.0, windowRegression.getSlope(3, 6), TOL);
+		assertEquals(1.0, windowRegression.getIntercept(3, 6), TOL);
+		assertEquals(2.0, windowRegression.getSlope(0, 2), TOL);
+		assertTrue(Double.isNaN(windowRegression.getR(0, 1)));
+	}
+}
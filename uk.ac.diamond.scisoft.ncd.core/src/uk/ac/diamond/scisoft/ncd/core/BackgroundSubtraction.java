@@ -32,10 +32,18 @@ public class BackgroundSubtraction {
 	
 	private FloatDataset background;
 	private DoubleDataset backgroundErrors;
+	
+	// Background buffers reshaped to match the last processed data dimensions
+	private int[] matchedDimensions;
+	private float[] matchedBackground;
+	private double[] matchedErrors;
 
 	public void setBackground(Dataset ds) {
 		background = (FloatDataset) ds.cast(Dataset.FLOAT32);
 		backgroundErrors = (DoubleDataset) ds.getErrorBuffer();
+		matchedDimensions = null;
+		matchedBackground = null;
+		matchedErrors = null;
 	}
 
 	public FloatDataset getBackground() {
@@ -44,19 +52,40 @@ public class BackgroundSubtraction {
 
 	public Object[] process(Serializable buffer, Serializable error, final int[] dimensions) {
 		
-		float[] parentdata = (float[]) ConvertUtils.convert(buffer, float[].class);
-		double[] parenterror = (double[]) ConvertUtils.convert(error, double[].class);
+		float[] parentdata = (buffer instanceof float[]) ? (float[]) buffer : (float[]) ConvertUtils.convert(buffer, float[].class);
+		double[] parenterror = (error instanceof double[]) ? (double[]) error : (double[]) ConvertUtils.convert(error, double[].class);
 		
 		float[] mydata = new float[parentdata.length];
 		double[] myerror = new double[parenterror.length];
 		
-		// first dim is timeframe
-		int[] imagedim = Arrays.copyOfRange(dimensions, 1, dimensions.length);
-
-		int bgsize = 1;
-		for (int n : background.getShape()) {
-			bgsize *= n;
-		}
+		process(parentdata, parenterror, dimensions, mydata, myerror);
+		
+		return new Object[] {mydata, myerror};
+	}
+	
+	/**
+	 * Subtract background writing results into preallocated buffers.
+	 * Background reshaped to the data dimensions is cached, so repeated calls
+	 * with the same dimensions don't allocate memory. Output buffers can be the same
+	 * as the input buffers.
+	 * 
+	 * @param data
+	 *            - input frames
+	 * @param errors
+	 *            - input frame variances
+	 * @param dimensions
+	 *            - input data shape. First dimension is the frame index.
+	 * @param result
+	 *            - output buffer for background subtracted frames
+	 * @param resultErrors
+	 *            - output buffer for background subtracted frame variances
+	 */
+	public void process(float[] data, double[] errors, final int[] dimensions, float[] result, double[] resultErrors) {
+		
+		float[] bgData = background.getData();
+		double[] bgErrors = backgroundErrors.getData();
+		
+		int bgsize = bgData.length;
 		int parentsize = 1;
 		for (int n : dimensions) {
 			parentsize *= n;
@@ -64,39 +93,55 @@ public class BackgroundSubtraction {
 
 		// match
 		if (bgsize == parentsize) {
-			for (int i = 0; i < parentdata.length; i++) {
-				mydata[i] = parentdata[i] - background.getData()[i];
-				myerror[i] = parenterror[i] + backgroundErrors.getData()[i];
+			for (int i = 0; i < data.length; i++) {
+				result[i] = data[i] - bgData[i];
+				resultErrors[i] = errors[i] + bgErrors[i];
 			}
-		} else {
-			float[] mybg = background.getData().clone();
-			double[] myerr = backgroundErrors.getData().clone();
-			if (background.getShape().length >= dimensions.length) {
-				// averaging
-				logger.warn("averaging background to fit data");
-				bgsize = 1;
-				for (int n : imagedim) {
-					bgsize *= n;
-				}
-				mybg = new float[bgsize];
-				myerr = new double[bgsize];
-				double multiplicity = parentdata.length / bgsize;
-				for (int i = 0; i < background.getData().length; i++) {
-					mybg[i % bgsize] += background.getData()[i] / multiplicity;
-					myerr[i % bgsize] += backgroundErrors.getData()[i] / multiplicity;
+			return;
+		}
+		
+		if (!Arrays.equals(dimensions, matchedDimensions)) {
+			matchBackground(data.length, dimensions);
+		}
+		float[] mybg = matchedBackground;
+		double[] myerr = matchedErrors;
+		bgsize = mybg.length;
+		if (parentsize % bgsize == 0) {
+			for (int offset = 0; offset < data.length; offset += bgsize) {
+				for (int j = 0; j < bgsize; j++) {
+					result[offset + j] = data[offset + j] - mybg[j];
+					resultErrors[offset + j] = errors[offset + j] + myerr[j];
 				}
 			}
-			if (parentsize % bgsize == 0) {
-				for (int i = 0; i < parentdata.length; i++) {
-					mydata[i] = parentdata[i] - mybg[i % bgsize];
-					myerror[i] = parenterror[i] + myerr[i % bgsize];
-				}
-			} else {
-				logger.error("background and data sizes incompatible");
+		} else {
+			logger.error("background and data sizes incompatible");
+		}
+	}
+	
+	private void matchBackground(int dataLength, final int[] dimensions) {
+		float[] bgData = background.getData();
+		double[] bgErrors = backgroundErrors.getData();
+		float[] mybg = bgData;
+		double[] myerr = bgErrors;
+		if (background.getRank() >= dimensions.length) {
+			// averaging
+			logger.warn("averaging background to fit data");
+			// first dim is timeframe
+			int bgsize = 1;
+			for (int i = 1; i < dimensions.length; i++) {
+				bgsize *= dimensions[i];
+			}
+			mybg = new float[bgsize];
+			myerr = new double[bgsize];
+			double multiplicity = dataLength / bgsize;
+			for (int i = 0; i < bgData.length; i++) {
+				mybg[i % bgsize] += bgData[i] / multiplicity;
+				myerr[i % bgsize] += bgErrors[i] / multiplicity;
 			}
 		}
-		
-		return new Object[] {mydata, myerror};
+		matchedBackground = mybg;
+		matchedErrors = myerr;
+		matchedDimensions = dimensions.clone();
 	}
 	
 	@Deprecated
@@ -19,22 +19,13 @@ package uk.ac.diamond.scisoft.ncd.core;
 import java.io.Serializable;
 
 import org.apache.commons.beanutils.ConvertUtils;
-import org.apache.commons.math3.analysis.UnivariateFunction;
-import org.apache.commons.math3.analysis.integration.BaseAbstractUnivariateIntegrator;
-import org.apache.commons.math3.analysis.integration.IterativeLegendreGaussIntegrator;
-import org.apache.commons.math3.analysis.integration.UnivariateIntegrator;
 import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
-import org.apache.commons.math3.analysis.interpolation.UnivariateInterpolator;
-import org.apache.commons.math3.exception.MaxCountExceededException;
-import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
 import org.apache.commons.math3.util.MathUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-public class DegreeOfOrientation {
-	private static final Logger logger = LoggerFactory.getLogger(DegreeOfOrientation.class);
+import uk.ac.diamond.scisoft.ncd.core.utils.SplineIntegration;
 
-	private static final int INTEGRATION_POINTS = 1000000;
+public class DegreeOfOrientation {
 
 	public Object[] process(Serializable buffer, Serializable axis, final int[] dimensions, final int symmetryFolds) {
 		
@@ -58,44 +49,33 @@ public class DegreeOfOrientation {
 			sincosdata[i] = sin2alpha * parentdata[i] / 2.0;
 		}
 		
-		UnivariateInterpolator interpolator = new SplineInterpolator();
-		UnivariateFunction function = interpolator.interpolate(myaxis, mydata);
-		UnivariateFunction cos2Function = interpolator.interpolate(myaxis, cos2data);
-		UnivariateFunction sin2Function = interpolator.interpolate(myaxis, sin2data);
-		UnivariateFunction sincosFunction = interpolator.interpolate(myaxis, sincosdata);
+		SplineInterpolator interpolator = new SplineInterpolator();
+		PolynomialSplineFunction function = interpolator.interpolate(myaxis, mydata);
+		PolynomialSplineFunction cos2Function = interpolator.interpolate(myaxis, cos2data);
+		PolynomialSplineFunction sin2Function = interpolator.interpolate(myaxis, sin2data);
+		PolynomialSplineFunction sincosFunction = interpolator.interpolate(myaxis, sincosdata);
 		
-		UnivariateIntegrator integrator = new IterativeLegendreGaussIntegrator(15,
-				BaseAbstractUnivariateIntegrator.DEFAULT_RELATIVE_ACCURACY,
-				BaseAbstractUnivariateIntegrator.DEFAULT_ABSOLUTE_ACCURACY);
-
-		try {
-			float cos2mean = (float) integrator.integrate(INTEGRATION_POINTS, cos2Function, myaxis[0], myaxis[myaxis.length - 1]);
-			float sin2mean = (float) integrator.integrate(INTEGRATION_POINTS, sin2Function, myaxis[0], myaxis[myaxis.length - 1]);
-			float sincosmean = (float) integrator.integrate(INTEGRATION_POINTS, sincosFunction, myaxis[0], myaxis[myaxis.length - 1]);
-			float norm = (float) integrator.integrate(INTEGRATION_POINTS, function, myaxis[0], myaxis[myaxis.length - 1]);
-			
-			cos2mean /= norm;
-			sin2mean /= norm;
-			sincosmean /= norm;
-			
-			float result =  (float) Math.sqrt(Math.pow(cos2mean-sin2mean, 2) - 4.0*sincosmean*sincosmean);
-			double angle = MathUtils.normalizeAngle(Math.atan2(2.0*sincosmean, cos2mean-sin2mean) / 2.0, Math.PI);
-			
-			Object[] output = new Object[] {
-					new float[] { result },
-					new float[] { (float) Math.toDegrees(angle) },
-					new float[] { (float) (result * Math.cos(angle)),  (float) (result * Math.sin(angle))},
-					}; 
-			
-			return output;
-			
-		} catch (TooManyEvaluationsException e) {
-			logger.error("Too many evaluations:" + e);
-			return new Object[] { new float[] { Float.NaN }, new float[] { Float.NaN }, new float[] { Float.NaN } };
-		} catch (MaxCountExceededException e) {
-			logger.error("Max count exceeded:" + e);
-			return new Object[] { new float[] { Float.NaN }, new float[] { Float.NaN }, new float[] { Float.NaN } };
-		}
+		double lower = myaxis[0];
+		double upper = myaxis[myaxis.length - 1];
+		float cos2mean = (float) SplineIntegration.integrate(cos2Function, lower, upper);
+		float sin2mean = (float) SplineIntegration.integrate(sin2Function, lower, upper);
+		float sincosmean = (float) SplineIntegration.integrate(sincosFunction, lower, upper);
+		float norm = (float) SplineIntegration.integrate(function, lower, upper);
+		
+		cos2mean /= norm;
+		sin2mean /= norm;
+		sincosmean /= norm;
+		
+		float result =  (float) Math.sqrt(Math.pow(cos2mean-sin2mean, 2) - 4.0*sincosmean*sincosmean);
+		double angle = MathUtils.normalizeAngle(Math.atan2(2.0*sincosmean, cos2mean-sin2mean) / 2.0, Math.PI);
+		
+		Object[] output = new Object[] {
+				new float[] { result },
+				new float[] { (float) Math.toDegrees(angle) },
+				new float[] { (float) (result * Math.cos(angle)),  (float) (result * Math.sin(angle))},
+				}; 
+		
+		return output;
 	}
 	
 }
@@ -41,30 +41,55 @@ public class DetectorResponse {
 	
 	public Object[] process(Serializable buffer, Serializable error, int frames, final int[] dimensions) {
 		
-		float[] parentdata = (float[]) ConvertUtils.convert(buffer, float[].class);
-		double[] parenterror = (double[]) ConvertUtils.convert(error, double[].class);
+		float[] parentdata = (buffer instanceof float[]) ? (float[]) buffer : (float[]) ConvertUtils.convert(buffer, float[].class);
+		double[] parenterror = (error instanceof double[]) ? (double[]) error : (double[]) ConvertUtils.convert(error, double[].class);
 		
 		float[] mydata = new float[parentdata.length];
 		double[] myerror = new double[parenterror.length];
 		
+		process(parentdata, parenterror, frames, dimensions, mydata, myerror);
+		
+		return new Object[] {mydata, myerror};
+	}
+	
+	/**
+	 * Correct frames for detector response writing results into preallocated buffers.
+	 * Doesn't allocate memory, and output buffers can be the same as the input buffers.
+	 * 
+	 * @param data
+	 *            - input frames
+	 * @param errors
+	 *            - input frame variances
+	 * @param frames
+	 *            - number of frames in the input buffers
+	 * @param dimensions
+	 *            - input data shape. First dimension is the frame index.
+	 * @param result
+	 *            - output buffer for corrected frames
+	 * @param resultErrors
+	 *            - output buffer for corrected frame variances
+	 */
+	public void process(float[] data, double[] errors, int frames, final int[] dimensions, float[] result, double[] resultErrors) {
+		
 		float[] responseBuffer = response.getData();
+		int[] responseShape = response.getShapeRef();
 
 		int dataLength = 1;
 		for (int i = 1; i < dimensions.length; i++) {
-			if (dimensions[i] != response.getShape()[i - 1]) {
+			if (dimensions[i] != responseShape[i - 1]) {
 				logger.error("detector response dataset and image dimensions do not match");
 			}
 			dataLength *= dimensions[i];
 		}
 
 		for (int i = 0; i < frames; i++) {
+			int offset = i * dataLength;
 			for (int j = 0; j < dataLength; j++) {
-				mydata[i * dataLength + j] = new Float(responseBuffer[j] * parentdata[i * dataLength + j]);
-				myerror[i * dataLength + j] = new Double(responseBuffer[j] * responseBuffer[j] * parenterror[i * dataLength + j]);
+				float r = responseBuffer[j];
+				result[offset + j] = r * data[offset + j];
+				resultErrors[offset + j] = r * r * errors[offset + j];
 			}
 		}
-		
-		return new Object[] {mydata, myerror};
 	}
 	
 	@Deprecated
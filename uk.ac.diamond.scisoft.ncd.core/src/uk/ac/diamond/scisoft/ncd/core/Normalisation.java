@@ -45,13 +45,42 @@ public class Normalisation {
 	
 	public Object[] process(Serializable buffer, Serializable errors, Serializable cbuffer, int frames, final int[] dimensions, final int[] cdimensions) {
 
-		float[] parentdata = (float[]) ConvertUtils.convert(buffer, float[].class);
-		double[] parenterrors = (double[]) ConvertUtils.convert(errors, double[].class);
+		float[] parentdata = (buffer instanceof float[]) ? (float[]) buffer : (float[]) ConvertUtils.convert(buffer, float[].class);
+		double[] parenterrors = (errors instanceof double[]) ? (double[]) errors : (double[]) ConvertUtils.convert(errors, double[].class);
 		
 		float[] calibdata = (float[]) cbuffer;
 		float[] mydata = new float[parentdata.length];
 		double[] myerrors = new double[parenterrors.length];
 
+		process(parentdata, parenterrors, calibdata, frames, dimensions, cdimensions, mydata, myerrors);
+
+		return new Object[] {mydata, myerrors};
+	}
+	
+	/**
+	 * Normalise frames writing results into preallocated buffers.
+	 * Doesn't allocate memory, and output buffers can be the same as the input buffers.
+	 * 
+	 * @param data
+	 *            - input frames
+	 * @param errors
+	 *            - input frame variances
+	 * @param calibdata
+	 *            - calibration channel readings for every frame
+	 * @param frames
+	 *            - number of frames in the input buffers
+	 * @param dimensions
+	 *            - input data shape. First dimension is the frame index.
+	 * @param cdimensions
+	 *            - calibration data shape
+	 * @param result
+	 *            - output buffer for normalised frames
+	 * @param resultErrors
+	 *            - output buffer for normalised frame variances
+	 */
+	public void process(float[] data, double[] errors, float[] calibdata, int frames, final int[] dimensions,
+			final int[] cdimensions, float[] result, double[] resultErrors) {
+
 		int calibTotalChannels = cdimensions[1];
 		int parentDataLength = 1;
 		for (int i = 1; i < dimensions.length; i++) {
@@ -63,13 +92,14 @@ public class Normalisation {
 			if (calReading == 0) {
 				calReading = 1; //TODO better idea?
 			}
-			for (int j = i * parentDataLength; j < (i + 1) * parentDataLength; j++) {
-				mydata[j] = (float) ((normvalue / calReading) * parentdata[j]);
-				myerrors[j] = (normvalue / calReading) * (normvalue / calReading) * parenterrors[j];
+			double scale = normvalue / calReading;
+			double scaleSq = scale * scale;
+			int offset = i * parentDataLength;
+			for (int j = offset; j < offset + parentDataLength; j++) {
+				result[j] = (float) (scale * data[j]);
+				resultErrors[j] = scaleSq * errors[j];
 			}
 		}
-
-		return new Object[] {mydata, myerrors};
 	}
 	
 	@Deprecated
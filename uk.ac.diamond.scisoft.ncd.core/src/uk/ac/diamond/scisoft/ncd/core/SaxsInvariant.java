@@ -21,14 +21,8 @@ import java.io.Serializable;
 import javax.measure.quantity.Dimensionless;
 
 import org.apache.commons.beanutils.ConvertUtils;
-import org.apache.commons.math3.analysis.UnivariateFunction;
-import org.apache.commons.math3.analysis.integration.BaseAbstractUnivariateIntegrator;
-import org.apache.commons.math3.analysis.integration.IterativeLegendreGaussIntegrator;
-import org.apache.commons.math3.analysis.integration.UnivariateIntegrator;
 import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
-import org.apache.commons.math3.analysis.interpolation.UnivariateInterpolator;
-import org.apache.commons.math3.exception.MaxCountExceededException;
-import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
 import org.apache.commons.math3.stat.regression.SimpleRegression;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.IDataset;
@@ -36,11 +30,10 @@ import org.jscience.physics.amount.Amount;
 
 import uk.ac.diamond.scisoft.ncd.core.data.SaxsAnalysisPlotType;
 import uk.ac.diamond.scisoft.ncd.core.data.plots.PorodPlotData;
+import uk.ac.diamond.scisoft.ncd.core.utils.SplineIntegration;
 
 public class SaxsInvariant {
 	
-	private static final int INTEGRATION_POINTS = 1000000;
-
 	public Object[] process(Serializable buffer, Serializable errors, Serializable axis, final int[] dimensions) {
 		
 		double[] parentaxis = (double[]) ConvertUtils.convert(axis, double[].class);
@@ -65,38 +58,28 @@ public class SaxsInvariant {
 			myerrors[i + shift] = parenterrors[i] * Math.pow(parentaxis[i], 4);
 		}
 		
-		UnivariateInterpolator interpolator = new SplineInterpolator();
-		UnivariateFunction function = interpolator.interpolate(myaxis, mydata);
+		SplineInterpolator interpolator = new SplineInterpolator();
+		PolynomialSplineFunction function = interpolator.interpolate(myaxis, mydata);
 		
-		UnivariateIntegrator integrator = new IterativeLegendreGaussIntegrator(15,
-				BaseAbstractUnivariateIntegrator.DEFAULT_RELATIVE_ACCURACY,
-				BaseAbstractUnivariateIntegrator.DEFAULT_ABSOLUTE_ACCURACY);
-
-		try {
-			float result = (float) integrator.integrate(INTEGRATION_POINTS, function, 0.0, myaxis[myaxis.length - 1]);
+		float result = (float) SplineIntegration.integrate(function, 0.0, myaxis[myaxis.length - 1]);
 
-			IDataset data = DatasetFactory.createFromObject(parentdata, dimensions);
-			IDataset qaxis = DatasetFactory.createFromObject(parentaxis, dimensions);
-			PorodPlotData porodPlotData = (PorodPlotData) SaxsAnalysisPlotType.POROD_PLOT.getSaxsPlotDataObject();
-			SimpleRegression regression = porodPlotData.getPorodPlotParameters(data.squeeze(), qaxis.squeeze());
-			Amount<Dimensionless> c4 = porodPlotData.getC4(regression);
+		IDataset data = DatasetFactory.createFromObject(parentdata, dimensions);
+		IDataset qaxis = DatasetFactory.createFromObject(parentaxis, dimensions);
+		PorodPlotData porodPlotData = (PorodPlotData) SaxsAnalysisPlotType.POROD_PLOT.getSaxsPlotDataObject();
+		SimpleRegression regression = porodPlotData.getPorodPlotParameters(data.squeeze(), qaxis.squeeze());
+		Amount<Dimensionless> c4 = porodPlotData.getC4(regression);
 
-			result += (float) (c4.getEstimatedValue() / myaxis[myaxis.length - 1]);
-			
-			double error = 0.0;
-			for (int i = 0; i < myaxis.length; i++) {
-				int idx1 = Math.max(0, i - 1);
-				int idx2 = Math.min(myaxis.length - 1, i + 1);
-				error += Math.pow((myaxis[idx2] - myaxis[idx1]), 2) * myerrors[i] / 4.0;
-			}
-			error += Math.pow(c4.getAbsoluteError() / myaxis[myaxis.length - 1], 2);
-			
-			return new Object[] { new float[] { result }, new double[] {error} };
-		} catch (TooManyEvaluationsException e) {
-			return new Object[] { new float[] { Float.NaN }, new double[] { Double.NaN } };
-		} catch (MaxCountExceededException e) {
-			return new Object[] { new float[] { Float.NaN }, new double[] { Double.NaN } };
+		result += (float) (c4.getEstimatedValue() / myaxis[myaxis.length - 1]);
+		
+		double error = 0.0;
+		for (int i = 0; i < myaxis.length; i++) {
+			int idx1 = Math.max(0, i - 1);
+			int idx2 = Math.min(myaxis.length - 1, i + 1);
+			error += Math.pow((myaxis[idx2] - myaxis[idx1]), 2) * myerrors[i] / 4.0;
 		}
+		error += Math.pow(c4.getAbsoluteError() / myaxis[myaxis.length - 1], 2);
+		
+		return new Object[] { new float[] { result }, new double[] {error} };
 	}
 	
 }
@@ -16,6 +16,10 @@
 
 package uk.ac.diamond.scisoft.ncd.core;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
@@ -25,16 +29,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
+import uk.ac.diamond.scisoft.ncd.core.data.MaskSignature;
 
 public class SectorIntegration {
 	
 	private static final Logger logger = LoggerFactory.getLogger(SectorIntegration.class);
+	
+	private static final int AREA_CACHE_SIZE = 8;
+	
+	// Area normalisation data shared by all instances. Cached datasets must not be modified.
+	private static final Map<AreaKey, Dataset[]> areaCache = new BoundedCache<AreaKey, Dataset[]>(AREA_CACHE_SIZE);
+	private static final Map<AreaSqKey, Dataset> areaSqCache = new BoundedCache<AreaSqKey, Dataset>(2 * AREA_CACHE_SIZE);
 
 	private Dataset[] areaData, areaDataSq;
 	private SectorROI roi;
 	private boolean calculateRadial = true;
 	private boolean calculateAzimuthal = true;
 	private boolean fast = true;
+	private SectorIntegrationPlan plan;
 	
 	public void setROI(SectorROI ds) {
 		roi = ds;
@@ -44,16 +56,62 @@ public class SectorIntegration {
 		return roi;
 	}
 
+	/**
+	 * Set area normalisation data. Squared area values used for error propagation are
+	 * calculated once for every area dataset and shared between instances.
+	 * Area datasets must not be modified after they have been set.
+	 */
 	public void setAreaData(Dataset... area) {
-		this.areaData = new Dataset[2];
-		this.areaDataSq = new Dataset[2];
-		this.areaData[0] = area[0].getSlice(null, null, null);
-		this.areaData[1] = area[1].getSlice(null, null, null);
-		this.areaDataSq[0] = area[0].getSlice(null, null, null).ipower(2);
-		this.areaDataSq[1] = area[1].getSlice(null, null, null).ipower(2);
+		this.areaData = new Dataset[] { area[0], area[1] };
+		this.areaDataSq = new Dataset[] { getSquaredArea(area[0]), getSquaredArea(area[1]) };
+	}
+
+	/**
+	 * Get sector area datasets for normalising integrated profiles. Results are cached
+	 * and recalculated only if sector region, mask or integration settings change.
+	 * 
+	 * @param shape
+	 *            - detector image shape
+	 * @param roi
+	 *            - integration sector region
+	 * @param mask
+	 *            - detector mask. Cached data is matched on the mask contents, so the mask can be modified
+	 *            in place between calls. The cache keeps a compact copy of the mask rather than the mask itself.
+	 * @return radial and azimuthal area datasets. Returned datasets are shared and must not be modified.
+	 */
+	public static Dataset[] getAreaData(int[] shape, SectorROI roi, Dataset mask, boolean radial, boolean azimuthal, boolean fast) {
+		AreaKey key = new AreaKey(shape, roi, mask, radial, azimuthal, fast);
+		synchronized (areaCache) {
+			Dataset[] area = areaCache.get(key);
+			if (area != null) {
+				return area;
+			}
+		}
+		Dataset[] area = ROIProfile.area(shape, Dataset.FLOAT32, mask, roi, radial, azimuthal, fast);
+		synchronized (areaCache) {
+			areaCache.put(key, area);
+		}
+		return area;
+	}
+
+	private static Dataset getSquaredArea(Dataset area) {
+		if (area == null) {
+			return null;
+		}
+		AreaSqKey key = new AreaSqKey(area);
+		synchronized (areaSqCache) {
+			Dataset areaSq = areaSqCache.get(key);
+			if (areaSq != null) {
+				return areaSq;
+			}
+		}
+		Dataset areaSq = area.getSlice(null, null, null).ipower(2);
+		synchronized (areaSqCache) {
+			areaSqCache.put(key, areaSq);
+		}
+		return areaSq;
 	}
 
-	
 	public void setCalculateRadial(boolean calulcateRadial) {
 		this.calculateRadial = calulcateRadial;
 	}
@@ -66,6 +124,18 @@ public class SectorIntegration {
 		this.fast = fast;
 	}
 
+	public SectorIntegrationPlan getIntegrationPlan() {
+		return plan;
+	}
+
+	/**
+	 * Use precomputed integration matrix instead of calculating sector geometry for every frame.
+	 * The plan has to be built for the same sector region and mask, and replaces fast integration only.
+	 */
+	public void setIntegrationPlan(SectorIntegrationPlan plan) {
+		this.plan = plan;
+	}
+
 	public Dataset[] process(final Dataset parentdata, int frames, Dataset maskUsed) {
 		int[] parentdim = parentdata.getShape();
 		int[] start = parentdim.clone();
@@ -86,12 +156,16 @@ public class SectorIntegration {
 			slice.squeeze();
 			
 			Dataset[] intresult;
-			try {
-				intresult = ROIProfile.sector(slice, maskUsed, roi, calculateRadial, calculateAzimuthal, fast, null, null, doErrors);
-			} catch (IllegalArgumentException ill) {
-				logger.warn("mask and dataset incompatible rank", ill);
-				maskUsed = null;
-				intresult = ROIProfile.sector(slice, maskUsed, roi, calculateRadial, calculateAzimuthal, fast, null, null, doErrors);
+			if (plan != null) {
+				intresult = plan.integrate(slice, calculateRadial, calculateAzimuthal, doErrors);
+			} else {
+				try {
+					intresult = ROIProfile.sector(slice, maskUsed, roi, calculateRadial, calculateAzimuthal, fast, null, null, doErrors);
+				} catch (IllegalArgumentException ill) {
+					logger.warn("mask and dataset incompatible rank", ill);
+					maskUsed = null;
+					intresult = ROIProfile.sector(slice, maskUsed, roi, calculateRadial, calculateAzimuthal, fast, null, null, doErrors);
+				}
 			}
 			
 			if (calculateRadial) {
@@ -150,4 +224,80 @@ public class SectorIntegration {
 		}
 		return new Dataset[] {myazdata, myraddata}; 
 	}
+
+	/**
+	 * Cache key matching sector region and mask by value. Mask is stored as a {@link MaskSignature},
+	 * so that the key doesn't keep the mask dataset alive and in-place edits of the mask are detected.
+	 */
+	private static final class AreaKey {
+		private final int[] shape;
+		private final SectorROI roi;
+		private final MaskSignature mask;
+		private final boolean[] flags;
+
+		public AreaKey(int[] shape, SectorROI roi, Dataset mask, boolean radial, boolean azimuthal, boolean fast) {
+			this.shape = shape.clone();
+			this.roi = roi.copy();
+			this.flags = new boolean[] { radial, azimuthal, fast };
+			this.mask = new MaskSignature(mask);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = Arrays.hashCode(shape);
+			result = 31 * result + roi.hashCode();
+			result = 31 * result + mask.hashCode();
+			return 31 * result + Arrays.hashCode(flags);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof AreaKey)) {
+				return false;
+			}
+			AreaKey other = (AreaKey) obj;
+			return Arrays.equals(shape, other.shape) && Arrays.equals(flags, other.flags) && roi.equals(other.roi)
+					&& mask.equals(other.mask);
+		}
+	}
+
+	/**
+	 * Cache key matching area datasets by identity. Area datasets are shared and never modified.
+	 */
+	private static final class AreaSqKey {
+		private final Dataset area;
+
+		public AreaSqKey(Dataset area) {
+			this.area = area;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(area);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof AreaSqKey && ((AreaSqKey) obj).area == area;
+		}
+	}
+
+	private static final class BoundedCache<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 3482957613413254815L;
+		
+		private final int maxSize;
+
+		public BoundedCache(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > maxSize;
+		}
+	}
 }
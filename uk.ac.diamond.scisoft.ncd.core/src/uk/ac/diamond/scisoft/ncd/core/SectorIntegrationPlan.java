@@ -0,0 +1,364 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core;
+
+import java.util.Arrays;
+
+import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
+import org.eclipse.january.dataset.BooleanDataset;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
+import uk.ac.diamond.scisoft.ncd.core.data.MaskSignature;
+
+/**
+ * Immutable pixel-to-bin integration matrix for a fixed detector shape, sector region
+ * and mask. Pixel weights for the radial and azimuthal profiles are stored in compressed
+ * sparse row format, so that integrating a frame reduces to a single sparse matrix-vector
+ * product. Instances are safe to share between threads.
+ * <p>
+ * The plan reproduces fast integration in {@link ROIProfile#sector}, i.e. every unmasked pixel
+ * is assigned to the bins containing its centre. Integration with pixel splitting needs to go
+ * through {@link ROIProfile}.
+ */
+public final class SectorIntegrationPlan {
+
+	private static final Logger logger = LoggerFactory.getLogger(SectorIntegrationPlan.class);
+
+	private final int[] shape;
+	private final SectorROI roi;
+	private final MaskSignature mask;
+
+	private final SparseMatrix radial;
+	private final SparseMatrix azimuthal;
+
+	private static final class SparseMatrix {
+		final int rows;
+		final int[] rowPtr;
+		final int[] cols;
+		final float[] weights;
+
+		SparseMatrix(int rows, int[] rowPtr, int[] cols, float[] weights) {
+			this.rows = rows;
+			this.rowPtr = rowPtr;
+			this.cols = cols;
+			this.weights = weights;
+		}
+	}
+
+	/**
+	 * Growable coordinate list used while scanning detector pixels
+	 */
+	private static final class TripletList {
+		private final int rows;
+		private int size;
+		private int[] rowIdx = new int[1024];
+		private int[] colIdx = new int[1024];
+		private float[] values = new float[1024];
+
+		TripletList(int rows) {
+			this.rows = rows;
+		}
+
+		void add(int row, int col, float value) {
+			if (size == rowIdx.length) {
+				int capacity = 2 * size;
+				rowIdx = Arrays.copyOf(rowIdx, capacity);
+				colIdx = Arrays.copyOf(colIdx, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+			rowIdx[size] = row;
+			colIdx[size] = col;
+			values[size] = value;
+			size++;
+		}
+
+		/**
+		 * Counting sort by row. Pixels are scanned in raster order,
+		 * so column indices stay sorted within every row.
+		 */
+		SparseMatrix toCSR() {
+			int[] rowPtr = new int[rows + 1];
+			for (int i = 0; i < size; i++) {
+				rowPtr[rowIdx[i] + 1]++;
+			}
+			for (int r = 0; r < rows; r++) {
+				rowPtr[r + 1] += rowPtr[r];
+			}
+			int[] next = Arrays.copyOf(rowPtr, rows);
+			int[] cols = new int[size];
+			float[] weights = new float[size];
+			for (int i = 0; i < size; i++) {
+				int k = next[rowIdx[i]]++;
+				cols[k] = colIdx[i];
+				weights[k] = values[i];
+			}
+			return new SparseMatrix(rows, rowPtr, cols, weights);
+		}
+	}
+
+	private SectorIntegrationPlan(int[] shape, SectorROI roi, MaskSignature mask, SparseMatrix radial,
+			SparseMatrix azimuthal) {
+		this.shape = shape;
+		this.roi = roi;
+		this.mask = mask;
+		this.radial = radial;
+		this.azimuthal = azimuthal;
+	}
+
+	/**
+	 * Only sectors without symmetry or with full circular symmetry can be expressed as a plan.
+	 * Integration with any other symmetry setting needs to go through {@link ROIProfile}.
+	 */
+	public static boolean isSupported(SectorROI roi) {
+		if (roi == null) {
+			return false;
+		}
+		int symmetry = roi.getSymmetry();
+		return symmetry == SectorROI.NONE || symmetry == SectorROI.FULL;
+	}
+
+	/**
+	 * Build integration plan for the detector image
+	 *
+	 * @param shape
+	 *            - detector image shape
+	 * @param roi
+	 *            - integration sector
+	 * @param mask
+	 *            - optional detector mask. Pixels with false mask values are excluded.
+	 */
+	public static SectorIntegrationPlan create(int[] shape, SectorROI roi, Dataset mask) {
+		if (shape == null || shape.length != 2) {
+			throw new IllegalArgumentException("Sector integration plan requires 2D detector image shape");
+		}
+		if (!isSupported(roi)) {
+			throw new IllegalArgumentException("Sector integration plan does not support symmetry "
+					+ roi.getSymmetryText());
+		}
+
+		boolean[] maskBuffer = null;
+		if (mask != null) {
+			if (Arrays.equals(shape, mask.getShape())) {
+				maskBuffer = ((BooleanDataset) DatasetUtils.cast(mask, Dataset.BOOL)).getData();
+			} else {
+				logger.warn("mask and dataset incompatible shape. Mask will be ignored.");
+				mask = null;
+			}
+		}
+
+		// Use area profile to get the same number of bins as ROIProfile.sector()
+		Dataset[] area = ROIProfile.area(shape, Dataset.FLOAT64, null, roi, true, true, true);
+		int radBins = area[0].getShape()[area[0].getRank() - 1];
+		int azBins = area[1].getShape()[area[1].getRank() - 1];
+
+		double[] point = roi.getPoint();
+		double[] radii = roi.getRadii();
+		double[] angles = Arrays.copyOf(roi.getAngles(), 2);
+		if (roi.getSymmetry() == SectorROI.FULL) {
+			angles[1] = angles[0] + 2.0 * Math.PI;
+		}
+		double span = angles[1] - angles[0];
+		double azWidth = span / azBins;
+
+		TripletList radTriplets = new TripletList(radBins);
+		TripletList azTriplets = new TripletList(azBins);
+
+		int height = shape[0];
+		int width = shape[1];
+		for (int row = 0; row < height; row++) {
+			double dy = row + 0.5 - point[1];
+			for (int col = 0; col < width; col++) {
+				int pixel = row * width + col;
+				if (maskBuffer != null && !maskBuffer[pixel]) {
+					continue;
+				}
+				double dx = col + 0.5 - point[0];
+				double r = Math.hypot(dx, dy);
+				if (r < radii[0] || r > radii[1]) {
+					continue;
+				}
+				double phi = Math.atan2(dy, dx) - angles[0];
+				phi -= 2.0 * Math.PI * Math.floor(phi / (2.0 * Math.PI));
+				if (phi > span) {
+					continue;
+				}
+				int rb = Math.min((int) (r - radii[0]), radBins - 1);
+				int ab = Math.min((int) (phi / azWidth), azBins - 1);
+				radTriplets.add(rb, pixel, 1.0f);
+				azTriplets.add(ab, pixel, 1.0f);
+			}
+		}
+
+		return new SectorIntegrationPlan(shape.clone(), roi.copy(), new MaskSignature(mask), radTriplets.toCSR(),
+				azTriplets.toCSR());
+	}
+
+	/**
+	 * Check whether this plan can be reused for integration with the given parameters.
+	 * The mask is compared by contents.
+	 */
+	public boolean isCompatible(int[] shape, SectorROI roi, Dataset mask) {
+		if (mask != null && !Arrays.equals(shape, mask.getShape())) {
+			// Masks that don't match the image shape are ignored
+			mask = null;
+		}
+		return Arrays.equals(this.shape, shape) && this.roi.equals(roi) && this.mask.matches(mask);
+	}
+
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	public int getRadialBins() {
+		return radial.rows;
+	}
+
+	public int getAzimuthalBins() {
+		return azimuthal.rows;
+	}
+
+	/**
+	 * @return radial and azimuthal bin areas, i.e. sums of pixel weights in every bin
+	 */
+	public Dataset[] getAreaData() {
+		return new Dataset[] { rowSums(radial), rowSums(azimuthal) };
+	}
+
+	private static Dataset rowSums(SparseMatrix matrix) {
+		double[] sums = new double[matrix.rows];
+		for (int r = 0; r < matrix.rows; r++) {
+			double sum = 0;
+			for (int k = matrix.rowPtr[r]; k < matrix.rowPtr[r + 1]; k++) {
+				sum += matrix.weights[k];
+			}
+			sums[r] = sum;
+		}
+		return DatasetFactory.createFromObject(sums);
+	}
+
+	/**
+	 * Integrate single detector frame
+	 *
+	 * @param frame
+	 *            - 2D image with the plan shape
+	 * @param doRadial
+	 *            - calculate radial profile
+	 * @param doAzimuthal
+	 *            - calculate azimuthal profile
+	 * @param doErrors
+	 *            - propagate frame error buffer into profile error buffers
+	 * @return radial and azimuthal profiles in the same order as returned by ROIProfile.sector()
+	 */
+	public Dataset[] integrate(Dataset frame, boolean doRadial, boolean doAzimuthal, boolean doErrors) {
+		if (!Arrays.equals(shape, frame.getShape())) {
+			throw new IllegalArgumentException("Frame shape " + Arrays.toString(frame.getShape())
+					+ " does not match integration plan shape " + Arrays.toString(shape));
+		}
+
+		double[] variance = null;
+		if (doErrors && frame.hasErrors()) {
+			variance = ((DoubleDataset) DatasetUtils.cast(frame.getErrorBuffer(), Dataset.FLOAT64)).getData();
+		}
+
+		Dataset[] result = new Dataset[2];
+		if (frame instanceof FloatDataset) {
+			float[] values = ((FloatDataset) frame).getData();
+			if (doRadial) {
+				result[0] = multiply(radial, values, variance);
+			}
+			if (doAzimuthal) {
+				result[1] = multiply(azimuthal, values, variance);
+			}
+		} else {
+			double[] values = ((DoubleDataset) DatasetUtils.cast(frame, Dataset.FLOAT64)).getData();
+			if (doRadial) {
+				result[0] = multiply(radial, values, variance);
+			}
+			if (doAzimuthal) {
+				result[1] = multiply(azimuthal, values, variance);
+			}
+		}
+		return result;
+	}
+
+	private static Dataset multiply(SparseMatrix matrix, float[] values, double[] variance) {
+		final int[] rowPtr = matrix.rowPtr;
+		final int[] cols = matrix.cols;
+		final float[] weights = matrix.weights;
+		double[] profile = new double[matrix.rows];
+		double[] errors = variance != null ? new double[matrix.rows] : null;
+		for (int r = 0; r < matrix.rows; r++) {
+			double sum = 0;
+			for (int k = rowPtr[r]; k < rowPtr[r + 1]; k++) {
+				sum += weights[k] * values[cols[k]];
+			}
+			profile[r] = sum;
+		}
+		if (errors != null) {
+			multiplyErrors(matrix, variance, errors);
+		}
+		return createProfile(profile, errors);
+	}
+
+	private static Dataset multiply(SparseMatrix matrix, double[] values, double[] variance) {
+		final int[] rowPtr = matrix.rowPtr;
+		final int[] cols = matrix.cols;
+		final float[] weights = matrix.weights;
+		double[] profile = new double[matrix.rows];
+		double[] errors = variance != null ? new double[matrix.rows] : null;
+		for (int r = 0; r < matrix.rows; r++) {
+			double sum = 0;
+			for (int k = rowPtr[r]; k < rowPtr[r + 1]; k++) {
+				sum += weights[k] * values[cols[k]];
+			}
+			profile[r] = sum;
+		}
+		if (errors != null) {
+			multiplyErrors(matrix, variance, errors);
+		}
+		return createProfile(profile, errors);
+	}
+
+	private static void multiplyErrors(SparseMatrix matrix, double[] variance, double[] errors) {
+		final int[] rowPtr = matrix.rowPtr;
+		final int[] cols = matrix.cols;
+		final float[] weights = matrix.weights;
+		for (int r = 0; r < matrix.rows; r++) {
+			double sum = 0;
+			for (int k = rowPtr[r]; k < rowPtr[r + 1]; k++) {
+				double w = weights[k];
+				sum += w * w * variance[cols[k]];
+			}
+			errors[r] = sum;
+		}
+	}
+
+	private static Dataset createProfile(double[] profile, double[] errors) {
+		Dataset result = DatasetFactory.createFromObject(profile);
+		if (errors != null) {
+			result.setErrorBuffer(DatasetFactory.createFromObject(errors));
+		}
+		return result;
+	}
+}
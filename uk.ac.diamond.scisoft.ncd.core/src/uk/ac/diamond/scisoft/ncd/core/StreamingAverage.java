@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core;
+
+import java.util.Arrays;
+
+/**
+ * Running average of a series of frames, updated one frame at a time.
+ * <p>
+ * The mean and the spread of values between frames are updated with Welford's algorithm.
+ * Input error estimates (variances) are summed with Kahan compensation and propagated to
+ * the standard error of the mean. Memory use does not depend on the number of frames.
+ */
+public class StreamingAverage {
+
+	private final int frameSize;
+
+	private long count;
+	private final double[] mean;
+	private final double[] m2;
+	private final double[] varianceSum;
+	private final double[] varianceCompensation;
+	private boolean hasErrors;
+
+	public StreamingAverage(int frameSize) {
+		this.frameSize = frameSize;
+		mean = new double[frameSize];
+		m2 = new double[frameSize];
+		varianceSum = new double[frameSize];
+		varianceCompensation = new double[frameSize];
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public boolean hasErrors() {
+		return hasErrors;
+	}
+
+	public void reset() {
+		count = 0;
+		hasErrors = false;
+		Arrays.fill(mean, 0.0);
+		Arrays.fill(m2, 0.0);
+		Arrays.fill(varianceSum, 0.0);
+		Arrays.fill(varianceCompensation, 0.0);
+	}
+
+	/**
+	 * Add all frames stored consecutively in the input arrays
+	 *
+	 * @param values
+	 *            - frame data. Array length must be a multiple of the frame size.
+	 * @param variances
+	 *            - squared error estimates for the frame data. Can be null if errors are not available.
+	 */
+	public void add(float[] values, float[] variances) {
+		int frames = checkFrames(values.length, variances == null ? -1 : variances.length);
+		for (int frame = 0, offset = 0; frame < frames; frame++, offset += frameSize) {
+			count++;
+			for (int i = 0; i < frameSize; i++) {
+				update(i, values[offset + i]);
+			}
+			if (variances != null) {
+				for (int i = 0; i < frameSize; i++) {
+					addVariance(i, variances[offset + i]);
+				}
+			}
+		}
+		hasErrors |= (variances != null);
+	}
+
+	/**
+	 * @see #add(float[], float[])
+	 */
+	public void add(double[] values, double[] variances) {
+		int frames = checkFrames(values.length, variances == null ? -1 : variances.length);
+		for (int frame = 0, offset = 0; frame < frames; frame++, offset += frameSize) {
+			count++;
+			for (int i = 0; i < frameSize; i++) {
+				update(i, values[offset + i]);
+			}
+			if (variances != null) {
+				for (int i = 0; i < frameSize; i++) {
+					addVariance(i, variances[offset + i]);
+				}
+			}
+		}
+		hasErrors |= (variances != null);
+	}
+
+	private int checkFrames(int valuesLength, int variancesLength) {
+		if (frameSize == 0 || valuesLength % frameSize != 0) {
+			throw new IllegalArgumentException("Input data size is not a multiple of the frame size");
+		}
+		if (variancesLength >= 0 && variancesLength != valuesLength) {
+			throw new IllegalArgumentException("Input data and errors have different sizes");
+		}
+		return valuesLength / frameSize;
+	}
+
+	private void update(int i, double value) {
+		double delta = value - mean[i];
+		mean[i] += delta / count;
+		m2[i] += delta * (value - mean[i]);
+	}
+
+	private void addVariance(int i, double variance) {
+		double y = variance - varianceCompensation[i];
+		double t = varianceSum[i] + y;
+		varianceCompensation[i] = (t - varianceSum[i]) - y;
+		varianceSum[i] = t;
+	}
+
+	/**
+	 * @return mean value of the frames added so far
+	 */
+	public double[] getMean() {
+		return Arrays.copyOf(mean, frameSize);
+	}
+
+	public void getMean(float[] result) {
+		for (int i = 0; i < frameSize; i++) {
+			result[i] = (float) mean[i];
+		}
+	}
+
+	/**
+	 * @return sample variance of values between frames
+	 */
+	public double[] getVariance() {
+		double[] result = new double[frameSize];
+		if (count > 1) {
+			for (int i = 0; i < frameSize; i++) {
+				result[i] = m2[i] / (count - 1);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return propagated error of the mean from the input error estimates
+	 */
+	public double[] getErrors() {
+		double[] result = new double[frameSize];
+		getErrors(result);
+		return result;
+	}
+
+	public void getErrors(double[] result) {
+		for (int i = 0; i < frameSize; i++) {
+			result[i] = (count > 0 ? Math.sqrt(varianceSum[i]) / count : 0.0);
+		}
+	}
+
+	public void getErrors(float[] result) {
+		for (int i = 0; i < frameSize; i++) {
+			result[i] = (float) (count > 0 ? Math.sqrt(varianceSum[i]) / count : 0.0);
+		}
+	}
+}
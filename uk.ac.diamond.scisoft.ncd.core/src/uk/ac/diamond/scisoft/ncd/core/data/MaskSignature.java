@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.IndexIterator;
+
+/**
+ * Compact copy of detector mask contents for matching masks by value. Masks with the same shape
+ * and the same set of unmasked pixels are equal, regardless of the dataset instance or type.
+ * The signature doesn't keep the mask dataset alive, and in-place edits of the mask are detected.
+ */
+public final class MaskSignature {
+
+	private final int[] shape;
+	private final BitSet bits;
+	private final int hash;
+
+	/**
+	 * @param mask
+	 *            - detector mask. Null stands for no mask.
+	 */
+	public MaskSignature(Dataset mask) {
+		if (mask != null) {
+			shape = mask.getShape();
+			bits = new BitSet(mask.getSize());
+			IndexIterator itr = mask.getIterator();
+			for (int i = 0; itr.hasNext(); i++) {
+				if (mask.getElementBooleanAbs(itr.index)) {
+					bits.set(i);
+				}
+			}
+		} else {
+			shape = null;
+			bits = null;
+		}
+		hash = 31 * Arrays.hashCode(shape) + (bits == null ? 0 : bits.hashCode());
+	}
+
+	/**
+	 * @return true if the signature was created for the given mask contents
+	 */
+	public boolean matches(Dataset mask) {
+		if (mask == null || shape == null) {
+			return mask == null && shape == null;
+		}
+		return equals(new MaskSignature(mask));
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof MaskSignature)) {
+			return false;
+		}
+		MaskSignature other = (MaskSignature) obj;
+		return hash == other.hash && Arrays.equals(shape, other.shape)
+				&& (bits == null ? other.bits == null : bits.equals(other.bits));
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.data;
+
+import java.util.Arrays;
+
+/**
+ * Generates consecutive data slices along the slice dimension. Every slice can take a different number
+ * of steps along the slice dimension but never crosses into the next position in the outer dimensions.
+ */
+public class SliceGenerator {
+
+	private final long[] frames;
+	private final int sliceDim;
+	private final int stepFrames;
+	private final int[] start;
+	private boolean hasNext;
+
+	/**
+	 * @param frames
+	 *            - dataset shape
+	 * @param sliceDim
+	 *            - dimension along which data is sliced
+	 * @param frameRank
+	 *            - number of leading dimensions indexing frames
+	 */
+	public SliceGenerator(long[] frames, int sliceDim, int frameRank) {
+		this.frames = Arrays.copyOf(frames, frames.length);
+		this.sliceDim = sliceDim;
+		this.start = new int[sliceDim + 1];
+		long count = 1;
+		for (int i = sliceDim + 1; i < frameRank; i++) {
+			count *= frames[i];
+		}
+		stepFrames = (int) Math.max(1, Math.min(count, Integer.MAX_VALUE));
+		hasNext = true;
+		for (int i = 0; i <= sliceDim; i++) {
+			if (frames[i] <= 0) {
+				hasNext = false;
+			}
+		}
+	}
+
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	/**
+	 * @return number of frames in a single step along the slice dimension
+	 */
+	public int getStepFrames() {
+		return stepFrames;
+	}
+
+	/**
+	 * @param steps
+	 *            - number of steps along the slice dimension. Truncated at the end of the dimension.
+	 * @return next slice
+	 */
+	public SliceSettings next(int steps) {
+		int size = (int) Math.max(1, Math.min(steps, frames[sliceDim] - start[sliceDim]));
+		SliceSettings slice = new SliceSettings(frames, sliceDim, size);
+		slice.setStart(start);
+		start[sliceDim] += size;
+		if (start[sliceDim] >= frames[sliceDim]) {
+			// Move to the next position in the outer dimensions
+			start[sliceDim] = 0;
+			int i = sliceDim - 1;
+			while (i >= 0 && ++start[i] >= frames[i]) {
+				start[i] = 0;
+				i--;
+			}
+			hasNext = (i >= 0);
+		}
+		return slice;
+	}
+
+	/**
+	 * @param frameBatch
+	 *            - maximum number of frames in the slice. At least one step is always taken.
+	 * @return next slice with as many steps as fit in the frame batch
+	 */
+	public SliceSettings nextBatch(int frameBatch) {
+		return next(Math.max(1, frameBatch / stepFrames));
+	}
+}
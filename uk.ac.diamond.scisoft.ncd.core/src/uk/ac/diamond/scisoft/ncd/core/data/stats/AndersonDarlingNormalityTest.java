@@ -66,19 +66,42 @@ public class AndersonDarlingNormalityTest {
 	
 	public boolean acceptNullHypothesis(Dataset data) {
 		Dataset sortedData = data.clone().sort(null);
-		double mean = (Double) data.mean(true);
-		int size = data.getSize();
-		double std = (Double) data.stdDeviation();
-		//double std = Math.min((Double) errors.mean(true), (Double) data.stdDeviation());
-		//double std = (Double) errors.mean(true);
+		int size = sortedData.getSize();
+		double[] sortedValues = new double[size];
+		for (int i = 0; i < size; i++) {
+			sortedValues[i] = sortedData.getDouble(i);
+		}
+		return acceptNullHypothesis(sortedValues, size);
+	}
+	
+	/**
+	 * Test data values that are already sorted in ascending order
+	 * 
+	 * @param sortedValues
+	 *            buffer with sorted values
+	 * @param size
+	 *            number of values to use from the start of the buffer
+	 */
+	public boolean acceptNullHypothesis(double[] sortedValues, int size) {
+		double mean = 0.0;
+		for (int i = 0; i < size; i++) {
+			mean += sortedValues[i];
+		}
+		mean /= size;
+		double var = 0.0;
+		for (int i = 0; i < size; i++) {
+			double diff = sortedValues[i] - mean;
+			var += diff * diff;
+		}
+		double std = Math.sqrt(var / (size - 1));
 		
 		double thres = criticalValue / (1.0 + 4.0 / size - 25.0 / size / size);
 		if (std > 0) {
 			NormalDistribution norm = new NormalDistribution(mean, std);
 			double sum = 0.0;
 			for (int i = 0; i < size; i++) {
-				double val1 = sortedData.getDouble(i);
-				double val2 = sortedData.getDouble(size - 1 - i);
+				double val1 = sortedValues[i];
+				double val2 = sortedValues[size - 1 - i];
 				double cdf1 = norm.cumulativeProbability(val1);
 				double cdf2 = norm.cumulativeProbability(val2);
 				sum += (2 * i + 1) * (Math.log(cdf1) + Math.log(1.0 - cdf2));
@@ -16,78 +16,17 @@
 
 package uk.ac.diamond.scisoft.ncd.core.data.stats;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Comparator;
 
-import org.eclipse.dawnsci.analysis.dataset.impl.function.DatasetToDatasetFunction;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
-import org.eclipse.january.dataset.DatasetUtils;
-import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.IndexIterator;
-import org.eclipse.january.dataset.PositionIterator;
 import org.eclipse.january.dataset.Slice;
 import org.eclipse.january.dataset.Stats;
 
 public class FilterData extends SaxsStatsData {
 	
-	private class QuantileFilter implements DatasetToDatasetFunction {
-		
-		private double  lowQuant = 0.25;
-		private double highQuant = 0.75;
-		
-		public QuantileFilter() {
-		}
-		
-		@Override
-		public List<Dataset> value(IDataset... datasets) {
-			
-			if (datasets.length == 0)
-				return null;
-
-			List<Dataset> result = new ArrayList<Dataset>();
-			
-			for (IDataset idataset : datasets) {
-				Dataset dataset = DatasetUtils.convertToDataset(idataset);
-				final int dt = dataset.getDType();
-				final int is = dataset.getElementsPerItem();
-				final int[] ishape = dataset.getShape();
-				
-				if (ishape.length > 1)
-					throw new IllegalArgumentException("Only 1D input datasets are supported");
-				
-				Dataset filtered = DatasetFactory.zeros(is , ishape, dt);
-				
-				final PositionIterator iterPos = filtered.getPositionIterator();
-				final int[] pos = iterPos.getPos();
-				final int size = dataset.getSize();
-				final int[] start = new int[1];
-				final int[] stop = new int[1];
-				final int[] step = new int[] {1};
-				List<Double> resList = new ArrayList<Double>(); 
-				while (iterPos.hasNext()) {
-					int idx = pos[0];
-					start[0] = Math.max(idx - filterWindow, 0);
-					stop[0] = Math.min(idx + filterWindow + 1, size); // exclusive
-					Dataset slice = dataset.getSlice(start, stop, step);
-					double lowQ = Stats.quantile(slice, lowQuant);
-					double highQ = Stats.quantile(slice, highQuant);
-					Double mean = (highQ + lowQ) / 2.0;
-					Double dev =  (highQ - lowQ) / 2.0;
-					Double val = dataset.getDouble(idx);
-					if (Math.abs(val - mean) < devSigma*dev) {
-						resList.add(val);
-					}
-				}
-				if (!resList.isEmpty()) {
-					filtered = DatasetFactory.createFromList(resList);
-					result.add(filtered);
-				}
-			}
-			return result;
-		}
-	}
-	
 	private double confidenceInterval;
 	private int filterWindow = 10;
 	private double devSigma = 10.0;
@@ -116,25 +55,81 @@ public class FilterData extends SaxsStatsData {
 				return result;
 			}
 			
-			// Find data slice that passes normality test
+			// Find the longest data slice [0, i) with quantile-filtered values passing normality test.
+			// Filter decision for index idx only depends on the slice length while its window
+			// [idx - filterWindow, idx + filterWindow] extends beyond the slice end, so every
+			// decision is made once and only the last filterWindow points are re-evaluated
+			// for each slice length. Filtered values are kept in ascending order by flagging
+			// their positions in the sorted input data.
+			final double[] values = new double[datasize];
+			Integer[] order = new Integer[datasize];
+			for (int i = 0; i < datasize; i++) {
+				values[i] = inputData.getDouble(i);
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return Double.compare(values[o1], values[o2]);
+				}
+			});
+			int[] rank = new int[datasize];
+			for (int i = 0; i < datasize; i++) {
+				rank[order[i]] = i;
+			}
+			
+			boolean[] selected = new boolean[datasize];
+			int selectedCount = 0;
+			int maxSlice = datasize - 1;
+			for (int idx = 0; idx < maxSlice - filterWindow; idx++) {
+				if (isInlier(inputData, idx, maxSlice)) {
+					selected[rank[idx]] = true;
+					selectedCount++;
+				}
+			}
+			
+			// Only the longest accepted slice affects the result, so start from the full data
 			AndersonDarlingNormalityTest test = new AndersonDarlingNormalityTest("2.5%");
+			double[] sortedValues = new double[datasize];
+			int[] tail = new int[filterWindow];
 			int lastIdxTrue = 0;
-			for (int i = SaxsAnalysisStatsParameters.SAXS_FILTERING_MINPOINTS; i < datasize; i++) {
-				Dataset data = inputData.getSlice(new Slice(0, i));
-				QuantileFilter outlierFilter = new QuantileFilter();
-				List<? extends Dataset> filter = outlierFilter.value(data);
-				if (filter.isEmpty()) {
-					result.set(false, i);
-				} else {
-					boolean accept = test.acceptNullHypothesis(filter.get(0));
-					if (accept) {
-						lastIdxTrue = i;
+			for (int i = maxSlice; i >= SaxsAnalysisStatsParameters.SAXS_FILTERING_MINPOINTS; i--) {
+				if (i < maxSlice) {
+					// Point leaving the fixed part of the slice
+					int idx = i - filterWindow;
+					if (idx >= 0 && selected[rank[idx]]) {
+						selected[rank[idx]] = false;
+						selectedCount--;
+					}
+				}
+				int tailSize = 0;
+				for (int idx = Math.max(0, i - filterWindow); idx < i; idx++) {
+					if (isInlier(inputData, idx, i)) {
+						selected[rank[idx]] = true;
+						tail[tailSize++] = rank[idx];
 					}
-					result.set(accept, i);
+				}
+				int size = selectedCount + tailSize;
+				boolean accept = false;
+				if (size > 0) {
+					int n = 0;
+					for (int r = 0; r < datasize && n < size; r++) {
+						if (selected[r]) {
+							sortedValues[n++] = values[order[r]];
+						}
+					}
+					accept = test.acceptNullHypothesis(sortedValues, size);
+				}
+				for (int t = 0; t < tailSize; t++) {
+					selected[tail[t]] = false;
+				}
+				if (accept) {
+					lastIdxTrue = i;
+					break;
 				}
 			}
-			for (int i = 0; i <= lastIdxTrue; i++) {
-				result.set(true, i);
+			for (int i = SaxsAnalysisStatsParameters.SAXS_FILTERING_MINPOINTS; i < datasize; i++) {
+				result.set(i <= lastIdxTrue, i);
 			}
 			
 			// Find outliers in the selected data slice
@@ -164,6 +159,22 @@ public class FilterData extends SaxsStatsData {
 		return null;
 	}
 
+	/**
+	 * Check whether value is within the quantile range of its neighbourhood
+	 * truncated to the data slice [0, size)
+	 */
+	private boolean isInlier(Dataset data, int idx, int size) {
+		int start = Math.max(idx - filterWindow, 0);
+		int stop = Math.min(idx + filterWindow + 1, size); // exclusive
+		Dataset slice = data.getSlice(new int[] {start}, new int[] {stop}, new int[] {1});
+		double lowQ = Stats.quantile(slice, 0.25);
+		double highQ = Stats.quantile(slice, 0.75);
+		double mean = (highQ + lowQ) / 2.0;
+		double dev =  (highQ - lowQ) / 2.0;
+		double val = data.getDouble(idx);
+		return Math.abs(val - mean) < devSigma*dev;
+	}
+
 	public void setConfigenceInterval(double saxsFilteringCI) {
 		this.confidenceInterval = saxsFilteringCI;
 	}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.data.stats;
+
+import org.eclipse.january.dataset.Dataset;
+
+/**
+ * Collects time series of selected pixels from blocks of consecutive frames.
+ * Frame blocks are read once and values of all sampled pixels are gathered from memory,
+ * instead of reading a strided series for every pixel from the input file.
+ */
+public class PixelSeriesSampler {
+
+	private final int frameSize;
+	private final int[] pixels;
+	private final float[][] series;
+	private int frameCount;
+
+	/**
+	 * @param frameSize
+	 *            - number of pixels in a frame
+	 * @param pixels
+	 *            - indices of the sampled pixels in the flattened frame
+	 * @param numFrames
+	 *            - total number of frames in the series
+	 */
+	public PixelSeriesSampler(int frameSize, int[] pixels, int numFrames) {
+		for (int pixel : pixels) {
+			if (pixel < 0 || pixel >= frameSize) {
+				throw new IllegalArgumentException("Sampled pixel index is outside of the frame");
+			}
+		}
+		this.frameSize = frameSize;
+		this.pixels = pixels.clone();
+		this.series = new float[pixels.length][numFrames];
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	public int getNumPixels() {
+		return pixels.length;
+	}
+
+	/**
+	 * Add block of consecutive frames following the frames added so far
+	 *
+	 * @param frames
+	 *            - dataset with frames stored contiguously. Dataset size must be a multiple of the frame size.
+	 */
+	public void add(Dataset frames) {
+		int size = frames.getSize();
+		if (size % frameSize != 0) {
+			throw new IllegalArgumentException("Input data size is not a multiple of the frame size");
+		}
+		int numFrames = size / frameSize;
+		if (frameCount + numFrames > getMaxFrames()) {
+			throw new IllegalArgumentException("Number of frames exceeds the series length");
+		}
+		for (int frame = 0, offset = 0; frame < numFrames; frame++, offset += frameSize) {
+			for (int i = 0; i < pixels.length; i++) {
+				series[i][frameCount] = (float) frames.getElementDoubleAbs(offset + pixels[i]);
+			}
+			frameCount++;
+		}
+	}
+
+	private int getMaxFrames() {
+		return series.length > 0 ? series[0].length : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @param index
+	 *            - position of the pixel in the sampled pixels array
+	 * @return pixel values in all frames added so far
+	 */
+	public float[] getSeries(int index) {
+		return series[index];
+	}
+
+	/**
+	 * Add series of the selected sampled pixels into the result array
+	 */
+	public void sumSeries(int[] indices, float[] result) {
+		for (int index : indices) {
+			float[] values = series[index];
+			for (int frame = 0; frame < frameCount; frame++) {
+				result[frame] += values[frame];
+			}
+		}
+	}
+}
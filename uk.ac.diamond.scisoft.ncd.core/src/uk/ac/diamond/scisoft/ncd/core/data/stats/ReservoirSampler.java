@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.data.stats;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Uniform random sample of fixed size drawn without replacement from a stream of values
+ * of unknown length in a single pass (reservoir sampling).
+ */
+public class ReservoirSampler {
+
+	private final int[] reservoir;
+	private final Random random;
+	private long count;
+
+	public ReservoirSampler(int size, Random random) {
+		this.reservoir = new int[size];
+		this.random = random;
+	}
+
+	public void offer(int value) {
+		if (count < reservoir.length) {
+			reservoir[(int) count] = value;
+		} else {
+			long idx = (long) (random.nextDouble() * (count + 1));
+			if (idx < reservoir.length) {
+				reservoir[(int) idx] = value;
+			}
+		}
+		count++;
+	}
+
+	/**
+	 * @return number of values offered so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return sampled values. Contains all offered values if there were fewer than the sample size.
+	 */
+	public int[] getSample() {
+		return Arrays.copyOf(reservoir, (int) Math.min(count, reservoir.length));
+	}
+}
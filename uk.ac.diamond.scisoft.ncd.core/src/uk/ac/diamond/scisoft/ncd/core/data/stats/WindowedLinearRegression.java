@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.data.stats;
+
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+
+/**
+ * Least-squares line fits over arbitrary index windows of a fixed data series.
+ * Prefix sums of x, y, x^2, xy and y^2 are accumulated once, so that slope, intercept,
+ * correlation coefficient and residual sum of squares for any window take constant time.
+ * <p>
+ * Windows are given as [start, end) index ranges. Windows containing non-finite
+ * values produce NaN results, as SimpleRegression would.
+ */
+public class WindowedLinearRegression {
+
+	private final double[] x;
+	private final double[] y;
+
+	// Values are shifted by their means before accumulation to limit cancellation errors
+	private final double shiftX;
+	private final double shiftY;
+
+	private final double[] sumX;
+	private final double[] sumY;
+	private final double[] sumXX;
+	private final double[] sumXY;
+	private final double[] sumYY;
+	private final int[] invalid;
+
+	public WindowedLinearRegression(double[] x, double[] y) {
+		if (x.length != y.length) {
+			throw new IllegalArgumentException("Input arrays must have the same length");
+		}
+		this.x = x;
+		this.y = y;
+		int size = x.length;
+
+		double mx = 0.0;
+		double my = 0.0;
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (isFinite(x[i], y[i])) {
+				mx += x[i];
+				my += y[i];
+				count++;
+			}
+		}
+		shiftX = (count > 0 ? mx / count : 0.0);
+		shiftY = (count > 0 ? my / count : 0.0);
+
+		sumX = new double[size + 1];
+		sumY = new double[size + 1];
+		sumXX = new double[size + 1];
+		sumXY = new double[size + 1];
+		sumYY = new double[size + 1];
+		invalid = new int[size + 1];
+		for (int i = 0; i < size; i++) {
+			double dx = 0.0;
+			double dy = 0.0;
+			int bad = 1;
+			if (isFinite(x[i], y[i])) {
+				dx = x[i] - shiftX;
+				dy = y[i] - shiftY;
+				bad = 0;
+			}
+			sumX[i + 1] = sumX[i] + dx;
+			sumY[i + 1] = sumY[i] + dy;
+			sumXX[i + 1] = sumXX[i] + dx * dx;
+			sumXY[i + 1] = sumXY[i] + dx * dy;
+			sumYY[i + 1] = sumYY[i] + dy * dy;
+			invalid[i + 1] = invalid[i] + bad;
+		}
+	}
+
+	private static boolean isFinite(double x, double y) {
+		return !(Double.isNaN(x) || Double.isInfinite(x) || Double.isNaN(y) || Double.isInfinite(y));
+	}
+
+	public int getSize() {
+		return x.length;
+	}
+
+	private boolean isValid(int start, int end) {
+		return (end - start) >= 2 && invalid[end] == invalid[start];
+	}
+
+	private double getSxx(int start, int end) {
+		double sx = sumX[end] - sumX[start];
+		return (sumXX[end] - sumXX[start]) - sx * sx / (end - start);
+	}
+
+	private double getSxy(int start, int end) {
+		double sx = sumX[end] - sumX[start];
+		double sy = sumY[end] - sumY[start];
+		return (sumXY[end] - sumXY[start]) - sx * sy / (end - start);
+	}
+
+	private double getSyy(int start, int end) {
+		double sy = sumY[end] - sumY[start];
+		return (sumYY[end] - sumYY[start]) - sy * sy / (end - start);
+	}
+
+	public double getSlope(int start, int end) {
+		if (!isValid(start, end)) {
+			return Double.NaN;
+		}
+		double sxx = getSxx(start, end);
+		if (!(sxx > 0.0)) {
+			return Double.NaN;
+		}
+		return getSxy(start, end) / sxx;
+	}
+
+	public double getIntercept(int start, int end) {
+		double slope = getSlope(start, end);
+		if (Double.isNaN(slope)) {
+			return Double.NaN;
+		}
+		int n = end - start;
+		double meanX = (sumX[end] - sumX[start]) / n + shiftX;
+		double meanY = (sumY[end] - sumY[start]) / n + shiftY;
+		return meanY - slope * meanX;
+	}
+
+	/**
+	 * @return Pearson's correlation coefficient for the window
+	 */
+	public double getR(int start, int end) {
+		if (!isValid(start, end)) {
+			return Double.NaN;
+		}
+		double sxx = getSxx(start, end);
+		double syy = getSyy(start, end);
+		if (!(sxx > 0.0) || !(syy >= 0.0)) {
+			return Double.NaN;
+		}
+		double r = getSxy(start, end) / Math.sqrt(sxx * syy);
+		return Math.max(-1.0, Math.min(1.0, r));
+	}
+
+	/**
+	 * @return residual sum of squares for the window
+	 */
+	public double getSumSquaredErrors(int start, int end) {
+		if (!isValid(start, end)) {
+			return Double.NaN;
+		}
+		double sxx = getSxx(start, end);
+		if (!(sxx > 0.0)) {
+			return Double.NaN;
+		}
+		double sxy = getSxy(start, end);
+		return Math.max(0.0, getSyy(start, end) - sxy * sxy / sxx);
+	}
+
+	/**
+	 * Build full regression object for the selected window, e.g. for parameter error estimates
+	 */
+	public SimpleRegression getRegression(int start, int end) {
+		SimpleRegression regression = new SimpleRegression();
+		for (int i = start; i < end; i++) {
+			regression.addData(x[i], y[i]);
+		}
+		return regression;
+	}
+}
@@ -35,6 +35,7 @@ public class NcdReductionFlags {
 	private boolean enableKratkyPlot;
 	private boolean enableZimmPlot;
 	private boolean enableDebyeBuechePlot;
+	private boolean enableStageFusion;
 	
 	public NcdReductionFlags() {
 		enableAverage = false;
@@ -54,6 +55,7 @@ public class NcdReductionFlags {
 		enableKratkyPlot = false;
 		enableZimmPlot = false;
 		enableDebyeBuechePlot = false;
+		enableStageFusion = false;
 	}
 	
 	public NcdReductionFlags(NcdReductionFlags flags) {
@@ -74,6 +76,7 @@ public class NcdReductionFlags {
 		enableKratkyPlot = flags.enableKratkyPlot;
 		enableZimmPlot = flags.enableZimmPlot;
 		enableDebyeBuechePlot = flags.enableDebyeBuechePlot;
+		enableStageFusion = flags.enableStageFusion;
 	}
 	
 	public boolean isEnableAverage() {
@@ -208,4 +211,12 @@ public class NcdReductionFlags {
 	public void setEnableDebyeBuechePlot(boolean enableDebyeBuechePlot) {
 		this.enableDebyeBuechePlot = enableDebyeBuechePlot;
 	}
+
+	public boolean isEnableStageFusion() {
+		return enableStageFusion;
+	}
+
+	public void setEnableStageFusion(boolean enableStageFusion) {
+		this.enableStageFusion = enableStageFusion;
+	}
 }
@@ -16,6 +16,8 @@
 
 package uk.ac.diamond.scisoft.ncd.core.service;
 
+import java.util.Collection;
+
 import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
 import org.eclipse.january.dataset.BooleanDataset;
 
@@ -107,6 +109,18 @@ public interface IDataReductionContext {
 
 	public void setEnableFastIntegration(boolean enableFastIntegration);
 
+	public boolean isEnableStageFusion();
+
+	public void setEnableStageFusion(boolean enableStageFusion);
+
+	/**
+	 * Names of the data reduction stages, e.g. "DetectorResponse", whose results are written
+	 * into the results file when stage fusion is enabled.
+	 */
+	public Collection<String> getPersistedStages();
+
+	public void setPersistedStages(Collection<String> persistedStages);
+
 	public boolean isEnableMask();
 
 	public void setEnableMask(boolean enableMask);
@@ -231,6 +245,22 @@ public interface IDataReductionContext {
 	 */
 	void setWorkAmount(int workAmount);
 
+	/**
+	 * Maximum number of files reduced concurrently in a batch.
+	 * Non-positive value selects default parallelism for the number of available processors.
+	 */
+	int getBatchParallelism();
+
+	void setBatchParallelism(int batchParallelism);
+
+	/**
+	 * Estimated memory in bytes that files reduced concurrently in a batch are allowed to use.
+	 * Non-positive value selects a fixed fraction of the maximum heap size.
+	 */
+	long getBatchMemoryBudget();
+
+	void setBatchMemoryBudget(long batchMemoryBudget);
+
 	/**
 	 * This is the actual name generated with the background is written to.
 	 */
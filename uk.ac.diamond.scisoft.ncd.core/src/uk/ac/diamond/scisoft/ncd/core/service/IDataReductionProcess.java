@@ -16,6 +16,8 @@
 
 package uk.ac.diamond.scisoft.ncd.core.service;
 
+import java.util.Collection;
+
 import javax.measure.quantity.Energy;
 
 import org.dawnsci.plotting.tools.preference.detector.DiffractionDetector;
@@ -40,6 +42,8 @@ public interface IDataReductionProcess {
 
 	void setFlags(NcdReductionFlags flags);
 
+	void setPersistedStages(Collection<String> persistedStages);
+
 	void setFirstFrame(Integer bgFirstFrame);
 	
 	void setLastFrame(Integer lastFrame);
@@ -16,6 +16,8 @@
 
 package uk.ac.diamond.scisoft.ncd.core.service;
 
+import java.util.List;
+
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 
@@ -78,4 +80,16 @@ public interface IDataReductionService {
 	 * @return if file was processed
 	 */
 	public IStatus process(String filePath, IDataReductionContext context, IProgressMonitor monitor) throws Exception;
+
+	/**
+	 * Run the data reduction algorithm for a batch of files. Files are processed concurrently
+	 * using the batch parallelism and memory budget set in the context. Shared inputs, e.g.
+	 * background data and detector response, are prepared once for the whole batch.
+	 * 
+	 * @param filePaths
+	 * @param context
+	 * @param monitor - may not be null, use NullProgressMonitor if not calling with thread.
+	 * @return combined status of all processed files
+	 */
+	public IStatus processBatch(List<String> filePaths, IDataReductionContext context, IProgressMonitor monitor) throws Exception;
 }
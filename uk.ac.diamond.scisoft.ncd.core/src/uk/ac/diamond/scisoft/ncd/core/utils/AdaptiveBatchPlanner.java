@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plans the number of frames processed by a single job and the number of concurrently running jobs
+ * so that frame buffers fit within a target fraction of the heap.
+ * <p>
+ * The plan starts from an estimate of the heap footprint of a single frame, which is replaced by the
+ * footprint measured by the running jobs. Heap occupancy after garbage collection is checked whenever
+ * a job completes, both for the whole heap and for every tenured pool against the target fraction of the pool.
+ * Batch size and concurrency are then shrunk multiplicatively under memory pressure and grown
+ * additively while occupancy stays well below the target.
+ * <p>
+ * The planner only reads memory usage and doesn't change any JVM-wide settings, so several planners
+ * can run at the same time.
+ */
+public class AdaptiveBatchPlanner {
+
+	private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchPlanner.class);
+
+	public static final double DEFAULT_HEAP_FRACTION = 0.6;
+
+	// Occupancy below this fraction of the target allows the plan to grow
+	private static final double GROWTH_MARGIN = 0.75;
+
+	private final double heapFraction;
+	private final int maxConcurrency;
+	private final int maxFrameBatch;
+	private final long heapLimit;
+
+	private final long estimatedFrameBytes;
+	private long measuredFrameBytes;
+	private final long baselineHeap;
+
+	private int frameBatch;
+	private int concurrency;
+
+	/**
+	 * @param heapFraction
+	 *            - fraction of the maximum heap size available for data reduction
+	 * @param maxConcurrency
+	 *            - maximum number of concurrently running jobs
+	 * @param maxFrameBatch
+	 *            - maximum number of frames processed by a single job
+	 * @param frameBytes
+	 *            - initial estimate of heap used for processing a single frame in all enabled stages
+	 */
+	public AdaptiveBatchPlanner(double heapFraction, int maxConcurrency, int maxFrameBatch, long frameBytes) {
+		this.heapFraction = heapFraction;
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.maxFrameBatch = Math.max(1, maxFrameBatch);
+		this.heapLimit = (long) (heapFraction * Runtime.getRuntime().maxMemory());
+		this.estimatedFrameBytes = Math.max(1, frameBytes);
+		this.baselineHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		plan();
+	}
+
+	/**
+	 * Set batch size and concurrency from the frame footprint and the heap available above the baseline occupancy
+	 */
+	private synchronized void plan() {
+		long frameBytes = getFrameBytes();
+		long framesInFlight = Math.max(1, (heapLimit - baselineHeap) / frameBytes);
+		concurrency = (int) Math.max(1, Math.min(maxConcurrency, framesInFlight));
+		frameBatch = (int) Math.max(1, Math.min(maxFrameBatch, framesInFlight / concurrency));
+	}
+
+	/**
+	 * @return heap footprint of a single frame in bytes, measured if available
+	 */
+	public synchronized long getFrameBytes() {
+		return (measuredFrameBytes > 0 ? measuredFrameBytes : estimatedFrameBytes);
+	}
+
+	public synchronized int getFrameBatch() {
+		return frameBatch;
+	}
+
+	public synchronized int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Record heap footprint of a completed job. The plan follows the largest footprint
+	 * as frames from different parts of the dataset can need different amount of memory.
+	 *
+	 * @param frames
+	 *            - number of frames processed by the job
+	 * @param bytes
+	 *            - size of the buffers allocated for the frames
+	 */
+	public synchronized void recordFootprint(long frames, long bytes) {
+		if (frames <= 0 || bytes <= 0) {
+			return;
+		}
+		long frameBytes = bytes / frames;
+		if (frameBytes > measuredFrameBytes) {
+			measuredFrameBytes = frameBytes;
+			int batch = frameBatch;
+			int jobs = concurrency;
+			plan();
+			// Measured footprint only limits the plan, growth is left to update()
+			frameBatch = Math.min(frameBatch, batch);
+			concurrency = Math.min(concurrency, jobs);
+		}
+	}
+
+	/**
+	 * Adjust the plan after a job has completed
+	 */
+	public synchronized void update() {
+		long occupancy = getHeapOccupancy();
+		if (occupancy > heapLimit || isPoolAboveLimit()) {
+			if (frameBatch > 1) {
+				frameBatch = Math.max(1, frameBatch / 2);
+			} else if (concurrency > 1) {
+				concurrency = Math.max(1, concurrency / 2);
+			}
+			logger.debug("Heap occupancy {} MB above target, reducing batch to {} frames in {} jobs", occupancy >> 20,
+					frameBatch, concurrency);
+			return;
+		}
+		if (occupancy < GROWTH_MARGIN * heapLimit) {
+			long frameBytes = getFrameBytes();
+			// Frame buffers are short-lived, so occupancy after collection mostly excludes the frames in flight
+			long framesInFlight = Math.max(1, (heapLimit - occupancy) / frameBytes);
+			if (concurrency < maxConcurrency && concurrency < framesInFlight) {
+				concurrency++;
+			} else if (frameBatch < maxFrameBatch && (long) (frameBatch + 1) * concurrency <= framesInFlight) {
+				frameBatch = (int) Math.min(maxFrameBatch, Math.min(frameBatch + Math.max(1, frameBatch / 4),
+						framesInFlight / concurrency));
+			}
+		}
+	}
+
+	/**
+	 * @return true if the most recent garbage collection left any tenured heap pool
+	 *         above the target fraction of its maximum size
+	 */
+	protected boolean isPoolAboveLimit() {
+		// Only tenured pools are checked. Survivor spaces can be full after every collection
+		// and would report memory pressure regardless of the heap occupancy.
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+					&& pool.isCollectionUsageThresholdSupported()) {
+				MemoryUsage usage = pool.getCollectionUsage();
+				long max = pool.getUsage().getMax();
+				if (usage != null && max > 0 && usage.getUsed() > heapFraction * max) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return heap used after the most recent garbage collection of every pool, which excludes
+	 *         short-lived buffers waiting to be collected
+	 */
+	protected long getHeapOccupancy() {
+		long total = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				MemoryUsage usage = pool.getCollectionUsage();
+				total += (usage != null ? usage : pool.getUsage()).getUsed();
+			}
+		}
+		return total;
+	}
+}
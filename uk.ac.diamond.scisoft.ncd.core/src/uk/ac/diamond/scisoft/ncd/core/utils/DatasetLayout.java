@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.utils;
+
+/**
+ * Storage layout of the datasets created by {@link NcdNexusUtils#makedata} and {@link NcdNexusUtils#makeaxis}
+ */
+public final class DatasetLayout {
+
+	/**
+	 * Contiguous layout without filters
+	 */
+	public static final DatasetLayout CONTIGUOUS = new DatasetLayout(false, 0, false);
+
+	private final boolean chunked;
+	private final int deflateLevel;
+	private final boolean shuffle;
+
+	private DatasetLayout(boolean chunked, int deflateLevel, boolean shuffle) {
+		this.chunked = chunked;
+		this.deflateLevel = deflateLevel;
+		this.shuffle = shuffle;
+	}
+
+	/**
+	 * Chunked layout with chunk shapes matching frame by frame access to the dataset
+	 *
+	 * @param deflateLevel
+	 *            - gzip compression level between 1 and 9. Zero disables compression.
+	 * @param shuffle
+	 *            - apply byte shuffle filter before compression
+	 */
+	public static DatasetLayout chunked(int deflateLevel, boolean shuffle) {
+		if (deflateLevel < 0 || deflateLevel > 9) {
+			throw new IllegalArgumentException("Deflate compression level must be between 0 and 9");
+		}
+		return new DatasetLayout(true, deflateLevel, shuffle);
+	}
+
+	public boolean isChunked() {
+		return chunked;
+	}
+
+	public int getDeflateLevel() {
+		return deflateLevel;
+	}
+
+	public boolean isShuffle() {
+		return shuffle;
+	}
+}
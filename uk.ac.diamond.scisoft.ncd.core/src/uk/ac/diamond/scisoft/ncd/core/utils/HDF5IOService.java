@@ -0,0 +1,382 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.dawnsci.hdf5.HDF5Utils;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
+import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+
+/**
+ * Single-threaded executor for HDF5 operations. Compute threads submit hyperslab reads and writes
+ * and receive futures instead of locking the HDF5 library themselves, so reads for the following
+ * frames can be queued ahead of processing and results are written behind it.
+ * <p>
+ * Every operation selects hyperslabs on its own dataspace copy. All HDF5 access to the files handled
+ * by the service while processing is running has to go through it, so no lock is needed to keep
+ * reads and writes consistent.
+ * <p>
+ * Read and write times, transferred bytes and the time compute threads spend waiting for the service
+ * are recorded in the stage metrics passed with every operation, so stages running at the same time
+ * can share the service.
+ */
+public class HDF5IOService {
+
+	private static final int DEFAULT_PENDING_WRITES = 32;
+
+	private final ExecutorService executor;
+	private final Semaphore writePermits;
+	private final AtomicReference<Throwable> writeError;
+
+	public HDF5IOService() {
+		this(DEFAULT_PENDING_WRITES);
+	}
+
+	/**
+	 * @param maxPendingWrites
+	 *            - number of queued writes after which writers are blocked until the queue drains
+	 */
+	public HDF5IOService(int maxPendingWrites) {
+		this.writePermits = new Semaphore(Math.max(1, maxPendingWrites));
+		this.writeError = new AtomicReference<Throwable>();
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "NCD HDF5 I/O");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queue arbitrary HDF5 operation for execution on the I/O thread
+	 */
+	public <T> Future<T> submit(Callable<T> operation) {
+		return executor.submit(operation);
+	}
+
+	/**
+	 * Execute HDF5 operation on the I/O thread and wait for the result
+	 */
+	public <T> T execute(Callable<T> operation) throws HDF5Exception {
+		return get(submit(operation));
+	}
+
+	/**
+	 * Queue hyperslab read
+	 *
+	 * @param slice
+	 *            - input slice parameters
+	 * @param dataID
+	 *            - input dataset identifier
+	 * @param errorsID
+	 *            - optional input errors dataset identifier. Ignored if negative.
+	 * @param stage
+	 *            - metrics of the stage requesting the read. Can be null.
+	 * @return future for the data slice with errors set if errors dataset was provided
+	 */
+	public Future<Dataset> readSlice(SliceSettings slice, final long dataID, final long errorsID, final StageMetrics stage) {
+		final SliceSettings sliceParams = new SliceSettings(slice);
+		return submit(new Callable<Dataset>() {
+			@Override
+			public Dataset call() throws Exception {
+				long start = System.nanoTime();
+				Dataset data = read(sliceParams, dataID);
+				long bytes = data.getNbytes();
+				if (errorsID >= 0) {
+					Dataset errors = read(sliceParams, errorsID);
+					bytes += errors.getNbytes();
+					data.setErrors(errors);
+				}
+				if (stage != null) {
+					stage.getReadTime().record(System.nanoTime() - start);
+					stage.addBytesIn(bytes);
+				}
+				return data;
+			}
+		});
+	}
+
+	/**
+	 * Queue read of an arbitrary hyperslab
+	 *
+	 * @param datasetID
+	 *            - input dataset identifier
+	 * @param start
+	 *            - hyperslab start position
+	 * @param block
+	 *            - hyperslab block size
+	 * @param shape
+	 *            - shape of the returned dataset. Must have the same size as the block.
+	 * @param stage
+	 *            - metrics of the stage requesting the read. Can be null.
+	 * @return future for the data in the dataset file type
+	 */
+	public Future<Dataset> readBlock(final long datasetID, long[] start, long[] block, int[] shape, final StageMetrics stage) {
+		final long[] readStart = Arrays.copyOf(start, start.length);
+		final long[] readBlock = Arrays.copyOf(block, block.length);
+		final int[] readShape = Arrays.copyOf(shape, shape.length);
+		return submit(new Callable<Dataset>() {
+			@Override
+			public Dataset call() throws Exception {
+				long start = System.nanoTime();
+				Dataset data = read(datasetID, readStart, readBlock, readShape);
+				if (stage != null) {
+					stage.getReadTime().record(System.nanoTime() - start);
+					stage.addBytesIn(data.getNbytes());
+				}
+				return data;
+			}
+		});
+	}
+
+	private static Dataset read(long datasetID, long[] start, long[] block, int[] shape) throws HDF5Exception {
+		long filespaceID = -1;
+		long typeID = -1;
+		long memspaceID = -1;
+		try {
+			long[] count = new long[block.length];
+			Arrays.fill(count, 1);
+			filespaceID = H5.H5Dget_space(datasetID);
+			typeID = H5.H5Dget_type(datasetID);
+			int dtype = HDF5Utils.getDType(H5.H5Tget_class(typeID), (int) H5.H5Tget_size(typeID));
+			Dataset data = DatasetFactory.zeros(shape, dtype);
+			memspaceID = H5.H5Screate_simple(block.length, block, null);
+			int selectID = H5.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
+			if (selectID < 0) {
+				throw new HDF5Exception("H5 select hyperslab error: can't allocate memory to read data");
+			}
+			int readID = H5.H5Dread(datasetID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, data.getBuffer());
+			if (readID < 0) {
+				throw new HDF5Exception("H5 data read error: can't read input dataset");
+			}
+			return data;
+		} finally {
+			NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, typeID, filespaceID)));
+		}
+	}
+
+	private static Dataset read(SliceSettings slice, long datasetID) throws HDF5Exception {
+		DataSliceIdentifiers ids = new DataSliceIdentifiers();
+		try {
+			ids.setIDs(-1, datasetID);
+			return NcdNexusUtils.sliceInputData(slice, ids);
+		} finally {
+			NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(ids.dataspace_id, ids.datatype_id)));
+		}
+	}
+
+	/**
+	 * Queue write of the data slice into the dataset with the slice frames shape
+	 *
+	 * @see #writeSlice(long, long[], long[], Object, StageMetrics)
+	 */
+	public Future<Void> writeSlice(long datasetID, SliceSettings slice, Object buffer, StageMetrics stage) {
+		DataSliceIdentifiers ids = new DataSliceIdentifiers();
+		ids.setSlice(slice);
+		return writeSlice(datasetID, ids.start, ids.block, buffer, stage);
+	}
+
+	/**
+	 * Queue hyperslab write. The buffer must not be modified after it has been submitted.
+	 * Blocks if the number of pending writes exceeds the queue limit. Write failures are
+	 * reported by the following call to {@link #flush()}.
+	 *
+	 * @param stage
+	 *            - metrics of the stage requesting the write. Can be null.
+	 */
+	public Future<Void> writeSlice(final long datasetID, long[] start, long[] block, final Object buffer, final StageMetrics stage) {
+		final long[] writeStart = Arrays.copyOf(start, start.length);
+		final long[] writeBlock = Arrays.copyOf(block, block.length);
+		if (!writePermits.tryAcquire()) {
+			long waitStart = System.nanoTime();
+			writePermits.acquireUninterruptibly();
+			if (stage != null) {
+				stage.getIOWaitTime().record(System.nanoTime() - waitStart);
+			}
+		}
+		try {
+			return submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						long start = System.nanoTime();
+						long bytes = write(datasetID, writeStart, writeBlock, buffer);
+						if (stage != null) {
+							stage.getWriteTime().record(System.nanoTime() - start);
+							stage.addBytesOut(bytes);
+						}
+					} catch (Exception e) {
+						writeError.compareAndSet(null, e);
+						throw e;
+					} finally {
+						writePermits.release();
+					}
+					return null;
+				}
+			});
+		} catch (RuntimeException e) {
+			writePermits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return number of bytes written
+	 */
+	private static long write(long datasetID, long[] start, long[] block, Object buffer) throws HDF5Exception {
+		long filespaceID = -1;
+		long typeID = -1;
+		long memspaceID = -1;
+		try {
+			long[] count = new long[block.length];
+			Arrays.fill(count, 1);
+			filespaceID = H5.H5Dget_space(datasetID);
+			typeID = H5.H5Dget_type(datasetID);
+			memspaceID = H5.H5Screate_simple(block.length, block, null);
+			int selectID = H5.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
+			if (selectID < 0) {
+				throw new HDF5Exception("Failed to allocate space for writing data slice");
+			}
+			int writeID = H5.H5Dwrite(datasetID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, buffer);
+			if (writeID < 0) {
+				throw new HDF5Exception("Failed to write data slice into the results file");
+			}
+			long bytes = H5.H5Tget_size(typeID);
+			for (long n : block) {
+				bytes *= n;
+			}
+			return bytes;
+		} finally {
+			NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, typeID, filespaceID)));
+		}
+	}
+
+	/**
+	 * Wait until all queued operations are complete
+	 *
+	 * @throws HDF5Exception
+	 *             if any write queued since the previous flush has failed
+	 */
+	public void flush() throws HDF5Exception {
+		get(executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				return null;
+			}
+		}));
+		Throwable e = writeError.getAndSet(null);
+		if (e != null) {
+			HDF5Exception ex = new HDF5Exception("Error writing data slice: " + e.getMessage());
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Wait for the result of queued operation rethrowing the original HDF5 exception
+	 */
+	public static <T> T get(Future<T> future) throws HDF5Exception {
+		return get(future, null);
+	}
+
+	/**
+	 * Wait for the result of queued operation rethrowing the original HDF5 exception.
+	 * Fork/join worker threads waiting for the result are compensated in their pool,
+	 * so tasks blocked on I/O don't starve the pool of workers.
+	 *
+	 * @param stage
+	 *            - metrics recording the wait time. Can be null.
+	 */
+	public static <T> T get(Future<T> future, StageMetrics stage) throws HDF5Exception {
+		try {
+			if (!future.isDone()) {
+				long start = System.nanoTime();
+				ForkJoinPool.managedBlock(new FutureBlocker(future));
+				if (stage != null) {
+					stage.getIOWaitTime().record(System.nanoTime() - start);
+				}
+			}
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			HDF5Exception ex = new HDF5Exception("Interrupted while waiting for HDF5 operation");
+			ex.initCause(e);
+			throw ex;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof HDF5Exception) {
+				throw (HDF5Exception) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			HDF5Exception ex = new HDF5Exception(String.valueOf(cause.getMessage()));
+			ex.initCause(cause);
+			throw ex;
+		}
+	}
+
+	private static class FutureBlocker implements ForkJoinPool.ManagedBlocker {
+
+		private final Future<?> future;
+
+		public FutureBlocker(Future<?> future) {
+			this.future = future;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				// Rethrown when the result is retrieved
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return future.isDone();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of operation durations with power of two microsecond buckets.
+ * Bucket <i>i</i> counts durations shorter than 2<sup><i>i</i></sup> microseconds, so
+ * recording a value is a few atomic increments and percentiles are accurate within a factor of two.
+ */
+public class LatencyHistogram {
+
+	public static final int BUCKETS = 40;
+
+	private static final long NANOS_PER_MICRO = 1000L;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos
+	 *            - duration in nanoseconds. Negative values are ignored.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			return;
+		}
+		counts.incrementAndGet(getBucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos)) {
+			current = max.get();
+		}
+	}
+
+	static int getBucket(long nanos) {
+		long micros = nanos / NANOS_PER_MICRO;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	/**
+	 * @return upper bound of the bucket in nanoseconds
+	 */
+	public static long getBucketLimit(int bucket) {
+		return (1L << bucket) * NANOS_PER_MICRO;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return sum of all recorded durations in nanoseconds
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.get();
+		return (n > 0 ? (double) total.get() / n : 0.0);
+	}
+
+	/**
+	 * @param fraction
+	 *            - percentile as a fraction between 0 and 1
+	 * @return upper bound of the bucket containing the percentile in nanoseconds, limited by the maximum recorded value
+	 */
+	public long getPercentile(double fraction) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.max(0.0, Math.min(1.0, fraction)) * n);
+		long sum = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			sum += counts.get(i);
+			if (sum >= rank) {
+				return Math.min(getBucketLimit(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return number of recorded durations in every bucket
+	 */
+	public long[] getCounts() {
+		long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			result[i] = counts.get(i);
+		}
+		return result;
+	}
+}
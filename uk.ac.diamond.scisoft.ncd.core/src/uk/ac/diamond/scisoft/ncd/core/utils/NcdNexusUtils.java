@@ -35,9 +35,99 @@ import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
 
 public final class NcdNexusUtils {
 
+	// Upper limit on chunk size. Chunks are kept below the default 1MB chunk cache size
+	// so that the chunk being filled by consecutive frame writes stays in the cache.
+	private static final long CHUNK_MAX_BYTES = 512 * 1024;
+	// Small datasets are not worth chunking and filtering
+	private static final long CONTIGUOUS_MAX_BYTES = 8 * 1024;
+
 	private NcdNexusUtils() {
 	}
 
+	/**
+	 * Calculate chunk shape matching frame by frame access to the dataset. Chunks span whole
+	 * trailing (frame) dimensions, and as many consecutive frames as fit within the chunk size limit.
+	 * Frames larger than the limit are split along their slowest varying dimension.
+	 * 
+	 * @param dim
+	 *            - dataset shape
+	 * @param typeSize
+	 *            - size of dataset element in bytes
+	 * @return chunk shape
+	 */
+	public static long[] getChunkShape(long[] dim, long typeSize) {
+		long[] chunk = new long[dim.length];
+		Arrays.fill(chunk, 1);
+		long size = Math.max(1, typeSize);
+		for (int i = dim.length - 1; i >= 0; i--) {
+			if (size * dim[i] <= CHUNK_MAX_BYTES) {
+				chunk[i] = dim[i];
+				size *= dim[i];
+			} else {
+				chunk[i] = Math.max(1, CHUNK_MAX_BYTES / size);
+				break;
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * Read chunk shape of an existing dataset
+	 * 
+	 * @return chunk shape or null if dataset doesn't use chunked layout
+	 */
+	public static long[] getDatasetChunkShape(long datasetID) throws HDF5Exception {
+		long dcpl_id = H5.H5Dget_create_plist(datasetID);
+		try {
+			if (H5.H5Pget_layout(dcpl_id) != HDF5Constants.H5D_CHUNKED) {
+				return null;
+			}
+			long spaceID = H5.H5Dget_space(datasetID);
+			int rank;
+			try {
+				rank = H5.H5Sget_simple_extent_ndims(spaceID);
+			} finally {
+				H5.H5Sclose(spaceID);
+			}
+			long[] chunk = new long[rank];
+			H5.H5Pget_chunk(dcpl_id, rank, chunk);
+			return chunk;
+		} finally {
+			H5.H5Pclose(dcpl_id);
+		}
+	}
+
+	private static long makeDatasetProperties(long type, long[] dim, DatasetLayout layout) throws HDF5Exception {
+		long dcpl_id = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
+		if (dcpl_id < 0 || !layout.isChunked() || dim.length == 0) {
+			return dcpl_id;
+		}
+		long typeSize = H5.H5Tget_size(type);
+		long totalSize = typeSize;
+		for (long d : dim) {
+			if (d <= 0) {
+				return dcpl_id;
+			}
+			totalSize *= d;
+		}
+		if (totalSize <= CONTIGUOUS_MAX_BYTES) {
+			return dcpl_id;
+		}
+		try {
+			H5.H5Pset_chunk(dcpl_id, dim.length, getChunkShape(dim, typeSize));
+			if (layout.getDeflateLevel() > 0 && H5.H5Zfilter_avail(HDF5Constants.H5Z_FILTER_DEFLATE) > 0) {
+				if (layout.isShuffle() && typeSize > 1) {
+					H5.H5Pset_shuffle(dcpl_id);
+				}
+				H5.H5Pset_deflate(dcpl_id, layout.getDeflateLevel());
+			}
+		} catch (HDF5Exception e) {
+			H5.H5Pclose(dcpl_id);
+			throw e;
+		}
+		return dcpl_id;
+	}
+
 	public static long makegroup(long parent_id, String name, String nxclass) throws HDF5Exception {
 
 		if (parent_id < 0) {
@@ -76,6 +166,10 @@ public final class NcdNexusUtils {
 	}
 
 	public static long makedata(long parent_id, String name, long type, long[] dim) throws HDF5Exception {
+		return makedata(parent_id, name, type, dim, DatasetLayout.CONTIGUOUS);
+	}
+
+	public static long makedata(long parent_id, String name, long type, long[] dim, DatasetLayout layout) throws HDF5Exception {
 		if (parent_id < 0) {
 			throw new HDF5Exception("Illegal parent group id");
 		}
@@ -89,9 +183,7 @@ public final class NcdNexusUtils {
 			if (dataspace_id < 0) {
 				throw new HDF5Exception("H5 makedata error: failed to allocate space for dataset");
 			}
-			dcpl_id = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
-			// if (dcpl_id >= 0)
-			// H5.H5Pset_chunk(dcpl_id, rank, dim);
+			dcpl_id = makeDatasetProperties(type, dim, layout);
 
 			dataset_id = H5.H5Dcreate(parent_id, name, type, dataspace_id, HDF5Constants.H5P_DEFAULT, dcpl_id,
 					HDF5Constants.H5P_DEFAULT);
@@ -112,10 +204,15 @@ public final class NcdNexusUtils {
 
 	public static long makedata(long parent_id, String name, long type, long[] dim, boolean signal, String units)
 			throws HDF5Exception {
+		return makedata(parent_id, name, type, dim, signal, units, DatasetLayout.CONTIGUOUS);
+	}
+
+	public static long makedata(long parent_id, String name, long type, long[] dim, boolean signal, String units,
+			DatasetLayout layout) throws HDF5Exception {
 		if (parent_id < 0) {
 			throw new HDF5Exception("Illegal parent group id");
 		}
-		long dataset_id = makedata(parent_id, name, type, dim);
+		long dataset_id = makedata(parent_id, name, type, dim, layout);
 		if (dataset_id < 0) {
 			throw new HDF5Exception("H5 makedata error: failed to create dataset");
 		}
@@ -163,6 +260,11 @@ public final class NcdNexusUtils {
 
 	public static long makeaxis(long parent_id, String name, long type, long[] dim, int[] axis, int primary, String units)
 			throws HDF5Exception {
+		return makeaxis(parent_id, name, type, dim, axis, primary, units, DatasetLayout.CONTIGUOUS);
+	}
+
+	public static long makeaxis(long parent_id, String name, long type, long[] dim, int[] axis, int primary, String units,
+			DatasetLayout layout) throws HDF5Exception {
 		if (parent_id < 0) {
 			throw new HDF5Exception("Illegal parent group id");
 		}
@@ -176,9 +278,7 @@ public final class NcdNexusUtils {
 			if (dataspace_id < 0) {
 				throw new HDF5Exception("H5 makedata error: failed to allocate space for dataset");
 			}
-			dcpl_id = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
-			// if (dcpl_id >= 0)
-			// H5.H5Pset_chunk(dcpl_id, rank, dim);
+			dcpl_id = makeDatasetProperties(type, dim, layout);
 
 			dataset_id = H5.H5Dcreate(parent_id, name, type, dataspace_id, HDF5Constants.H5P_DEFAULT, dcpl_id,
 					HDF5Constants.H5P_DEFAULT);
@@ -284,6 +384,18 @@ public final class NcdNexusUtils {
 		}
 	}
 	
+	/**
+	 * @return size of a single dataset element in bytes
+	 */
+	public static long getDatasetTypeSize(long datasetID) throws HDF5LibraryException {
+		long typeID = H5.H5Dget_type(datasetID);
+		try {
+			return H5.H5Tget_size(typeID);
+		} finally {
+			H5.H5Tclose(typeID);
+		}
+	}
+	
 	public static long[] getIdsDatasetShape(long dataspace_id) throws HDF5LibraryException {
 		final int ndims = H5.H5Sget_simple_extent_ndims(dataspace_id);
 		long[] dims = new long[ndims];
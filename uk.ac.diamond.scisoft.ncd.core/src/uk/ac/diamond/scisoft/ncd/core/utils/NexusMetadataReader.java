@@ -0,0 +1,225 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.dawnsci.hdf5.HDF5Utils;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import hdf.hdf5lib.exceptions.HDF5LibraryException;
+
+/**
+ * Reader for individual metadata nodes of a NeXus file. Only the requested paths are opened
+ * and the first element of the selected dataset is read, instead of loading the whole file tree.
+ * <p>
+ * The file is opened read-only on the first request and stays open until the reader is closed,
+ * so that all metadata for one file is read using the same file handle.
+ */
+public class NexusMetadataReader implements AutoCloseable {
+
+	private final String filePath;
+	private long fileID = -1;
+
+	public NexusMetadataReader(String filePath) {
+		this.filePath = filePath;
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	public long getFileID() throws HDF5Exception {
+		if (fileID < 0) {
+			long fapl = H5.H5Pcreate(HDF5Constants.H5P_FILE_ACCESS);
+			try {
+				H5.H5Pset_fclose_degree(fapl, HDF5Constants.H5F_CLOSE_WEAK);
+				fileID = HDF5Utils.H5Fopen(filePath, HDF5Constants.H5F_ACC_RDONLY, fapl);
+			} finally {
+				H5.H5Pclose(fapl);
+			}
+		}
+		return fileID;
+	}
+
+	/**
+	 * Check that all links in the absolute node path exist and the node can be opened,
+	 * e.g. the target of an external link is available
+	 */
+	public boolean exists(String path) throws HDF5Exception {
+		long fid = getFileID();
+		StringBuilder linkPath = new StringBuilder();
+		for (String name : path.split("/")) {
+			if (name.isEmpty()) {
+				continue;
+			}
+			linkPath.append('/').append(name);
+			if (!H5.H5Lexists(fid, linkPath.toString(), HDF5Constants.H5P_DEFAULT)) {
+				return false;
+			}
+		}
+		try {
+			return H5.H5Oexists_by_name(fid, path, HDF5Constants.H5P_DEFAULT);
+		} catch (HDF5LibraryException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Read the first element of a string or numeric dataset as text
+	 *
+	 * @return dataset value or null if the dataset doesn't exist
+	 */
+	public String readString(String path) throws HDF5Exception {
+		if (!exists(path)) {
+			return null;
+		}
+		List<Long> identifiers = new ArrayList<Long>();
+		try {
+			long datasetID = H5.H5Dopen(getFileID(), path, HDF5Constants.H5P_DEFAULT);
+			identifiers.add(datasetID);
+			long typeID = H5.H5Dget_type(datasetID);
+			identifiers.add(typeID);
+			long filespaceID = selectFirstElement(datasetID);
+			identifiers.add(filespaceID);
+			long memspaceID = H5.H5Screate_simple(1, new long[] { 1 }, null);
+			identifiers.add(memspaceID);
+
+			long typeClass = H5.H5Tget_class(typeID);
+			if (typeClass == HDF5Constants.H5T_INTEGER) {
+				long[] value = new long[1];
+				H5.H5Dread(datasetID, HDF5Constants.H5T_NATIVE_INT64, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, value);
+				return Long.toString(value[0]);
+			}
+			if (typeClass == HDF5Constants.H5T_FLOAT) {
+				double[] value = new double[1];
+				H5.H5Dread(datasetID, HDF5Constants.H5T_NATIVE_DOUBLE, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, value);
+				return Double.toString(value[0]);
+			}
+			if (typeClass != HDF5Constants.H5T_STRING) {
+				return null;
+			}
+
+			long memtypeID = H5.H5Tcopy(HDF5Constants.H5T_C_S1);
+			identifiers.add(memtypeID);
+			if (H5.H5Tis_variable_str(typeID)) {
+				H5.H5Tset_size(memtypeID, HDF5Constants.H5T_VARIABLE);
+				String[] value = new String[1];
+				H5.H5Dread_VLStrings(datasetID, memtypeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, value);
+				return value[0];
+			}
+			int size = (int) H5.H5Tget_size(typeID);
+			H5.H5Tset_size(memtypeID, size);
+			byte[] value = new byte[size];
+			H5.H5Dread(datasetID, memtypeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, value);
+			return toString(value);
+		} finally {
+			NcdNexusUtils.closeH5idList(identifiers);
+		}
+	}
+
+	/**
+	 * Read the first element of a numeric dataset
+	 *
+	 * @return dataset value or null if the dataset doesn't exist
+	 */
+	public Double readDouble(String path) throws HDF5Exception {
+		if (!exists(path)) {
+			return null;
+		}
+		List<Long> identifiers = new ArrayList<Long>();
+		try {
+			long datasetID = H5.H5Dopen(getFileID(), path, HDF5Constants.H5P_DEFAULT);
+			identifiers.add(datasetID);
+			long filespaceID = selectFirstElement(datasetID);
+			identifiers.add(filespaceID);
+			long memspaceID = H5.H5Screate_simple(1, new long[] { 1 }, null);
+			identifiers.add(memspaceID);
+
+			double[] value = new double[1];
+			H5.H5Dread(datasetID, HDF5Constants.H5T_NATIVE_DOUBLE, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, value);
+			return value[0];
+		} finally {
+			NcdNexusUtils.closeH5idList(identifiers);
+		}
+	}
+
+	/**
+	 * Read string attribute of a node
+	 *
+	 * @return attribute value or null if the node or the attribute don't exist
+	 */
+	public String readStringAttribute(String path, String name) throws HDF5Exception {
+		if (!exists(path) || !H5.H5Aexists_by_name(getFileID(), path, name, HDF5Constants.H5P_DEFAULT)) {
+			return null;
+		}
+		List<Long> identifiers = new ArrayList<Long>();
+		try {
+			long attrID = H5.H5Aopen_by_name(getFileID(), path, name, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+			identifiers.add(attrID);
+			long typeID = H5.H5Aget_type(attrID);
+			identifiers.add(typeID);
+			if (H5.H5Tget_class(typeID) != HDF5Constants.H5T_STRING) {
+				return null;
+			}
+			if (H5.H5Tis_variable_str(typeID)) {
+				String[] value = new String[1];
+				H5.H5AreadVL(attrID, typeID, value);
+				return value[0];
+			}
+			byte[] value = new byte[(int) H5.H5Tget_size(typeID)];
+			H5.H5Aread(attrID, typeID, value);
+			return toString(value);
+		} finally {
+			NcdNexusUtils.closeH5idList(identifiers);
+		}
+	}
+
+	private static long selectFirstElement(long datasetID) throws HDF5Exception {
+		long spaceID = H5.H5Dget_space(datasetID);
+		int rank = H5.H5Sget_simple_extent_ndims(spaceID);
+		if (rank > 0) {
+			long[] start = new long[rank];
+			long[] count = new long[rank];
+			Arrays.fill(count, 1);
+			H5.H5Sselect_hyperslab(spaceID, HDF5Constants.H5S_SELECT_SET, start, null, count, null);
+		}
+		return spaceID;
+	}
+
+	private static String toString(byte[] value) {
+		// Fixed length strings are padded with null characters
+		int length = 0;
+		while (length < value.length && value[length] != 0) {
+			length++;
+		}
+		return new String(value, 0, length);
+	}
+
+	@Override
+	public void close() throws HDF5LibraryException {
+		if (fileID >= 0) {
+			long fid = fileID;
+			fileID = -1;
+			NcdNexusUtils.closeH5id(fid);
+		}
+	}
+}
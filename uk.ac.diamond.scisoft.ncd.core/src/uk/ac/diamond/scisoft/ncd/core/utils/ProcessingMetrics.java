@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+
+/**
+ * Metrics of all stages of a single data reduction run. Completed stages are reported to progress
+ * monitors implementing {@link IStageMetricsListener} and the collected values can be stored
+ * in the results file as a processing provenance group.
+ */
+public class ProcessingMetrics {
+
+	private static final Logger logger = LoggerFactory.getLogger(ProcessingMetrics.class);
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private final Map<String, StageMetrics> stages = new LinkedHashMap<String, StageMetrics>();
+
+	/**
+	 * @return metrics of the named stage, created on first use
+	 */
+	public synchronized StageMetrics getStage(String name) {
+		StageMetrics stage = stages.get(name);
+		if (stage == null) {
+			stage = new StageMetrics(name);
+			stages.put(name, stage);
+		}
+		return stage;
+	}
+
+	/**
+	 * @return metrics of all stages in the order they were created
+	 */
+	public synchronized List<StageMetrics> getStages() {
+		return new ArrayList<StageMetrics>(stages.values());
+	}
+
+	/**
+	 * Log stage metrics and pass them to the monitor if it accepts them
+	 */
+	public static void report(IProgressMonitor monitor, StageMetrics stage) {
+		logger.info(stage.toString());
+		if (monitor instanceof IStageMetricsListener) {
+			((IStageMetricsListener) monitor).stageCompleted(stage);
+		}
+	}
+
+	/**
+	 * Write metrics of every stage into an NXcollection in a new NXprocess group. Existing group
+	 * with the same name, e.g. from the previous run on the same file, is replaced.
+	 *
+	 * @param parentGroupID
+	 *            - identifier of the NXentry group
+	 * @param groupName
+	 *            - name of the provenance group
+	 */
+	public void writeNexus(long parentGroupID, String groupName) throws HDF5Exception {
+		if (H5.H5Lexists(parentGroupID, groupName, HDF5Constants.H5P_DEFAULT)) {
+			H5.H5Ldelete(parentGroupID, groupName, HDF5Constants.H5P_DEFAULT);
+		}
+		List<Long> identifiers = new ArrayList<Long>();
+		try {
+			long processID = NcdNexusUtils.makegroup(parentGroupID, groupName, "NXprocess");
+			identifiers.add(processID);
+			for (StageMetrics stage : getStages()) {
+				long stageID = NcdNexusUtils.makegroup(processID, getGroupName(stage.getName()), "NXcollection");
+				try {
+					writeStage(stageID, stage);
+				} finally {
+					NcdNexusUtils.closeH5id(stageID);
+				}
+			}
+		} finally {
+			Collections.reverse(identifiers);
+			NcdNexusUtils.closeH5idList(identifiers);
+		}
+	}
+
+	private static void writeStage(long groupID, StageMetrics stage) throws HDF5Exception {
+		LatencyHistogram task = stage.getTaskTime();
+		LatencyHistogram ioWait = stage.getIOWaitTime();
+		writeValue(groupID, "frames", stage.getFrames(), "counts");
+		writeValue(groupID, "elapsed_time", stage.getElapsedTime() / NANOS_PER_SECOND, "s");
+		writeValue(groupID, "frame_rate", stage.getFramesPerSecond(), "Hz");
+		writeValue(groupID, "bytes_in", stage.getBytesIn(), "bytes");
+		writeValue(groupID, "bytes_out", stage.getBytesOut(), "bytes");
+		writeValue(groupID, "read_time", stage.getReadTime().getTotal() / NANOS_PER_SECOND, "s");
+		writeValue(groupID, "write_time", stage.getWriteTime().getTotal() / NANOS_PER_SECOND, "s");
+		writeValue(groupID, "task_count", task.getCount(), "counts");
+		writeValue(groupID, "task_time_mean", task.getMean() / NANOS_PER_SECOND, "s");
+		writeValue(groupID, "task_time_p95", task.getPercentile(0.95) / NANOS_PER_SECOND, "s");
+		writeValue(groupID, "task_time_max", task.getMax() / NANOS_PER_SECOND, "s");
+		writeValue(groupID, "io_wait_time", ioWait.getTotal() / NANOS_PER_SECOND, "s");
+		writeValue(groupID, "io_wait_p95", ioWait.getPercentile(0.95) / NANOS_PER_SECOND, "s");
+		writeValue(groupID, "io_wait_max", ioWait.getMax() / NANOS_PER_SECOND, "s");
+		writeArray(groupID, "io_wait_histogram", ioWait.getCounts(), "counts");
+		writeValue(groupID, "gc_count", stage.getGCCount(), "counts");
+		writeValue(groupID, "gc_time", stage.getGCTime() / NANOS_PER_SECOND, "s");
+	}
+
+	/**
+	 * Stage names are used as group names, so characters with special meaning in HDF5 paths are replaced
+	 */
+	static String getGroupName(String stageName) {
+		return stageName.trim().replaceAll("[^A-Za-z0-9_.-]+", "_");
+	}
+
+	private static void writeValue(long groupID, String name, double value, String units) throws HDF5Exception {
+		write(groupID, name, HDF5Constants.H5T_NATIVE_DOUBLE, 1, new double[] { value }, units);
+	}
+
+	private static void writeValue(long groupID, String name, long value, String units) throws HDF5Exception {
+		writeArray(groupID, name, new long[] { value }, units);
+	}
+
+	private static void writeArray(long groupID, String name, long[] values, String units) throws HDF5Exception {
+		write(groupID, name, HDF5Constants.H5T_NATIVE_INT64, values.length, values, units);
+	}
+
+	private static void write(long groupID, String name, long type, int size, Object buffer, String units)
+			throws HDF5Exception {
+		long datasetID = NcdNexusUtils.makedata(groupID, name, type, new long[] { size }, false, units);
+		try {
+			int writeID = H5.H5Dwrite(datasetID, type, HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL,
+					HDF5Constants.H5P_DEFAULT, buffer);
+			if (writeID < 0) {
+				throw new HDF5Exception("Failed to write processing metrics into the results file");
+			}
+		} finally {
+			NcdNexusUtils.closeH5id(datasetID);
+		}
+	}
+}
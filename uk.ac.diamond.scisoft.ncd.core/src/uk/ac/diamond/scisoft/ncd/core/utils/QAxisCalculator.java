@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.utils;
+
+import javax.measure.quantity.Length;
+import javax.measure.unit.Unit;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.FloatDataset;
+import org.jscience.physics.amount.Amount;
+
+import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVector;
+import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVectorOverDistance;
+
+/**
+ * Calculates q-axis values from the linear q-axis calibration.
+ * <p>
+ * Units of the calibration parameters are converted only once. The values then match
+ * <code>gradient.times(x).times(pxSize).plus(intercept).to(unit)</code>, where the estimated value
+ * and the absolute error of the interval arithmetic used by {@link Amount} are linear in |x|.
+ */
+public class QAxisCalculator {
+
+	private final double slope;
+	private final double slopeError;
+	private final double intercept;
+	private final double interceptError;
+
+	/**
+	 * @param gradient
+	 *            - q-axis calibration gradient
+	 * @param intercept
+	 *            - q-axis calibration intercept
+	 * @param pxSize
+	 *            - detector pixel size
+	 * @param unit
+	 *            - units of the q-axis values
+	 */
+	public QAxisCalculator(Amount<ScatteringVectorOverDistance> gradient, Amount<ScatteringVector> intercept,
+			Amount<Length> pxSize, Unit<ScatteringVector> unit) {
+		Amount<ScatteringVector> step = gradient.times(pxSize).to(unit);
+		Amount<ScatteringVector> offset = intercept.to(unit);
+		this.slope = step.getEstimatedValue();
+		this.slopeError = step.getAbsoluteError();
+		this.intercept = offset.getEstimatedValue();
+		this.interceptError = offset.getAbsoluteError();
+	}
+
+	/**
+	 * @param x
+	 *            - position in pixels
+	 * @return q-value at the given position
+	 */
+	public double getValue(double x) {
+		return slope * x + intercept;
+	}
+
+	/**
+	 * @param x
+	 *            - position in pixels
+	 * @return absolute error of the q-value at the given position
+	 */
+	public double getError(double x) {
+		return slopeError * Math.abs(x) + interceptError;
+	}
+
+	/**
+	 * Fill arrays with q-values and their errors at positions <code>offset + i</code>
+	 *
+	 * @param offset
+	 *            - position of the first point in pixels
+	 * @param q
+	 *            - q-values
+	 * @param qErr
+	 *            - q-value errors, ignored if null
+	 */
+	public void fill(double offset, float[] q, float[] qErr) {
+		if (qErr == null) {
+			for (int i = 0; i < q.length; i++) {
+				q[i] = (float) (slope * (i + offset) + intercept);
+			}
+			return;
+		}
+		for (int i = 0; i < q.length; i++) {
+			double x = i + offset;
+			q[i] = (float) (slope * x + intercept);
+			qErr[i] = (float) (slopeError * Math.abs(x) + interceptError);
+		}
+	}
+
+	/**
+	 * @param numPoints
+	 *            - number of q-axis points
+	 * @param offset
+	 *            - position of the first point in pixels
+	 * @param hasErrors
+	 *            - set q-value errors in the result
+	 * @return q-axis dataset
+	 */
+	public Dataset createDataset(int numPoints, double offset, boolean hasErrors) {
+		FloatDataset qaxis = DatasetFactory.zeros(FloatDataset.class, numPoints);
+		if (hasErrors) {
+			FloatDataset qaxisErr = DatasetFactory.zeros(FloatDataset.class, numPoints);
+			fill(offset, qaxis.getData(), qaxisErr.getData());
+			qaxis.setErrors(qaxisErr);
+		} else {
+			fill(offset, qaxis.getData(), null);
+		}
+		return qaxis;
+	}
+}
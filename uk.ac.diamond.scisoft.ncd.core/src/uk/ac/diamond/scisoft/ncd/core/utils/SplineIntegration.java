@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.utils;
+
+import org.apache.commons.math3.analysis.polynomials.PolynomialFunction;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+import org.apache.commons.math3.exception.OutOfRangeException;
+
+/**
+ * Exact integration of piecewise polynomial functions
+ */
+public final class SplineIntegration {
+
+	private SplineIntegration() {
+	}
+
+	/**
+	 * Integrate spline function over the given interval by summing closed-form integrals
+	 * of the polynomial pieces.
+	 *
+	 * @param spline
+	 *            - spline function, e.g. produced by SplineInterpolator
+	 * @param lower
+	 *            - lower integration bound
+	 * @param upper
+	 *            - upper integration bound
+	 * @return integral value
+	 * @throws OutOfRangeException
+	 *             if integration bounds are outside of the spline knot range
+	 */
+	public static double integrate(PolynomialSplineFunction spline, double lower, double upper) {
+		if (upper < lower) {
+			return -integrate(spline, upper, lower);
+		}
+		double[] knots = spline.getKnots();
+		PolynomialFunction[] polynomials = spline.getPolynomials();
+		int n = polynomials.length;
+		if (lower < knots[0] || lower > knots[n]) {
+			throw new OutOfRangeException(lower, knots[0], knots[n]);
+		}
+		if (upper < knots[0] || upper > knots[n]) {
+			throw new OutOfRangeException(upper, knots[0], knots[n]);
+		}
+
+		double result = 0.0;
+		for (int i = 0; i < n; i++) {
+			double start = Math.max(lower, knots[i]);
+			double end = Math.min(upper, knots[i + 1]);
+			if (end <= start) {
+				continue;
+			}
+			// Polynomial pieces are defined relative to the segment start knot
+			double[] coefficients = polynomials[i].getCoefficients();
+			result += antiDerivative(coefficients, end - knots[i]) - antiDerivative(coefficients, start - knots[i]);
+		}
+		return result;
+	}
+
+	private static double antiDerivative(double[] coefficients, double x) {
+		double result = 0.0;
+		for (int k = coefficients.length - 1; k >= 0; k--) {
+			result = result * x + coefficients[k] / (k + 1);
+		}
+		return result * x;
+	}
+}
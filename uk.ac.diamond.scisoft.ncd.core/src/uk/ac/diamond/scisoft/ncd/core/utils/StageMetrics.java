@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.core.utils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms collected while a single data reduction stage is running.
+ * Counters can be updated concurrently from compute and I/O threads.
+ * <p>
+ * Elapsed time and garbage collection activity are measured between {@link #start()} and {@link #stop()}.
+ * Collection times are reported by the JVM for the whole process, so they include pauses caused by
+ * other threads running at the same time.
+ */
+public class StageMetrics {
+
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	private final String name;
+
+	private final AtomicLong frames = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+
+	private final LatencyHistogram taskTime = new LatencyHistogram();
+	private final LatencyHistogram readTime = new LatencyHistogram();
+	private final LatencyHistogram writeTime = new LatencyHistogram();
+	private final LatencyHistogram ioWaitTime = new LatencyHistogram();
+
+	private long startTime = -1;
+	private long elapsedTime;
+	private long gcTimeStart, gcCountStart;
+	private long gcTime, gcCount;
+
+	public StageMetrics(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Start measuring elapsed and garbage collection time. Repeated start and stop calls accumulate.
+	 */
+	public synchronized void start() {
+		gcTimeStart = getCollectionTime();
+		gcCountStart = getCollectionCount();
+		startTime = System.nanoTime();
+	}
+
+	public synchronized void stop() {
+		if (startTime < 0) {
+			return;
+		}
+		elapsedTime += System.nanoTime() - startTime;
+		gcTime += (getCollectionTime() - gcTimeStart) * NANOS_PER_MILLI;
+		gcCount += getCollectionCount() - gcCountStart;
+		startTime = -1;
+	}
+
+	private static long getCollectionTime() {
+		long total = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, bean.getCollectionTime());
+		}
+		return total;
+	}
+
+	private static long getCollectionCount() {
+		long total = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, bean.getCollectionCount());
+		}
+		return total;
+	}
+
+	public void addFrames(long n) {
+		frames.addAndGet(n);
+	}
+
+	public void addBytesIn(long n) {
+		bytesIn.addAndGet(n);
+	}
+
+	public void addBytesOut(long n) {
+		bytesOut.addAndGet(n);
+	}
+
+	public long getFrames() {
+		return frames.get();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	/**
+	 * @return durations of compute tasks
+	 */
+	public LatencyHistogram getTaskTime() {
+		return taskTime;
+	}
+
+	/**
+	 * @return durations of HDF5 reads
+	 */
+	public LatencyHistogram getReadTime() {
+		return readTime;
+	}
+
+	/**
+	 * @return durations of HDF5 writes
+	 */
+	public LatencyHistogram getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * @return time compute threads spent waiting for HDF5 reads to complete or for space in the write queue
+	 */
+	public LatencyHistogram getIOWaitTime() {
+		return ioWaitTime;
+	}
+
+	/**
+	 * @return elapsed time in nanoseconds including the running measurement
+	 */
+	public synchronized long getElapsedTime() {
+		return elapsedTime + (startTime < 0 ? 0 : System.nanoTime() - startTime);
+	}
+
+	/**
+	 * @return time spent in garbage collection in nanoseconds
+	 */
+	public synchronized long getGCTime() {
+		return gcTime;
+	}
+
+	public synchronized long getGCCount() {
+		return gcCount;
+	}
+
+	public double getFramesPerSecond() {
+		long elapsed = getElapsedTime();
+		return (elapsed > 0 ? frames.get() * NANOS_PER_SECOND / elapsed : 0.0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.UK,
+				"%s: %d frames in %.3f s (%.2f frames/s), read %d bytes, written %d bytes, "
+						+ "read %.3f s, write %.3f s, I/O wait %.3f s (max %.3f s), GC %d collections %.3f s",
+				name, getFrames(), getElapsedTime() / NANOS_PER_SECOND, getFramesPerSecond(), getBytesIn(),
+				getBytesOut(), readTime.getTotal() / NANOS_PER_SECOND, writeTime.getTotal() / NANOS_PER_SECOND,
+				ioWaitTime.getTotal() / NANOS_PER_SECOND, ioWaitTime.getMax() / NANOS_PER_SECOND, getGCCount(),
+				getGCTime() / NANOS_PER_SECOND);
+	}
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.passerelle.actors.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.measure.quantity.Length;
+import javax.measure.unit.NonSI;
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+
+import org.dawb.passerelle.common.PersistenceServiceHolder;
+import org.dawnsci.persistence.PersistenceServiceCreator;
+import org.dawnsci.plotting.tools.preference.detector.DiffractionDetector;
+import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
+import org.jscience.physics.amount.Amount;
+
+import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVector;
+import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVectorOverDistance;
+import uk.ac.diamond.scisoft.ncd.core.data.CalibrationResultsBean;
+import uk.ac.diamond.scisoft.ncd.core.data.stats.SaxsAnalysisStatsParameters;
+import uk.ac.diamond.scisoft.ncd.core.preferences.NcdDetectors;
+import uk.ac.diamond.scisoft.ncd.core.preferences.NcdReductionFlags;
+import uk.ac.diamond.scisoft.ncd.passerelle.actors.NcdProcessingModel;
+import uk.ac.diamond.scisoft.ncd.reduction.LazyNcdProcessing;
+
+/**
+ * End-to-end benchmark of the NCD data reduction pipelines on synthetic NeXus files.
+ * <p>
+ * Input, background and detector response files are generated once. Background data is reduced with
+ * every pipeline before the measured runs, and every run processes a fresh copy of the input file.
+ * Both {@link LazyNcdProcessing} and the {@link NcdProcessingModel} fork/join pipeline use all available
+ * processors, so scaling with the number of cores can be measured by restricting the processor affinity
+ * of the JVM, e.g. with <code>taskset</code>.
+ * <p>
+ * Arguments are <code>key=value</code> pairs:
+ * <ul>
+ * <li><code>dir</code> - working directory for the generated and processed files</li>
+ * <li><code>frames</code> - number of frames per grid point (default 100)</li>
+ * <li><code>size</code> - detector width and height in pixels (default 1024)</li>
+ * <li><code>grid</code> - scan grid dimensions, e.g. <code>4x5</code> (default 1)</li>
+ * <li><code>runs</code> - number of measured runs of every pipeline (default 3)</li>
+ * <li><code>pipeline</code> - <code>lazy</code>, <code>forkjoin</code> or <code>both</code> (default)</li>
+ * <li><code>fast</code> - use fast sector integration (default true)</li>
+ * </ul>
+ * Results are printed and saved in <code>results.csv</code> in the working directory.
+ */
+public class PipelineBenchmark {
+
+	public static final String LAZY = "lazy";
+	public static final String FORKJOIN = "forkjoin";
+
+	private static final String PROC_IO = "/proc/self/io";
+
+	private static final Unit<ScatteringVector> AXIS_UNIT = NonSI.ANGSTROM.inverse().asType(ScatteringVector.class);
+
+	private final SyntheticNexusGenerator generator = new SyntheticNexusGenerator();
+	private File directory = new File(System.getProperty("java.io.tmpdir"), "ncd_benchmark");
+	private List<String> pipelines = Arrays.asList(LAZY, FORKJOIN);
+	private int runs = 3;
+	private boolean fastIntegration = true;
+
+	private String inputFile, backgroundFile, drFile;
+
+	public SyntheticNexusGenerator getGenerator() {
+		return generator;
+	}
+
+	public void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	public void setPipelines(String... pipelines) {
+		this.pipelines = Arrays.asList(pipelines);
+	}
+
+	public void setRuns(int runs) {
+		this.runs = runs;
+	}
+
+	public void setFastIntegration(boolean fastIntegration) {
+		this.fastIntegration = fastIntegration;
+	}
+
+	public List<PipelineBenchmarkResult> run() throws Exception {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create benchmark directory " + directory);
+		}
+		// This is required for ROIParameter class to work
+		PersistenceServiceHolder.getInstance().setPersistenceService(PersistenceServiceCreator.createPersistenceService());
+
+		generateFiles();
+
+		List<PipelineBenchmarkResult> results = new ArrayList<PipelineBenchmarkResult>();
+		for (String pipeline : pipelines) {
+			String background = copy(backgroundFile, pipeline + "_background.nxs");
+			if (LAZY.equals(pipeline)) {
+				runLazyProcessing(createLazyProcessing(null), background, new StageTimingMonitor());
+			} else {
+				createProcessingModel(null).execute(background, new StageTimingMonitor());
+			}
+			for (int run = 1; run <= runs; run++) {
+				String filename = copy(inputFile, pipeline + "_run" + run + ".nxs");
+				results.add(measure(pipeline, run, filename, background));
+			}
+		}
+		return results;
+	}
+
+	private void generateFiles() throws Exception {
+		String detector = generator.getDetector();
+		inputFile = new File(directory, "synthetic_data.nxs").getAbsolutePath();
+		backgroundFile = new File(directory, "synthetic_background.nxs").getAbsolutePath();
+		drFile = new File(directory, "synthetic_response.nxs").getAbsolutePath();
+
+		generator.generate(inputFile);
+
+		SyntheticNexusGenerator bgGenerator = new SyntheticNexusGenerator();
+		bgGenerator.setDetector(detector);
+		bgGenerator.setCalibration(generator.getCalibration());
+		bgGenerator.setChannels(generator.getChannels());
+		bgGenerator.setDetectorShape(generator.getRows(), generator.getColumns());
+		bgGenerator.setFrames(1);
+		bgGenerator.generate(backgroundFile);
+		bgGenerator.generateDetectorResponse(drFile);
+	}
+
+	private String copy(String source, String name) throws IOException {
+		File target = new File(directory, name);
+		Files.copy(new File(source).toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return target.getAbsolutePath();
+	}
+
+	private PipelineBenchmarkResult measure(String pipeline, int run, String filename, String background) throws Exception {
+		PipelineBenchmarkResult result = new PipelineBenchmarkResult(pipeline, run, Runtime.getRuntime().availableProcessors(),
+				generator.getTotalFrames(), generator.getDataSize());
+		StageTimingMonitor monitor = new StageTimingMonitor();
+		// Pipeline objects are created before measurement as they are reused between files in batch processing
+		LazyNcdProcessing lazyProcessing = null;
+		NcdProcessingModel processingModel = null;
+		if (LAZY.equals(pipeline)) {
+			lazyProcessing = createLazyProcessing(background);
+		} else {
+			processingModel = createProcessingModel(background);
+		}
+
+		System.gc();
+		resetPeakHeap();
+		long[] ioStart = readIOCounters();
+		long start = System.nanoTime();
+		if (lazyProcessing != null) {
+			runLazyProcessing(lazyProcessing, filename, monitor);
+		} else {
+			processingModel.execute(filename, monitor);
+		}
+		result.setElapsedTime(System.nanoTime() - start);
+		long[] ioEnd = readIOCounters();
+
+		result.setStageTimes(monitor.getStageTimes());
+		result.setPeakHeap(getPeakHeap());
+		if (ioStart != null && ioEnd != null) {
+			result.setBytesRead(ioEnd[0] - ioStart[0]);
+			result.setBytesWritten(ioEnd[1] - ioStart[1]);
+		}
+		return result;
+	}
+
+	private void runLazyProcessing(LazyNcdProcessing processing, String filename, StageTimingMonitor monitor) throws Exception {
+		processing.configure(generator.getDetector(), 2, filename, monitor);
+		processing.execute(monitor);
+		processing.complete();
+	}
+
+	/**
+	 * @param background
+	 *            - processed background file or null if background subtraction is disabled
+	 */
+	private NcdReductionFlags createFlags(String background) {
+		NcdReductionFlags flags = new NcdReductionFlags();
+		flags.setEnableNormalisation(true);
+		flags.setEnableBackground(background != null);
+		flags.setEnableDetectorResponse(true);
+		flags.setEnableSector(true);
+		flags.setEnableRadial(true);
+		flags.setEnableAzimuthal(true);
+		flags.setEnableFastintegration(fastIntegration);
+		flags.setEnableInvariant(background != null);
+		flags.setEnableAverage(true);
+		flags.setEnableSaxs(true);
+		flags.setEnableWaxs(false);
+		return flags;
+	}
+
+	private SectorROI createSector() {
+		double cx = generator.getColumns() / 2.0;
+		double cy = generator.getRows() / 2.0;
+		double radius = Math.min(cx, cy);
+		return new SectorROI(cx, cy, radius / 16.0, radius, 0, 2.0 * Math.PI);
+	}
+
+	private CalibrationResultsBean createCalibration() {
+		Amount<ScatteringVectorOverDistance> gradient = Amount.valueOf(0.01,
+				AXIS_UNIT.divide(SI.MILLIMETER).asType(ScatteringVectorOverDistance.class));
+		Amount<ScatteringVector> intercept = Amount.valueOf(0.0, AXIS_UNIT);
+		Amount<Length> cameraLength = Amount.valueOf(3.5, SI.METER);
+		return new CalibrationResultsBean(generator.getDetector(), gradient, intercept, null, cameraLength,
+				AXIS_UNIT.inverse().asType(Length.class));
+	}
+
+	private LazyNcdProcessing createLazyProcessing(String background) {
+		String detector = generator.getDetector();
+		NcdDetectors ncdDetectors = new NcdDetectors();
+		ncdDetectors.setDetectorSaxs(detector);
+		ncdDetectors.setPxSaxs(Amount.valueOf(0.172, SI.MILLIMETER));
+
+		LazyNcdProcessing processing = new LazyNcdProcessing();
+		if (background != null) {
+			processing.setBgFile(background);
+			processing.setBgDetector(detector + "_result");
+			processing.setBgScaling(0.1);
+		}
+		processing.setDrFile(drFile);
+		processing.setAbsScaling(1.0);
+		processing.setCalibration(generator.getCalibration());
+		processing.setNormChannel(1);
+		processing.setCrb(createCalibration());
+		processing.setEnableMask(false);
+		processing.setFlags(createFlags(background));
+		processing.setIntSector(createSector());
+		processing.setNcdDetectors(ncdDetectors);
+		return processing;
+	}
+
+	private NcdProcessingModel createProcessingModel(String background) {
+		String detector = generator.getDetector();
+		DiffractionDetector ncdDetector = new DiffractionDetector();
+		ncdDetector.setDetectorName(detector);
+		ncdDetector.setxPixelSize(Amount.valueOf(0.172, SI.MILLIMETER));
+		ncdDetector.setyPixelSize(Amount.valueOf(0.172, SI.MILLIMETER));
+
+		NcdProcessingModel processing = new NcdProcessingModel();
+		if (background != null) {
+			processing.setBgFile(background);
+			processing.setBgDetector(detector + "_result");
+			processing.setBgScaling(0.1);
+		}
+		processing.setDrFile(drFile);
+		processing.setAbsScaling(1.0);
+		processing.setCalibration(generator.getCalibration());
+		processing.setNormChannel(1);
+		processing.setCrb(createCalibration());
+		processing.setEnableMask(false);
+		processing.setFlags(createFlags(background));
+		processing.setIntSector(createSector());
+		processing.setNcdDetector(ncdDetector);
+		processing.setSaxsAnalysisStatsParameters(new SaxsAnalysisStatsParameters());
+		return processing;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * @return sum of peak usage of all heap memory pools. Pools can reach their peaks at different
+	 *         times, so this is an upper bound of the peak heap usage.
+	 */
+	private static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * Read number of bytes read and written by the process, including data served from
+	 * the page cache. Only available on Linux.
+	 *
+	 * @return bytes read and written or null if the counters are not available
+	 */
+	private static long[] readIOCounters() {
+		File file = new File(PROC_IO);
+		if (!file.canRead()) {
+			return null;
+		}
+		long[] counters = new long[] { -1, -1 };
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(":");
+				if (fields.length != 2) {
+					continue;
+				}
+				if (fields[0].trim().equals("rchar")) {
+					counters[0] = Long.parseLong(fields[1].trim());
+				} else if (fields[0].trim().equals("wchar")) {
+					counters[1] = Long.parseLong(fields[1].trim());
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			return null;
+		}
+		return (counters[0] < 0 || counters[1] < 0 ? null : counters);
+	}
+
+	public static void main(String[] args) throws Exception {
+		PipelineBenchmark benchmark = new PipelineBenchmark();
+		SyntheticNexusGenerator generator = benchmark.getGenerator();
+		for (String arg : args) {
+			String[] option = arg.split("=", 2);
+			if (option.length != 2) {
+				throw new IllegalArgumentException("Benchmark arguments must be key=value pairs: " + arg);
+			}
+			String key = option[0];
+			String value = option[1];
+			if (key.equals("dir")) {
+				benchmark.setDirectory(new File(value));
+			} else if (key.equals("frames")) {
+				generator.setFrames(Integer.parseInt(value));
+			} else if (key.equals("size")) {
+				int size = Integer.parseInt(value);
+				generator.setDetectorShape(size, size);
+			} else if (key.equals("grid")) {
+				String[] dims = value.split("x");
+				int[] grid = new int[dims.length];
+				for (int i = 0; i < dims.length; i++) {
+					grid[i] = Integer.parseInt(dims[i]);
+				}
+				generator.setGrid(grid);
+			} else if (key.equals("runs")) {
+				benchmark.setRuns(Integer.parseInt(value));
+			} else if (key.equals("pipeline")) {
+				if (value.equals("both")) {
+					benchmark.setPipelines(LAZY, FORKJOIN);
+				} else if (value.equals(LAZY) || value.equals(FORKJOIN)) {
+					benchmark.setPipelines(value);
+				} else {
+					throw new IllegalArgumentException("Unknown pipeline " + value);
+				}
+			} else if (key.equals("fast")) {
+				benchmark.setFastIntegration(Boolean.parseBoolean(value));
+			} else {
+				throw new IllegalArgumentException("Unknown benchmark argument " + key);
+			}
+		}
+
+		List<PipelineBenchmarkResult> results = benchmark.run();
+		System.out.print(PipelineBenchmarkResult.format(results));
+		File csv = new File(benchmark.directory, "results.csv");
+		Files.write(csv.toPath(), PipelineBenchmarkResult.formatCSV(results).getBytes(StandardCharsets.UTF_8));
+		System.out.println("Results saved in " + csv.getAbsolutePath());
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.passerelle.actors.benchmark;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Measurements of a single pipeline run
+ */
+public class PipelineBenchmarkResult {
+
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+	private final String pipeline;
+	private final int run;
+	private final int cores;
+	private final long frames;
+	private final long inputSize;
+
+	private long elapsedTime;
+	private Map<String, Long> stageTimes = new LinkedHashMap<String, Long>();
+	private long peakHeap = -1;
+	private long bytesRead = -1;
+	private long bytesWritten = -1;
+
+	public PipelineBenchmarkResult(String pipeline, int run, int cores, long frames, long inputSize) {
+		this.pipeline = pipeline;
+		this.run = run;
+		this.cores = cores;
+		this.frames = frames;
+		this.inputSize = inputSize;
+	}
+
+	public String getPipeline() {
+		return pipeline;
+	}
+
+	public int getRun() {
+		return run;
+	}
+
+	public int getCores() {
+		return cores;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return size of the input detector data in bytes
+	 */
+	public long getInputSize() {
+		return inputSize;
+	}
+
+	/**
+	 * @return total run time in nanoseconds
+	 */
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+	public void setElapsedTime(long elapsedTime) {
+		this.elapsedTime = elapsedTime;
+	}
+
+	/**
+	 * @return time spent in every stage in nanoseconds
+	 */
+	public Map<String, Long> getStageTimes() {
+		return stageTimes;
+	}
+
+	public void setStageTimes(Map<String, Long> stageTimes) {
+		this.stageTimes = new LinkedHashMap<String, Long>(stageTimes);
+	}
+
+	/**
+	 * @return peak heap usage in bytes or -1 if not available
+	 */
+	public long getPeakHeap() {
+		return peakHeap;
+	}
+
+	public void setPeakHeap(long peakHeap) {
+		this.peakHeap = peakHeap;
+	}
+
+	/**
+	 * @return bytes read by the process during the run or -1 if not available
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public void setBytesRead(long bytesRead) {
+		this.bytesRead = bytesRead;
+	}
+
+	/**
+	 * @return bytes written by the process during the run or -1 if not available
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public void setBytesWritten(long bytesWritten) {
+		this.bytesWritten = bytesWritten;
+	}
+
+	public double getFramesPerSecond() {
+		return (elapsedTime > 0 ? frames * NANOS_PER_SECOND / elapsedTime : 0.0);
+	}
+
+	/**
+	 * Format results as a table with one row per run and one column per stage
+	 */
+	public static String format(Collection<PipelineBenchmarkResult> results) {
+		Set<String> stages = getStages(results);
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.UK, "%-10s %4s %5s %8s %10s %10s", "pipeline", "run", "cores", "frames", "total[s]", "frames/s"));
+		for (String stage : stages) {
+			sb.append(String.format(Locale.UK, " %14s", abbreviate(stage, 11) + "[s]"));
+		}
+		sb.append(String.format(Locale.UK, " %12s %12s %12s%n", "heap[MB]", "read[MB]", "written[MB]"));
+		for (PipelineBenchmarkResult result : results) {
+			sb.append(String.format(Locale.UK, "%-10s %4d %5d %8d %10.3f %10.2f", result.pipeline, result.run, result.cores,
+					result.frames, result.elapsedTime / NANOS_PER_SECOND, result.getFramesPerSecond()));
+			for (String stage : stages) {
+				Long time = result.stageTimes.get(stage);
+				if (time == null) {
+					sb.append(String.format(Locale.UK, " %14s", "-"));
+				} else {
+					sb.append(String.format(Locale.UK, " %14.3f", time / NANOS_PER_SECOND));
+				}
+			}
+			sb.append(String.format(Locale.UK, " %12s %12s %12s%n", toMB(result.peakHeap), toMB(result.bytesRead), toMB(result.bytesWritten)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Format results as comma separated values with a header line
+	 */
+	public static String formatCSV(Collection<PipelineBenchmarkResult> results) {
+		Set<String> stages = getStages(results);
+		StringBuilder sb = new StringBuilder("pipeline,run,cores,frames,input_bytes,total_ns");
+		for (String stage : stages) {
+			sb.append(',').append(stage.replace(',', ' ')).append("_ns");
+		}
+		sb.append(",peak_heap_bytes,read_bytes,written_bytes\n");
+		for (PipelineBenchmarkResult result : results) {
+			sb.append(result.pipeline).append(',').append(result.run).append(',').append(result.cores).append(',')
+					.append(result.frames).append(',').append(result.inputSize).append(',').append(result.elapsedTime);
+			for (String stage : stages) {
+				Long time = result.stageTimes.get(stage);
+				sb.append(',').append(time == null ? "" : time.toString());
+			}
+			sb.append(',').append(result.peakHeap).append(',').append(result.bytesRead).append(',')
+					.append(result.bytesWritten).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static Set<String> getStages(Collection<PipelineBenchmarkResult> results) {
+		Set<String> stages = new LinkedHashSet<String>();
+		for (PipelineBenchmarkResult result : results) {
+			stages.addAll(result.stageTimes.keySet());
+		}
+		return stages;
+	}
+
+	private static String abbreviate(String name, int length) {
+		return (name.length() > length ? name.substring(0, length) : name);
+	}
+
+	private static String toMB(long bytes) {
+		return (bytes < 0 ? "n/a" : String.format(Locale.UK, "%.1f", bytes / BYTES_PER_MB));
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.passerelle.actors.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import uk.ac.diamond.scisoft.ncd.core.utils.IStageMetricsListener;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
+
+/**
+ * Progress monitor recording the time spent in every processing stage.
+ * <p>
+ * Both pipelines report the metrics of every completed stage to the monitor. Stage times are taken
+ * from the elapsed time measured by the stage metrics, so they don't depend on the task names
+ * reported to the monitor.
+ */
+public class StageTimingMonitor implements IProgressMonitor, IStageMetricsListener {
+
+	private final List<StageMetrics> stageMetrics = new ArrayList<StageMetrics>();
+	private volatile boolean canceled;
+
+	/**
+	 * @return time spent in every stage in nanoseconds, in the order the stages were completed
+	 */
+	public synchronized Map<String, Long> getStageTimes() {
+		Map<String, Long> stageTimes = new LinkedHashMap<String, Long>();
+		for (StageMetrics metrics : stageMetrics) {
+			Long total = stageTimes.get(metrics.getName());
+			long elapsed = metrics.getElapsedTime();
+			stageTimes.put(metrics.getName(), (total == null ? elapsed : total + elapsed));
+		}
+		return stageTimes;
+	}
+
+	/**
+	 * @return metrics of the completed stages in the order they were reported
+	 */
+	public synchronized List<StageMetrics> getStageMetrics() {
+		return new ArrayList<StageMetrics>(stageMetrics);
+	}
+
+	@Override
+	public synchronized void stageCompleted(StageMetrics metrics) {
+		stageMetrics.add(metrics);
+	}
+
+	@Override
+	public void beginTask(String name, int totalWork) {
+	}
+
+	@Override
+	public void done() {
+	}
+
+	@Override
+	public void internalWorked(double work) {
+	}
+
+	@Override
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	@Override
+	public void setCanceled(boolean value) {
+		canceled = value;
+	}
+
+	@Override
+	public void setTaskName(String name) {
+	}
+
+	@Override
+	public void subTask(String name) {
+	}
+
+	@Override
+	public void worked(int work) {
+	}
+}
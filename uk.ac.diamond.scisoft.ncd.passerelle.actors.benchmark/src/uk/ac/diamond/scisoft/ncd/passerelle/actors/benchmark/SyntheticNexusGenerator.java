@@ -0,0 +1,260 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.passerelle.actors.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+
+/**
+ * Generator of NeXus files with synthetic SAXS detector frames and calibration channel readings
+ * in the layout used by the NCD data reduction pipelines:
+ * <ul>
+ * <li><code>/entry1/&lt;detector&gt;/data</code> with shape [grid..., frames, rows, columns]</li>
+ * <li><code>/entry1/&lt;calibration&gt;/data</code> with shape [grid..., frames, channels]</li>
+ * </ul>
+ * Frames are written one at a time, so file size is not limited by the available memory.
+ */
+public class SyntheticNexusGenerator {
+
+	private static final long SEED = 12345L;
+
+	private int[] grid = new int[] { 1 };
+	private int frames = 100;
+	private int rows = 1024;
+	private int columns = 1024;
+	private int channels = 9;
+	private String detector = "Pilatus2M";
+	private String calibration = "Scalers";
+
+	public int[] getGrid() {
+		return grid;
+	}
+
+	/**
+	 * @param grid
+	 *            - scan grid dimensions preceding the frame dimension
+	 */
+	public void setGrid(int... grid) {
+		this.grid = Arrays.copyOf(grid, grid.length);
+	}
+
+	public int getFrames() {
+		return frames;
+	}
+
+	public void setFrames(int frames) {
+		this.frames = frames;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public void setDetectorShape(int rows, int columns) {
+		this.rows = rows;
+		this.columns = columns;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public void setChannels(int channels) {
+		this.channels = channels;
+	}
+
+	public String getDetector() {
+		return detector;
+	}
+
+	public void setDetector(String detector) {
+		this.detector = detector;
+	}
+
+	public String getCalibration() {
+		return calibration;
+	}
+
+	public void setCalibration(String calibration) {
+		this.calibration = calibration;
+	}
+
+	/**
+	 * @return total number of frames in all scan grid points
+	 */
+	public long getTotalFrames() {
+		long total = frames;
+		for (int n : grid) {
+			total *= n;
+		}
+		return total;
+	}
+
+	/**
+	 * @return size of the detector data in bytes
+	 */
+	public long getDataSize() {
+		return getTotalFrames() * rows * columns * 4;
+	}
+
+	/**
+	 * Write detector frames and calibration data into a new file
+	 */
+	public void generate(String filename) throws HDF5Exception {
+		long[] dataShape = getShape(rows, columns);
+		long[] calibrationShape = getShape(channels);
+		write(filename, dataShape, calibrationShape);
+	}
+
+	/**
+	 * Write detector response file with single frame of pixel efficiencies close to one
+	 */
+	public void generateDetectorResponse(String filename) throws HDF5Exception {
+		Random random = new Random(SEED);
+		List<Long> identifiers = new ArrayList<Long>();
+		try {
+			long fileID = H5.H5Fcreate(filename, HDF5Constants.H5F_ACC_TRUNC, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+			identifiers.add(fileID);
+			long entryID = NcdNexusUtils.makegroup(fileID, "entry1", "NXentry");
+			identifiers.add(entryID);
+			long detectorID = NcdNexusUtils.makegroup(entryID, detector, "NXdata");
+			identifiers.add(detectorID);
+			long dataID = NcdNexusUtils.makedata(detectorID, "data", HDF5Constants.H5T_NATIVE_FLOAT, new long[] { 1, 1, rows, columns }, true, "counts");
+			identifiers.add(dataID);
+
+			float[] response = new float[rows * columns];
+			for (int i = 0; i < response.length; i++) {
+				response[i] = (float) (1.0 + 0.05 * random.nextGaussian());
+			}
+			H5.H5Dwrite(dataID, HDF5Constants.H5T_NATIVE_FLOAT, HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL, HDF5Constants.H5P_DEFAULT, response);
+		} finally {
+			Collections.reverse(identifiers);
+			NcdNexusUtils.closeH5idList(identifiers);
+		}
+	}
+
+	private long[] getShape(int... frameShape) {
+		long[] shape = new long[grid.length + 1 + frameShape.length];
+		for (int i = 0; i < grid.length; i++) {
+			shape[i] = grid[i];
+		}
+		shape[grid.length] = frames;
+		for (int i = 0; i < frameShape.length; i++) {
+			shape[grid.length + 1 + i] = frameShape[i];
+		}
+		return shape;
+	}
+
+	private void write(String filename, long[] dataShape, long[] calibrationShape) throws HDF5Exception {
+		Random random = new Random(SEED);
+		List<Long> identifiers = new ArrayList<Long>();
+		try {
+			long fileID = H5.H5Fcreate(filename, HDF5Constants.H5F_ACC_TRUNC, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+			identifiers.add(fileID);
+			long entryID = NcdNexusUtils.makegroup(fileID, "entry1", "NXentry");
+			identifiers.add(entryID);
+			long detectorID = NcdNexusUtils.makegroup(entryID, detector, "NXdata");
+			identifiers.add(detectorID);
+			long dataID = NcdNexusUtils.makedata(detectorID, "data", HDF5Constants.H5T_NATIVE_FLOAT, dataShape, true, "counts");
+			identifiers.add(dataID);
+			long calibrationGroupID = NcdNexusUtils.makegroup(entryID, calibration, "NXdata");
+			identifiers.add(calibrationGroupID);
+			long calibrationID = NcdNexusUtils.makedata(calibrationGroupID, "data", HDF5Constants.H5T_NATIVE_FLOAT, calibrationShape, true, "counts");
+			identifiers.add(calibrationID);
+
+			long totalFrames = getTotalFrames();
+			float[] frame = new float[rows * columns];
+			float[] readings = new float[channels];
+			long[] frameStart = new long[dataShape.length];
+			long[] frameBlock = Arrays.copyOf(dataShape, dataShape.length);
+			Arrays.fill(frameBlock, 0, dataShape.length - 2, 1);
+			long[] calibrationStart = new long[calibrationShape.length];
+			long[] calibrationBlock = Arrays.copyOf(calibrationShape, calibrationShape.length);
+			Arrays.fill(calibrationBlock, 0, calibrationShape.length - 1, 1);
+
+			for (long n = 0; n < totalFrames; n++) {
+				// Scattering intensity changes slowly between frames
+				float intensity = (float) (1.0 + 0.5 * Math.sin(2.0 * Math.PI * n / totalFrames));
+				fillFrame(frame, intensity, random);
+				for (int i = 0; i < channels; i++) {
+					readings[i] = (float) (1e4 * (1.0 + 0.01 * random.nextGaussian()));
+				}
+				setPosition(n, dataShape, frameStart, dataShape.length - 2);
+				setPosition(n, calibrationShape, calibrationStart, calibrationShape.length - 1);
+				writeBlock(dataID, frameStart, frameBlock, frame);
+				writeBlock(calibrationID, calibrationStart, calibrationBlock, readings);
+			}
+		} finally {
+			Collections.reverse(identifiers);
+			NcdNexusUtils.closeH5idList(identifiers);
+		}
+	}
+
+	/**
+	 * Isotropic scattering pattern centred on the detector with counting noise
+	 */
+	private void fillFrame(float[] frame, float intensity, Random random) {
+		double cy = rows / 2.0;
+		double cx = columns / 2.0;
+		double r0 = Math.min(rows, columns) / 16.0;
+		for (int i = 0; i < rows; i++) {
+			double dy = (i - cy) / r0;
+			for (int j = 0; j < columns; j++) {
+				double dx = (j - cx) / r0;
+				double q2 = 1.0 + dx * dx + dy * dy;
+				double value = intensity * 1e5 / (q2 * q2) + 10.0;
+				frame[i * columns + j] = (float) Math.max(0.0, value + Math.sqrt(value) * random.nextGaussian());
+			}
+		}
+	}
+
+	/**
+	 * Set position of the frame in the leading grid and frame dimensions
+	 */
+	private static void setPosition(long frame, long[] shape, long[] start, int frameDims) {
+		long index = frame;
+		for (int i = frameDims - 1; i >= 0; i--) {
+			start[i] = index % shape[i];
+			index /= shape[i];
+		}
+	}
+
+	private static void writeBlock(long datasetID, long[] start, long[] block, float[] buffer) throws HDF5Exception {
+		long filespaceID = -1;
+		long memspaceID = -1;
+		try {
+			filespaceID = H5.H5Dget_space(datasetID);
+			H5.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, null, block, null);
+			memspaceID = H5.H5Screate_simple(block.length, block, null);
+			H5.H5Dwrite(datasetID, HDF5Constants.H5T_NATIVE_FLOAT, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, buffer);
+		} finally {
+			NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, filespaceID)));
+		}
+	}
+}
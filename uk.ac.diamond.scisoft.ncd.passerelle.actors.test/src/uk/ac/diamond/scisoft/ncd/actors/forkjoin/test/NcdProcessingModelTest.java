@@ -17,9 +17,12 @@
 package uk.ac.diamond.scisoft.ncd.actors.forkjoin.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.measure.quantity.Length;
 import javax.measure.unit.NonSI;
@@ -67,7 +70,7 @@ public class NcdProcessingModelTest {
 	private static final String LazyInvariantName = "Invariant";
 	private static final String LazyAverageName = "Average";
 	
-	private static NcdProcessingModel testClass, testbgClass;
+	private static NcdProcessingModel testClass, testbgClass, testFusedClass;
 	private static Double bgScaling = 0.1;
 	private static Double absScaling = 1.0;
 	private static int normChannel = 1;
@@ -83,7 +86,7 @@ public class NcdProcessingModelTest {
 	private static String detectorBg = "Rapid2D_result";
 	private static String calibration = "Scalers";
 	private static Amount<Length> pxSaxs = Amount.valueOf(0.1, SI.MILLIMETER);
-	private static String filename, bgFilename;
+	private static String filename, bgFilename, cachedFlowFilename, fusedFlowFilename;
 	private static String testScratchDirectoryName;
 	private static Integer firstFrame = 60;
 	private static Integer lastFrame = 70;
@@ -125,6 +128,8 @@ public class NcdProcessingModelTest {
 		IOTestUtils.makeScratchDirectory(testScratchDirectoryName);
 		filename = testScratchDirectoryName + "ncd_processing_test.nxs"; 
 		bgFilename = testScratchDirectoryName + "ncd_bg_test.nxs"; 
+		cachedFlowFilename = testScratchDirectoryName + "ncd_cached_flow_test.nxs"; 
+		fusedFlowFilename = testScratchDirectoryName + "ncd_fused_flow_test.nxs"; 
 
 		String testFileFolder = IOTestUtils.getGDALargeTestFilesLocation();
 
@@ -137,6 +142,16 @@ public class NcdProcessingModelTest {
 
 		IOUtils.copy(inFile, outFile);
 
+		inFile = new FileInputStream(inputPath.toOSString());
+		outFile = new FileOutputStream(cachedFlowFilename);
+
+		IOUtils.copy(inFile, outFile);
+
+		inFile = new FileInputStream(inputPath.toOSString());
+		outFile = new FileOutputStream(fusedFlowFilename);
+
+		IOUtils.copy(inFile, outFile);
+
 		inFile = new FileInputStream(bgPath.toOSString());
 		outFile = new FileOutputStream(bgFilename);
 
@@ -195,6 +210,27 @@ public class NcdProcessingModelTest {
 		testClass.setNcdDetector(ncdDetector);
 		testClass.setSaxsAnalysisStatsParameters(saxsAnalysisStatParams);
 
+		// Same data reduction keeping only the final results of the fused stages in memory
+		NcdReductionFlags fusedFlags = new NcdReductionFlags(flags);
+		fusedFlags.setEnableStageFusion(true);
+		testFusedClass = new NcdProcessingModel();
+		testFusedClass.setBgFile(bgFilename);
+		testFusedClass.setDrFile(drFile);
+		testFusedClass.setAbsScaling(absScaling);
+		testFusedClass.setBgDetector(detectorBg);
+		testFusedClass.setBgScaling(bgScaling);
+		testFusedClass.setFirstFrame(firstFrame);
+		testFusedClass.setLastFrame(lastFrame);
+		testFusedClass.setCalibration(calibration);
+		testFusedClass.setNormChannel(normChannel);
+		testFusedClass.setCrb(crb);
+		testFusedClass.setEnableMask(enableMask);
+		testFusedClass.setFlags(fusedFlags);
+		testFusedClass.setIntSector(intSector);
+		testFusedClass.setMask(mask);
+		testFusedClass.setNcdDetector(ncdDetector);
+		testFusedClass.setSaxsAnalysisStatsParameters(saxsAnalysisStatParams);
+
 		testbgClass = new NcdProcessingModel();
 		testbgClass.setDrFile(drFile);
 		testbgClass.setAbsScaling(absScaling);
@@ -223,6 +259,9 @@ public class NcdProcessingModelTest {
 		
 		testbgClass.execute(bgFilename, null);
 		testClass.execute(filename, null);
+		// Second file is processed by the flow cached in the first run
+		testClass.execute(cachedFlowFilename, null);
+		testFusedClass.execute(fusedFlowFilename, null);
 	}
 
 	@Test
@@ -489,6 +528,72 @@ public class NcdProcessingModelTest {
 		}
 	}
 	
+	@Test
+	public void checkCachedFlow() throws HDF5Exception {
+		String[] results = new String[] {LazySectorIntegrationName, LazyNormalisationName, LazyBackgroundSubtractionName, LazyAverageName};
+		long[][] resultFrames = new long[][] {framesSec, framesSec, framesSec, framesAve};
+		for (int n = 0; n < results.length; n++) {
+		    SliceSettings resultSlice = new SliceSettings(resultFrames[n], 1, (int) resultFrames[n][1]);
+		    resultSlice.setStart(new int[] {0, 0, 0});
+		    
+		    DataSliceIdentifiers[] array_id = readResultsIds(filename, detectorOut, results[n]);
+			Dataset expected = NcdNexusUtils.sliceInputData(resultSlice, array_id[0]);
+			Dataset expectedErrors = NcdNexusUtils.sliceInputData(resultSlice, array_id[1]);
+			
+		    array_id = readResultsIds(cachedFlowFilename, detectorOut, results[n]);
+			Dataset result = NcdNexusUtils.sliceInputData(resultSlice, array_id[0]);
+			Dataset resultErrors = NcdNexusUtils.sliceInputData(resultSlice, array_id[1]);
+			
+			for (int frame = 0; frame < resultFrames[n][1]; frame++) {
+				for (int i = 0; i < intPoints; i++) {
+					assertEquals(String.format("Test cached flow %s for index (%d, %d)", results[n], frame, i),
+							expected.getFloat(0, frame, i), result.getFloat(0, frame, i), 0.0);
+					assertEquals(String.format("Test cached flow %s error for index (%d, %d)", results[n], frame, i),
+							expectedErrors.getDouble(0, frame, i), resultErrors.getDouble(0, frame, i), 0.0);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void checkFusedFlow() throws HDF5Exception {
+		String[] fusedStages = new String[] {LazyDetectorResponseName, LazyNormalisationName, LazyNormalisationName + "_Azimuthal"};
+		for (String stage : fusedStages) {
+			assertFalse(String.format("Fused stage %s was written into results file", stage),
+					hasResultsGroup(fusedFlowFilename, detectorOut, stage));
+		}
+		
+		String[] results = new String[] {LazyBackgroundSubtractionName, LazyAverageName};
+		long[][] resultFrames = new long[][] {framesSec, framesAve};
+		for (int n = 0; n < results.length; n++) {
+		    SliceSettings resultSlice = new SliceSettings(resultFrames[n], 1, (int) resultFrames[n][1]);
+		    resultSlice.setStart(new int[] {0, 0, 0});
+		    
+		    DataSliceIdentifiers[] array_id = readResultsIds(filename, detectorOut, results[n]);
+			Dataset expected = NcdNexusUtils.sliceInputData(resultSlice, array_id[0]);
+			Dataset expectedErrors = NcdNexusUtils.sliceInputData(resultSlice, array_id[1]);
+			
+		    array_id = readResultsIds(fusedFlowFilename, detectorOut, results[n]);
+			Dataset result = NcdNexusUtils.sliceInputData(resultSlice, array_id[0]);
+			Dataset resultErrors = NcdNexusUtils.sliceInputData(resultSlice, array_id[1]);
+			
+			for (int frame = 0; frame < resultFrames[n][1]; frame++) {
+				for (int i = 0; i < intPoints; i++) {
+					float valExpected = expected.getFloat(0, frame, i);
+					float valResult = result.getFloat(0, frame, i);
+					double valExpectedError = expectedErrors.getDouble(0, frame, i);
+					double valResultError = resultErrors.getDouble(0, frame, i);
+					double acc = Math.max(1e-6*Math.abs(Math.sqrt(valResult*valResult + valExpected*valExpected)), 1e-10);
+					double accerr = Math.max(1e-6*Math.abs(Math.sqrt(valResultError*valResultError + valExpectedError*valExpectedError)), 1e-10);
+					assertEquals(String.format("Test fused flow %s for index (%d, %d)", results[n], frame, i),
+							valExpected, valResult, acc);
+					assertEquals(String.format("Test fused flow %s error for index (%d, %d)", results[n], frame, i),
+							valExpectedError, valResultError, accerr);
+				}
+			}
+		}
+	}
+	
 	@Test
 	public void checkLogLogPlot() throws HDF5Exception {
 		checkSaxsPlot(SaxsAnalysisPlotType.LOGLOG_PLOT);
@@ -587,6 +692,17 @@ public class NcdProcessingModelTest {
 		return new DataSliceIdentifiers[] {ids, errors_ids};
 	}
 	
+	private static boolean hasResultsGroup(String dataFile, String detector, String result) throws HDF5Exception {
+		long file_handle = HDF5Utils.H5Fopen(dataFile, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+		long entry_group_id = H5.H5Gopen(file_handle, "entry1", HDF5Constants.H5P_DEFAULT);
+		long instrument_group_id = H5.H5Gopen(entry_group_id, detector, HDF5Constants.H5P_DEFAULT);
+		try {
+			return H5.H5Lexists(instrument_group_id, result, HDF5Constants.H5P_DEFAULT);
+		} finally {
+			NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(instrument_group_id, entry_group_id, file_handle)));
+		}
+	}
+	
 	private static DataSliceIdentifiers[] readResultsIds(String dataFile, String detector, String result) throws HDF5Exception {
 		long file_handle = HDF5Utils.H5Fopen(dataFile, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
 		long entry_group_id = H5.H5Gopen(file_handle, "entry1", HDF5Constants.H5P_DEFAULT);
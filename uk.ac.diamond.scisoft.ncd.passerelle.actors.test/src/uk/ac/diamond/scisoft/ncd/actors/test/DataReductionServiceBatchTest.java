@@ -0,0 +1,389 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.actors.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.measure.unit.SI;
+
+import org.apache.commons.io.IOUtils;
+import org.dawb.passerelle.common.PersistenceServiceHolder;
+import org.dawnsci.persistence.PersistenceServiceCreator;
+import org.dawnsci.plotting.tools.preference.detector.DiffractionDetector;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
+import org.eclipse.dawnsci.hdf5.HDF5Utils;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.FloatDataset;
+import org.jscience.physics.amount.Amount;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import uk.ac.diamond.scisoft.analysis.IOTestUtils;
+import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
+import uk.ac.diamond.scisoft.ncd.core.data.DetectorTypes;
+import uk.ac.diamond.scisoft.ncd.core.data.NcdDetectorSettings;
+import uk.ac.diamond.scisoft.ncd.core.data.SliceInput;
+import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.service.IDataReductionContext;
+import uk.ac.diamond.scisoft.ncd.core.service.IDataReductionProcess;
+import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.passerelle.actors.service.DataReductionServiceImpl;
+
+public class DataReductionServiceBatchTest {
+
+	private static String detector = "Rapid2D";
+	private static String calibration = "Scalers";
+	private static String inputFile, bgFile, drFile;
+	private static String testScratchDirectoryName;
+
+	private static DataReductionServiceImpl service;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+
+		// This is required for ROIParameter class to work
+		PersistenceServiceHolder.getInstance().setPersistenceService(PersistenceServiceCreator.createPersistenceService());
+
+		testScratchDirectoryName = IOTestUtils.generateDirectorynameFromClassname(DataReductionServiceBatchTest.class.getCanonicalName());
+		IOTestUtils.makeScratchDirectory(testScratchDirectoryName);
+
+		String testFileFolder = IOTestUtils.getGDALargeTestFilesLocation();
+		inputFile = new Path(testFileFolder + "NCDReductionTest/i22-24139.nxs").toOSString();
+		bgFile = new Path(testFileFolder + "NCDReductionTest/i22-24132.nxs").toOSString();
+		drFile = new Path(testFileFolder + "NCDReductionTest/i22-24125.nxs").toOSString();
+
+		service = new DataReductionServiceImpl();
+	}
+
+	@Test
+	public void testConcurrentFiles() throws Exception {
+
+		String sequentialDir = makeDirectory("sequential");
+		String batchDir = makeDirectory("batch");
+
+		// Reference result reduced sequentially
+		String sequentialInput = copyInput(sequentialDir, "ncd_sequential.nxs");
+		IDataReductionContext context = createContext(sequentialDir);
+		service.configure(context);
+		IStatus status = service.process(sequentialInput, context, new NullProgressMonitor());
+		assertEquals(IStatus.OK, status.getSeverity());
+		Dataset expected = readSectorIntegration(findResultsFile(sequentialDir, "ncd_sequential"));
+
+		List<String> files = Arrays.asList(
+				copyInput(batchDir, "ncd_batch_0.nxs"),
+				copyInput(batchDir, "ncd_batch_1.nxs"),
+				copyInput(batchDir, "ncd_batch_2.nxs"));
+		IDataReductionContext batchContext = createContext(batchDir);
+		batchContext.setBatchParallelism(files.size());
+		service.configure(batchContext);
+		status = service.processBatch(files, batchContext, new NullProgressMonitor());
+		assertEquals(IStatus.OK, status.getSeverity());
+		assertEquals(files.size(), status.getChildren().length);
+
+		for (int i = 0; i < files.size(); i++) {
+			Dataset result = readSectorIntegration(findResultsFile(batchDir, "ncd_batch_" + i));
+			assertArrayEquals("Result shape for file " + i, expected.getShape(), result.getShape());
+			assertArrayEquals("Result values for file " + i,
+					((FloatDataset) DatasetUtils.cast(expected, Dataset.FLOAT32)).getData(),
+					((FloatDataset) DatasetUtils.cast(result, Dataset.FLOAT32)).getData(), 1e-6f);
+		}
+	}
+
+	@Test
+	public void testDetectorResponseReadOnce() throws Exception {
+
+		String batchDir = makeDirectory("detector_response");
+		List<String> files = copyInputs(batchDir, "ncd_dr", 3);
+		IDataReductionContext context = createContext(batchDir);
+		context.setEnableDetectorResponse(true);
+		context.setDrFile(drFile);
+		context.setBatchParallelism(files.size());
+
+		BatchService batchService = new BatchService();
+		batchService.configure(context);
+		IStatus status = batchService.processBatch(files, context, new NullProgressMonitor());
+		assertEquals(IStatus.OK, status.getSeverity());
+		assertEquals("Detector response wasn't shared by the batch", 1, batchService.drReads.get());
+		for (int i = 0; i < files.size(); i++) {
+			findResultsFile(batchDir, "ncd_dr_" + i);
+		}
+	}
+
+	@Test
+	public void testBackgroundReducedOnce() throws Exception {
+
+		String batchDir = makeDirectory("background");
+		List<String> files = copyInputs(batchDir, "ncd_bg", 3);
+		IDataReductionContext context = createContext(batchDir);
+		context.setEnableBackground(true);
+		context.setBgPath(bgFile);
+		context.setBgSliceInput(new SliceInput(5, 5));
+		context.setBgScaling(0.1);
+		context.setBatchParallelism(files.size());
+
+		BatchService batchService = new BatchService();
+		batchService.configure(context);
+		IStatus status = batchService.processBatch(files, context, new NullProgressMonitor());
+		assertEquals(IStatus.OK, status.getSeverity());
+		assertEquals("Background wasn't reduced once for the batch", 1, batchService.bgReductions.get());
+		assertEquals(1, countFiles(batchDir, "background_"));
+		for (int i = 0; i < files.size(); i++) {
+			findResultsFile(batchDir, "ncd_bg_" + i);
+		}
+	}
+
+	@Test
+	public void testMemoryBudgetAdmission() throws Exception {
+
+		String batchDir = makeDirectory("memory_budget");
+		List<String> files = copyInputs(batchDir, "ncd_budget", 5);
+		IDataReductionContext context = createContext(batchDir);
+		context.setBatchParallelism(files.size());
+		context.setBatchMemoryBudget(100L * 1024 * 1024);
+
+		// Any two of the small files fit into the budget, the oversized file has to run alone
+		BatchService batchService = new BatchService();
+		batchService.budgetMB = 100;
+		for (String file : files) {
+			batchService.memoryMB.put(file, 40);
+		}
+		String oversized = files.get(2);
+		batchService.memoryMB.put(oversized, 500);
+
+		batchService.configure(context);
+		IStatus status = batchService.processBatch(files, context, new NullProgressMonitor());
+		assertEquals(IStatus.OK, status.getSeverity());
+		assertEquals(files.size(), status.getChildren().length);
+		assertTrue("Files reduced concurrently over the memory budget: " + batchService.overBudget,
+				batchService.overBudget.isEmpty());
+		for (int i = 0; i < files.size(); i++) {
+			findResultsFile(batchDir, "ncd_budget_" + i);
+		}
+	}
+
+	@Test
+	public void testFailedFileDoesNotStopBatch() throws Exception {
+
+		String batchDir = makeDirectory("failed_file");
+		String corrupted = new File(batchDir, "ncd_corrupted.nxs").getAbsolutePath();
+		FileOutputStream outFile = new FileOutputStream(corrupted);
+		try {
+			IOUtils.write("Not a NeXus file", outFile);
+		} finally {
+			outFile.close();
+		}
+		// Single worker, so the last file is reduced after the failure
+		List<String> files = Arrays.asList(
+				copyInput(batchDir, "ncd_failed_0.nxs"),
+				corrupted,
+				copyInput(batchDir, "ncd_failed_1.nxs"));
+		IDataReductionContext context = createContext(batchDir);
+		context.setBatchParallelism(1);
+
+		service.configure(context);
+		IStatus status = service.processBatch(files, context, new NullProgressMonitor());
+		IStatus[] children = status.getChildren();
+		assertEquals(files.size(), children.length);
+		assertEquals(IStatus.OK, children[0].getSeverity());
+		assertTrue("Corrupted file wasn't reported", !children[1].isOK());
+		assertEquals(IStatus.OK, children[2].getSeverity());
+		assertTrue(!status.isOK());
+		findResultsFile(batchDir, "ncd_failed_0");
+		findResultsFile(batchDir, "ncd_failed_1");
+	}
+
+	/**
+	 * Service counting the shared reduction steps and checking the files reduced concurrently against the memory budget
+	 */
+	private static class BatchService extends DataReductionServiceImpl {
+
+		private final AtomicInteger drReads = new AtomicInteger();
+		private final AtomicInteger bgReductions = new AtomicInteger();
+
+		// Memory estimates replacing the ones from the detector data shape
+		private final Map<String, Integer> memoryMB = Collections.synchronizedMap(new HashMap<String, Integer>());
+		private int budgetMB;
+
+		private final Set<String> running = new HashSet<String>();
+		private final List<String> overBudget = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		protected Dataset readDetectorResponse(String drFile, String detector) throws HDF5Exception {
+			drReads.incrementAndGet();
+			return super.readDetectorResponse(drFile, detector);
+		}
+
+		@Override
+		protected void processBackground(IDataReductionContext context, IDataReductionProcess processing,
+				DiffractionDetector detectorWaxs, DiffractionDetector detectorSaxs, IProgressMonitor monitor) throws Exception {
+			bgReductions.incrementAndGet();
+			super.processBackground(context, processing, detectorWaxs, detectorSaxs, monitor);
+		}
+
+		@Override
+		protected int estimateMemoryMB(String inputfilePath, IDataReductionContext context,
+				DiffractionDetector detectorWaxs, DiffractionDetector detectorSaxs) {
+			Integer estimate = memoryMB.get(inputfilePath);
+			if (estimate != null) {
+				return estimate;
+			}
+			return super.estimateMemoryMB(inputfilePath, context, detectorWaxs, detectorSaxs);
+		}
+
+		@Override
+		protected IStatus processFile(String inputfilePath, IDataReductionContext context, IDataReductionProcess processing,
+				DiffractionDetector detectorWaxs, DiffractionDetector detectorSaxs, boolean openBgFile, IProgressMonitor monitor) throws Exception {
+			synchronized (running) {
+				running.add(inputfilePath);
+				if (budgetMB > 0 && running.size() > 1) {
+					int total = 0;
+					for (String file : running) {
+						total += Math.min(budgetMB, memoryMB.get(file));
+					}
+					if (total > budgetMB) {
+						overBudget.add(running.toString());
+					}
+				}
+			}
+			try {
+				return super.processFile(inputfilePath, context, processing, detectorWaxs, detectorSaxs, openBgFile, monitor);
+			} finally {
+				synchronized (running) {
+					running.remove(inputfilePath);
+				}
+			}
+		}
+	}
+
+	private static IDataReductionContext createContext(String workingDir) {
+		IDataReductionContext context = service.createContext();
+		context.setEnableSaxs(true);
+		context.setEnableWaxs(false);
+		context.setEnableSector(true);
+		context.setEnableRadial(true);
+		context.setEnableAzimuthal(false);
+		context.setEnableFastIntegration(false);
+
+		NcdDetectorSettings saxsInfo = new NcdDetectorSettings(detector, DetectorTypes.SAXS_DETECTOR, 2);
+		saxsInfo.setPxSize(Amount.valueOf(0.1, SI.MILLIMETER));
+		context.setSaxsDetectorName(detector);
+		context.setDetSaxsInfo(saxsInfo);
+		context.setCalibrationName(calibration);
+		context.setSector(new SectorROI(262.0, 11.0, 20.0, 500.0,  Math.toRadians(60.0), Math.toRadians(120.0)));
+		context.setDataSliceInput(new SliceInput(60, 70));
+		context.setWorkingDir(workingDir);
+		return context;
+	}
+
+	private static String makeDirectory(String name) {
+		File dir = new File(testScratchDirectoryName, name);
+		dir.mkdirs();
+		return dir.getAbsolutePath();
+	}
+
+	private static String copyInput(String dir, String name) throws Exception {
+		String filename = new File(dir, name).getAbsolutePath();
+		FileInputStream inFile = new FileInputStream(inputFile);
+		FileOutputStream outFile = new FileOutputStream(filename);
+		try {
+			IOUtils.copy(inFile, outFile);
+		} finally {
+			inFile.close();
+			outFile.close();
+		}
+		return filename;
+	}
+
+	private static List<String> copyInputs(String dir, String baseName, int count) throws Exception {
+		List<String> files = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			files.add(copyInput(dir, baseName + "_" + i + ".nxs"));
+		}
+		return files;
+	}
+
+	private static int countFiles(String dir, String prefix) {
+		File[] files = new File(dir).listFiles();
+		assertNotNull(files);
+		int count = 0;
+		for (File file : files) {
+			if (file.getName().startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static String findResultsFile(String dir, String baseName) {
+		File[] results = new File(dir).listFiles();
+		assertNotNull(results);
+		String found = null;
+		for (File file : results) {
+			if (file.getName().startsWith("results_" + baseName + "_")) {
+				assertTrue("Multiple results files for " + baseName, found == null);
+				found = file.getAbsolutePath();
+			}
+		}
+		assertNotNull("Results file not found for " + baseName, found);
+		return found;
+	}
+
+	private static Dataset readSectorIntegration(String filename) throws Exception {
+		long fileID = HDF5Utils.H5Fopen(filename, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+		long entryGroupID = H5.H5Gopen(fileID, "entry1", HDF5Constants.H5P_DEFAULT);
+		long processingGroupID = H5.H5Gopen(entryGroupID, detector + "_processing", HDF5Constants.H5P_DEFAULT);
+		long sectorGroupID = H5.H5Gopen(processingGroupID, "SectorIntegration", HDF5Constants.H5P_DEFAULT);
+		long dataID = H5.H5Dopen(sectorGroupID, "data", HDF5Constants.H5P_DEFAULT);
+		try {
+			long dataspaceID = H5.H5Dget_space(dataID);
+			long[] frames = NcdNexusUtils.getIdsDatasetShape(dataspaceID);
+			H5.H5Sclose(dataspaceID);
+
+			DataSliceIdentifiers ids = new DataSliceIdentifiers();
+			ids.setIDs(sectorGroupID, dataID);
+			SliceSettings slice = new SliceSettings(frames, 1, (int) frames[1]);
+			slice.setStart(new int[frames.length]);
+			return NcdNexusUtils.sliceInputData(slice, ids);
+		} finally {
+			NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(dataID, sectorGroupID, processingGroupID, entryGroupID, fileID)));
+		}
+	}
+}
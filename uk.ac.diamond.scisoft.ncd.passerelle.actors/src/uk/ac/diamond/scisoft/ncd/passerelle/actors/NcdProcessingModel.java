@@ -18,9 +18,12 @@ package uk.ac.diamond.scisoft.ncd.passerelle.actors;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.measure.quantity.Energy;
@@ -67,6 +70,7 @@ import hdf.hdf5lib.exceptions.HDF5LibraryException;
 import hdf.hdf5lib.structs.H5L_info_t;
 import ptolemy.data.ObjectToken;
 import ptolemy.data.StringToken;
+import ptolemy.data.expr.Parameter;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
@@ -78,7 +82,9 @@ import uk.ac.diamond.scisoft.ncd.core.data.SaxsAnalysisPlotType;
 import uk.ac.diamond.scisoft.ncd.core.data.stats.SaxsAnalysisStatsParameters;
 import uk.ac.diamond.scisoft.ncd.core.preferences.NcdReductionFlags;
 import uk.ac.diamond.scisoft.ncd.core.service.IDataReductionProcess;
+import uk.ac.diamond.scisoft.ncd.core.utils.DatasetLayout;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.ProcessingMetrics;
 import uk.ac.diamond.scisoft.ncd.passerelle.actors.core.NcdMessageSink;
 import uk.ac.diamond.scisoft.ncd.passerelle.actors.core.NcdMessageSource;
 import uk.ac.diamond.scisoft.ncd.passerelle.actors.core.NcdProcessingObjectTransformer;
@@ -111,6 +117,7 @@ public class NcdProcessingModel implements IDataReductionProcess {
 	private Unit<ScatteringVector> qaxisUnit;
 	private BooleanDataset mask;
 	private Dataset drData;
+	private Map<String, Dataset> sharedDrData;
 
 	private CalibrationResultsBean crb;
 	
@@ -128,7 +135,15 @@ public class NcdProcessingModel implements IDataReductionProcess {
 	
 	private SaxsAnalysisStatsParameters saxsAnalysisStatsParameters;
 	
-	private static ReentrantLock lock;
+	// Stages written into the results file when stage fusion is enabled
+	private Set<String> persistedStages;
+	
+	private DatasetLayout datasetLayout;
+	
+	private final ReentrantLock lock;
+	
+	private final FlowManager flowMgr;
+	private final Map<String, NcdFlow> flows;
 
 	private final String PROCESSING = "processing";
 	
@@ -208,6 +223,8 @@ public class NcdProcessingModel implements IDataReductionProcess {
 		super();
 		
 		lock = new ReentrantLock();
+		flowMgr = new FlowManager();
+		flows = new HashMap<String, NcdFlow>();
 		
 		normChannel = -1;
 		bgScaling = 1.0;
@@ -235,6 +252,8 @@ public class NcdProcessingModel implements IDataReductionProcess {
 		bgGridAverage = null;
 		enableBgAverage = false;
 		
+		persistedStages = new HashSet<String>();
+		datasetLayout = DatasetLayout.CONTIGUOUS;
 	}
 
 	@Override
@@ -292,6 +311,31 @@ public class NcdProcessingModel implements IDataReductionProcess {
 		this.crb = crb;
 	}
 
+	/**
+	 * Set names of the data reduction stages, e.g. "DetectorResponse", whose results are written into
+	 * the results file when stage fusion is enabled. Other stages that can be fused pass their results
+	 * to the following stage in memory.
+	 */
+	@Override
+	public void setPersistedStages(Collection<String> persistedStages) {
+		this.persistedStages = new HashSet<String>(persistedStages);
+	}
+
+	/**
+	 * Set storage layout of the datasets with data reduction results. Results are written contiguous by default.
+	 */
+	public void setDatasetLayout(DatasetLayout datasetLayout) {
+		this.datasetLayout = (datasetLayout != null ? datasetLayout : DatasetLayout.CONTIGUOUS);
+	}
+
+	/**
+	 * Set detector response data, indexed by detector name, that was read once for a batch of files.
+	 * Shared datasets must not be modified.
+	 */
+	public void setSharedDetectorResponse(Map<String, Dataset> sharedDrData) {
+		this.sharedDrData = sharedDrData;
+	}
+
 	@Override
 	public void setFlags(NcdReductionFlags flags) {
 		this.flags = new NcdReductionFlags(flags);
@@ -338,7 +382,7 @@ public class NcdProcessingModel implements IDataReductionProcess {
 		this.saxsAnalysisStatsParameters = saxsAnalysisStatsParameters;
 	}
 	
-	private long[] readDataShape(String detector, String filename) throws HDF5Exception {
+	public static long[] readDataShape(String detector, String filename) throws HDF5Exception {
 		long fapl = -1;
 		long fileID = -1;
 		long entryGroupID = -1;
@@ -379,6 +423,113 @@ public class NcdProcessingModel implements IDataReductionProcess {
 				
 	}
 	
+	/**
+	 * Read sizes of the detector data and errors element types. Size of errors is zero if the input has no errors.
+	 */
+	public static long[] readDataTypeSizes(String detector, String filename) throws HDF5Exception {
+		long fapl = -1;
+		long fileID = -1;
+		long entryGroupID = -1;
+		long detectorGroupID = -1;
+		long dataID = -1;
+		long errorsID = -1;
+		try {
+			fapl = H5.H5Pcreate(HDF5Constants.H5P_FILE_ACCESS);
+			H5.H5Pset_fclose_degree(fapl, HDF5Constants.H5F_CLOSE_WEAK);
+			
+			fileID = HDF5Utils.H5Fopen(filename, HDF5Constants.H5F_ACC_RDONLY, fapl);
+
+			entryGroupID = H5.H5Gopen(fileID, "entry1", HDF5Constants.H5P_DEFAULT);
+			detectorGroupID = H5.H5Gopen(entryGroupID, detector, HDF5Constants.H5P_DEFAULT);
+
+			dataID = H5.H5Dopen(detectorGroupID, "data", HDF5Constants.H5P_DEFAULT);
+			long dataTypeSize = NcdNexusUtils.getDatasetTypeSize(dataID);
+			long errorsTypeSize = 0;
+			if (H5.H5Lexists(detectorGroupID, "errors", HDF5Constants.H5P_DEFAULT)) {
+				errorsID = H5.H5Dopen(detectorGroupID, "errors", HDF5Constants.H5P_DEFAULT);
+				errorsTypeSize = NcdNexusUtils.getDatasetTypeSize(errorsID);
+			}
+			
+			return new long[] {dataTypeSize, errorsTypeSize};
+
+		} finally {
+			if (fapl > 0) {
+				H5.H5Pclose(fapl);
+			}
+			List<Long> identifiers = new ArrayList<Long>(Arrays.asList(
+					errorsID,
+					dataID,
+					detectorGroupID,
+					entryGroupID,
+					fileID));
+
+			NcdNexusUtils.closeH5idList(identifiers);
+		}
+	}
+	
+	/**
+	 * Read detector response data for the detector from the detector response file
+	 */
+	public static Dataset readDetectorResponse(String drFile, String detector) throws HDF5Exception {
+		long drEntryGroupID = -1;
+		long drInstrumentGroupID = -1;
+		long drDetectorGroupID = -1;
+		long drDataID = -1;
+		long drDataspaceID = -1;
+		long drDatatypeID = -1;
+		long memspaceID = -1;
+		long drFileID = -1;
+		try {
+			long fapl = H5.H5Pcreate(HDF5Constants.H5P_FILE_ACCESS);
+			H5.H5Pset_fclose_degree(fapl, HDF5Constants.H5F_CLOSE_WEAK);
+			drFileID = HDF5Utils.H5Fopen(drFile, HDF5Constants.H5F_ACC_RDONLY, fapl);
+			H5.H5Pclose(fapl);
+
+			drEntryGroupID = H5.H5Gopen(drFileID, "entry1", HDF5Constants.H5P_DEFAULT);
+			drInstrumentGroupID = H5.H5Gopen(drEntryGroupID, "instrument", HDF5Constants.H5P_DEFAULT);
+			drDetectorGroupID = H5.H5Gopen(drInstrumentGroupID, detector, HDF5Constants.H5P_DEFAULT);
+
+			drDataID = H5.H5Dopen(drDetectorGroupID, "data", HDF5Constants.H5P_DEFAULT);
+			drDataspaceID = H5.H5Dget_space(drDataID);
+			drDatatypeID = H5.H5Dget_type(drDataID);
+			int drDataclassID = H5.H5Tget_class(drDatatypeID);
+			int drDatasizeID = (int) H5.H5Tget_size(drDatatypeID);
+
+			int rank = H5.H5Sget_simple_extent_ndims(drDataspaceID);
+			int dtype = HDF5Utils.getDType(drDataclassID, drDatasizeID);
+
+			long[] drFrames = new long[rank];
+			H5.H5Sget_simple_extent_dims(drDataspaceID, drFrames, null);
+			memspaceID = H5.H5Screate_simple(rank, drFrames, null);
+
+			int[] drFramesInt = (int[]) ConvertUtils.convert(drFrames, int[].class);
+			Dataset drData = DatasetFactory.zeros(drFramesInt, dtype);
+
+			int readID = -1;
+			if ((drDataID >= 0) && (drDataspaceID >= 0) && (memspaceID >= 0)) {
+				readID = H5.H5Dread(drDataID, drDatatypeID, memspaceID, drDataspaceID,
+						HDF5Constants.H5P_DEFAULT, drData.getBuffer());
+			}
+			if (readID < 0) {
+				throw new HDF5Exception("Failed to read detector response dataset");
+			}
+			return drData;
+		} finally {
+			List<Long> identifiers = new ArrayList<Long>(Arrays.asList(
+					memspaceID,
+					drDataspaceID,
+					drDatatypeID,
+					drDataID,
+					drDetectorGroupID,
+					drInstrumentGroupID,
+					drEntryGroupID,
+					drFileID));
+
+			NcdNexusUtils.closeH5idList(identifiers);
+
+		}
+	}
+
 	private void preprocessBackgroundData(String filename) throws HDF5Exception {
 
 		long[] bgFrames = readDataShape(detector, bgFile);
@@ -488,61 +639,13 @@ public class NcdProcessingModel implements IDataReductionProcess {
 		}
 		
 		if (flags.isEnableDetectorResponse()) {
-			long drEntryGroupID = -1;
-			long drInstrumentGroupID = -1;
-			long drDetectorGroupID = -1;
-			long drDataID = -1;
-			long drDataspaceID = -1;
-			long drDatatypeID = -1;
-			long memspaceID = -1;
-			long drFileID = -1;
-			try {
-				long fapl = H5.H5Pcreate(HDF5Constants.H5P_FILE_ACCESS);
-				H5.H5Pset_fclose_degree(fapl, HDF5Constants.H5F_CLOSE_WEAK);
-				drFileID = HDF5Utils.H5Fopen(drFile, HDF5Constants.H5F_ACC_RDONLY, fapl);
-				H5.H5Pclose(fapl);
-
-				drEntryGroupID = H5.H5Gopen(drFileID, "entry1", HDF5Constants.H5P_DEFAULT);
-				drInstrumentGroupID = H5.H5Gopen(drEntryGroupID, "instrument", HDF5Constants.H5P_DEFAULT);
-				drDetectorGroupID = H5.H5Gopen(drInstrumentGroupID, detector, HDF5Constants.H5P_DEFAULT);
-
-				drDataID = H5.H5Dopen(drDetectorGroupID, "data", HDF5Constants.H5P_DEFAULT);
-				drDataspaceID = H5.H5Dget_space(drDataID);
-				drDatatypeID = H5.H5Dget_type(drDataID);
-				int drDataclassID = H5.H5Tget_class(drDatatypeID);
-				int drDatasizeID = (int) H5.H5Tget_size(drDatatypeID);
-
-				int rank = H5.H5Sget_simple_extent_ndims(drDataspaceID);
-				int dtype = HDF5Utils.getDType(drDataclassID, drDatasizeID);
-
-				long[] drFrames = new long[rank];
-				H5.H5Sget_simple_extent_dims(drDataspaceID, drFrames, null);
-				memspaceID = H5.H5Screate_simple(rank, drFrames, null);
-
-				int[] drFramesInt = (int[]) ConvertUtils.convert(drFrames, int[].class);
-				drData = DatasetFactory.zeros(drFramesInt, dtype);
-
-				int readID = -1;
-				if ((drDataID >= 0) && (drDataspaceID >= 0) && (memspaceID >= 0)) {
-					readID = H5.H5Dread(drDataID, drDatatypeID, memspaceID, drDataspaceID,
-							HDF5Constants.H5P_DEFAULT, drData.getBuffer());
-				}
-				if (readID < 0) {
-					throw new HDF5Exception("Failed to read detector response dataset");
-				}
-			} finally {
-				List<Long> identifiers = new ArrayList<Long>(Arrays.asList(
-						memspaceID,
-						drDataspaceID,
-						drDatatypeID,
-						drDataID,
-						drDetectorGroupID,
-						drInstrumentGroupID,
-						drEntryGroupID,
-						drFileID));
-
-				NcdNexusUtils.closeH5idList(identifiers);
-
+			drData = null;
+			if (sharedDrData != null && sharedDrData.containsKey(detector)) {
+				// Flow actors reshape response dataset, so use a view of the shared data
+				drData = sharedDrData.get(detector).getView(true);
+			}
+			if (drData == null) {
+				drData = readDetectorResponse(drFile, detector);
 			}
 		}
 		
@@ -552,8 +655,252 @@ public class NcdProcessingModel implements IDataReductionProcess {
 		
 	}
 
+	/**
+	 * Passerelle flow with references to the actors that receive object parameters
+	 */
+	private static class NcdFlow {
+		private final Flow flow;
+		private NcdMessageSource source;
+		private NcdDetectorResponseForkJoinTransformer detectorResponse;
+		private NcdSectorIntegrationForkJoinTransformer sectorIntegration;
+		private NcdBackgroundSubtractionForkJoinTransformer backgroundSubtraction;
+		private NcdBackgroundSubtractionForkJoinTransformer backgroundSubtractionAzimuthal;
+		private NcdSaxsDataStatsForkJoinTransformer filter;
+		
+		public NcdFlow(Flow flow) {
+			this.flow = flow;
+		}
+	}
+	
 	@Override
 	public void execute(String filename, final IProgressMonitor monitor) throws Exception {
+		
+		configure(filename);
+		
+		// Actors are created and connected only when a new flow topology is required.
+		// Cached flows are executed again with the parameters for the current file.
+		String flowKey = getFlowKey();
+		NcdFlow ncdFlow = flows.get(flowKey);
+		if (ncdFlow == null) {
+			ncdFlow = createFlow();
+			flows.put(flowKey, ncdFlow);
+		}
+		ProcessingMetrics metrics = new ProcessingMetrics();
+		setFlowParameters(ncdFlow, monitor);
+		setObjectParameter(ncdFlow.source.metricsParam, metrics);
+		setObjectParameter(ncdFlow.source.datasetLayoutParam, datasetLayout);
+		
+		flowMgr.executeBlockingErrorLocally(ncdFlow.flow, getFlowProperties(filename));
+		
+		if (monitor == null || !monitor.isCanceled()) {
+			writeProvenance(filename, metrics);
+		}
+	}
+	
+	/**
+	 * Store metrics of the actors executed in the flow next to the results of the detector data reduction
+	 */
+	private void writeProvenance(String filename, ProcessingMetrics metrics) throws HDF5Exception {
+		long fileID = -1;
+		long entryGroupID = -1;
+		lock.lock();
+		try {
+			long fapl = H5.H5Pcreate(HDF5Constants.H5P_FILE_ACCESS);
+			H5.H5Pset_fclose_degree(fapl, HDF5Constants.H5F_CLOSE_WEAK);
+			fileID = HDF5Utils.H5Fopen(filename, HDF5Constants.H5F_ACC_RDWR, fapl);
+			H5.H5Pclose(fapl);
+			entryGroupID = H5.H5Gopen(fileID, "entry1", HDF5Constants.H5P_DEFAULT);
+			metrics.writeNexus(entryGroupID, detector + "_provenance");
+		} finally {
+			try {
+				NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(entryGroupID, fileID)));
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	private boolean isFuseDetectorResponse() {
+		// Detector response correction is applied to the input frames of sector integration
+		// without writing corrected images into the results file
+		return flags.isEnableDetectorResponse() && flags.isEnableSector() && isFusedStage("DetectorResponse");
+	}
+	
+	private boolean isFuseNormalisation() {
+		// Normalisation is applied to the input frames of background subtraction
+		// without writing normalised data into the results file
+		//TODO: Fuse background subtraction into the following stages. This needs background data passed to
+		// average, invariant and SAXS plot actors.
+		return flags.isEnableNormalisation() && flags.isEnableBackground() && isFusedStage("Normalisation");
+	}
+	
+	private boolean isAzimuthalOrientation() {
+		return flags.isEnableSector() && flags.isEnableAzimuthal() && intSector.checkSymmetry(SectorROI.FULL);
+	}
+	
+	/**
+	 * Key describing the actors and connections in the flow for the current configuration
+	 */
+	private String getFlowKey() {
+		boolean[] topology = new boolean[] {
+				frameSelection != null,
+				flags.isEnableDetectorResponse(),
+				isFuseDetectorResponse(),
+				isFuseNormalisation(),
+				flags.isEnableSector(),
+				flags.isEnableRadial(),
+				flags.isEnableAzimuthal(),
+				isAzimuthalOrientation(),
+				flags.isEnableNormalisation(),
+				flags.isEnableBackground(),
+				enableBgAverage,
+				flags.isEnableInvariant(),
+				flags.isEnableAverage(),
+				flags.isEnableLogLogPlot(),
+				flags.isEnableGuinierPlot(),
+				flags.isEnablePorodPlot(),
+				flags.isEnableKratkyPlot(),
+				flags.isEnableZimmPlot(),
+				flags.isEnableDebyeBuechePlot(),
+		};
+		return StringUtils.join(new String[] {detector, Integer.toString(dimension), Arrays.toString(topology)}, ":");
+	}
+	
+	/**
+	 * Set object parameters of the flow actors. These can't be passed to the flow manager as string properties.
+	 */
+	private void setFlowParameters(NcdFlow ncdFlow, IProgressMonitor monitor) throws IllegalActionException {
+		setObjectParameter(ncdFlow.source.monitorParam, monitor);
+		if (ncdFlow.detectorResponse != null) {
+			setObjectParameter(ncdFlow.detectorResponse.detectorResponseParam, drData);
+		}
+		NcdSectorIntegrationForkJoinTransformer sectorIntegration = ncdFlow.sectorIntegration;
+		if (sectorIntegration != null) {
+			if (intSector != null) {
+				sectorIntegration.sectorROIParam.setRoi(intSector);
+			}
+			setObjectParameter(sectorIntegration.gradientParam, slope);
+			setObjectParameter(sectorIntegration.interceptParam, intercept);
+			setObjectParameter(sectorIntegration.cameraLengthParam, cameraLength);
+			setObjectParameter(sectorIntegration.energyParam, energy);
+			setObjectParameter(sectorIntegration.pxSizeParam, pxSize);
+			setObjectParameter(sectorIntegration.axisUnitParam, qaxisUnit);
+			setObjectParameter(sectorIntegration.maskParam, enableMask ? mask : null);
+			sectorIntegration.clearFusedStages();
+			if (isFuseDetectorResponse()) {
+				sectorIntegration.addFusedStage(NcdDetectorResponseForkJoinTransformer.createFusedStage(drData));
+			}
+		}
+		setFusedNormalisation(ncdFlow.backgroundSubtraction);
+		setFusedNormalisation(ncdFlow.backgroundSubtractionAzimuthal);
+		if (ncdFlow.filter != null) {
+			setObjectParameter(ncdFlow.filter.statTypeParam, saxsAnalysisStatsParameters);
+		}
+	}
+	
+	private void setFusedNormalisation(NcdBackgroundSubtractionForkJoinTransformer backgroundSubtraction) {
+		if (backgroundSubtraction != null) {
+			backgroundSubtraction.clearFusedStages();
+			if (isFuseNormalisation()) {
+				backgroundSubtraction.addFusedStage(NcdNormalisationForkJoinTransformer.createFusedStage(calibration, normChannel, absScaling));
+			}
+		}
+	}
+	
+	private static void setObjectParameter(Parameter parameter, Object value) throws IllegalActionException {
+		parameter.setToken(value != null ? new ObjectToken(value) : new ObjectToken());
+	}
+	
+	/**
+	 * Parameters of the flow actors that change between input files.
+	 * Every property of the cached flow has to be set, so that no values are left over from the previous run.
+	 */
+	private Map<String, String> getFlowProperties(String filename) {
+		
+		Map<String, String> props = new HashMap<String, String>();
+		
+		props.put("MessageSource.filenameParam", filename);
+		props.put("MessageSource.detectorParam", detector);
+		props.put("MessageSource.dimensionParam", Integer.toString(dimension));
+		String processingName = StringUtils.join(new String[] {detector, PROCESSING},  "_");
+		props.put("MessageSource.processingParam", processingName);
+		props.put("MessageSource.readOnlyParam", Boolean.toString(false));
+		
+		if (frameSelection != null) {
+			props.put("Selection.formatParam", frameSelection);
+		}
+		
+		if (flags.isEnableSector()) {
+			props.put("SectorIntegration.doRadialParam", Boolean.toString(flags.isEnableRadial()));
+			props.put("SectorIntegration.doAzimuthalParam", Boolean.toString(flags.isEnableAzimuthal()));
+			props.put("SectorIntegration.doFastParam", Boolean.toString(flags.isEnableFastintegration()));
+		}
+		
+		if (flags.isEnableNormalisation() && flags.isEnableRadial() && !isFuseNormalisation()) {
+			putNormalisationProperties(props, "Normalisation");
+		}
+		
+		if (flags.isEnableBackground() && flags.isEnableRadial()) {
+			int bgDimension = flags.isEnableSector() ? 1 : dimension;
+			putBackgroundProperties(props, filename, "", bgDetector, bgDimension);
+		}
+		
+		if (flags.isEnableAverage()) {
+			props.put("Average.gridAverageParam", gridAverage);
+			if (flags.isEnableGuinierPlot()) {
+				props.put("ExportFilter.datasetNameParam", "selection");
+			}
+		}
+		
+		props.put("result.detectorParam", detector);
+		
+		if (flags.isEnableSector() && flags.isEnableAzimuthal()) {
+			props.put("azimuthal.detectorParam", detector);
+			if (flags.isEnableNormalisation() && !isFuseNormalisation()) {
+				putNormalisationProperties(props, "Normalisation_Azimuthal");
+			}
+			if (flags.isEnableBackground()) {
+				String bgAzDetector = StringUtils.join(new String[] {detector, "azimuthal"}, "_");
+				putBackgroundProperties(props, filename, "_Azimuthal", bgAzDetector, 1);
+			}
+			if (flags.isEnableAverage()) {
+				props.put("Average_Azimuthal.gridAverageParam", gridAverage);
+			}
+		}
+		
+		return props;
+	}
+	
+	private void putNormalisationProperties(Map<String, String> props, String actorName) {
+		props.put(actorName + ".calibrationParam", calibration);
+		props.put(actorName + ".absScalingParam", Double.toString(absScaling));
+		props.put(actorName + ".normChannelParam", Integer.toString(normChannel));
+	}
+	
+	private void putBackgroundProperties(Map<String, String> props, String filename, String suffix, String bgDetectorName, int bgDimension) {
+		props.put("BackgroundSubtraction" + suffix + ".bgScalingParam", Double.toString(bgScaling != null ? bgScaling : Double.NaN));
+		
+		String sourceName = "BackgroundMessageSource" + suffix;
+		props.put(sourceName + ".filenameParam", bgFile);
+		props.put(sourceName + ".detectorParam", bgDetectorName);
+		props.put(sourceName + ".dimensionParam", Integer.toString(bgDimension));
+		props.put(sourceName + ".readOnlyParam", Boolean.toString(!enableBgAverage));
+		String bgProcessing = "";
+		String[] bgProcessingName = StringUtils.split(filename, "_");
+		if (bgProcessingName.length > 1 && enableBgAverage) {
+			bgProcessing = StringUtils.join(new String[] {bgDetectorName, bgProcessingName[1]}, "_");
+		}
+		props.put(sourceName + ".processingParam", bgProcessing);
+		
+		if (enableBgAverage) {
+			props.put("BackgroundAverage" + suffix + ".gridAverageParam", bgGridAverage);
+		}
+	}
+	
+	/**
+	 * Create actors and connections of the data reduction flow for the current configuration
+	 */
+	private NcdFlow createFlow() throws IllegalActionException, NameDuplicationException {
 
 		NcdAbstractDataForkJoinTransformer selection;
 		NcdAbstractDataForkJoinTransformer detectorResponse;
@@ -573,113 +920,56 @@ public class NcdProcessingModel implements IDataReductionProcess {
 		NcdDummySelectionSource dummySelection;
 		NcdProcessingObjectTransformer exportFilter = null;
 		
-		FlowManager flowMgr = new FlowManager();
 		Flow flow = new Flow("NCD Data Reduction", null);
+		NcdFlow ncdFlow = new NcdFlow(flow);
 		
 		ETDirector director = new ETDirector(flow, "director");
 		flow.setDirector(director);
 		
-		configure(filename);
-
-		Map<String, String> props = new HashMap<String, String>();
-
 		NcdMessageSource source = new NcdMessageSource(flow, "MessageSource");
 		source.lockParam.setToken(new ObjectToken(lock));
-		if (monitor != null) {
-			source.monitorParam.setToken(new ObjectToken(monitor));
-		}
-		props.put("MessageSource.filenameParam", filename);
-		props.put("MessageSource.detectorParam", detector);
-		props.put("MessageSource.dimensionParam", Integer.toString(dimension));
-		String processingName = StringUtils.join(new String[] {detector, PROCESSING},  "_");
-		props.put("MessageSource.processingParam", processingName);
-		props.put("MessageSource.readOnlyParam", Boolean.toString(false));
+		ncdFlow.source = source;
 		
 		dummySelection = new NcdDummySelectionSource(flow, "SelectionString");
 		
 		if (frameSelection != null) {
 			selection = new NcdSelectionForkJoinTransformer(flow, "Selection");
-			props.put("Selection.formatParam", frameSelection != null ? frameSelection : "");
 		} else {
 			selection = new NcdMessageForwarder(flow, "Selection");
 		}
 		
-		if (flags.isEnableDetectorResponse()) {
+		if (flags.isEnableDetectorResponse() && !isFuseDetectorResponse()) {
 			detectorResponse = new NcdDetectorResponseForkJoinTransformer(flow, "DetectorResponse");
-			((NcdDetectorResponseForkJoinTransformer) detectorResponse).detectorResponseParam.setToken(new ObjectToken(drData));
+			ncdFlow.detectorResponse = (NcdDetectorResponseForkJoinTransformer) detectorResponse;
 		} else {
 			detectorResponse = new NcdMessageForwarder(flow, "DetectorResponse");
 		}
 		
 		if (flags.isEnableSector()) {
 			sectorIntegration = new NcdSectorIntegrationForkJoinTransformer(flow, "SectorIntegration");
-			props.put("SectorIntegration.doRadialParam", Boolean.toString(flags.isEnableRadial()));
-			props.put("SectorIntegration.doAzimuthalParam", Boolean.toString(flags.isEnableAzimuthal()));
-			props.put("SectorIntegration.doFastParam", Boolean.toString(flags.isEnableFastintegration()));
-			if (intSector != null) {
-				((NcdSectorIntegrationForkJoinTransformer) sectorIntegration).sectorROIParam.setRoi(intSector);
-			}
-			if (slope != null) {
-				((NcdSectorIntegrationForkJoinTransformer) sectorIntegration).gradientParam.setToken(new ObjectToken(slope));
-			}
-			if (intercept != null) {
-				((NcdSectorIntegrationForkJoinTransformer) sectorIntegration).interceptParam.setToken(new ObjectToken(intercept));
-			}
-			if (cameraLength != null) {
-				((NcdSectorIntegrationForkJoinTransformer) sectorIntegration).cameraLengthParam.setToken(new ObjectToken(cameraLength));
-			}
-			if (energy != null) {
-				((NcdSectorIntegrationForkJoinTransformer) sectorIntegration).energyParam.setToken(new ObjectToken(energy));
-			}
-			if (pxSize != null) {
-				((NcdSectorIntegrationForkJoinTransformer) sectorIntegration).pxSizeParam.setToken(new ObjectToken(pxSize));
-			}
-			if (qaxisUnit != null) {
-				((NcdSectorIntegrationForkJoinTransformer) sectorIntegration).axisUnitParam.setToken(new ObjectToken(qaxisUnit));
-			}
-			if (enableMask && mask != null) {
-				((NcdSectorIntegrationForkJoinTransformer) sectorIntegration).maskParam.setToken(new ObjectToken(mask));
-			}
+			ncdFlow.sectorIntegration = (NcdSectorIntegrationForkJoinTransformer) sectorIntegration;
 			standardise = new NcdStandardiseForkJoinTransformer(flow, "StandardisedIntensity");
 		} else {
 			sectorIntegration = new NcdMessageForwarder(flow, "SectorIntegration");
 			standardise = new NcdMessageForwarder(flow, "StandardisedIntensity");
 		}
 		
-		if (flags.isEnableNormalisation() && flags.isEnableRadial()) {
+		if (flags.isEnableNormalisation() && flags.isEnableRadial() && !isFuseNormalisation()) {
 			normalisation = new NcdNormalisationForkJoinTransformer(flow, "Normalisation");
-			props.put("Normalisation.calibrationParam", calibration);
-			props.put("Normalisation.absScalingParam", Double.toString(absScaling));
-			props.put("Normalisation.normChannelParam", Integer.toString(normChannel));
 		} else {
 			normalisation = new NcdMessageForwarder(flow, "Normalisation");
 		}
 		
 		if (flags.isEnableBackground() && flags.isEnableRadial()) {
 			backgroundSubtraction = new NcdBackgroundSubtractionForkJoinTransformer(flow, "BackgroundSubtraction");
-			if (bgScaling != null) {
-				props.put("BackgroundSubtraction.bgScalingParam", Double.toString(bgScaling));
-			} else {
-				props.put("BackgroundSubtraction.bgScalingParam", Double.toString(Double.NaN));
-			}
+			ncdFlow.backgroundSubtraction = (NcdBackgroundSubtractionForkJoinTransformer) backgroundSubtraction;
 			
 			NcdMessageSource bgsource = new NcdMessageSource(flow, "BackgroundMessageSource");
 			bgsource.lockParam.setToken(new ObjectToken(lock));
-			props.put("BackgroundMessageSource.filenameParam", bgFile);
-			props.put("BackgroundMessageSource.detectorParam", bgDetector);
-			int bgDimension = flags.isEnableSector() ? 1 : dimension;
-			props.put("BackgroundMessageSource.dimensionParam", Integer.toString(bgDimension));
-			props.put("BackgroundMessageSource.readOnlyParam", Boolean.toString(!enableBgAverage));
-			String[] bgProcessingName = StringUtils.split(filename, "_");
-			if (bgProcessingName.length > 1 && enableBgAverage) {
-				String bgProcessing = StringUtils.join(new String[] {bgDetector, bgProcessingName[1]}, "_");
-				props.put("BackgroundMessageSource.processingParam", bgProcessing);
-			}
 		
 			NcdAbstractDataForkJoinTransformer bgAverage;
 			if (enableBgAverage) {
 				bgAverage = new NcdAverageForkJoinTransformer(flow, "BackgroundAverage");
-				props.put("BackgroundAverage.gridAverageParam", bgGridAverage);
 				
 				flow.connect(dummySelection.output,((NcdAverageForkJoinTransformer) bgAverage).selectionInput);
 			} else {
@@ -709,15 +999,13 @@ public class NcdProcessingModel implements IDataReductionProcess {
 		
 		if (flags.isEnableAverage()) {
 			average = new NcdAverageForkJoinTransformer(flow, "Average");
-			props.put("Average.gridAverageParam", gridAverage);
 			if (guinierPlot instanceof NcdSaxsPlotDataForkJoinTransformer) {
 				NcdSaxsPlotDataForkJoinTransformer testGuinierPlot = new NcdSaxsPlotDataForkJoinTransformer(flow, "guinierTestData");
 				testGuinierPlot.plotTypeParam.setToken(new StringToken(SaxsAnalysisPlotType.GUINIER_PLOT.getName()));
 				NcdSaxsDataStatsForkJoinTransformer filter = new NcdSaxsDataStatsForkJoinTransformer(flow, "DataFilter");
-				filter.statTypeParam.setToken(new ObjectToken(saxsAnalysisStatsParameters));
+				ncdFlow.filter = filter;
 				
 				exportFilter = new NcdProcessingObjectTransformer(flow, "ExportFilter");
-				props.put("ExportFilter.datasetNameParam", "selection");
 				
 				flow.connect(backgroundSubtraction.output, testGuinierPlot.input);
 				flow.connect(testGuinierPlot.output, nullActor.input);
@@ -732,7 +1020,6 @@ public class NcdProcessingModel implements IDataReductionProcess {
 		}
 		
 		NcdMessageSink sink = new NcdMessageSink(flow, "result");
-		props.put("result.detectorParam", detector);
 
 		flow.connect(source.output, selection.input);
 		flow.connect(selection.output, detectorResponse.input);
@@ -766,41 +1053,22 @@ public class NcdProcessingModel implements IDataReductionProcess {
 			NcdAbstractDataForkJoinTransformer degreeOrientationAzimuthal;
 			
 			NcdMessageSink azimuthalSink = new NcdMessageSink(flow, "azimuthal");
-			props.put("azimuthal.detectorParam", detector);
 
-			if (flags.isEnableNormalisation()) {
+			if (flags.isEnableNormalisation() && !isFuseNormalisation()) {
 				normalisationAzimuthal = new NcdNormalisationForkJoinTransformer(flow, "Normalisation_Azimuthal");
-				props.put("Normalisation_Azimuthal.calibrationParam", calibration);
-				props.put("Normalisation_Azimuthal.absScalingParam", Double.toString(absScaling));
-				props.put("Normalisation_Azimuthal.normChannelParam", Integer.toString(normChannel));
 			} else {
 				normalisationAzimuthal = new NcdMessageForwarder(flow, "Normalisation_Azimuthal");
 			}
 			
 			if (flags.isEnableBackground()) {
 				backgroundSubtractionAzimuthal = new NcdBackgroundSubtractionForkJoinTransformer(flow, "BackgroundSubtraction_Azimuthal");
-				if (bgScaling != null) {
-					props.put("BackgroundSubtraction_Azimuthal.bgScalingParam", Double.toString(bgScaling));
-				} else {
-					props.put("BackgroundSubtraction_Azimuthal.bgScalingParam", Double.toString(Double.NaN));
-				}
-				String bgAzDetector = StringUtils.join(new String[] {detector, azimuthalSink.getName()}, "_");
+				ncdFlow.backgroundSubtractionAzimuthal = (NcdBackgroundSubtractionForkJoinTransformer) backgroundSubtractionAzimuthal;
 				NcdMessageSource bgsource = new NcdMessageSource(flow, "BackgroundMessageSource_Azimuthal");
 				bgsource.lockParam.setToken(new ObjectToken(lock));
-				props.put("BackgroundMessageSource_Azimuthal.filenameParam", bgFile);
-				props.put("BackgroundMessageSource_Azimuthal.detectorParam", bgAzDetector);
-				props.put("BackgroundMessageSource_Azimuthal.dimensionParam", Integer.toString(1));
-				props.put("BackgroundMessageSource_Azimuthal.readOnlyParam", Boolean.toString(!enableBgAverage));
-				String[] bgProcessingName = StringUtils.split(filename, "_");
-				if (bgProcessingName.length > 1 && enableBgAverage) {
-					String bgProcessing = StringUtils.join(new String[] {bgAzDetector, bgProcessingName[1]}, "_");
-					props.put("BackgroundMessageSource_Azimuthal.processingParam", bgProcessing);
-				}
 			
 				NcdAbstractDataForkJoinTransformer bgAverage;
 				if (enableBgAverage) {
 					bgAverage = new NcdAverageForkJoinTransformer(flow, "BackgroundAverage_Azimuthal");
-					props.put("BackgroundAverage_Azimuthal.gridAverageParam", bgGridAverage);
 					
 					flow.connect(dummySelection.output,((NcdAverageForkJoinTransformer) bgAverage).selectionInput);
 				} else {
@@ -815,7 +1083,6 @@ public class NcdProcessingModel implements IDataReductionProcess {
 			
 			if (flags.isEnableAverage()) {
 				averageAzimuthal = new NcdAverageForkJoinTransformer(flow, "Average_Azimuthal");
-				props.put("Average_Azimuthal.gridAverageParam", gridAverage);
 				if (guinierPlot instanceof NcdSaxsPlotDataForkJoinTransformer && exportFilter != null) {
 					flow.connect(exportFilter.output, ((NcdAverageForkJoinTransformer) averageAzimuthal).selectionInput);
 				} else {
@@ -825,7 +1092,7 @@ public class NcdProcessingModel implements IDataReductionProcess {
 				averageAzimuthal = new NcdMessageForwarder(flow, "Average_Azimuthal");
 			}
 			
-			if (intSector.checkSymmetry(SectorROI.FULL)) {
+			if (isAzimuthalOrientation()) {
 				degreeOrientationAzimuthal = new NcdOrientationForkJoinTransformer(flow, "DegreeOfOrientation_Azimuthal");
 			} else {
 				degreeOrientationAzimuthal = new NcdMessageForwarder(flow, "DegreeOfOrientation_Azimuthal");
@@ -838,8 +1105,12 @@ public class NcdProcessingModel implements IDataReductionProcess {
 			flow.connect(averageAzimuthal.output, degreeOrientationAzimuthal.input);
 			flow.connect(degreeOrientationAzimuthal.output, nullActor.input);
 		}
-					
-		flowMgr.executeBlockingErrorLocally(flow, props);		
+		
+		return ncdFlow;
+	}
+
+	private boolean isFusedStage(String stageName) {
+		return flags.isEnableStageFusion() && !persistedStages.contains(stageName);
 	}
 
 	private NcdAbstractDataForkJoinTransformer addSaxsPlotActor(CompositeEntity flow, SaxsAnalysisPlotType plotType, boolean enable)
@@ -19,6 +19,7 @@ package uk.ac.diamond.scisoft.ncd.passerelle.actors.core;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -36,8 +37,12 @@ import ptolemy.data.expr.StringParameter;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
+import uk.ac.diamond.scisoft.ncd.core.utils.DatasetLayout;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.ProcessingMetrics;
 
+import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.actor.ProcessingException;
 import com.isencia.passerelle.actor.Source;
 import com.isencia.passerelle.actor.TerminationException;
@@ -61,7 +66,7 @@ public class NcdMessageSource extends Source {
 	private String detector;
 	private String processing;
 	
-	public Parameter dimensionParam, lockParam, monitorParam, readOnlyParam;
+	public Parameter dimensionParam, lockParam, monitorParam, metricsParam, datasetLayoutParam, readOnlyParam;
 	public StringParameter filenameParam, detectorParam, processingParam;
 	
 	private int dimension = -1;
@@ -76,6 +81,8 @@ public class NcdMessageSource extends Source {
 	//TODO: Add support for reading axis dataset
 	private long inputAxisDataID = -1;
 	private long inputAxisErrorsID = -1;
+	
+	private HDF5IOService ioService;
 
 	public NcdMessageSource(CompositeEntity container, String name) throws NameDuplicationException,
 			IllegalActionException {
@@ -89,6 +96,16 @@ public class NcdMessageSource extends Source {
 		readOnlyParam = new Parameter(this, "readOnlyParam");
 		lockParam = new Parameter(this, "lockParam");
 		monitorParam = new Parameter(this, "monitorParam");
+		metricsParam = new Parameter(this, "metricsParam");
+		datasetLayoutParam = new Parameter(this, "datasetLayoutParam");
+	}
+
+	@Override
+	protected void doInitialize() throws InitializationException {
+		super.doInitialize();
+		// Actor is executed again when the flow is cached, so every run starts from a clean state
+		messageSent = false;
+		resetIdentifiers();
 	}
 
 	@Override
@@ -104,10 +121,12 @@ public class NcdMessageSource extends Source {
 			detector = ((StringToken) detectorParam.getToken()).stringValue();
 			processing = ((StringToken) processingParam.getToken()).stringValue();
 
-			boolean readOnly = false;
+			final boolean readOnly;
 			Token token = readOnlyParam.getToken();
 			if (token instanceof BooleanToken) {
 				readOnly = ((BooleanToken) token).booleanValue();
+			} else {
+				readOnly = false;
 			}
 			
 			token = lockParam.getToken();
@@ -135,61 +154,89 @@ public class NcdMessageSource extends Source {
 				getLogger().info("Monitor object was not provided");
 			}
 
-			lock.lock();
-			nxsFileID = HDF5Utils.H5Fopen(filename, readOnly ? HDF5Constants.H5F_ACC_RDONLY : HDF5Constants.H5F_ACC_RDWR, HDF5Constants.H5P_DEFAULT);
-			entryGroupID = H5.H5Gopen(nxsFileID, "entry1", HDF5Constants.H5P_DEFAULT);
-			detectorGroupID = H5.H5Gopen(entryGroupID, detector, HDF5Constants.H5P_DEFAULT);
-			
-			if (processing != null && !processing.isEmpty()) {
-				boolean hasProcessing = H5.H5Lexists(entryGroupID, processing, HDF5Constants.H5P_DEFAULT);
-				if (hasProcessing) {
-					processingGroupID = H5.H5Gopen(entryGroupID, processing, HDF5Constants.H5P_DEFAULT);
-				} else {
-					if (!readOnly) {
-						processingGroupID = NcdNexusUtils.makegroup(entryGroupID, processing, Nexus.INST);
-					}
+			ProcessingMetrics metrics = null;
+			token = metricsParam.getToken();
+			if (token instanceof ObjectToken) {
+				Object obj = ((ObjectToken) token).getValue();
+				if (obj instanceof ProcessingMetrics) {
+					metrics = (ProcessingMetrics) obj;
 				}
 			}
-			
-			{
-				H5L_info_t linkInfo = H5.H5Lget_info(detectorGroupID, "data", HDF5Constants.H5P_DEFAULT);
-				if (linkInfo.type == HDF5Constants.H5L_TYPE_EXTERNAL) {
-					String[] buff = new String[(int) linkInfo.address_val_size];
-					H5.H5Lget_value(detectorGroupID, "data", buff, HDF5Constants.H5P_DEFAULT);
-					if (buff[0] != null && buff[1] != null) {
-						String linkData = buff[0];
-						String linkFilename = buff[1];
-						linkFileID = HDF5Utils.H5Fopen(linkFilename, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
-						inputDataID = H5.H5Dopen(linkFileID, linkData, HDF5Constants.H5P_DEFAULT);
-					} else {
-						throw new HDF5Exception("Invalid external link data for input dataset.");
-					}
-				} else {
-					inputDataID = H5.H5Dopen(detectorGroupID, "data", HDF5Constants.H5P_DEFAULT);
+
+			DatasetLayout layout = null;
+			token = datasetLayoutParam.getToken();
+			if (token instanceof ObjectToken) {
+				Object obj = ((ObjectToken) token).getValue();
+				if (obj instanceof DatasetLayout) {
+					layout = (DatasetLayout) obj;
 				}
 			}
 
-			boolean hasErrors = H5.H5Lexists(detectorGroupID, "errors", HDF5Constants.H5P_DEFAULT);
-			if (hasErrors) {
-				H5L_info_t linkInfo = H5.H5Lget_info(detectorGroupID, "errors", HDF5Constants.H5P_DEFAULT);
-				if (linkInfo.type == HDF5Constants.H5L_TYPE_EXTERNAL) {
-					String[] buff = new String[(int) linkInfo.address_val_size];
-					H5.H5Lget_value(detectorGroupID, "errors", buff, HDF5Constants.H5P_DEFAULT);
-					if (buff[0] != null && buff[1] != null) {
-						String linkData = buff[0];
-						String linkFilename = buff[1];
-						linkErrorsFileID = HDF5Utils.H5Fopen(linkFilename, HDF5Constants.H5F_ACC_RDONLY,
-								HDF5Constants.H5P_DEFAULT);
-						inputErrorsID = H5.H5Dopen(linkErrorsFileID, linkData, HDF5Constants.H5P_DEFAULT);
+			if (ioService != null) {
+				ioService.shutdown();
+			}
+			// Files are opened on the I/O thread that handles all HDF5 access during processing
+			ioService = new HDF5IOService();
+			ioService.execute(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					nxsFileID = HDF5Utils.H5Fopen(filename, readOnly ? HDF5Constants.H5F_ACC_RDONLY : HDF5Constants.H5F_ACC_RDWR, HDF5Constants.H5P_DEFAULT);
+					entryGroupID = H5.H5Gopen(nxsFileID, "entry1", HDF5Constants.H5P_DEFAULT);
+					detectorGroupID = H5.H5Gopen(entryGroupID, detector, HDF5Constants.H5P_DEFAULT);
+			
+					if (processing != null && !processing.isEmpty()) {
+						boolean hasProcessing = H5.H5Lexists(entryGroupID, processing, HDF5Constants.H5P_DEFAULT);
+						if (hasProcessing) {
+							processingGroupID = H5.H5Gopen(entryGroupID, processing, HDF5Constants.H5P_DEFAULT);
+						} else {
+							if (!readOnly) {
+								processingGroupID = NcdNexusUtils.makegroup(entryGroupID, processing, Nexus.INST);
+							}
+						}
+					}
+			
+					{
+						H5L_info_t linkInfo = H5.H5Lget_info(detectorGroupID, "data", HDF5Constants.H5P_DEFAULT);
+						if (linkInfo.type == HDF5Constants.H5L_TYPE_EXTERNAL) {
+							String[] buff = new String[(int) linkInfo.address_val_size];
+							H5.H5Lget_value(detectorGroupID, "data", buff, HDF5Constants.H5P_DEFAULT);
+							if (buff[0] != null && buff[1] != null) {
+								String linkData = buff[0];
+								String linkFilename = buff[1];
+								linkFileID = HDF5Utils.H5Fopen(linkFilename, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+								inputDataID = H5.H5Dopen(linkFileID, linkData, HDF5Constants.H5P_DEFAULT);
+							} else {
+								throw new HDF5Exception("Invalid external link data for input dataset.");
+							}
+						} else {
+							inputDataID = H5.H5Dopen(detectorGroupID, "data", HDF5Constants.H5P_DEFAULT);
+						}
+					}
+
+					boolean hasErrors = H5.H5Lexists(detectorGroupID, "errors", HDF5Constants.H5P_DEFAULT);
+					if (hasErrors) {
+						H5L_info_t linkInfo = H5.H5Lget_info(detectorGroupID, "errors", HDF5Constants.H5P_DEFAULT);
+						if (linkInfo.type == HDF5Constants.H5L_TYPE_EXTERNAL) {
+							String[] buff = new String[(int) linkInfo.address_val_size];
+							H5.H5Lget_value(detectorGroupID, "errors", buff, HDF5Constants.H5P_DEFAULT);
+							if (buff[0] != null && buff[1] != null) {
+								String linkData = buff[0];
+								String linkFilename = buff[1];
+								linkErrorsFileID = HDF5Utils.H5Fopen(linkFilename, HDF5Constants.H5F_ACC_RDONLY,
+										HDF5Constants.H5P_DEFAULT);
+								inputErrorsID = H5.H5Dopen(linkErrorsFileID, linkData, HDF5Constants.H5P_DEFAULT);
+							} else {
+								throw new HDF5Exception("Invalid external link data for input errors dataset.");
+							}
+						} else {
+							inputErrorsID = H5.H5Dopen(detectorGroupID, "errors", HDF5Constants.H5P_DEFAULT);
+						}
 					} else {
-						throw new HDF5Exception("Invalid external link data for input errors dataset.");
+						getLogger().info("Input dataset with error estimates wasn't found");
 					}
-				} else {
-					inputErrorsID = H5.H5Dopen(detectorGroupID, "errors", HDF5Constants.H5P_DEFAULT);
+					return null;
 				}
-			} else {
-				getLogger().info("Input dataset with error estimates wasn't found");
-			}
+			});
 			
 			NcdProcessingObject msg = new NcdProcessingObject(
 					dimension,
@@ -202,6 +249,9 @@ public class NcdMessageSource extends Source {
 					inputAxisErrorsID,
 					lock,
 					monitor);
+			msg.setIOService(ioService);
+			msg.setMetrics(metrics);
+			msg.setDatasetLayout(layout);
 			dataMsg = createMessage(msg, "application/octet-stream");
 		} catch (IllegalActionException e) {
 			messageSent = false;
@@ -215,10 +265,6 @@ public class NcdMessageSource extends Source {
 		} catch (MessageException e) {
 			messageSent = false;
 			throw new ProcessingException(ErrorCode.ACTOR_EXECUTION_ERROR, e.getMessage(), this, e);
-		} finally {
-			if (lock != null && lock.isLocked() && lock.isHeldByCurrentThread()) {
-				lock.unlock();
-			}
 		}
 		messageSent = true;
 		return dataMsg;
@@ -226,6 +272,10 @@ public class NcdMessageSource extends Source {
 
 	@Override
 	protected void doWrapUp() throws TerminationException {
+		if (ioService != null) {
+			ioService.shutdown();
+			ioService = null;
+		}
 		try {
 			List<Long> identifiers = new ArrayList<Long>(Arrays.asList(
 					inputDataID,
@@ -242,7 +292,22 @@ public class NcdMessageSource extends Source {
 			NcdNexusUtils.closeH5idList(identifiers);
 		} catch (HDF5LibraryException e) {
 			getLogger().info("Error closing NeXus handle identifier", e);
+		} finally {
+			resetIdentifiers();
 		}
 	}
 
+	private void resetIdentifiers() {
+		nxsFileID = -1;
+		linkFileID = -1;
+		linkErrorsFileID = -1;
+		entryGroupID = -1;
+		processingGroupID = -1;
+		detectorGroupID = -1;
+		inputDataID = -1;
+		inputErrorsID = -1;
+		inputAxisDataID = -1;
+		inputAxisErrorsID = -1;
+	}
+
 }
@@ -22,6 +22,10 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.dawnsci.analysis.api.message.DataMessageComponent;
 
+import uk.ac.diamond.scisoft.ncd.core.utils.DatasetLayout;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
+import uk.ac.diamond.scisoft.ncd.core.utils.ProcessingMetrics;
+
 public class NcdProcessingObject extends DataMessageComponent {
 
 	private static final long serialVersionUID = -3338750892085718124L;
@@ -36,6 +40,9 @@ public class NcdProcessingObject extends DataMessageComponent {
 	private static final String INPUT_AXIS_ERRORS_ID = "inputAxisErrorsID";
 	private static final String LOCK = "lock";
 	private static final String MONITOR = "Monitor";
+	private static final String IO_SERVICE = "ioService";
+	private static final String METRICS = "metrics";
+	private static final String DATASET_LAYOUT = "datasetLayout";
 
 	public NcdProcessingObject(int dimension,
 			long entryGroupID, long processingGroupID,	long inputGroupID,
@@ -184,4 +191,46 @@ public class NcdProcessingObject extends DataMessageComponent {
 		}
 	}
 
+	public HDF5IOService getIOService() {
+		Object obj = getUserObject(IO_SERVICE);
+		if (obj instanceof HDF5IOService) {
+			return (HDF5IOService) obj;
+		}
+		return null;
+	}
+
+	public void setIOService(HDF5IOService ioService) {
+		if (ioService != null) {
+			addUserObject(IO_SERVICE, ioService);
+		}
+	}
+
+	public ProcessingMetrics getMetrics() {
+		Object obj = getUserObject(METRICS);
+		if (obj instanceof ProcessingMetrics) {
+			return (ProcessingMetrics) obj;
+		}
+		return null;
+	}
+
+	public void setMetrics(ProcessingMetrics metrics) {
+		if (metrics != null) {
+			addUserObject(METRICS, metrics);
+		}
+	}
+
+	public DatasetLayout getDatasetLayout() {
+		Object obj = getUserObject(DATASET_LAYOUT);
+		if (obj instanceof DatasetLayout) {
+			return (DatasetLayout) obj;
+		}
+		return DatasetLayout.CONTIGUOUS;
+	}
+
+	public void setDatasetLayout(DatasetLayout layout) {
+		if (layout != null) {
+			addUserObject(DATASET_LAYOUT, layout);
+		}
+	}
+
 }
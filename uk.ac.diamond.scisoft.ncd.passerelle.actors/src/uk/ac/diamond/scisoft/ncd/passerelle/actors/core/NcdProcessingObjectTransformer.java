@@ -18,7 +18,8 @@ package uk.ac.diamond.scisoft.ncd.passerelle.actors.core;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.lang.ArrayUtils;
@@ -33,8 +34,8 @@ import ptolemy.data.expr.StringParameter;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
-import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
 
@@ -78,8 +79,6 @@ public class NcdProcessingObjectTransformer extends Actor {
 	private long inputDataID;
 	private long inputErrorsID;
 
-	private ReentrantLock lock;
-
 	private long[] frames;
 	private boolean hasErrors;
 
@@ -125,16 +124,26 @@ public class NcdProcessingObjectTransformer extends Actor {
 
 		ManagedMessage receivedMsg = request.getMessage(input);
 
+		HDF5IOService ioService = null;
+		boolean ownsIOService = false;
 		try {
 			NcdProcessingObject receivedObject = (NcdProcessingObject) receivedMsg.getBodyContent();
 			inputGroupID = receivedObject.getInputGroupID();
 			inputDataID = receivedObject.getInputDataID();
 			inputErrorsID = receivedObject.getInputErrorsID();
-			lock = receivedObject.getLock();
-
-			lock.lock();
+			ioService = receivedObject.getIOService();
+			if (ioService == null) {
+				ioService = new HDF5IOService();
+				ownsIOService = true;
+			}
 
-			configureActorParameters();
+			ioService.execute(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					configureActorParameters();
+					return null;
+				}
+			});
 			int[] resultShape = getResultDataShape();
 			
 			MultidimensionalCounter frameCounter = new MultidimensionalCounter(selectedShape);
@@ -157,9 +166,12 @@ public class NcdProcessingObjectTransformer extends Actor {
 				SliceSettings sliceData = new SliceSettings(frames, frames.length - dimension - 1, 1);
 				sliceData.setStart(gridFrame);
 				
-				DataSliceIdentifiers ids = new DataSliceIdentifiers();
-				ids.setIDs(inputGroupID, inputDataID);
-				Dataset value = NcdNexusUtils.sliceInputData(sliceData, ids);
+				Future<Dataset> valueInput = ioService.readSlice(sliceData, inputDataID, -1, null);
+				Future<Dataset> errorInput = null;
+				if (hasErrors && errors != null) {
+					errorInput = ioService.readSlice(sliceData, inputErrorsID, -1, null);
+				}
+				Dataset value = HDF5IOService.get(valueInput);
 				int[] start = Arrays.copyOf(frame, resultShape.length);
 				int[] stop = Arrays.copyOf(resultShape, resultShape.length);
 				for (int i = 0; i < selectedShape.length; i++) {
@@ -167,10 +179,8 @@ public class NcdProcessingObjectTransformer extends Actor {
 				}
 
 				data.setSlice(value, start, stop, null);
-				if (hasErrors && errors != null) {
-					DataSliceIdentifiers errors_ids = new DataSliceIdentifiers();
-					errors_ids.setIDs(inputGroupID, inputErrorsID);
-					Dataset error = NcdNexusUtils.sliceInputData(sliceData, errors_ids);
+				if (errorInput != null) {
+					Dataset error = HDF5IOService.get(errorInput);
 					errors.setSlice(error, start, stop, null);
 				}
 			}
@@ -188,8 +198,8 @@ public class NcdProcessingObjectTransformer extends Actor {
 		} catch (HDF5Exception e) {
 			throw new ProcessingException(ErrorCode.ACTOR_EXECUTION_ERROR, e.getMessage(), this, e);
 		} finally {
-			if (lock != null && lock.isHeldByCurrentThread()) {
-				lock.unlock();
+			if (ownsIOService) {
+				ioService.shutdown();
 			}
 		}
 	}
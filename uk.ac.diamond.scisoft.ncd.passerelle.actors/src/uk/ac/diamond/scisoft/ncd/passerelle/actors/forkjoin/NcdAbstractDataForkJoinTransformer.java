@@ -19,6 +19,7 @@ package uk.ac.diamond.scisoft.ncd.passerelle.actors.forkjoin;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.locks.ReentrantLock;
@@ -26,13 +27,19 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.dawnsci.hdf.object.Nexus;
+import org.eclipse.january.dataset.Dataset;
 
 import ptolemy.data.expr.Parameter;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import uk.ac.diamond.scisoft.ncd.core.data.DetectorTypes;
+import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.DatasetLayout;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.ProcessingMetrics;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 import uk.ac.diamond.scisoft.ncd.passerelle.actors.core.NcdProcessingObject;
 
 import com.isencia.passerelle.actor.ProcessingException;
@@ -58,16 +65,31 @@ public abstract class NcdAbstractDataForkJoinTransformer extends Actor {
 	private static final long serialVersionUID = -289682801810608304L;
 	
 	protected static final ForkJoinPool forkJoinPool = new ForkJoinPool();
+	
+	// Fraction of the available heap that can be used for frame buffers of concurrently running tasks
+	private static final double HEAP_BUDGET_FRACTION = 0.5;
+	
+	// Element sizes of the float data and double errors used by the processing kernels
+	private static final long FLOAT_BYTES = 4;
+	private static final long DOUBLE_BYTES = 8;
 
 	public Port input;
 	public Port output;
 	
 	protected ReentrantLock lock;
+	protected HDF5IOService ioService;
+	private boolean ownsIOService;
 	protected IProgressMonitor monitor;
+	protected ProcessingMetrics metrics;
+	// Storage layout of the datasets with processing results
+	protected DatasetLayout datasetLayout;
+	// Metrics of the running stage passed with every I/O request of the stage tasks
+	protected StageMetrics stageMetrics;
 	
 	public Parameter isEnabled;
 	
 	protected boolean hasErrors;
+	protected long inputDataTypeSize, inputErrorsTypeSize;
 	
 	protected int dimension;
 	protected long[] frames;
@@ -77,6 +99,45 @@ public abstract class NcdAbstractDataForkJoinTransformer extends Actor {
 
 	protected RecursiveAction task;
 	
+	private List<FusedStage> fusedStages = new ArrayList<FusedStage>();
+	
+	/**
+	 * Per-frame processing stage applied to the input frames of the following actor.
+	 * Fused stages pass their results on in memory instead of writing them into the processing group.
+	 */
+	public interface FusedStage {
+		
+		/**
+		 * Open datasets used by the stage. Called on the I/O thread before the host actor creates its result datasets.
+		 * 
+		 * @param ioService
+		 *            - service for reading datasets used by the stage
+		 * @param entryGroupID
+		 *            - entry group of the processed file
+		 * @param frames
+		 *            - input data shape. Stage can reduce the number of frames processed by the host actor.
+		 * @param dimension
+		 *            - frame dimension
+		 */
+		void configure(HDF5IOService ioService, long entryGroupID, long[] frames, int dimension) throws HDF5Exception;
+		
+		/**
+		 * @param data
+		 *            - input frames with error buffer set
+		 * @param slice
+		 *            - position of the input frames in the input data
+		 * @param stage
+		 *            - metrics of the host stage
+		 * @return processed frames with error buffer set
+		 */
+		Dataset process(Dataset data, SliceSettings slice, StageMetrics stage) throws HDF5Exception;
+		
+		/**
+		 * Close datasets opened by the stage
+		 */
+		void close() throws HDF5LibraryException;
+	}
+	
 	public NcdAbstractDataForkJoinTransformer(CompositeEntity container, String name) throws IllegalActionException,
 			NameDuplicationException {
 		super(container, name);
@@ -103,21 +164,51 @@ public abstract class NcdAbstractDataForkJoinTransformer extends Actor {
 			inputAxisErrorsID = receivedObject.getInputAxisErrorsID();
 			lock = receivedObject.getLock();
 			monitor = receivedObject.getMonitor();
+			metrics = receivedObject.getMetrics();
+			if (metrics == null) {
+				metrics = new ProcessingMetrics();
+			}
+			datasetLayout = receivedObject.getDatasetLayout();
+			if (receivedObject.getIOService() != null) {
+				ioService = receivedObject.getIOService();
+			} else if (ioService == null || !ownsIOService) {
+				ioService = new HDF5IOService();
+				ownsIOService = true;
+			}
 			
 			readAdditionalPorts(request);
 			
-			lock.lock();
-			configureActorParameters();
-			lock.unlock();
+			ioService.execute(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					configureActorParameters();
+					return null;
+				}
+			});
 
 			if (!monitor.isCanceled()) {
 				
 				monitor.subTask("Executing task : " + getDisplayName());
-				forkJoinPool.invoke(task);
+				StageMetrics stage = metrics.getStage(getDisplayName());
+				stageMetrics = stage;
+				stage.start();
+				try {
+					forkJoinPool.invoke(task);
+					ioService.flush();
+				} finally {
+					stage.stop();
+					stageMetrics = null;
+				}
+				stage.addFrames(getFrameCount());
+				ProcessingMetrics.report(monitor, stage);
 				
-				lock.lock();
-				writeNcdMetadata();
-				lock.unlock();
+				ioService.execute(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						writeNcdMetadata();
+						return null;
+					}
+				});
 			}
 			
 			dimension = getResultDimension();
@@ -136,6 +227,9 @@ public abstract class NcdAbstractDataForkJoinTransformer extends Actor {
 					resultAxisErrorsID,
 					lock,
 					monitor);
+			obj.setIOService(ioService);
+			obj.setMetrics(metrics);
+			obj.setDatasetLayout(datasetLayout);
 			outputMsg.setBodyContent(obj, "application/octet-stream");
 			response.addOutputMessage(output, outputMsg);
 		} catch (MessageException e) {
@@ -143,9 +237,6 @@ public abstract class NcdAbstractDataForkJoinTransformer extends Actor {
 		} catch (HDF5Exception e) {
 			throw new ProcessingException(ErrorCode.ERROR, e.getMessage(), this, receivedMsg, e);
 		} finally {
-			if (lock != null && lock.isHeldByCurrentThread()) {
-				lock.unlock();
-			}
 			if (task != null && task.isCompletedAbnormally()) {
 				Throwable e = task.getException();
 				while (e.getCause() != null) {
@@ -165,6 +256,18 @@ public abstract class NcdAbstractDataForkJoinTransformer extends Actor {
 	
 	@Override
 	protected void doWrapUp() throws TerminationException {
+		for (FusedStage stage : fusedStages) {
+			try {
+				stage.close();
+			} catch (HDF5LibraryException e) {
+				getLogger().info("Error closing NeXus handle identifier", e);
+			}
+		}
+		if (ownsIOService) {
+			ioService.shutdown();
+			ioService = null;
+			ownsIOService = false;
+		}
 		try {
 			List<Long> identifiers = new ArrayList<Long>(Arrays.asList(
 					resultDataID,
@@ -179,6 +282,19 @@ public abstract class NcdAbstractDataForkJoinTransformer extends Actor {
 		}
 	}
 
+	/**
+	 * Record duration of a task processing input frames
+	 * 
+	 * @param startTime
+	 *            - task start time from {@link System#nanoTime()}
+	 */
+	protected void recordTaskTime(long startTime) {
+		StageMetrics stage = stageMetrics;
+		if (stage != null) {
+			stage.getTaskTime().record(System.nanoTime() - startTime);
+		}
+	}
+	
 	@SuppressWarnings("unused")
 	protected void readAdditionalPorts(ProcessRequest request) throws MessageException {
 	}
@@ -205,12 +321,17 @@ public abstract class NcdAbstractDataForkJoinTransformer extends Actor {
 				getLogger().info("Input dataset with error values wasn't found");
 			}
 		}
+		inputDataTypeSize = NcdNexusUtils.getDatasetTypeSize(inputDataID);
+		inputErrorsTypeSize = (hasErrors ? NcdNexusUtils.getDatasetTypeSize(inputErrorsID) : 0);
+		for (FusedStage stage : fusedStages) {
+			stage.configure(ioService, entryGroupID, frames, dimension);
+		}
 		long[] resultFrames = getResultDataShape();
 		resultGroupID = NcdNexusUtils.makegroup(processingGroupID, getName(), Nexus.DETECT);
 		long type = getResultDataType();
-		resultDataID = NcdNexusUtils.makedata(resultGroupID, "data", type, resultFrames, true, "counts");
+		resultDataID = NcdNexusUtils.makedata(resultGroupID, "data", type, resultFrames, true, "counts", datasetLayout);
 		type = getResultErrorsType();
-		resultErrorsID = NcdNexusUtils.makedata(resultGroupID, "errors", type, resultFrames, true, "counts");
+		resultErrorsID = NcdNexusUtils.makedata(resultGroupID, "errors", type, resultFrames, true, "counts", datasetLayout);
 	}
 
 	protected long getResultDataType() throws HDF5LibraryException {
@@ -229,6 +350,115 @@ public abstract class NcdAbstractDataForkJoinTransformer extends Actor {
 		return dimension;
 	}
 	
+	/**
+	 * Check whether this actor applies fused stages to its input frames
+	 */
+	public boolean isFusionSupported() {
+		return false;
+	}
+	
+	/**
+	 * Add upstream stage to be applied to every input frame before it is processed by this actor.
+	 * Stages are applied in the order they were added.
+	 */
+	public void addFusedStage(FusedStage stage) {
+		if (!isFusionSupported()) {
+			throw new IllegalStateException(getName() + " actor doesn't support fused processing stages");
+		}
+		fusedStages.add(stage);
+	}
+	
+	/**
+	 * Remove fused stages, e.g. before the actor is executed again with new input parameters
+	 */
+	public void clearFusedStages() {
+		fusedStages.clear();
+	}
+	
+	protected int getFusedStageCount() {
+		return fusedStages.size();
+	}
+	
+	protected Dataset applyFusedStages(Dataset data, SliceSettings slice) throws HDF5Exception {
+		Dataset result = data;
+		for (FusedStage stage : fusedStages) {
+			result = stage.process(result, slice, stageMetrics);
+		}
+		return result;
+	}
+	
+	/**
+	 * Estimate the number of frames that can be processed concurrently while keeping
+	 * memory used by frame buffers within the heap budget.
+	 * 
+	 * @param frameBytes
+	 *            - heap footprint of processing a single frame
+	 * @return number of frames in flight, between one and twice the fork/join pool parallelism
+	 */
+	protected static int getMaxFramesInFlight(long frameBytes) {
+		Runtime runtime = Runtime.getRuntime();
+		long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+		long budget = (long) (HEAP_BUDGET_FRACTION * (runtime.maxMemory() - usedMemory));
+		long maxFrames = budget / Math.max(1, frameBytes);
+		return (int) Math.max(1, Math.min(maxFrames, getFrameParallelism()));
+	}
+	
+	/**
+	 * @return maximum number of frames processed concurrently by a stage
+	 */
+	public static int getFrameParallelism() {
+		return 2 * forkJoinPool.getParallelism();
+	}
+	
+	/**
+	 * Estimate heap used for processing a single detector frame. A frame is held in the buffers read
+	 * from file and in the frame slice passed to the processing kernel. Input that isn't float data or
+	 * double errors is also converted before processing. Missing errors are replaced by double values
+	 * calculated from counting statistics.
+	 * 
+	 * @param framePixels
+	 *            - number of pixels in a frame
+	 * @param dataTypeSize
+	 *            - size of input data elements in bytes
+	 * @param errorsTypeSize
+	 *            - size of input error elements in bytes, or zero if input has no errors
+	 * @return frame footprint in bytes
+	 */
+	public static long getFrameFootprint(long framePixels, long dataTypeSize, long errorsTypeSize) {
+		long errorsSize = (errorsTypeSize > 0 ? errorsTypeSize : DOUBLE_BYTES);
+		long pixelBytes = 2 * (dataTypeSize + errorsSize);
+		if (dataTypeSize != FLOAT_BYTES) {
+			pixelBytes += DOUBLE_BYTES;
+		}
+		if (errorsSize != DOUBLE_BYTES) {
+			pixelBytes += DOUBLE_BYTES;
+		}
+		return framePixels * pixelBytes;
+	}
+	
+	/**
+	 * @return heap footprint of processing a single input frame including the output of fused stages
+	 */
+	protected long getFrameFootprint() {
+		long framePixels = 1;
+		for (int i = frames.length - dimension; i < frames.length; i++) {
+			framePixels *= frames[i];
+		}
+		long frameBytes = getFrameFootprint(framePixels, inputDataTypeSize, inputErrorsTypeSize);
+		return frameBytes + getFusedStageCount() * framePixels * (FLOAT_BYTES + DOUBLE_BYTES);
+	}
+	
+	/**
+	 * @return number of input frames processed by the task
+	 */
+	protected long getFrameCount() {
+		long count = 1;
+		for (int i = 0; i < frames.length - dimension; i++) {
+			count *= frames[i];
+		}
+		return count;
+	}
+	
 	protected void writeAxisData() throws HDF5Exception {
 		NcdNexusUtils.makelink(inputAxisDataID, resultGroupID);
 		NcdNexusUtils.makelink(inputAxisErrorsID, resultGroupID);
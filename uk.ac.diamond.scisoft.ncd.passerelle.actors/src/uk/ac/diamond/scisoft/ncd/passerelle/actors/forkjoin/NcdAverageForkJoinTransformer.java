@@ -212,6 +212,7 @@ public class NcdAverageForkJoinTransformer extends NcdAbstractDataForkJoinTransf
 				int[] aveShape = Arrays.copyOfRange(framesAve_int, framesAve_int.length - dimension, framesAve_int.length);
 				Dataset ave_frame = DatasetFactory.zeros(aveShape, Dataset.FLOAT32);
 				Dataset ave_errors_frame = DatasetFactory.zeros(aveShape, Dataset.FLOAT64);
+				long taskStart = System.nanoTime();
 				try {
 					DataSliceIdentifiers input_ids = new DataSliceIdentifiers();
 					input_ids.setIDs(inputGroupID, inputDataID);
@@ -294,6 +295,8 @@ public class NcdAverageForkJoinTransformer extends NcdAbstractDataForkJoinTransf
 					task.completeExceptionally(e);
 				} catch (OperationCanceledException e) {
 					task.completeExceptionally(e);
+				} finally {
+					recordTaskTime(taskStart);
 				}
 			}
 		}
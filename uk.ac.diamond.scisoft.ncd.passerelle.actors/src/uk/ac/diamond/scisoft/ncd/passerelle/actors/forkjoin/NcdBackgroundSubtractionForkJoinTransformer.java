@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.beanutils.ConvertUtils;
@@ -28,6 +29,7 @@ import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DatasetUtils;
 import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
 import org.eclipse.january.dataset.PositionIterator;
 
 import com.isencia.passerelle.actor.InitializationException;
@@ -49,10 +51,11 @@ import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import uk.ac.diamond.scisoft.ncd.core.BackgroundSubtraction;
-import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 import uk.ac.diamond.scisoft.ncd.passerelle.actors.core.NcdProcessingObject;
 
 /**
@@ -71,10 +74,10 @@ public class NcdBackgroundSubtractionForkJoinTransformer extends NcdAbstractData
 
 	private long bgDetectorGroupID, bgDataID, bgErrorsID;
 
-	private long[] bgFrames;
-
 	private boolean hasBgErrors;
 
+	private FusedStage bgStage;
+
 	public NcdBackgroundSubtractionForkJoinTransformer(CompositeEntity container, String name)
 			throws NameDuplicationException, IllegalActionException {
 		super(container, name);
@@ -99,6 +102,11 @@ public class NcdBackgroundSubtractionForkJoinTransformer extends NcdAbstractData
 		}
 	}
 
+	@Override
+	public boolean isFusionSupported() {
+		return true;
+	}
+
 	@Override
 	protected void readAdditionalPorts(ProcessRequest request) throws MessageException {
 		ManagedMessage receivedMsg = request.getMessage(bgInput);
@@ -124,11 +132,8 @@ public class NcdBackgroundSubtractionForkJoinTransformer extends NcdAbstractData
 	protected void configureActorParameters() throws HDF5Exception {
 		super.configureActorParameters();
 		
-		long bgDataSpaceID = H5.H5Dget_space(bgDataID);
-		int rank = H5.H5Sget_simple_extent_ndims(bgDataSpaceID);
-		bgFrames = new long[rank];
-		H5.H5Sget_simple_extent_dims(bgDataSpaceID, bgFrames, null);
-		NcdNexusUtils.closeH5id(bgDataSpaceID);
+		bgStage = createFusedStage(bgDataID, hasBgErrors ? bgErrorsID : -1, bgScaling);
+		bgStage.configure(ioService, entryGroupID, frames, dimension);
 		
 		String[] name = new String[] {""};
 		long nameSize = H5.H5Iget_name(bgDataID, name, 1L) + 1;
@@ -165,6 +170,106 @@ public class NcdBackgroundSubtractionForkJoinTransformer extends NcdAbstractData
 		}
 	}
 
+	/**
+	 * Create background subtraction stage for fusing into the following actor
+	 * 
+	 * @param bgDataID
+	 *            - background dataset
+	 * @param bgErrorsID
+	 *            - background errors dataset, or -1 to use counting statistics
+	 * @param bgScaling
+	 *            - background scaling factor, or NaN if background isn't scaled
+	 */
+	public static FusedStage createFusedStage(long bgDataID, long bgErrorsID, Double bgScaling) {
+		return new BackgroundSubtractionStage(bgDataID, bgErrorsID, bgScaling);
+	}
+	
+	private static class BackgroundSubtractionStage implements FusedStage {
+		
+		private final long bgDataID, bgErrorsID;
+		private final Double bgScaling;
+		
+		private HDF5IOService ioService;
+		private int dimension;
+		private long[] bgFrames;
+		
+		public BackgroundSubtractionStage(long bgDataID, long bgErrorsID, Double bgScaling) {
+			this.bgDataID = bgDataID;
+			this.bgErrorsID = bgErrorsID;
+			this.bgScaling = bgScaling;
+		}
+		
+		@Override
+		public void configure(HDF5IOService ioService, long entryGroupID, long[] frames, int dimension) throws HDF5Exception {
+			this.ioService = ioService;
+			this.dimension = dimension;
+			
+			long bgDataSpaceID = H5.H5Dget_space(bgDataID);
+			int rank = H5.H5Sget_simple_extent_ndims(bgDataSpaceID);
+			bgFrames = new long[rank];
+			H5.H5Sget_simple_extent_dims(bgDataSpaceID, bgFrames, null);
+			NcdNexusUtils.closeH5id(bgDataSpaceID);
+		}
+		
+		@Override
+		public Dataset process(Dataset inputData, SliceSettings slice, StageMetrics stage) throws HDF5Exception {
+			SliceSettings bgSliceData = new SliceSettings(bgFrames, bgFrames.length - dimension - 1, 1);
+			
+			// Account for mismatch in rank of input and background data
+			int[] pos = Arrays.copyOf(slice.getStart(), slice.getFrames().length - dimension);
+			int[] bgPos = new int[bgFrames.length - dimension];
+			for (int i = bgPos.length - 1; i >= 0; i--) {
+				int j = i + pos.length - bgPos.length;
+				if (j < 0) {
+					bgPos[i] = 0;
+				} else {
+					bgPos[i] = (bgFrames[i] > 1 ? pos[j] : 0);
+				}
+			}
+			
+			int[] bgStartPos = Arrays.copyOf(bgPos, bgFrames.length);
+			bgSliceData.setStart(bgStartPos);
+			
+			Future<Dataset> bgInput = ioService.readSlice(bgSliceData, bgDataID, bgErrorsID, stage);
+			Dataset bgData = HDF5IOService.get(bgInput, stage);
+			if (bgErrorsID < 0) {
+				// Use counting statistics if no input error estimates are available
+				DoubleDataset bgErrors = (DoubleDataset) DatasetUtils.cast(bgData.clone(), Dataset.FLOAT64);
+				bgData.setErrorBuffer(bgErrors);
+			}
+			
+			if (bgScaling != null && !bgScaling.isNaN()) {
+				bgData.imultiply(bgScaling);
+				Dataset bgErrors = bgData.getErrorBuffer().clone();
+				bgErrors.imultiply(bgScaling * bgScaling);
+				bgData.setErrorBuffer(bgErrors);
+			}
+
+			Dataset data = NcdDataUtils.flattenGridData(inputData, dimension);
+			Dataset errors = inputData.getErrorBuffer();
+
+			Dataset background = bgData.squeeze();
+
+			BackgroundSubtraction bs = new BackgroundSubtraction();
+			bs.setBackground(background);
+
+			int[] flatShape = data.getShape();
+			FloatDataset myres = DatasetFactory.zeros(FloatDataset.class, inputData.getShape());
+			DoubleDataset myerror = DatasetFactory.zeros(DoubleDataset.class, inputData.getShape());
+			bs.process(((FloatDataset) data.cast(Dataset.FLOAT32)).getData(),
+					((DoubleDataset) errors.cast(Dataset.FLOAT64)).getData(),
+					flatShape, myres.getData(), myerror.getData());
+
+			myres.setErrorBuffer(myerror);
+			return myres;
+		}
+		
+		@Override
+		public void close() {
+			// Background datasets are closed by the background source actor
+		}
+	}
+
 	private class BackgroundSubtractionTask extends RecursiveAction {
 
 		private static final long serialVersionUID = -4104769967692484959L;
@@ -206,12 +311,7 @@ public class NcdBackgroundSubtractionForkJoinTransformer extends NcdAbstractData
 				return;
 			}
 
-			long filespaceID = -1;
-			long typeID = -1;
-			long memspaceID = -1;
-			long selectID = -1;
-			long writeID = -1;
-
+			long taskStart = System.nanoTime();
 			try {
 				if (monitor.isCanceled()) {
 					throw new OperationCanceledException(getName() + " stage has been cancelled.");
@@ -221,79 +321,16 @@ public class NcdBackgroundSubtractionForkJoinTransformer extends NcdAbstractData
 				int[] startPos = Arrays.copyOf(pos, frames.length);
 				sliceData.setStart(startPos);
 
-				DataSliceIdentifiers tmp_ids = new DataSliceIdentifiers();
-				tmp_ids.setIDs(inputGroupID, inputDataID);
-
-				lock.lock();
-				Dataset inputData = NcdNexusUtils.sliceInputData(sliceData, tmp_ids);
-				if (hasErrors) {
-					DataSliceIdentifiers tmp_errors_ids = new DataSliceIdentifiers();
-					tmp_errors_ids.setIDs(inputGroupID, inputErrorsID);
-					Dataset inputErrors = NcdNexusUtils.sliceInputData(sliceData, tmp_errors_ids);
-					inputData.setErrors(inputErrors);
-				} else {
+				Future<Dataset> input = ioService.readSlice(sliceData, inputDataID, hasErrors ? inputErrorsID : -1, stageMetrics);
+				Dataset inputData = HDF5IOService.get(input, stageMetrics);
+				if (!hasErrors) {
 					// Use counting statistics if no input error estimates are available
 					DoubleDataset inputErrorsBuffer = inputData.copy(DoubleDataset.class);
 					inputData.setErrorBuffer(inputErrorsBuffer);
 				}
-				lock.unlock();
-
-				SliceSettings bgSliceData = new SliceSettings(bgFrames, bgFrames.length - dimension - 1, 1);
-				
-				// Account for mismatch in rank of input and background data
-				int[] bgPos = new int[bgFrames.length - dimension];
-				for (int i = bgPos.length - 1; i >= 0; i--) {
-					int j = i + pos.length - bgPos.length;
-					if (j < 0) {
-						bgPos[i] = 0;
-					} else {
-						bgPos[i] = (bgFrames[i] > 1 ? pos[j] : 0);
-					}
-				}
+				inputData = applyFusedStages(inputData, sliceData);
 				
-				int[] bgStartPos = Arrays.copyOf(bgPos, bgFrames.length);
-				bgSliceData.setStart(bgStartPos);
-				
-				DataSliceIdentifiers bgIDs = new DataSliceIdentifiers();
-				bgIDs.setIDs(bgDetectorGroupID, bgDataID);
-				
-				lock.lock();
-				Dataset bgData = NcdNexusUtils.sliceInputData(bgSliceData, bgIDs);
-				if (hasBgErrors) {
-					DataSliceIdentifiers bgErrorsIDs = new DataSliceIdentifiers();
-					bgErrorsIDs.setIDs(bgDetectorGroupID, bgErrorsID);
-					Dataset bgErrors = NcdNexusUtils.sliceInputData(bgSliceData, bgErrorsIDs);
-					bgData.setErrors(bgErrors);
-				} else {
-					// Use counting statistics if no input error estimates are available
-					DoubleDataset bgErrors = (DoubleDataset) DatasetUtils.cast(bgData.clone(), Dataset.FLOAT64);
-					bgData.setErrorBuffer(bgErrors);
-				}
-				lock.unlock();
-				
-				if (bgScaling != null && !bgScaling.isNaN()) {
-					bgData.imultiply(bgScaling);
-					Dataset bgErrors = bgData.getErrorBuffer().clone();
-					bgErrors.imultiply(bgScaling * bgScaling);
-					bgData.setErrorBuffer(bgErrors);
-				}
-
-				Dataset data = NcdDataUtils.flattenGridData(inputData, dimension);
-				Dataset errors = inputData.getErrorBuffer();
-
-				Dataset background = bgData.squeeze();
-
-				BackgroundSubtraction bs = new BackgroundSubtraction();
-				bs.setBackground(background);
-
-				int[] flatShape = data.getShape();
-				Object[] myobj = bs.process(data.getBuffer(), errors.getBuffer(), flatShape);
-				float[] mydata = (float[]) myobj[0];
-				double[] myerror = (double[]) myobj[1];
-
-				Dataset myres = DatasetFactory.createFromObject(mydata, inputData.getShape());
-				myres.setErrorBuffer(myerror);
-
+				Dataset myres = bgStage.process(inputData, sliceData, stageMetrics);
 
 				long[] frames = sliceData.getFrames();
 				long[] start_pos = (long[]) ConvertUtils.convert(sliceData.getStart(), long[].class);
@@ -306,55 +343,14 @@ public class NcdBackgroundSubtractionForkJoinTransformer extends NcdAbstractData
 				Arrays.fill(block, 0, sliceData.getSliceDim(), 1);
 				block[sliceDim] = Math.min(frames[sliceDim] - start_pos[sliceDim], sliceSize);
 
-				long[] count = new long[frames.length];
-				Arrays.fill(count, 1);
-
-				lock.lock();
-				filespaceID = H5.H5Dget_space(resultDataID);
-				typeID = H5.H5Dget_type(resultDataID);
-				memspaceID = H5.H5Screate_simple(block.length, block, null);
-				selectID = H5
-						.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				if (selectID < 0) {
-					throw new HDF5Exception("Failed to allocate space for writing BackgroundSubtraction data");
-				}
-				writeID = H5.H5Dwrite(resultDataID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT,
-						myres.getBuffer());
-				if (writeID < 0) {
-					throw new HDF5Exception("Failed to write BackgroundSubtraction data into the results file");
-				}
-
-				NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, typeID, filespaceID)));
-				
-				filespaceID = H5.H5Dget_space(resultErrorsID);
-				typeID = H5.H5Dget_type(resultErrorsID);
-				memspaceID = H5.H5Screate_simple(block.length, block, null);
-				selectID = H5
-						.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				if (selectID < 0) {
-					throw new HDF5Exception("Failed to allocate space for writing BackgroundSubtraction error data");
-				}
-				writeID = H5.H5Dwrite(resultErrorsID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT,
-						myres.getErrors().getBuffer());
-				if (writeID < 0) {
-					throw new HDF5Exception("Failed to write BackgroundSubtraction error data into the results file");
-				}
-
-			} catch (HDF5LibraryException e) {
-				task.completeExceptionally(e);
+				ioService.writeSlice(resultDataID, start, block, myres.getBuffer(), stageMetrics);
+				ioService.writeSlice(resultErrorsID, start, block, myres.getErrors().getBuffer(), stageMetrics);
 			} catch (HDF5Exception e) {
 				task.completeExceptionally(e);
 			} catch (OperationCanceledException e) {
 				task.completeExceptionally(e);
 			} finally {
-				if (lock != null && lock.isHeldByCurrentThread()) {
-					lock.unlock();
-				}
-				try {
-					NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, typeID, filespaceID)));
-				} catch (HDF5LibraryException e) {
-					task.completeExceptionally(e);
-				}
+				recordTaskTime(taskStart);
 			}
 		}
 	}
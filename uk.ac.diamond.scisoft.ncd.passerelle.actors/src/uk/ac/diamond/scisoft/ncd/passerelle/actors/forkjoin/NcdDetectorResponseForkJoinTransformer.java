@@ -27,25 +27,23 @@ import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
 import org.eclipse.january.dataset.PositionIterator;
 
 import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.core.ErrorCode;
 
-import hdf.hdf5lib.H5;
-import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5Exception;
-import hdf.hdf5lib.exceptions.HDF5LibraryException;
 import ptolemy.data.ObjectToken;
 import ptolemy.data.expr.Parameter;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import uk.ac.diamond.scisoft.ncd.core.DetectorResponse;
-import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
-import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 
 /**
  * Actor for correcting input data for detector response
@@ -90,6 +88,54 @@ public class NcdDetectorResponseForkJoinTransformer extends NcdAbstractDataForkJ
 		}
 	}
 
+	/**
+	 * Create detector response correction stage for fusing into the following actor
+	 */
+	public static FusedStage createFusedStage(final Dataset drData) {
+		return new FusedStage() {
+			
+			private int dimension;
+			
+			@Override
+			public void configure(HDF5IOService ioService, long entryGroupID, long[] frames, int dimension) {
+				this.dimension = dimension;
+			}
+			
+			@Override
+			public Dataset process(Dataset data, SliceSettings slice, StageMetrics stage) {
+				return correctDetectorResponse(data, drData, dimension);
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+	}
+	
+	private static Dataset correctDetectorResponse(Dataset inputData, Dataset drData, int dimension) {
+		DetectorResponse dr = new DetectorResponse();
+		int[] dataShape = inputData.getShape();
+
+		Dataset data = NcdDataUtils.flattenGridData(inputData, dimension);
+		Dataset errors = data.getErrorBuffer();
+		Dataset response = drData.squeeze();
+		dr.setResponse(response);
+
+		if (data.getRank() != response.getRank() + 1) {
+			throw new IllegalArgumentException("response of wrong dimensionality");
+		}
+
+		int[] flatShape = data.getShape();
+		FloatDataset myres = DatasetFactory.zeros(FloatDataset.class, dataShape);
+		DoubleDataset myerrors = DatasetFactory.zeros(DoubleDataset.class, dataShape);
+		dr.process(((FloatDataset) data.cast(Dataset.FLOAT32)).getData(),
+				((DoubleDataset) errors.cast(Dataset.FLOAT64)).getData(),
+				flatShape[0], flatShape, myres.getData(), myerrors.getData());
+
+		myres.setErrorBuffer(myerrors);
+		return myres;
+	}
+
 	private class DetectorResponseTask extends RecursiveAction {
 
 		private static final long serialVersionUID = -8663334134891578246L;
@@ -131,9 +177,7 @@ public class NcdDetectorResponseForkJoinTransformer extends NcdAbstractDataForkJ
 				return;
 			}
 
-			long filespaceID = -1;
-			long typeID = -1;
-			long memspaceID = -1;
+			long taskStart = System.nanoTime();
 			try {
 				if (monitor.isCanceled()) {
 					throw new OperationCanceledException(getName() + " stage has been cancelled.");
@@ -143,42 +187,14 @@ public class NcdDetectorResponseForkJoinTransformer extends NcdAbstractDataForkJ
 				int[] startPos = Arrays.copyOf(pos, frames.length);
 				sliceData.setStart(startPos);
 
-				DataSliceIdentifiers tmp_ids = new DataSliceIdentifiers();
-				tmp_ids.setIDs(inputGroupID, inputDataID);
-
-				lock.lock();
-				Dataset inputData = NcdNexusUtils.sliceInputData(sliceData, tmp_ids);
-				if (hasErrors) {
-					DataSliceIdentifiers tmp_errors_ids = new DataSliceIdentifiers();
-					tmp_errors_ids.setIDs(inputGroupID, inputErrorsID);
-					Dataset inputErrors = NcdNexusUtils.sliceInputData(sliceData, tmp_errors_ids);
-					inputData.setErrors(inputErrors);
-				} else {
+				Dataset inputData = HDF5IOService.get(ioService.readSlice(sliceData, inputDataID, hasErrors ? inputErrorsID : -1, stageMetrics), stageMetrics);
+				if (!hasErrors) {
 					// Use counting statistics if no input error estimates are available
 					DoubleDataset inputErrorsBuffer = inputData.copy(DoubleDataset.class);
 					inputData.setErrorBuffer(inputErrorsBuffer);
 				}
-				lock.unlock();
-
-				DetectorResponse dr = new DetectorResponse();
-				int[] dataShape = inputData.getShape();
-
-				Dataset data = NcdDataUtils.flattenGridData(inputData, dimension);
-				Dataset errors = data.getErrorBuffer();
-				Dataset response = drData.squeeze();
-				dr.setResponse(response);
-
-				if (data.getRank() != response.getRank() + 1) {
-					throw new IllegalArgumentException("response of wrong dimensionality");
-				}
 
-				int[] flatShape = data.getShape();
-				Object[] myobj = dr.process(data.getBuffer(), errors.getBuffer(), flatShape[0], flatShape);
-				float[] mydata = (float[]) myobj[0];
-				double[] myerrors = (double[]) myobj[1];
-
-				Dataset myres = DatasetFactory.createFromObject(mydata, dataShape);
-				myres.setErrorBuffer(DatasetFactory.createFromObject(myerrors, dataShape));
+				Dataset myres = correctDetectorResponse(inputData, drData, dimension);
 
 				long[] frames = sliceData.getFrames();
 				long[] start_pos = (long[]) ConvertUtils.convert(sliceData.getStart(), long[].class);
@@ -191,52 +207,14 @@ public class NcdDetectorResponseForkJoinTransformer extends NcdAbstractDataForkJ
 				Arrays.fill(block, 0, sliceData.getSliceDim(), 1);
 				block[sliceDim] = Math.min(frames[sliceDim] - start_pos[sliceDim], sliceSize);
 
-				long[] count = new long[frames.length];
-				Arrays.fill(count, 1);
-
-				lock.lock();
-				long filespace_id = H5.H5Dget_space(resultDataID);
-				long type_id = H5.H5Dget_type(resultDataID);
-				long memspace_id = H5.H5Screate_simple(block.length, block, null);
-				int selectID = H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET, start, block, count,
-						block);
-				if (selectID < 0) {
-					throw new HDF5Exception("Failed to allocate space fro writing DetectorResponse data");
-				}
-				int writeID = H5.H5Dwrite(resultDataID, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT,
-						mydata);
-				if (writeID < 0) {
-					throw new HDF5Exception("Failed to write DetectorResponse data into the results file");
-				}
-
-				filespace_id = H5.H5Dget_space(resultErrorsID);
-				type_id = H5.H5Dget_type(resultErrorsID);
-				memspace_id = H5.H5Screate_simple(block.length, block, null);
-				selectID = H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET, start, block, count,
-						block);
-				if (selectID < 0) {
-					throw new HDF5Exception("Failed to allocate space fro writing DetectorResponse error data");
-				}
-				writeID = H5.H5Dwrite(resultErrorsID, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT,
-						myres.getErrors().getBuffer());
-				if (writeID < 0) {
-					throw new HDF5Exception("Failed to write DetectorResponse error data into the results file");
-				}
-			} catch (HDF5LibraryException e) {
-				task.completeExceptionally(e);
+				ioService.writeSlice(resultDataID, start, block, myres.getBuffer(), stageMetrics);
+				ioService.writeSlice(resultErrorsID, start, block, myres.getErrors().getBuffer(), stageMetrics);
 			} catch (HDF5Exception e) {
 				task.completeExceptionally(e);
 			} catch (OperationCanceledException e) {
 				task.completeExceptionally(e);
 			} finally {
-				if (lock != null && lock.isHeldByCurrentThread()) {
-					lock.unlock();
-				}
-				try {
-					NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, typeID, filespaceID)));
-				} catch (HDF5LibraryException e) {
-					task.completeExceptionally(e);
-				}
+				recordTaskTime(taskStart);
 			}
 		}
 	}
@@ -23,7 +23,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.beanutils.ConvertUtils;
@@ -38,25 +40,25 @@ import org.eclipse.dawnsci.analysis.api.roi.IROI;
 import org.eclipse.dawnsci.analysis.dataset.roi.PointROI;
 import org.eclipse.dawnsci.analysis.dataset.roi.PointROIList;
 import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
-import org.eclipse.dawnsci.hdf5.HDF5Utils;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
-import org.eclipse.january.dataset.DatasetUtils;
 
+import ptolemy.data.BooleanToken;
 import ptolemy.data.ObjectToken;
 import ptolemy.data.expr.Parameter;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
+import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.data.stats.PixelSeriesSampler;
+import uk.ac.diamond.scisoft.ncd.core.data.stats.ReservoirSampler;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
 
 import com.isencia.passerelle.actor.InitializationException;
 import com.isencia.passerelle.core.ErrorCode;
 
-import hdf.hdf5lib.H5;
-import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5Exception;
-import hdf.hdf5lib.exceptions.HDF5LibraryException;
 
 /**
  * Actor for calculating standardised intensity values for selected pixels
@@ -67,10 +69,12 @@ public class NcdImageStatsForkJoinTransformer extends NcdAbstractDataForkJoinTra
 
 	private static final long serialVersionUID = -6657567371116278560L;
 
-	public Parameter maskParam;
+	public Parameter maskParam, reservoirSamplingParam;
 	public ROIParameter sectorROIParam;
 	
 	private SectorROI intSector;
+	private boolean reservoirSampling;
+	private long[] inputChunk;
 
 	private PointROIList points;
 	private int numSamples = 100;
@@ -92,6 +96,7 @@ public class NcdImageStatsForkJoinTransformer extends NcdAbstractDataForkJoinTra
 
 		maskParam = new Parameter(this, "maskParam", new ObjectToken());
 		sectorROIParam = new ROIParameter(this, "sectorROIParam");
+		reservoirSamplingParam = new Parameter(this, "reservoirSamplingParam", new BooleanToken(false));
 		
 		radiiMap = new HashMap<>(numSamples);
 		percentile = new Percentile();
@@ -125,6 +130,8 @@ public class NcdImageStatsForkJoinTransformer extends NcdAbstractDataForkJoinTra
 				}
 			}
 			
+			reservoirSampling = ((BooleanToken) reservoirSamplingParam.getToken()).booleanValue();
+			
 			points = new PointROIList();
 			task = new ImageStatsTask();
 			
@@ -138,17 +145,27 @@ public class NcdImageStatsForkJoinTransformer extends NcdAbstractDataForkJoinTra
 		int[] imageShape = (int[]) ConvertUtils
 				.convert(Arrays.copyOfRange(frames, frames.length - dimension, frames.length), int[].class);
 		
-		UniformIntegerDistribution randX = new UniformIntegerDistribution(0, imageShape[1] - 1);
-		UniformIntegerDistribution randY = new UniformIntegerDistribution(0, imageShape[0] - 1);
-		
-		while (points.size() < numSamples) {
-			int[] point = new int[] {randY.sample(), randX.sample()};
-			PointROI pointROI = new PointROI(point);
-			if (intSector == null || intSector.containsPoint(point[1], point[0])) {
-				if (mask == null || mask.getBoolean(point)) {
-					points.append(pointROI);
-					double radius = distance.compute(intSector.getPoint(), new double[] {point[0], point[1]});
-					radiiMap.put(new Pair<Integer, Integer>(point[1], point[0]), radius);
+		if (reservoirSampling) {
+			// Single pass over the image selecting distinct pixels uniformly from the valid region
+			ReservoirSampler sampler = new ReservoirSampler(numSamples, new Random());
+			for (int y = 0; y < imageShape[0]; y++) {
+				for (int x = 0; x < imageShape[1]; x++) {
+					if (isValidPoint(y, x)) {
+						sampler.offer(y * imageShape[1] + x);
+					}
+				}
+			}
+			for (int idx : sampler.getSample()) {
+				addPoint(new int[] {idx / imageShape[1], idx % imageShape[1]});
+			}
+		} else {
+			UniformIntegerDistribution randX = new UniformIntegerDistribution(0, imageShape[1] - 1);
+			UniformIntegerDistribution randY = new UniformIntegerDistribution(0, imageShape[0] - 1);
+			
+			while (points.size() < numSamples) {
+				int[] point = new int[] {randY.sample(), randX.sample()};
+				if (isValidPoint(point[0], point[1])) {
+					addPoint(point);
 				}
 			}
 		}
@@ -179,6 +196,27 @@ public class NcdImageStatsForkJoinTransformer extends NcdAbstractDataForkJoinTra
 		}
 	}
 
+	private boolean isValidPoint(int y, int x) {
+		if (intSector == null || intSector.containsPoint(x, y)) {
+			if (mask == null || mask.getBoolean(y, x)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void addPoint(int[] point) {
+		points.append(new PointROI(point));
+		double radius = distance.compute(intSector.getPoint(), new double[] {point[0], point[1]});
+		radiiMap.put(new Pair<Integer, Integer>(point[1], point[0]), radius);
+	}
+	
+	@Override
+	protected void configureActorParameters() throws HDF5Exception {
+		super.configureActorParameters();
+		inputChunk = NcdNexusUtils.getDatasetChunkShape(inputDataID);
+	}
+	
 	@Override
 	protected long[] getResultDataShape() {
 		long[] resultFrames = Arrays.copyOfRange(frames, 0, frames.length - dimension + 1);
@@ -202,152 +240,106 @@ public class NcdImageStatsForkJoinTransformer extends NcdAbstractDataForkJoinTra
 			
 			int[] grid = (int[]) ConvertUtils
 					.convert(Arrays.copyOf(frames, frames.length - dimension), int[].class);
+			int[] imageShape = (int[]) ConvertUtils
+					.convert(Arrays.copyOfRange(frames, frames.length - dimension, frames.length), int[].class);
 			
-			long dataspace_id = -1;
-			long datatype_id = -1;
-			int dataclass = -1;
-			int datasize = -1;
-			long memspace_id = -1;
+			// Sampled pixels are indexed in the order of resolution bins
+			List<Integer> pixels = new ArrayList<Integer>();
+			int[][] binIndices = new int[numBins][];
+			for (int bin = 0; bin < numBins; bin++) {
+				Set<Pair<Integer, Integer>> pointSet = resBins.get(bin);
+				binIndices[bin] = new int[pointSet.size()];
+				int idx = 0;
+				for (Pair<Integer, Integer> point : pointSet) {
+					binIndices[bin][idx++] = pixels.size();
+					pixels.add(point.getSecond() * imageShape[1] + point.getFirst());
+				}
+			}
 			
-			for (int idx = 0; idx < numBins; idx++) {
+			long taskStart = System.nanoTime();
+			try {
+				int frameSize = imageShape[0] * imageShape[1];
+				PixelSeriesSampler sampler = new PixelSeriesSampler(frameSize,
+						ArrayUtils.toPrimitive(pixels.toArray(new Integer[pixels.size()])), getFrameCount(grid));
+				readPixelSeries(sampler, frameSize);
 				
-				Dataset binData = DatasetFactory.zeros(grid, Dataset.FLOAT32);
-				
-				for (Pair<Integer, Integer> point : resBins.get(idx)) {
-				
-					Dataset data;
-					try {
-						if (monitor.isCanceled()) {
-							throw new OperationCanceledException(getName() + " stage has been cancelled.");
-						}
-						
-						long[] start = new long[frames.length];
-						long[] count = new long[frames.length];
-						long[] block = new long[frames.length];
-						
-						start = (long[]) ConvertUtils.convert(
-								ArrayUtils.addAll(Arrays.copyOf(new int[] {}, grid.length),
-									new int[] {point.getSecond(), point.getFirst()}), 
-								long[].class);
-						block = Arrays.copyOf(frames, frames.length);
-						Arrays.fill(block, frames.length-dimension, frames.length, 1L);
-						Arrays.fill(count, 1L);
-						
-						dataspace_id = H5.H5Dget_space(inputDataID);
-						datatype_id = H5.H5Dget_type(inputDataID);
-						dataclass = H5.H5Tget_class(datatype_id);
-						datasize = (int) H5.H5Tget_size(datatype_id);
-						memspace_id = H5.H5Screate_simple(block.length, block, null);
-						
-						lock.lock();
-						int select_id = H5.H5Sselect_hyperslab(
-								dataspace_id,
-								HDF5Constants.H5S_SELECT_SET,
-								start, block, count, block);
-						if (select_id < 0) {
-							throw new HDF5Exception("H5 select hyperslab error: can't allocate memory to read data");
-						}
-						
-						int dtype = HDF5Utils.getDType(dataclass, datasize);
-						data = DatasetFactory.zeros(grid, dtype);
-						if ((dataspace_id > 0) && (memspace_id > 0)) {
-							int read_id = H5.H5Dread(
-									inputDataID,
-									datatype_id,
-									memspace_id,
-									dataspace_id,
-									HDF5Constants.H5P_DEFAULT,
-									data.getBuffer());
-							if (read_id < 0) {
-								throw new HDF5Exception("H5 data read error: can't read input dataset");
-							}
-						}
-					} catch (HDF5LibraryException e) {
-						task.completeExceptionally(e);
-						return;
-					} catch (HDF5Exception e) {
-						task.completeExceptionally(e);
-						return;
-					} catch (OperationCanceledException e) {
-						task.completeExceptionally(e);
-						return;
-					} finally {
-						List<Long> identifiers = new ArrayList<Long>(Arrays.asList(
-								dataspace_id,
-								datatype_id,
-								memspace_id));
-	
-						try {
-							NcdNexusUtils.closeH5idList(identifiers);
-						} catch (HDF5LibraryException e) {
-							getLogger().info("Error closing NeXus handle identifier", e);
-						}
-						if (lock != null && lock.isHeldByCurrentThread()) {
-							lock.unlock();
-						}
-					}
+				for (int idx = 0; idx < numBins; idx++) {
+					Dataset binData = DatasetFactory.zeros(grid, Dataset.FLOAT32);
+					sampler.sumSeries(binIndices[idx], (float[]) binData.getBuffer());
 					
-					data = DatasetUtils.cast(data, Dataset.FLOAT32);
-					binData.iadd(data);
-				}
-				double mean = (Double) binData.mean(true);
-				double std = (Double) binData.stdDeviation();
-				binData.isubtract(mean).idivide(std);
+					double mean = (Double) binData.mean(true);
+					double std = (Double) binData.stdDeviation();
+					binData.isubtract(mean).idivide(std);
 					
-				try {
 					long[] start = new long[grid.length + 1];
-					long[] count = new long[grid.length + 1];
-					long[] block = new long[grid.length + 1];
-					
-					start = (long[]) ConvertUtils.convert(
-							ArrayUtils.addAll(Arrays.copyOf(new int[] {}, grid.length),
-								new int[] {idx}), 
-							long[].class);
-					block = Arrays.copyOf(frames, grid.length + 1);
+					start[grid.length] = idx;
+					long[] block = Arrays.copyOf(frames, grid.length + 1);
 					block[grid.length] = 1;
-					Arrays.fill(count, 1L);
-					
-					lock.lock();
-					
-					dataspace_id = H5.H5Dget_space(resultDataID);
-					datatype_id = H5.H5Dget_type(resultDataID);
-					memspace_id = H5.H5Screate_simple(block.length, block, null);
-					int select_id = H5.H5Sselect_hyperslab(
-							dataspace_id,
-							HDF5Constants.H5S_SELECT_SET,
-							start, block, count, block);
-					if (select_id < 0) {
-						throw new HDF5Exception("Failed to allocate space fro writing ImageStats data");
-					}
-					int write_id = H5.H5Dwrite(
-							resultDataID,
-							datatype_id,
-							memspace_id,
-							dataspace_id,
-							HDF5Constants.H5P_DEFAULT,
-							binData.getBuffer());
-					if (write_id < 0) {
-						throw new HDF5Exception("Failed to write ImageStats data into the results file");
-					}
-				} catch (HDF5LibraryException e) {
-					task.completeExceptionally(e);
-				} catch (HDF5Exception e) {
-					task.completeExceptionally(e);
-				} finally {
-					List<Long> identifiers = new ArrayList<Long>(Arrays.asList(
-							dataspace_id,
-							datatype_id,
-							memspace_id));
-					try {
-						NcdNexusUtils.closeH5idList(identifiers);
-					} catch (HDF5LibraryException e) {
-						getLogger().info("Error closing NeXus handle identifier", e);
-					}
-					if (lock != null && lock.isHeldByCurrentThread()) {
-						lock.unlock();
-					}
+					ioService.writeSlice(resultDataID, start, block, binData.getBuffer(), stageMetrics);
+				}
+			} catch (HDF5Exception e) {
+				task.completeExceptionally(e);
+			} catch (OperationCanceledException e) {
+				task.completeExceptionally(e);
+			} finally {
+				recordTaskTime(taskStart);
+			}
+		}
+		
+		private int getFrameCount(int[] grid) {
+			int count = 1;
+			for (int n : grid) {
+				count *= n;
+			}
+			return count;
+		}
+		
+		/**
+		 * Read input frames in contiguous blocks, queueing the following block while
+		 * pixel values are gathered from the current one
+		 */
+		private void readPixelSeries(PixelSeriesSampler sampler, int frameSize) throws HDF5Exception {
+			int sliceDim = frames.length - dimension - 1;
+			int blockFrames = getBlockFrames(sliceDim, 8L * frameSize);
+			
+			SliceSettings slice = new SliceSettings(frames, sliceDim, blockFrames);
+			int[] start = new int[frames.length];
+			Future<Dataset> next = ioService.readSlice(slice, inputDataID, -1, stageMetrics);
+			while (next != null) {
+				if (monitor.isCanceled()) {
+					next.cancel(false);
+					throw new OperationCanceledException(getName() + " stage has been cancelled.");
+				}
+				Future<Dataset> current = next;
+				next = null;
+				if (nextBlock(start, sliceDim, blockFrames)) {
+					slice.setStart(start);
+					next = ioService.readSlice(slice, inputDataID, -1, stageMetrics);
 				}
+				sampler.add(HDF5IOService.get(current, stageMetrics));
+			}
+		}
+		
+		/**
+		 * Number of frames in a block is aligned with the dataset chunks, so that every chunk is read once
+		 */
+		private int getBlockFrames(int sliceDim, long frameBytes) {
+			// Two blocks are kept in memory when the following block is read ahead
+			long blockFrames = Math.max(1, getMaxFramesInFlight(frameBytes) / 2);
+			if (inputChunk != null && inputChunk.length == frames.length) {
+				long chunkFrames = Math.max(1, inputChunk[sliceDim]);
+				blockFrames = Math.max(chunkFrames, blockFrames / chunkFrames * chunkFrames);
+			}
+			return (int) Math.min(blockFrames, frames[sliceDim]);
+		}
+		
+		private boolean nextBlock(int[] start, int sliceDim, int blockFrames) {
+			start[sliceDim] += blockFrames;
+			for (int dim = sliceDim; dim > 0 && start[dim] >= frames[dim]; dim--) {
+				start[dim] = 0;
+				start[dim - 1]++;
 			}
+			return start[0] < frames[0];
 		}
 	}
 }
@@ -26,7 +26,6 @@ import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.math3.stat.regression.SimpleRegression;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.january.dataset.Dataset;
-import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DoubleDataset;
 import org.eclipse.january.dataset.PositionIterator;
 
@@ -35,7 +34,6 @@ import com.isencia.passerelle.actor.InitializationException;
 import hdf.hdf5lib.H5;
 import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5Exception;
-import hdf.hdf5lib.exceptions.HDF5LibraryException;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
@@ -45,6 +43,7 @@ import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SaxsAnalysisPlotType;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
 import uk.ac.diamond.scisoft.ncd.core.data.plots.PorodPlotData;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
 
@@ -160,11 +159,7 @@ public class NcdInvariantForkJoinTransformer extends NcdAbstractDataForkJoinTran
 				return;
 			}
 
-			long filespaceID = -1;
-			long typeID = -1;
-			long memspaceID = -1;
-			long selectID = -1;
-			long writeID = -1;
+			long taskStart = System.nanoTime();
 			try {
 				if (monitor.isCanceled()) {
 					throw new OperationCanceledException(getName() + " stage has been cancelled.");
@@ -174,22 +169,13 @@ public class NcdInvariantForkJoinTransformer extends NcdAbstractDataForkJoinTran
 				int[] startPos = Arrays.copyOf(pos, frames.length);
 				sliceData.setStart(startPos);
 
-				DataSliceIdentifiers tmp_ids = new DataSliceIdentifiers();
-				tmp_ids.setIDs(inputGroupID, inputDataID);
-
-				lock.lock();
-				Dataset inputData = NcdNexusUtils.sliceInputData(sliceData, tmp_ids);
-				if (hasErrors) {
-					DataSliceIdentifiers tmp_errors_ids = new DataSliceIdentifiers();
-					tmp_errors_ids.setIDs(inputGroupID, inputErrorsID);
-					Dataset inputErrors = NcdNexusUtils.sliceInputData(sliceData, tmp_errors_ids);
-					inputData.setErrors(inputErrors);
-				} else {
+				Dataset inputData = HDF5IOService.get(ioService.readSlice(sliceData, inputDataID,
+						hasErrors ? inputErrorsID : -1, stageMetrics), stageMetrics);
+				if (!hasErrors) {
 					// Use counting statistics if no input error estimates are available
 					DoubleDataset inputErrorsBuffer = inputData.copy(DoubleDataset.class);
 					inputData.setErrorBuffer(inputErrorsBuffer);
 				}
-				lock.unlock();
 
 				int[] dataShape = Arrays.copyOf(inputData.getShape(), inputData.getRank() - dimension);
 				Dataset data = NcdDataUtils.flattenGridData(inputData, dimension);
@@ -209,9 +195,6 @@ public class NcdInvariantForkJoinTransformer extends NcdAbstractDataForkJoinTran
 				float[] mydata = (float[]) myobj[0];
 				double[] myerrors = (double[]) myobj[1];
 
-				Dataset myres = DatasetFactory.createFromObject(mydata, dataShape);
-				myres.setErrorBuffer(DatasetFactory.createFromObject(myerrors, dataShape));
-
 				long[] frames = getResultDataShape();
 				long[] start_pos = (long[]) ConvertUtils.convert(sliceData.getStart(), long[].class);
 				int sliceDim = sliceData.getSliceDim();
@@ -223,36 +206,8 @@ public class NcdInvariantForkJoinTransformer extends NcdAbstractDataForkJoinTran
 				Arrays.fill(block, 0, sliceData.getSliceDim(), 1);
 				block[sliceDim] = Math.min(frames[sliceDim] - start_pos[sliceDim], sliceSize);
 
-				long[] count = new long[frames.length];
-				Arrays.fill(count, 1);
-
-				lock.lock();
-				filespaceID = H5.H5Dget_space(resultDataID);
-				typeID = H5.H5Dget_type(resultDataID);
-				memspaceID = H5.H5Screate_simple(block.length, block, null);
-				selectID = H5
-						.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				if (selectID < 0) {
-					throw new HDF5Exception("Failed to allocate space fro writing Invariant data");
-				}
-				writeID = H5.H5Dwrite(resultDataID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, mydata);
-				if (writeID < 0) {
-					throw new HDF5Exception("Failed to write Invariant data into the results file");
-				}
-
-				filespaceID = H5.H5Dget_space(resultErrorsID);
-				typeID = H5.H5Dget_type(resultErrorsID);
-				memspaceID = H5.H5Screate_simple(block.length, block, null);
-				selectID = H5
-						.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				if (selectID < 0) {
-					throw new HDF5Exception("Failed to allocate space fro writing Invariant error data");
-				}
-				writeID = H5.H5Dwrite(resultErrorsID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, myres
-						.getErrors().getBuffer());
-				if (writeID < 0) {
-					throw new HDF5Exception("Failed to write Invariant error data into the results file");
-				}
+				ioService.writeSlice(resultDataID, start, block, mydata, stageMetrics);
+				ioService.writeSlice(resultErrorsID, start, block, myerrors, stageMetrics);
 				
 				if (axis != null) {
 					int[] rgDataShape = Arrays.copyOf(dataShape, dataShape.length + 1);
@@ -262,62 +217,33 @@ public class NcdInvariantForkJoinTransformer extends NcdAbstractDataForkJoinTran
 					SimpleRegression regression = plotData.getPorodPlotParameters(data.squeeze(), axis);
 					if (regression != null) {
 						Dataset tmpPorodDataset = plotData.getFitData(axis, regression);
-						
-						DataSliceIdentifiers porodDataIDs = new DataSliceIdentifiers();
-						porodDataIDs.setIDs(resultGroupID, porodDataID);
-						porodDataIDs.setSlice(sliceData);
-						writeResults(porodDataIDs, tmpPorodDataset, rgDataShape, 1);
-						
-						DataSliceIdentifiers porodErrorsIDs = new DataSliceIdentifiers();
-						porodErrorsIDs.setIDs(resultGroupID, porodErrorsID);
-						porodErrorsIDs.setSlice(sliceData);
-						writeResults(porodErrorsIDs, tmpPorodDataset.getErrors(), rgDataShape, 1);
+						writeResults(porodDataID, sliceData, tmpPorodDataset, rgDataShape, 1);
+						writeResults(porodErrorsID, sliceData, tmpPorodDataset.getErrors(), rgDataShape, 1);
 					}
 				}
-			} catch (HDF5LibraryException e) {
-				task.completeExceptionally(e);
 			} catch (HDF5Exception e) {
 				task.completeExceptionally(e);
 			} catch (OperationCanceledException e) {
 				task.completeExceptionally(e);
 			} finally {
-				if (lock != null && lock.isHeldByCurrentThread()) {
-					lock.unlock();
-				}
-				try {
-					NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, typeID, filespaceID)));
-				} catch (HDF5LibraryException e) {
-					task.completeExceptionally(e);
-				}
+				recordTaskTime(taskStart);
 			}
 		}
 	}
 	
-	private void writeResults(DataSliceIdentifiers dataIDs, Dataset data, int[] dataShape, int dim)
-			throws HDF5Exception {
+	private void writeResults(long datasetID, SliceSettings sliceData, Dataset data, int[] dataShape, int dim) {
 
+		DataSliceIdentifiers dataIDs = new DataSliceIdentifiers();
+		dataIDs.setSlice(sliceData);
+		
 		int resRank = dataShape.length - dim + 1;
 		int integralLength = data.getShape()[data.getRank() - 1];
 
 		long[] resStart = Arrays.copyOf(dataIDs.start, resRank);
-		long[] resCount = Arrays.copyOf(dataIDs.count, resRank);
 		long[] resBlock = Arrays.copyOf(dataIDs.block, resRank);
 		resBlock[resRank - 1] = integralLength;
 
-		long filespaceID = H5.H5Dget_space(dataIDs.dataset_id);
-		long typeID = H5.H5Dget_type(dataIDs.dataset_id);
-		long memspaceID = H5.H5Screate_simple(resRank, resBlock, null);
-		int selectID = H5.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, resStart, resBlock, resCount, resBlock);
-		if (selectID < 0) {
-			throw new HDF5Exception("Error allocating space for writing SAXS plot data");
-		}
-		int writeID = H5.H5Dwrite(dataIDs.dataset_id, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, data.getBuffer());
-		if (writeID < 0) {
-			throw new HDF5Exception("Error writing SAXS plot data");
-		}
-		H5.H5Sclose(filespaceID);
-		H5.H5Sclose(memspaceID);
-		H5.H5Tclose(typeID);
+		ioService.writeSlice(datasetID, resStart, resBlock, data.getBuffer(), stageMetrics);
 	}
 	
 	@Override
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.beanutils.ConvertUtils;
@@ -29,6 +30,7 @@ import org.eclipse.dawnsci.hdf5.HDF5Utils;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
 import org.eclipse.january.dataset.PositionIterator;
 
 import com.isencia.passerelle.actor.InitializationException;
@@ -51,8 +53,10 @@ import ptolemy.kernel.util.NameDuplicationException;
 import uk.ac.diamond.scisoft.ncd.core.Normalisation;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 
 /**
  * Actor for normalising scattering data using scaler values
@@ -67,16 +71,10 @@ public class NcdNormalisationForkJoinTransformer extends NcdAbstractDataForkJoin
 	private Double absScaling;
 	private int normChannel;
 
-	// Normalisation data shapes
-	private long[] framesCal;
-
 	public StringParameter calibrationParam;
 	public Parameter absScalingParam, normChannelParam;
 
-	private long linkFileID = -1;
-	private long calibrationGroupID, inputCalibrationID;
-
-	private DataSliceIdentifiers calibrationIDs;
+	private NormalisationStage normStage;
 
 	public NcdNormalisationForkJoinTransformer(CompositeEntity container, String name) throws NameDuplicationException,
 			IllegalActionException {
@@ -98,6 +96,7 @@ public class NcdNormalisationForkJoinTransformer extends NcdAbstractDataForkJoin
 			absScaling = ((DoubleToken) absScalingParam.getToken()).doubleValue();
 			normChannel = ((IntToken) normChannelParam.getToken()).intValue();
 			
+			normStage = new NormalisationStage(calibration, normChannel, absScaling);
 			task = new NormalisationTask(true, null);
 
 		} catch (Exception e) {
@@ -109,45 +108,127 @@ public class NcdNormalisationForkJoinTransformer extends NcdAbstractDataForkJoin
 	@Override
 	protected void configureActorParameters() throws HDF5Exception {
 		super.configureActorParameters();
+		normStage.configure(ioService, entryGroupID, frames, dimension);
+	}
+	
+	/**
+	 * Create normalisation stage for fusing into the following actor
+	 */
+	public static FusedStage createFusedStage(String calibration, int normChannel, Double absScaling) {
+		return new NormalisationStage(calibration, normChannel, absScaling);
+	}
+	
+	private static class NormalisationStage implements FusedStage {
+		
+		private final String calibration;
+		private final int normChannel;
+		private final Double absScaling;
 		
-		calibrationGroupID = H5.H5Gopen(entryGroupID, calibration, HDF5Constants.H5P_DEFAULT);
-		H5L_info_t linkInfo = H5.H5Lget_info(calibrationGroupID, "data", HDF5Constants.H5P_DEFAULT);
-		if (linkInfo.type == HDF5Constants.H5L_TYPE_EXTERNAL) {
-			String[] buff = new String[(int) linkInfo.address_val_size];
-			H5.H5Lget_value(calibrationGroupID, "data", buff, HDF5Constants.H5P_DEFAULT);
-			if (buff[0] != null && buff[1] != null) {
-				String linkData = buff[0];
-				String linkFilename = buff[1];
-				linkFileID = HDF5Utils.H5Fopen(linkFilename, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
-				inputCalibrationID = H5.H5Dopen(linkFileID, linkData, HDF5Constants.H5P_DEFAULT);
+		private HDF5IOService ioService;
+		private int dimension;
+		
+		// Normalisation data shapes
+		private long[] framesCal;
+		
+		private long linkFileID = -1;
+		private long calibrationGroupID = -1, inputCalibrationID = -1;
+		
+		public NormalisationStage(String calibration, int normChannel, Double absScaling) {
+			this.calibration = calibration;
+			this.normChannel = normChannel;
+			this.absScaling = absScaling;
+		}
+		
+		@Override
+		public void configure(HDF5IOService ioService, long entryGroupID, long[] frames, int dimension) throws HDF5Exception {
+			this.ioService = ioService;
+			this.dimension = dimension;
+			
+			calibrationGroupID = H5.H5Gopen(entryGroupID, calibration, HDF5Constants.H5P_DEFAULT);
+			H5L_info_t linkInfo = H5.H5Lget_info(calibrationGroupID, "data", HDF5Constants.H5P_DEFAULT);
+			if (linkInfo.type == HDF5Constants.H5L_TYPE_EXTERNAL) {
+				String[] buff = new String[(int) linkInfo.address_val_size];
+				H5.H5Lget_value(calibrationGroupID, "data", buff, HDF5Constants.H5P_DEFAULT);
+				if (buff[0] != null && buff[1] != null) {
+					String linkData = buff[0];
+					String linkFilename = buff[1];
+					linkFileID = HDF5Utils.H5Fopen(linkFilename, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+					inputCalibrationID = H5.H5Dopen(linkFileID, linkData, HDF5Constants.H5P_DEFAULT);
+				} else {
+					throw new HDF5Exception("Invalid external link data for Normalisation dataset.");
+				}
 			} else {
-				throw new HDF5Exception("Invalid external link data for Normalisation dataset.");
+				inputCalibrationID = H5.H5Dopen(calibrationGroupID, "data", HDF5Constants.H5P_DEFAULT);
+			}
+			DataSliceIdentifiers calibrationIDs = new DataSliceIdentifiers();
+			calibrationIDs.setIDs(calibrationGroupID, inputCalibrationID);
+
+			int rankCal = H5.H5Sget_simple_extent_ndims(calibrationIDs.dataspace_id);
+			long[] tmpFramesCal = new long[rankCal];
+			H5.H5Sget_simple_extent_dims(calibrationIDs.dataspace_id, tmpFramesCal, null);
+
+			// This is a workaround to add extra dimensions to the end of scaler
+			// data shape
+			// to match them with scan data dimensions
+			int extraDims = frames.length - dimension + 1 - rankCal;
+			if (extraDims > 0) {
+				rankCal += extraDims;
+				for (int dm = 0; dm < extraDims; dm++) {
+					tmpFramesCal = ArrayUtils.add(tmpFramesCal, 1);
+				}
+			}
+			framesCal = Arrays.copyOf(tmpFramesCal, rankCal);
+
+			for (int i = 0; i < frames.length - dimension; i++) {
+				if (frames[i] != framesCal[i]) {
+					frames[i] = Math.min(frames[i], framesCal[i]);
+				}
 			}
-		} else {
-			inputCalibrationID = H5.H5Dopen(calibrationGroupID, "data", HDF5Constants.H5P_DEFAULT);
 		}
-		calibrationIDs = new DataSliceIdentifiers();
-		calibrationIDs.setIDs(calibrationGroupID, inputCalibrationID);
-
-		int rankCal = H5.H5Sget_simple_extent_ndims(calibrationIDs.dataspace_id);
-		long[] tmpFramesCal = new long[rankCal];
-		H5.H5Sget_simple_extent_dims(calibrationIDs.dataspace_id, tmpFramesCal, null);
-
-		// This is a workaround to add extra dimensions to the end of scaler
-		// data shape
-		// to match them with scan data dimensions
-		int extraDims = frames.length - dimension + 1 - rankCal;
-		if (extraDims > 0) {
-			rankCal += extraDims;
-			for (int dm = 0; dm < extraDims; dm++) {
-				tmpFramesCal = ArrayUtils.add(tmpFramesCal, 1);
+		
+		@Override
+		public Dataset process(Dataset inputData, SliceSettings slice, StageMetrics stage) throws HDF5Exception {
+			SliceSettings calibrationSliceParams = new SliceSettings(slice);
+			calibrationSliceParams.setFrames(framesCal);
+			Dataset dataCal = HDF5IOService.get(ioService.readSlice(calibrationSliceParams, inputCalibrationID, -1, stage), stage);
+			
+			Normalisation nm = new Normalisation();
+			nm.setCalibChannel(normChannel);
+			if (absScaling != null && !absScaling.isNaN()) {
+				nm.setNormvalue(absScaling);
 			}
+			int[] dataShape = inputData.getShape();
+
+			Dataset data = NcdDataUtils.flattenGridData(inputData, dimension);
+			// We need to get variance values for further calculations
+			Dataset errors = inputData.getErrorBuffer();
+			Dataset calibngd = NcdDataUtils.flattenGridData(dataCal, 1);
+
+			FloatDataset myres = DatasetFactory.zeros(FloatDataset.class, dataShape);
+			DoubleDataset myerrors = DatasetFactory.zeros(DoubleDataset.class, dataShape);
+			nm.process(((FloatDataset) data.cast(Dataset.FLOAT32)).getData(),
+					((DoubleDataset) errors.cast(Dataset.FLOAT64)).getData(),
+					((FloatDataset) calibngd.cast(Dataset.FLOAT32)).getData(),
+					data.getShape()[0], data.getShape(), calibngd.getShape(),
+					myres.getData(), myerrors.getData());
+
+			myres.setErrorBuffer(myerrors);
+			return myres;
 		}
-		framesCal = Arrays.copyOf(tmpFramesCal, rankCal);
+		
+		@Override
+		public void close() throws HDF5LibraryException {
+			try {
+				List<Long> identifiers = new ArrayList<Long>(Arrays.asList(
+						inputCalibrationID,
+						calibrationGroupID,
+						linkFileID));
 
-		for (int i = 0; i < frames.length - dimension; i++) {
-			if (frames[i] != framesCal[i]) {
-				frames[i] = Math.min(frames[i], framesCal[i]);
+				NcdNexusUtils.closeH5idList(identifiers);
+			} finally {
+				linkFileID = -1;
+				calibrationGroupID = -1;
+				inputCalibrationID = -1;
 			}
 		}
 	}
@@ -192,9 +273,7 @@ public class NcdNormalisationForkJoinTransformer extends NcdAbstractDataForkJoin
 				return;
 			}
 
-			long filespaceID = -1;
-			long typeID = -1;
-			long memspaceID = -1;
+			long taskStart = System.nanoTime();
 			try {
 				if (monitor.isCanceled()) {
 					throw new OperationCanceledException(getName() + " stage has been cancelled.");
@@ -204,51 +283,15 @@ public class NcdNormalisationForkJoinTransformer extends NcdAbstractDataForkJoin
 				int[] startPos = Arrays.copyOf(pos, frames.length);
 				sliceData.setStart(startPos);
 				
-				SliceSettings calibrationSliceParams = new SliceSettings(sliceData);
-				calibrationSliceParams.setFrames(framesCal);
-				
-				DataSliceIdentifiers tmp_ids = new DataSliceIdentifiers();
-				tmp_ids.setIDs(inputGroupID, inputDataID);
-
-				lock.lock();
-				Dataset inputData = NcdNexusUtils.sliceInputData(sliceData, tmp_ids);
-				Dataset dataCal = NcdNexusUtils.sliceInputData(calibrationSliceParams, calibrationIDs);
-				if (hasErrors) {
-					DataSliceIdentifiers tmp_errors_ids = new DataSliceIdentifiers();
-					tmp_errors_ids.setIDs(inputGroupID, inputErrorsID);
-					Dataset inputErrors = NcdNexusUtils.sliceInputData(sliceData, tmp_errors_ids);
-					inputData.setErrors(inputErrors);
-				} else {
+				Future<Dataset> input = ioService.readSlice(sliceData, inputDataID, hasErrors ? inputErrorsID : -1, stageMetrics);
+				Dataset inputData = HDF5IOService.get(input, stageMetrics);
+				if (!hasErrors) {
 					// Use counting statistics if no input error estimates are available 
 					DoubleDataset inputErrorsBuffer = inputData.copy(DoubleDataset.class);
 					inputData.setErrorBuffer(inputErrorsBuffer);
 				}
-				lock.unlock();
-
 				
-				Normalisation nm = new Normalisation();
-				nm.setCalibChannel(normChannel);
-				if (absScaling != null && !absScaling.isNaN()) {
-					nm.setNormvalue(absScaling);
-				}
-				int[] dataShape = inputData.getShape();
-
-				Dataset data = NcdDataUtils.flattenGridData(inputData, dimension);
-				// We need to get variance values for further calculations
-				Dataset errors = inputData.getErrorBuffer();
-				Dataset calibngd = NcdDataUtils.flattenGridData(dataCal, 1);
-
-				Object[] myobj = nm.process(data.getBuffer(), errors.getBuffer(), calibngd.getBuffer(),
-						data.getShape()[0], data.getShape(), calibngd.getShape());
-
-				float[] mydata = (float[]) myobj[0];
-				double[] myerrors = (double[]) myobj[1];
-
-				Dataset myres = DatasetFactory.createFromObject(mydata, dataShape);
-				myres.setErrorBuffer(DatasetFactory.createFromObject(myerrors, dataShape));
-
-				int selectID = -1;
-				int writeID = -1;
+				Dataset myres = normStage.process(inputData, sliceData, stageMetrics);
 
 				long[] frames = sliceData.getFrames();
 				long[] start_pos = (long[]) ConvertUtils.convert(sliceData.getStart(), long[].class);
@@ -261,56 +304,14 @@ public class NcdNormalisationForkJoinTransformer extends NcdAbstractDataForkJoin
 				Arrays.fill(block, 0, sliceData.getSliceDim(), 1);
 				block[sliceDim] = Math.min(frames[sliceDim] - start_pos[sliceDim], sliceSize);
 
-				long[] count = new long[frames.length];
-				Arrays.fill(count, 1);
-
-				lock.lock();
-				filespaceID = H5.H5Dget_space(resultDataID);
-				typeID = H5.H5Dget_type(resultDataID);
-				memspaceID = H5.H5Screate_simple(block.length, block, null);
-
-				selectID = H5
-						.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				if (selectID < 0) {
-					throw new HDF5Exception("Failed to allocate space fro writing Normalisation data");
-				}
-
-				writeID = H5.H5Dwrite(resultDataID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, mydata);
-				if (writeID < 0) {
-					throw new HDF5Exception("Failed to write Normalisation data into the results file");
-				}
-
-				NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, typeID, filespaceID)));
-
-				filespaceID = H5.H5Dget_space(resultErrorsID);
-				typeID = H5.H5Dget_type(resultErrorsID);
-				memspaceID = H5.H5Screate_simple(block.length, block, null);
-				selectID = H5
-						.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				if (selectID < 0) {
-					throw new HDF5Exception("Failed to allocate space for writing Normalisation error data");
-				}
-				writeID = H5.H5Dwrite(resultErrorsID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, myres
-						.getErrors().getBuffer());
-				if (writeID < 0) {
-					throw new HDF5Exception("Failed to write Normalisation error data into the results file");
-				}
-
-			} catch (HDF5LibraryException e) {
-				task.completeExceptionally(e);
+				ioService.writeSlice(resultDataID, start, block, myres.getBuffer(), stageMetrics);
+				ioService.writeSlice(resultErrorsID, start, block, myres.getErrors().getBuffer(), stageMetrics);
 			} catch (HDF5Exception e) {
 				task.completeExceptionally(e);
 			} catch (OperationCanceledException e) {
 				task.completeExceptionally(e);
 			} finally {
-				if (lock != null && lock.isHeldByCurrentThread()) {
-					lock.unlock();
-				}
-				try {
-					NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, typeID, filespaceID)));
-				} catch (HDF5LibraryException e) {
-					task.completeExceptionally(e);
-				}
+				recordTaskTime(taskStart);
 			}
 		}
 	}
@@ -318,12 +319,9 @@ public class NcdNormalisationForkJoinTransformer extends NcdAbstractDataForkJoin
 	@Override
 	protected void doWrapUp() throws TerminationException {
 		try {
-			List<Long> identifiers = new ArrayList<Long>(Arrays.asList(
-					inputCalibrationID,
-					calibrationGroupID,
-					linkFileID));
-
-			NcdNexusUtils.closeH5idList(identifiers);
+			if (normStage != null) {
+				normStage.close();
+			}
 		} catch (HDF5LibraryException e) {
 			getLogger().info("Error closing NeXus handle identifier", e);
 		}
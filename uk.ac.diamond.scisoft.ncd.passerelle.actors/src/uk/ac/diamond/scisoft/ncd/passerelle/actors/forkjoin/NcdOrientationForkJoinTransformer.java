@@ -35,6 +35,7 @@ import ptolemy.kernel.util.NameDuplicationException;
 import uk.ac.diamond.scisoft.ncd.core.DegreeOfOrientation;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
 
@@ -167,11 +168,7 @@ public class NcdOrientationForkJoinTransformer extends NcdAbstractDataForkJoinTr
 				return;
 			}
 
-			long filespaceID = -1;
-			long typeID = -1;
-			long memspaceID = -1;
-			long selectID = -1;
-			long writeID = -1;
+			long taskStart = System.nanoTime();
 			try {
 				if (monitor.isCanceled()) {
 					throw new OperationCanceledException(getName() + " stage has been cancelled.");
@@ -181,12 +178,7 @@ public class NcdOrientationForkJoinTransformer extends NcdAbstractDataForkJoinTr
 				int[] startPos = Arrays.copyOf(pos, frames.length);
 				sliceData.setStart(startPos);
 
-				DataSliceIdentifiers tmp_ids = new DataSliceIdentifiers();
-				tmp_ids.setIDs(inputGroupID, inputDataID);
-
-				lock.lock();
-				Dataset inputData = NcdNexusUtils.sliceInputData(sliceData, tmp_ids);
-				lock.unlock();
+				Dataset inputData = HDF5IOService.get(ioService.readSlice(sliceData, inputDataID, -1, stageMetrics), stageMetrics);
 
 				Dataset data = NcdDataUtils.flattenGridData(inputData, dimension);
 				
@@ -212,84 +204,17 @@ public class NcdOrientationForkJoinTransformer extends NcdAbstractDataForkJoinTr
 				Arrays.fill(block, 0, sliceData.getSliceDim(), 1);
 				block[sliceDim] = Math.min(frames[sliceDim] - start_pos[sliceDim], sliceSize);
 
-				long[] count = new long[frames.length];
-				Arrays.fill(count, 1);
-
-				lock.lock();
+				ioService.writeSlice(resultDataID, start, block, mydata, stageMetrics);
+				ioService.writeSlice(angleDataID, start, block, myangle, stageMetrics);
+				ioService.writeSlice(mapDataID, ArrayUtils.addAll(start, new long[] {0}),
+						ArrayUtils.addAll(block, new long[] {2}), myvector, stageMetrics);
 				
-				{
-					filespaceID = H5.H5Dget_space(resultDataID);
-					typeID = H5.H5Dget_type(resultDataID);
-					memspaceID = H5.H5Screate_simple(block.length, block, null);
-					selectID = H5
-							.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-					if (selectID < 0) {
-						throw new HDF5Exception("Failed to allocate space fro writing Degree of Orientation data");
-					}
-					writeID = H5.H5Dwrite(resultDataID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, mydata);
-					if (writeID < 0) {
-						throw new HDF5Exception("Failed to write Degree of Orientation data into the results file");
-					}
-					H5.H5Sclose(filespaceID);
-					H5.H5Sclose(memspaceID);
-					H5.H5Tclose(typeID);
-				}
-				
-				{
-					filespaceID = H5.H5Dget_space(angleDataID);
-					typeID = H5.H5Dget_type(angleDataID);
-					memspaceID = H5.H5Screate_simple(block.length, block, null);
-					selectID = H5
-							.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-					if (selectID < 0) {
-						throw new HDF5Exception("Failed to allocate space fro writing Degree of Orientation angle data");
-					}
-					writeID = H5.H5Dwrite(angleDataID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, myangle);
-					if (writeID < 0) {
-						throw new HDF5Exception("Failed to write Degree of Orientation angle data into the results file");
-					}
-					H5.H5Sclose(filespaceID);
-					H5.H5Sclose(memspaceID);
-					H5.H5Tclose(typeID);
-				}
-				
-				{
-					start = ArrayUtils.addAll(start, new long[] {0});
-					block = ArrayUtils.addAll(block, new long[] {2});
-					count = ArrayUtils.addAll(count, new long[] {1});
-					filespaceID = H5.H5Dget_space(mapDataID);
-					typeID = H5.H5Dget_type(mapDataID);
-					memspaceID = H5.H5Screate_simple(block.length, block, null);
-					selectID = H5
-							.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-					if (selectID < 0) {
-						throw new HDF5Exception("Failed to allocate space for writing Degree of Orientation vector data");
-					}
-					writeID = H5.H5Dwrite(mapDataID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, myvector);
-					if (writeID < 0) {
-						throw new HDF5Exception("Failed to write Degree of Orientation vector data into the results file");
-					}
-				}
-				
-			} catch (HDF5LibraryException e) {
-				task.completeExceptionally(e);
 			} catch (HDF5Exception e) {
 				task.completeExceptionally(e);
 			} catch (OperationCanceledException e) {
 				task.completeExceptionally(e);
 			} finally {
-				if (lock != null && lock.isHeldByCurrentThread()) {
-					lock.unlock();
-				}
-				try {
-					NcdNexusUtils.closeH5idList(
-							new ArrayList<Long>(Arrays.asList(
-									memspaceID,
-									typeID,
-									filespaceID)));
-				} catch (HDF5LibraryException e) {
-					task.completeExceptionally(e);
-				}
+				recordTaskTime(taskStart);
 			}
 		}
 	}
@@ -37,6 +37,7 @@ import uk.ac.diamond.scisoft.ncd.core.data.stats.FilterData;
 import uk.ac.diamond.scisoft.ncd.core.data.stats.SaxsAnalysisStats;
 import uk.ac.diamond.scisoft.ncd.core.data.stats.SaxsAnalysisStatsParameters;
 import uk.ac.diamond.scisoft.ncd.core.data.stats.SaxsStatsData;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
 
@@ -132,29 +133,14 @@ public class NcdSaxsDataStatsForkJoinTransformer extends NcdAbstractDataForkJoin
 			int[] startPos = Arrays.copyOf(new int[] {}, frames.length);
 			currentSliceParams.setStart(startPos);
 
+			long taskStart = System.nanoTime();
 			try {
-				DataSliceIdentifiers dataIDs = new DataSliceIdentifiers();
-				dataIDs.setIDs(resultGroupID, resultDataID);
-				dataIDs.setSlice(currentSliceParams);
-
-				DataSliceIdentifiers tmp_ids = new DataSliceIdentifiers();
-				tmp_ids.setIDs(inputGroupID, inputDataID);
-				tmp_ids.setSlice(currentSliceParams);
-
 				if (monitor.isCanceled()) {
 					throw new OperationCanceledException(getName() + " stage has been cancelled.");
 				}
 				
-				lock.lock();
-				Dataset inputData = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_ids);
-				if (hasErrors) {
-					DataSliceIdentifiers tmp_errors_ids = new DataSliceIdentifiers();
-					tmp_errors_ids.setIDs(inputGroupID, inputErrorsID);
-					tmp_errors_ids.setSlice(currentSliceParams);
-					Dataset inputErrors = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_errors_ids);
-					inputData.setErrors(inputErrors);
-				}
-				lock.unlock();
+				Dataset inputData = HDF5IOService.get(ioService.readSlice(currentSliceParams, inputDataID,
+						hasErrors ? inputErrorsID : -1, stageMetrics), stageMetrics);
 
 
 				Dataset saxsStatsData = null;
@@ -183,48 +169,28 @@ public class NcdSaxsDataStatsForkJoinTransformer extends NcdAbstractDataForkJoin
 					saxsStatsData = saxsStatsData.reshape(dataShape);
 				}
 				if (saxsStatsData != null) {
-					writeResults(dataIDs, saxsStatsData, dataShape);
+					writeResults(resultDataID, currentSliceParams, saxsStatsData, dataShape);
 				}
-			} catch (HDF5LibraryException e) {
-				task.completeExceptionally(e);
 			} catch (HDF5Exception e) {
 				task.completeExceptionally(e);
 			} catch (OperationCanceledException e) {
 				task.completeExceptionally(e);
 			} finally {
-				if (lock != null && lock.isHeldByCurrentThread()) {
-					lock.unlock();
-				}
+				recordTaskTime(taskStart);
 			}
 		}
 	}
 
-	private void writeResults(DataSliceIdentifiers dataIDs, Dataset data, int[] dataShape)
-			throws HDF5Exception {
+	private void writeResults(long datasetID, SliceSettings sliceData, Dataset data, int[] dataShape) {
 
+		DataSliceIdentifiers dataIDs = new DataSliceIdentifiers();
+		dataIDs.setSlice(sliceData);
+		
 		int resRank = dataShape.length;
 		long[] resStart = Arrays.copyOf(dataIDs.start, resRank);
-		long[] resCount = Arrays.copyOf(dataIDs.count, resRank);
 		long[] resBlock = Arrays.copyOf(dataIDs.block, resRank);
 
-		lock.lock();
-		
-		long filespaceID = H5.H5Dget_space(dataIDs.dataset_id);
-		long typeID = H5.H5Dget_type(dataIDs.dataset_id);
-		long memspaceID = H5.H5Screate_simple(resRank, resBlock, null);
-		int selectID = H5.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, resStart, resBlock, resCount, resBlock);
-		if (selectID < 0) {
-			throw new HDF5Exception("Error allocating space for writing SAXS stats data");
-		}
-		int writeID = H5.H5Dwrite(dataIDs.dataset_id, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, data.getBuffer());
-		if (writeID < 0) {
-			throw new HDF5Exception("Error writing SAXS stats data");
-		}
-		H5.H5Sclose(filespaceID);
-		H5.H5Sclose(memspaceID);
-		H5.H5Tclose(typeID);
-		
-		lock.unlock();
+		ioService.writeSlice(datasetID, resStart, resBlock, data.getBuffer(), stageMetrics);
 	}
 	
 	@Override
@@ -45,6 +45,7 @@ import uk.ac.diamond.scisoft.ncd.core.data.plots.GuinierPlotData;
 import uk.ac.diamond.scisoft.ncd.core.data.plots.LogLogPlotData;
 import uk.ac.diamond.scisoft.ncd.core.data.plots.PorodPlotData;
 import uk.ac.diamond.scisoft.ncd.core.data.plots.SaxsPlotData;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
 import uk.ac.diamond.scisoft.ncd.passerelle.actors.core.NcdProcessingObject;
@@ -253,35 +254,18 @@ public class NcdSaxsPlotDataForkJoinTransformer extends NcdAbstractDataForkJoinT
 			int[] startPos = Arrays.copyOf(pos, frames.length);
 			currentSliceParams.setStart(startPos);
 
+			long taskStart = System.nanoTime();
 			try {
 				if (monitor.isCanceled()) {
 					throw new OperationCanceledException(getName() + " stage has been cancelled.");
 				}
-				DataSliceIdentifiers dataIDs = new DataSliceIdentifiers();
-				dataIDs.setIDs(resultGroupID, resultDataID);
-				dataIDs.setSlice(currentSliceParams);
-				DataSliceIdentifiers errorIDs = new DataSliceIdentifiers();
-				errorIDs.setIDs(resultGroupID, resultErrorsID);
-				errorIDs.setSlice(currentSliceParams);
-
-				DataSliceIdentifiers tmp_ids = new DataSliceIdentifiers();
-				tmp_ids.setIDs(inputGroupID, inputDataID);
-				tmp_ids.setSlice(currentSliceParams);
-
-				lock.lock();
-				Dataset inputData = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_ids);
-				if (hasErrors) {
-					DataSliceIdentifiers tmp_errors_ids = new DataSliceIdentifiers();
-					tmp_errors_ids.setIDs(inputGroupID, inputErrorsID);
-					tmp_errors_ids.setSlice(currentSliceParams);
-					Dataset inputErrors = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_errors_ids);
-					inputData.setErrors(inputErrors);
-				} else {
+				Dataset inputData = HDF5IOService.get(ioService.readSlice(currentSliceParams, inputDataID,
+						hasErrors ? inputErrorsID : -1, stageMetrics), stageMetrics);
+				if (!hasErrors) {
 					// Use counting statistics if no input error estimates are available 
 					DoubleDataset inputErrorsBuffer = inputData.copy(DoubleDataset.class);
 					inputData.setErrorBuffer(inputErrorsBuffer);
 				}
-				lock.unlock();
 
 
 				Dataset saxsPlotData = null, saxsPlotErrors = null;
@@ -309,9 +293,9 @@ public class NcdSaxsPlotDataForkJoinTransformer extends NcdAbstractDataForkJoinT
 					}
 				}
 				if (saxsPlotData != null) {
-					writeResults(dataIDs, saxsPlotData, dataShape, dimension);
+					writeResults(resultDataID, currentSliceParams, saxsPlotData, dataShape, dimension);
 					if (saxsPlotData.hasErrors()) {
-						writeResults(errorIDs, saxsPlotData.getErrors(), dataShape, dimension);
+						writeResults(resultErrorsID, currentSliceParams, saxsPlotData.getErrors(), dataShape, dimension);
 					}
 
 					if (plotData instanceof GuinierPlotData) {
@@ -321,39 +305,24 @@ public class NcdSaxsPlotDataForkJoinTransformer extends NcdAbstractDataForkJoinT
 							Amount<Dimensionless> Rg = (Amount<Dimensionless>) params[1];
 							int[] rgDataShape = Arrays.copyOf(dataShape, dataShape.length - dimension);
 
-							DataSliceIdentifiers rgDataIDs = new DataSliceIdentifiers();
-							rgDataIDs.setIDs(resultGroupID, rgDataID);
-							rgDataIDs.setSlice(currentSliceParams);
 							Dataset tmpDataset = DatasetFactory.createFromObject(new double[] { Rg.getEstimatedValue() });
-							writeResults(rgDataIDs, tmpDataset, rgDataShape, 1);
+							writeResults(rgDataID, currentSliceParams, tmpDataset, rgDataShape, 1);
 
-							DataSliceIdentifiers rgErrorsIDs = new DataSliceIdentifiers();
-							rgErrorsIDs.setIDs(resultGroupID, rgErrorsID);
-							rgErrorsIDs.setSlice(currentSliceParams);
 							tmpDataset = DatasetFactory.createFromObject(new double[] { Rg.getAbsoluteError() });
-							writeResults(rgErrorsIDs, tmpDataset, rgDataShape, 1);
+							writeResults(rgErrorsID, currentSliceParams, tmpDataset, rgDataShape, 1);
 							
 							double[] rgRange = new double[] {(double) params[2], (double) params[3]};
 							int[] rgRangeDataShape = Arrays.copyOf(dataShape, dataShape.length - dimension + 1);
 							rgRangeDataShape[rgRangeDataShape.length - 1] = 2;
-							DataSliceIdentifiers rgRangeDataIDs = new DataSliceIdentifiers();
-							rgRangeDataIDs.setIDs(resultGroupID, rgRangeDataID);
-							rgRangeDataIDs.setSlice(currentSliceParams);
 							Dataset qRangeDataset = DatasetFactory.createFromObject(rgRange);
-							writeResults(rgRangeDataIDs, qRangeDataset, rgRangeDataShape, 1);
+							writeResults(rgRangeDataID, currentSliceParams, qRangeDataset, rgRangeDataShape, 1);
 
 							Amount<Dimensionless> I0 = (Amount<Dimensionless>) params[0];
-							DataSliceIdentifiers I0DataIDs = new DataSliceIdentifiers();
-							I0DataIDs.setIDs(resultGroupID, I0DataID);
-							I0DataIDs.setSlice(currentSliceParams);
 							tmpDataset = DatasetFactory.createFromObject(new double[] { I0.getEstimatedValue() });
-							writeResults(I0DataIDs, tmpDataset, rgDataShape, 1);
+							writeResults(I0DataID, currentSliceParams, tmpDataset, rgDataShape, 1);
 
-							DataSliceIdentifiers I0ErrorsIDs = new DataSliceIdentifiers();
-							I0ErrorsIDs.setIDs(resultGroupID, I0ErrorsID);
-							I0ErrorsIDs.setSlice(currentSliceParams);
 							tmpDataset = DatasetFactory.createFromObject(new double[] { I0.getAbsoluteError() });
-							writeResults(I0ErrorsIDs, tmpDataset, rgDataShape, 1);
+							writeResults(I0ErrorsID, currentSliceParams, tmpDataset, rgDataShape, 1);
 							
 							//rgDataIDs = new DataSliceIdentifiers();
 							//rgDataIDs.setIDs(resultGroupID, guinierFitDataID);
@@ -370,56 +339,33 @@ public class NcdSaxsPlotDataForkJoinTransformer extends NcdAbstractDataForkJoinT
 						LogLogPlotData loglogPlotData = (LogLogPlotData) plotData;
 						double[] params = loglogPlotData.getPorodPlotParameters(data.squeeze(), axis.squeeze());
 
-						DataSliceIdentifiers rgDataIDs = new DataSliceIdentifiers();
-						rgDataIDs.setIDs(resultGroupID, loglogFitDataID);
-						rgDataIDs.setSlice(currentSliceParams);
 						Dataset tmpDataset = loglogPlotData.getFitData(params, axis);
-						writeResults(rgDataIDs, tmpDataset, dataShape, 1);
+						writeResults(loglogFitDataID, currentSliceParams, tmpDataset, dataShape, 1);
 					}
 				}
-			} catch (HDF5LibraryException e) {
-				task.completeExceptionally(e);
 			} catch (HDF5Exception e) {
 				task.completeExceptionally(e);
 			} catch (OperationCanceledException e) {
 				task.completeExceptionally(e);
 			} finally {
-				if (lock != null && lock.isHeldByCurrentThread()) {
-					lock.unlock();
-				}
+				recordTaskTime(taskStart);
 			}
 		}
 	}
 
-	private void writeResults(DataSliceIdentifiers dataIDs, Dataset data, int[] dataShape, int dim)
-			throws HDF5Exception {
+	private void writeResults(long datasetID, SliceSettings sliceData, Dataset data, int[] dataShape, int dim) {
 
+		DataSliceIdentifiers dataIDs = new DataSliceIdentifiers();
+		dataIDs.setSlice(sliceData);
+		
 		int resRank = dataShape.length - dim + 1;
 		int integralLength = data.getShape()[data.getRank() - 1];
 
 		long[] resStart = Arrays.copyOf(dataIDs.start, resRank);
-		long[] resCount = Arrays.copyOf(dataIDs.count, resRank);
 		long[] resBlock = Arrays.copyOf(dataIDs.block, resRank);
 		resBlock[resRank - 1] = integralLength;
 
-		lock.lock();
-		
-		long filespaceID = H5.H5Dget_space(dataIDs.dataset_id);
-		long typeID = H5.H5Dget_type(dataIDs.dataset_id);
-		long memspaceID = H5.H5Screate_simple(resRank, resBlock, null);
-		int selectID = H5.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, resStart, resBlock, resCount, resBlock);
-		if (selectID < 0) {
-			throw new HDF5Exception("Error allocating space for writing SAXS plot data");
-		}
-		int writeID = H5.H5Dwrite(dataIDs.dataset_id, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, data.getBuffer());
-		if (writeID < 0) {
-			throw new HDF5Exception("Error writing SAXS plot data");
-		}
-		H5.H5Sclose(filespaceID);
-		H5.H5Sclose(memspaceID);
-		H5.H5Tclose(typeID);
-		
-		lock.unlock();
+		ioService.writeSlice(datasetID, resStart, resBlock, data.getBuffer(), stageMetrics);
 	}
 	
 	@Override
@@ -437,6 +383,7 @@ public class NcdSaxsPlotDataForkJoinTransformer extends NcdAbstractDataForkJoinT
 					-1,
 					lock,
 					monitor);
+			obj.setIOService(ioService);
 			outputMsg.setBodyContent(obj, "application/octet-stream");
 			response.addOutputMessage(portRg, outputMsg);
 			
@@ -452,6 +399,7 @@ public class NcdSaxsPlotDataForkJoinTransformer extends NcdAbstractDataForkJoinT
 					-1,
 					lock,
 					monitor);
+			rgRangeObj.setIOService(ioService);
 			rgRangeOutputMsg.setBodyContent(rgRangeObj, "application/octet-stream");
 			response.addOutputMessage(portRgRange, rgRangeOutputMsg);
 			
@@ -467,6 +415,7 @@ public class NcdSaxsPlotDataForkJoinTransformer extends NcdAbstractDataForkJoinT
 					-1,
 					lock,
 					monitor);
+			I0Obj.setIOService(ioService);
 			I0OutputMsg.setBodyContent(I0Obj, "application/octet-stream");
 			response.addOutputMessage(portI0, I0OutputMsg);
 		}
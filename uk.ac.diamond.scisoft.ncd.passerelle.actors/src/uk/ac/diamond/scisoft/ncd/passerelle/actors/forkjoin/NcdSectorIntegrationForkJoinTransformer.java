@@ -16,9 +16,12 @@
 
 package uk.ac.diamond.scisoft.ncd.passerelle.actors.forkjoin;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.RecursiveAction;
 
 import javax.measure.quantity.Energy;
@@ -49,12 +52,14 @@ import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
 import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVector;
 import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVectorOverDistance;
-import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
 import uk.ac.diamond.scisoft.ncd.core.SectorIntegration;
+import uk.ac.diamond.scisoft.ncd.core.SectorIntegrationPlan;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.QAxisCalculator;
 import uk.ac.diamond.scisoft.ncd.passerelle.actors.core.NcdProcessingObject;
 
 import com.isencia.passerelle.actor.InitializationException;
@@ -82,6 +87,7 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 	
 	private SectorROI intSector;
 	private Dataset[] areaData;
+	private SectorIntegrationPlan integrationPlan;
 	private Amount<ScatteringVectorOverDistance> gradient;
 	private Amount<ScatteringVector> intercept;
 	private Amount<Length> cameraLength;
@@ -222,9 +228,10 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 			long[] azFrames = getAzimuthalDataShape();
 			long typeFloat = HDF5Constants.H5T_NATIVE_FLOAT;
 			long typeDouble = HDF5Constants.H5T_NATIVE_DOUBLE;
-			azimuthalDataID = NcdNexusUtils.makedata(resultGroupID, "azimuth", typeFloat, azFrames, false, "counts");
+			azimuthalDataID = NcdNexusUtils.makedata(resultGroupID, "azimuth", typeFloat, azFrames, false, "counts",
+					datasetLayout);
 			azimuthalErrorsID = NcdNexusUtils.makedata(resultGroupID, "azimuth_errors", typeDouble, azFrames, false,
-					"counts");
+					"counts", datasetLayout);
 		}
 	}
 
@@ -232,7 +239,7 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 	protected long[] getResultDataShape() {
 		int[] areaShape = (int[]) ConvertUtils.convert(
 				Arrays.copyOfRange(frames, frames.length - dimension, frames.length), int[].class);
-		areaData = ROIProfile.area(areaShape, Dataset.FLOAT32, mask, intSector, doRadial, doAzimuthal, doFast);
+		areaData = SectorIntegration.getAreaData(areaShape, intSector, mask, doRadial, doAzimuthal, doFast);
 		
 		int areaDataRank = areaData[0].getRank();
 		int[] areaDataShape = areaData[0].getShape();
@@ -247,6 +254,11 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 		return 1;
 	}
 	
+	@Override
+	public boolean isFusionSupported() {
+		return true;
+	}
+	
 	private long[] getAzimuthalDataShape() {
 		int areaDataRank = areaData[1].getRank();
 		int[] areaDataShape = areaData[1].getShape();
@@ -275,22 +287,13 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 	private Dataset calculateQaxisDataset() {
 		
 		Dataset qaxis = null;
-		Dataset qaxisErr = null;
 
 		long[] secFrames = getResultDataShape();
 		int numPoints = (int) secFrames[secFrames.length - 1];
 		if (gradient != null &&	intercept != null && pxSize != null &&	axisUnit != null) {
-			qaxis = DatasetFactory.zeros(new int[] { numPoints }, Dataset.FLOAT32);
-			qaxisErr = DatasetFactory.zeros(new int[] { numPoints }, Dataset.FLOAT32);
 			double d2bs = intSector.getRadii()[0];
-			for (int i = 0; i < numPoints; i++) {
-				Amount<ScatteringVector> amountQaxis = gradient.times(i + d2bs).times(pxSize).plus(intercept)
-						.to(axisUnit);
-				qaxis.set(amountQaxis.getEstimatedValue(), i);
-				qaxisErr.set(amountQaxis.getAbsoluteError(), i);
-			}
-			qaxis.setErrors(qaxisErr);
-			return qaxis;
+			QAxisCalculator calculator = new QAxisCalculator(gradient, intercept, pxSize, axisUnit);
+			return calculator.createDataset(numPoints, d2bs, true);
 		}
 		qaxis = DatasetUtils.cast(DatasetUtils.indices(numPoints).squeeze(), Dataset.FLOAT32);
 		return qaxis;
@@ -302,6 +305,7 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 		
 		private boolean forkTask;
 		private int[] pos;
+		private Future<Dataset> input;
 
 		public SectorIntegrationTask(boolean forkTask, int[] pos) {
 			super();
@@ -316,45 +320,83 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 		protected void compute() {
 
 			if (forkTask) {
+				integrationPlan = null;
+				if (doFast && SectorIntegrationPlan.isSupported(intSector)) {
+					// Pixel geometry is the same for all frames, so integration weights are calculated only once
+					int[] imageShape = (int[]) ConvertUtils.convert(
+							Arrays.copyOfRange(frames, frames.length - dimension, frames.length), int[].class);
+					integrationPlan = SectorIntegrationPlan.create(imageShape, intSector, mask);
+					areaData = integrationPlan.getAreaData();
+				}
+				
+				int framesInFlight = getMaxFramesInFlight(getFrameFootprint());
+				
+				// Frames are integrated in parallel, but the number of forked tasks is limited
+				// by the heap budget to avoid potential OutOfMemory problems with large detector images.
+				// Every task writes into its own hyperslab, so completion order doesn't affect the output.
 				int[] grid = (int[]) ConvertUtils
 						.convert(Arrays.copyOf(frames, frames.length - dimension), int[].class);
 				PositionIterator itr = new PositionIterator(grid);
-				while (itr.hasNext()) {
-					SectorIntegrationTask task = new SectorIntegrationTask(false, itr.getPos());
-					// Processing frames sequentially to avoid potential OutOfMemory problems
-					// as present sector integration algorithm already uses multiple fork/join threads
-					task.compute();
+				Deque<SectorIntegrationTask> taskQueue = new ArrayDeque<SectorIntegrationTask>();
+				boolean completed = false;
+				try {
+					while (itr.hasNext()) {
+						if (taskQueue.size() >= framesInFlight) {
+							taskQueue.removeFirst().join();
+						}
+						if (task.isCompletedAbnormally()) {
+							break;
+						}
+						SectorIntegrationTask frameTask = new SectorIntegrationTask(false, itr.getPos());
+						// Queue input read ahead so that the I/O thread loads next frames while earlier ones are integrated
+						frameTask.input = ioService.readSlice(frameTask.getSliceSettings(), inputDataID, hasErrors ? inputErrorsID : -1, stageMetrics);
+						frameTask.fork();
+						taskQueue.addLast(frameTask);
+					}
+					while (!taskQueue.isEmpty()) {
+						taskQueue.removeFirst().join();
+					}
+					completed = true;
+				} finally {
+					if (!completed) {
+						// Tasks that haven't started are cancelled together with their queued reads.
+						// Running tasks are waited for, so that none of them outlives the failed stage.
+						for (SectorIntegrationTask frameTask : taskQueue) {
+							frameTask.cancel(false);
+						}
+						for (SectorIntegrationTask frameTask : taskQueue) {
+							if (frameTask.isCancelled() && frameTask.input != null) {
+								frameTask.input.cancel(false);
+							}
+							frameTask.quietlyJoin();
+						}
+					}
 				}
 				return;
 			}
 
-			SliceSettings currentSliceParams = new SliceSettings(frames, frames.length - dimension - 1, 1);
-			int[] startPos = Arrays.copyOf(pos, frames.length);
-			currentSliceParams.setStart(startPos);
+			SliceSettings currentSliceParams = getSliceSettings();
 
+			long taskStart = System.nanoTime();
 			try {
 				if (monitor.isCanceled()) {
+					if (input != null) {
+						input.cancel(false);
+					}
 					throw new OperationCanceledException(getName() + " stage has been cancelled.");
 				}
 				
-				DataSliceIdentifiers tmp_ids = new DataSliceIdentifiers();
-				tmp_ids.setIDs(inputGroupID, inputDataID);
-				tmp_ids.setSlice(currentSliceParams);
-
-				lock.lock();
-				Dataset inputData = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_ids);
-				if (hasErrors) {
-					DataSliceIdentifiers tmp_errors_ids = new DataSliceIdentifiers();
-					tmp_errors_ids.setIDs(inputGroupID, inputErrorsID);
-					tmp_errors_ids.setSlice(currentSliceParams);
-					Dataset inputErrors = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_errors_ids);
-					inputData.setErrors(inputErrors);
-				} else {
+				if (input == null) {
+					input = ioService.readSlice(currentSliceParams, inputDataID, hasErrors ? inputErrorsID : -1, stageMetrics);
+				}
+				Dataset inputData = HDF5IOService.get(input, stageMetrics);
+				input = null;
+				if (!hasErrors) {
 					// Use counting statistics if no input error estimates are available 
 					DoubleDataset inputErrorsBuffer = inputData.copy(DoubleDataset.class);
 					inputData.setErrorBuffer(inputErrorsBuffer);
 				}
-				lock.unlock();
+				inputData = applyFusedStages(inputData, currentSliceParams);
 
 
 				Dataset myazdata = null, myazerrors = null;
@@ -363,6 +405,7 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 				SectorIntegration sec = new SectorIntegration();
 				sec.setROI(intSector);
 				sec.setAreaData(areaData);
+				sec.setIntegrationPlan(integrationPlan);
 				sec.setCalculateRadial(doRadial);
 				sec.setCalculateAzimuthal(doAzimuthal);
 				sec.setFast(doFast);
@@ -407,45 +450,32 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 						}
 					}
 				}
-				lock.lock();
 				if (doAzimuthal && myazdata != null) {
-					DataSliceIdentifiers azimuth_id = new DataSliceIdentifiers();
-					azimuth_id.setIDs(resultGroupID, azimuthalDataID);
-					azimuth_id.setSlice(currentSliceParams);
-					DataSliceIdentifiers err_azimuth_id = new DataSliceIdentifiers();
-					err_azimuth_id.setIDs(resultGroupID, azimuthalErrorsID);
-					err_azimuth_id.setSlice(currentSliceParams);
-					
-					writeResults(azimuth_id, myazdata, dataShape, dimension);
+					writeResults(azimuthalDataID, currentSliceParams, myazdata, dataShape, dimension);
 					if (myazdata.hasErrors()) {
-						writeResults(err_azimuth_id, myazdata.getErrors(), dataShape, dimension);
+						writeResults(azimuthalErrorsID, currentSliceParams, myazdata.getErrors(), dataShape, dimension);
 					}
 				}
 				if (doRadial && myraddata != null) {
-					DataSliceIdentifiers sector_id = new DataSliceIdentifiers();
-					sector_id.setIDs(resultGroupID, resultDataID);
-					sector_id.setSlice(currentSliceParams);
-					DataSliceIdentifiers err_sector_id = new DataSliceIdentifiers();
-					err_sector_id.setIDs(resultGroupID, resultErrorsID);
-					err_sector_id.setSlice(currentSliceParams);
-					
-					writeResults(sector_id, myraddata, dataShape, dimension);
+					writeResults(resultDataID, currentSliceParams, myraddata, dataShape, dimension);
 					if (myraddata.hasErrors()) {
-						writeResults(err_sector_id, myraddata.getErrors(), dataShape, dimension);
+						writeResults(resultErrorsID, currentSliceParams, myraddata.getErrors(), dataShape, dimension);
 					}
 				}
-			} catch (HDF5LibraryException e) {
-				task.completeExceptionally(e);
 			} catch (HDF5Exception e) {
 				task.completeExceptionally(e);
 			} catch (OperationCanceledException e) {
 				task.completeExceptionally(e);
 			} finally {
-				if (lock != null && lock.isHeldByCurrentThread()) {
-					lock.unlock();
-				}
+				recordTaskTime(taskStart);
 			}
 		}
+		
+		private SliceSettings getSliceSettings() {
+			SliceSettings sliceParams = new SliceSettings(frames, frames.length - dimension - 1, 1);
+			sliceParams.setStart(Arrays.copyOf(pos, frames.length));
+			return sliceParams;
+		}
 	}
 
 	@Override
@@ -463,36 +493,26 @@ public class NcdSectorIntegrationForkJoinTransformer extends NcdAbstractDataFork
 					-1,
 					lock,
 					monitor);
+			obj.setIOService(ioService);
+			obj.setDatasetLayout(datasetLayout);
 			outputMsg.setBodyContent(obj, "application/octet-stream");
 			response.addOutputMessage(portAzimuthal, outputMsg);
 		}
 	}
 	
-	private void writeResults(DataSliceIdentifiers dataIDs, Dataset data, int[] dataShape, int dim)
-			throws HDF5Exception {
+	private void writeResults(long datasetID, SliceSettings sliceParams, Dataset data, int[] dataShape, int dim) {
 
+		DataSliceIdentifiers dataIDs = new DataSliceIdentifiers();
+		dataIDs.setSlice(sliceParams);
 		int resRank = dataShape.length - dim + 1;
 		int integralLength = data.getShape()[data.getRank() - 1];
 
 		long[] resStart = Arrays.copyOf(dataIDs.start, resRank);
-		long[] resCount = Arrays.copyOf(dataIDs.count, resRank);
 		long[] resBlock = Arrays.copyOf(dataIDs.block, resRank);
 		resBlock[resRank - 1] = integralLength;
 
-		long filespaceID = H5.H5Dget_space(dataIDs.dataset_id);
-		long typeID = H5.H5Dget_type(dataIDs.dataset_id);
-		long memspaceID = H5.H5Screate_simple(resRank, resBlock, null);
-		int selectID = H5.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, resStart, resBlock, resCount, resBlock);
-		if (selectID < 0) {
-			throw new HDF5Exception("Error allocating space for writing sector integration results");
-		}
-		int writeID = H5.H5Dwrite(dataIDs.dataset_id, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT, data.getBuffer());
-		if (writeID < 0) {
-			throw new HDF5Exception("Error writing sector integration results");
-		}
-		H5.H5Sclose(filespaceID);
-		H5.H5Sclose(memspaceID);
-		H5.H5Tclose(typeID);
+		// Results are written behind processing. Any write errors are reported when the I/O service is flushed.
+		ioService.writeSlice(datasetID, resStart, resBlock, data.getBuffer(), stageMetrics);
 	}
 	
 	@Override
@@ -33,8 +33,8 @@ import ptolemy.data.expr.StringParameter;
 import ptolemy.kernel.CompositeEntity;
 import ptolemy.kernel.util.IllegalActionException;
 import ptolemy.kernel.util.NameDuplicationException;
-import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
 
@@ -153,17 +153,9 @@ public class NcdSelectionForkJoinTransformer extends NcdAbstractDataForkJoinTran
 			block = Arrays.copyOf((long[]) ConvertUtils.convert(frames, long[].class), block.length);
 			Arrays.fill(block, 0, block.length - dimension, 1);
 
-			long[] count = new long[frames.length];
-			Arrays.fill(count, 1);
-
 			MultidimensionalCounter frameCounter = new MultidimensionalCounter((int[]) ConvertUtils.convert(
 					selectedShape, int[].class));
 			Iterator iter = frameCounter.iterator();
-			long filespaceID = -1;
-			long typeID = -1;
-			long memspaceID = -1;
-			long selectID = -1;
-			long writeID = -1;
 
 			while (iter.hasNext()) {
 				iter.next();
@@ -181,62 +173,20 @@ public class NcdSelectionForkJoinTransformer extends NcdAbstractDataForkJoinTran
 				SliceSettings sliceData = new SliceSettings(frames, frames.length - dimension - 1, 1);
 				int[] startPos = (int[]) ConvertUtils.convert(Arrays.copyOf(start, frames.length), int[].class);
 				sliceData.setStart(startPos);
+				long taskStart = System.nanoTime();
 				try {
 					if (monitor.isCanceled()) {
 						throw new OperationCanceledException(getName() + " stage has been cancelled.");
 					}
-					lock.lock();
-					DataSliceIdentifiers ids = new DataSliceIdentifiers();
-					ids.setIDs(inputGroupID, inputDataID);
-					DataSliceIdentifiers error_ids = new DataSliceIdentifiers();
-					error_ids.setIDs(inputGroupID, inputErrorsID);
-
-					Dataset data = NcdNexusUtils.sliceInputData(sliceData, ids);
-					if (hasErrors) {
-						DataSliceIdentifiers tmp_errors_ids = new DataSliceIdentifiers();
-						tmp_errors_ids.setIDs(inputGroupID, inputErrorsID);
-						Dataset inputErrors = NcdNexusUtils.sliceInputData(sliceData, tmp_errors_ids);
-						data.setErrors(inputErrors);
-					} else {
+					Dataset data = HDF5IOService.get(ioService.readSlice(sliceData, inputDataID, hasErrors ? inputErrorsID : -1, stageMetrics), stageMetrics);
+					if (!hasErrors) {
 						// Use counting statistics if no input error estimates are available
 						DoubleDataset inputErrorsBuffer = data.copy(DoubleDataset.class);
 						data.setErrorBuffer(inputErrorsBuffer);
 					}
 
-					filespaceID = H5.H5Dget_space(resultDataID);
-					typeID = H5.H5Dget_type(resultDataID);
-					memspaceID = H5.H5Screate_simple(block.length, block, null);
-
-					selectID = H5.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, writePosition, block,
-							count, block);
-					if (selectID < 0) {
-						throw new HDF5Exception("Failed to allocate space fro reading selected data");
-					}
-					writeID = H5.H5Dwrite(resultDataID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT,
-							data.getBuffer());
-					if (writeID < 0) {
-						throw new HDF5Exception("Failed to write selected data into the results file");
-					}
-
-					NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspaceID, typeID, filespaceID)));
-
-					filespaceID = H5.H5Dget_space(resultErrorsID);
-					typeID = H5.H5Dget_type(resultErrorsID);
-					memspaceID = H5.H5Screate_simple(block.length, block, null);
-					selectID = H5.H5Sselect_hyperslab(filespaceID, HDF5Constants.H5S_SELECT_SET, writePosition, block,
-							count, block);
-					if (selectID < 0) {
-						throw new HDF5Exception("Failed to allocate space fro reading selected error data");
-					}
-					writeID = H5.H5Dwrite(resultErrorsID, typeID, memspaceID, filespaceID, HDF5Constants.H5P_DEFAULT,
-							data.getErrors().getBuffer());
-					if (writeID < 0) {
-						throw new HDF5Exception("Failed to write selected error data into the results file");
-					}
-
-				} catch (HDF5LibraryException e) {
-					task.completeExceptionally(e);
-					return;
+					ioService.writeSlice(resultDataID, writePosition, block, data.getBuffer(), stageMetrics);
+					ioService.writeSlice(resultErrorsID, writePosition, block, data.getErrors().getBuffer(), stageMetrics);
 				} catch (HDF5Exception e) {
 					task.completeExceptionally(e);
 					return;
@@ -244,17 +194,7 @@ public class NcdSelectionForkJoinTransformer extends NcdAbstractDataForkJoinTran
 					task.completeExceptionally(e);
 					return;
 				} finally {
-					if (lock != null && lock.isHeldByCurrentThread()) {
-						lock.unlock();
-					}
-					try {
-						NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(
-								memspaceID,
-								typeID,
-								filespaceID)));
-					} catch (HDF5LibraryException e) {
-						task.completeExceptionally(e);
-					}
+					recordTaskTime(taskStart);
 				}
 			}
 		}
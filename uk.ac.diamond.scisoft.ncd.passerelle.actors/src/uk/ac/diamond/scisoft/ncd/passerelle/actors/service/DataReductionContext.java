@@ -16,6 +16,9 @@
 
 package uk.ac.diamond.scisoft.ncd.passerelle.actors.service;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
 import org.eclipse.january.dataset.BooleanDataset;
 
@@ -40,6 +43,8 @@ import uk.ac.diamond.scisoft.ncd.core.service.IDataReductionProcess;
 class DataReductionContext implements IDataReductionContext {
 
 	private int workAmount;
+	private int batchParallelism;
+	private long batchMemoryBudget;
 	
 	private BooleanDataset    mask;
 	private SectorROI         sector;
@@ -48,6 +53,7 @@ class DataReductionContext implements IDataReductionContext {
 	private NcdDetectors      ncdDetectors;
 	
 	private boolean enableMask;
+	private Collection<String> persistedStages = Collections.emptySet();
 	
 	private NcdDetectorSettings    detWaxsInfo, detSaxsInfo, scalerData;
 	private CalibrationResultsBean calibrationResults;
@@ -67,6 +73,49 @@ class DataReductionContext implements IDataReductionContext {
 	 */
 	private String bgName;
 	
+	DataReductionContext() {
+	}
+	
+	/**
+	 * Copy the context so that a file can be reduced without changing state shared with other files.
+	 * Flags are copied, other settings are shared with the original context.
+	 */
+	DataReductionContext(DataReductionContext context) {
+		workAmount = context.workAmount;
+		batchParallelism = context.batchParallelism;
+		batchMemoryBudget = context.batchMemoryBudget;
+		mask = context.mask;
+		sector = context.sector;
+		processing = context.processing;
+		bgProcessing = context.bgProcessing;
+		flags = (context.flags != null ? new NcdReductionFlags(context.flags) : null);
+		ncdDetectors = context.ncdDetectors;
+		enableMask = context.enableMask;
+		persistedStages = context.persistedStages;
+		detWaxsInfo = context.detWaxsInfo;
+		detSaxsInfo = context.detSaxsInfo;
+		scalerData = context.scalerData;
+		calibrationResults = context.calibrationResults;
+		dataSliceInput = context.dataSliceInput;
+		bgSliceInput = context.bgSliceInput;
+		gridAverageSlice = context.gridAverageSlice;
+		maskFile = context.maskFile;
+		bgPath = context.bgPath;
+		drFile = context.drFile;
+		workingDir = context.workingDir;
+		calibrationName = context.calibrationName;
+		waxsDetectorName = context.waxsDetectorName;
+		saxsDetectorName = context.saxsDetectorName;
+		resultsFile = context.resultsFile;
+		absScaling = context.absScaling;
+		sampleThickness = context.sampleThickness;
+		bgScaling = context.bgScaling;
+		energy = context.energy;
+		useFormSampleThickness = context.useFormSampleThickness;
+		saxsAnalysisStatsParameters = context.saxsAnalysisStatsParameters;
+		bgName = context.bgName;
+	}
+	
 	@Override
 	public boolean isEnableNormalisation() {
 		return flags.isEnableNormalisation();
@@ -177,6 +226,26 @@ class DataReductionContext implements IDataReductionContext {
 		flags.setEnableFastintegration(enableFastIntegration);
 	}
 
+	@Override
+	public boolean isEnableStageFusion() {
+		return flags.isEnableStageFusion();
+	}
+
+	@Override
+	public void setEnableStageFusion(boolean enableStageFusion) {
+		flags.setEnableStageFusion(enableStageFusion);
+	}
+
+	@Override
+	public Collection<String> getPersistedStages() {
+		return persistedStages;
+	}
+
+	@Override
+	public void setPersistedStages(Collection<String> persistedStages) {
+		this.persistedStages = persistedStages;
+	}
+
 	@Override
 	public boolean isEnableMask() {
 		return enableMask;
@@ -357,6 +426,8 @@ class DataReductionContext implements IDataReductionContext {
 		result = prime * result + ((sector == null) ? 0 : sector.hashCode());
 		result = prime * result + ((waxsDetectorName == null) ? 0 : waxsDetectorName.hashCode());
 		result = prime * result + workAmount;
+		result = prime * result + batchParallelism;
+		result = prime * result + (int) (batchMemoryBudget ^ (batchMemoryBudget >>> 32));
 		result = prime * result + ((workingDir == null) ? 0 : workingDir.hashCode());
 		result = prime * result + ((saxsAnalysisStatsParameters == null) ? 0 : saxsAnalysisStatsParameters.hashCode());
 		return result;
@@ -493,6 +564,10 @@ class DataReductionContext implements IDataReductionContext {
 			return false;
 		if (workAmount != other.workAmount)
 			return false;
+		if (batchParallelism != other.batchParallelism)
+			return false;
+		if (batchMemoryBudget != other.batchMemoryBudget)
+			return false;
 		if (workingDir == null) {
 			if (other.workingDir != null)
 				return false;
@@ -616,6 +691,26 @@ class DataReductionContext implements IDataReductionContext {
 		this.workAmount = workAmount;
 	}
 
+	@Override
+	public int getBatchParallelism() {
+		return batchParallelism;
+	}
+
+	@Override
+	public void setBatchParallelism(int batchParallelism) {
+		this.batchParallelism = batchParallelism;
+	}
+
+	@Override
+	public long getBatchMemoryBudget() {
+		return batchMemoryBudget;
+	}
+
+	@Override
+	public void setBatchMemoryBudget(long batchMemoryBudget) {
+		this.batchMemoryBudget = batchMemoryBudget;
+	}
+
 	@Override
 	public String getBgName() {
 		return bgName;
@@ -20,7 +20,20 @@ import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import javax.measure.quantity.Energy;
 import javax.measure.quantity.Length;
@@ -34,20 +47,15 @@ import org.dawb.common.util.eclipse.BundleUtils;
 import org.dawnsci.plotting.tools.preference.detector.DiffractionDetector;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.dawnsci.analysis.api.tree.DataNode;
-import org.eclipse.dawnsci.analysis.api.tree.Node;
-import org.eclipse.dawnsci.analysis.api.tree.NodeLink;
-import org.eclipse.dawnsci.analysis.api.tree.Tree;
 import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
 import org.eclipse.dawnsci.hdf.object.HierarchicalDataFactory;
 import org.eclipse.dawnsci.hdf.object.IHierarchicalDataFile;
 import org.eclipse.dawnsci.hdf.object.Nexus;
-import org.eclipse.dawnsci.hdf5.HDF5Utils;
-import org.eclipse.january.DatasetException;
 import org.eclipse.january.dataset.BooleanDataset;
-import org.eclipse.january.dataset.DatasetUtils;
-import org.eclipse.january.dataset.IDataset;
+import org.eclipse.january.dataset.Dataset;
 import org.eclipse.osgi.util.NLS;
 import org.jscience.physics.amount.Amount;
 import org.slf4j.Logger;
@@ -57,7 +65,6 @@ import hdf.hdf5lib.H5;
 import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.HDFArray;
 import hdf.hdf5lib.exceptions.HDF5Exception;
-import uk.ac.diamond.scisoft.analysis.io.HDF5Loader;
 import uk.ac.diamond.scisoft.ncd.core.data.CalibrationResultsBean;
 import uk.ac.diamond.scisoft.ncd.core.data.NcdDetectorSettings;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceInput;
@@ -67,7 +74,9 @@ import uk.ac.diamond.scisoft.ncd.core.service.IDataReductionContext;
 import uk.ac.diamond.scisoft.ncd.core.service.IDataReductionProcess;
 import uk.ac.diamond.scisoft.ncd.core.service.IDataReductionService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.NexusMetadataReader;
 import uk.ac.diamond.scisoft.ncd.passerelle.actors.NcdProcessingModel;
+import uk.ac.diamond.scisoft.ncd.passerelle.actors.forkjoin.NcdAbstractDataForkJoinTransformer;
 import uk.ac.diamond.scisoft.ncd.preferences.NcdMessages;
 
 /**
@@ -79,6 +88,14 @@ public class DataReductionServiceImpl implements IDataReductionService {
 
 	private static final Logger logger = LoggerFactory.getLogger(DataReductionServiceImpl.class);
 	
+	private static final long MB = 1024 * 1024;
+	
+	// Default share of the heap available to files reduced concurrently
+	private static final double BATCH_HEAP_FRACTION = 0.5;
+	
+	// Every file is reduced by the fork/join pipeline, so by default only a few files run at once
+	private static final int CORES_PER_BATCH_FILE = 4;
+	
 	static {
 		System.out.println("Starting data reduction service for NCD");
 	}
@@ -167,38 +184,193 @@ public class DataReductionServiceImpl implements IDataReductionService {
 			throw new Exception("Please call configure before using execute!");
 		}
 		
-		boolean enableWaxs = flags.isEnableWaxs();
-		boolean enableSaxs = flags.isEnableSaxs();
-		
 		DiffractionDetector detectorWaxs = null;
 		DiffractionDetector detectorSaxs = null;
-		if (enableWaxs) {
-			detectorWaxs = new DiffractionDetector();
-			String detectorWaxsName = context.getWaxsDetectorName();
-			Amount<Length> pxSize = ncdDetectors.getPxWaxs();
-			detectorWaxs.setDetectorName(detectorWaxsName);
-			int dim = ncdDetectors.getDimWaxs();
-			detectorWaxs.setxPixelSize(dim == 1 ? null : pxSize);
-			detectorWaxs.setyPixelSize(pxSize);
-		}
-		if (enableSaxs) {
-			detectorSaxs = new DiffractionDetector();
-			String detectorSaxsName = context.getSaxsDetectorName();
-			Amount<Length> pxSize = ncdDetectors.getPxSaxs();
-			detectorSaxs.setDetectorName(detectorSaxsName);
-			int dim = ncdDetectors.getDimSaxs();
-			detectorSaxs.setxPixelSize(dim == 1 ? null : pxSize);
-			detectorSaxs.setyPixelSize(pxSize);
+		if (flags.isEnableWaxs()) {
+			detectorWaxs = createDetector(context.getWaxsDetectorName(), ncdDetectors.getPxWaxs(), ncdDetectors.getDimWaxs());
+		}
+		if (flags.isEnableSaxs()) {
+			detectorSaxs = createDetector(context.getSaxsDetectorName(), ncdDetectors.getPxSaxs(), ncdDetectors.getDimSaxs());
 		}
 		
-		final String bgPath = context.getBgPath();
-		final String bgName = FilenameUtils.getName(bgPath);
+		setNormalisationParameters(rawFilePath, context, flags, processing, bgProcessing);
+
+		if (context.isEnableBackground()) {  // Processes the background once after the configure and sets
+			                                 // background processing disabled for future calls.
+			processBackground(context, processing, detectorWaxs, detectorSaxs, monitor);
+		}
 		
-		final String inputfileName, inputfileExtension, inputfilePath;
+		return processFile(rawFilePath, context, processing, detectorWaxs, detectorSaxs, true, monitor);
+	}
+	
+	/**
+	 * Reduce a batch of files concurrently. Background data is reduced and detector response is read
+	 * once for the whole batch. Every file is processed with its own copy of the context and the processing
+	 * model. Files are admitted when their estimated memory use fits into the batch memory budget.
+	 */
+	@Override
+	public IStatus processBatch(List<String> filePaths, final IDataReductionContext context, IProgressMonitor monitor) throws Exception {
+		
+		IDataReductionProcess processing = context.getProcessing();
+		IDataReductionProcess bgProcessing = context.getBgProcessing();
+		NcdReductionFlags flags        = context.getFlags();
+		NcdDetectors      ncdDetectors = context.getNcdDetectors();
 
-		inputfilePath      = rawFilePath;
-		inputfileExtension = FilenameUtils.getExtension(inputfilePath);
-		inputfileName      = FilenameUtils.getName(inputfilePath);
+		if (processing==null || bgProcessing==null || flags==null || ncdDetectors==null) {
+			throw new Exception("Please call configure before using execute!");
+		}
+		if (!(context instanceof DataReductionContext)) {
+			throw new IllegalArgumentException("Please use the context created by the data reduction service");
+		}
+		if (filePaths.isEmpty()) {
+			return Status.OK_STATUS;
+		}
+		
+		final IProgressMonitor batchMonitor = new SynchronizedProgressMonitor(monitor);
+		
+		DiffractionDetector waxs = null;
+		DiffractionDetector saxs = null;
+		if (flags.isEnableWaxs()) {
+			waxs = createDetector(context.getWaxsDetectorName(), ncdDetectors.getPxWaxs(), ncdDetectors.getDimWaxs());
+		}
+		if (flags.isEnableSaxs()) {
+			saxs = createDetector(context.getSaxsDetectorName(), ncdDetectors.getPxSaxs(), ncdDetectors.getDimSaxs());
+		}
+		final DiffractionDetector detectorWaxs = waxs;
+		final DiffractionDetector detectorSaxs = saxs;
+		
+		// Background is reduced with normalisation parameters of the first file, same as in sequential processing
+		if (context.isEnableBackground()) {
+			setNormalisationParameters(filePaths.get(0), context, flags, processing, bgProcessing);
+			processBackground(context, processing, detectorWaxs, detectorSaxs, batchMonitor);
+		}
+		
+		final NcdReductionFlags fileFlags = new NcdReductionFlags(flags);
+		if (context.getBgName() != null) {
+			fileFlags.setEnableBackground(true);
+		}
+		
+		final Map<String, Dataset> sharedDrData = new HashMap<String, Dataset>();
+		if (fileFlags.isEnableDetectorResponse()) {
+			for (DiffractionDetector detector : new DiffractionDetector[] {detectorWaxs, detectorSaxs}) {
+				if (detector != null) {
+					String name = detector.getDetectorName();
+					sharedDrData.put(name, readDetectorResponse(context.getDrFile(), name));
+				}
+			}
+		}
+		
+		int parallelism = context.getBatchParallelism();
+		if (parallelism <= 0) {
+			parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / CORES_PER_BATCH_FILE);
+		}
+		parallelism = Math.min(parallelism, filePaths.size());
+		long memoryBudget = context.getBatchMemoryBudget();
+		if (memoryBudget <= 0) {
+			memoryBudget = (long) (BATCH_HEAP_FRACTION * Runtime.getRuntime().maxMemory());
+		}
+		final int budgetMB = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / MB));
+		final Semaphore memory = new Semaphore(budgetMB, true);
+		final int work = context.getWorkAmount();
+		
+		// Processing models keep their Passerelle flows, so every worker reuses a model for the following files
+		final BlockingQueue<NcdProcessingModel> models = new LinkedBlockingQueue<NcdProcessingModel>();
+		for (int i = 0; i < parallelism; i++) {
+			models.add(new NcdProcessingModel());
+		}
+		
+		// Background results file is kept open for all files in the batch
+		IHierarchicalDataFile dawbBgWriter = null;
+		if (context.getBgName() != null) {
+			dawbBgWriter = HierarchicalDataFactory.getWriter(context.getBgName());
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "NCD batch data reduction");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<IStatus>> results = new ArrayList<Future<IStatus>>(filePaths.size());
+			for (final String filePath : filePaths) {
+				results.add(executor.submit(new Callable<IStatus>() {
+					@Override
+					public IStatus call() throws Exception {
+						if (batchMonitor.isCanceled()) {
+							return Status.CANCEL_STATUS;
+						}
+						// Files larger than the budget are processed on their own
+						int permits = Math.min(budgetMB, estimateMemoryMB(filePath, context, detectorWaxs, detectorSaxs));
+						NcdProcessingModel fileProcessing = models.take();
+						memory.acquire(permits);
+						try {
+							if (batchMonitor.isCanceled()) {
+								return Status.CANCEL_STATUS;
+							}
+							IDataReductionContext fileContext = new DataReductionContext((DataReductionContext) context);
+							readDataReductionOptions(fileContext, fileFlags, fileProcessing);
+							fileProcessing.setFlags(fileFlags);
+							if (fileFlags.isEnableBackground()) {
+								fileProcessing.setBgFile(fileContext.getBgName());
+							}
+							fileProcessing.setSharedDetectorResponse(sharedDrData);
+							setNormalisationParameters(filePath, fileContext, fileFlags, fileProcessing, null);
+							
+							batchMonitor.subTask("Processing : " + filePath);
+							IStatus status = processFile(filePath, fileContext, fileProcessing, detectorWaxs, detectorSaxs, false, batchMonitor);
+							batchMonitor.worked(work);
+							return status;
+						} finally {
+							memory.release(permits);
+							models.put(fileProcessing);
+						}
+					}
+				}));
+			}
+			
+			MultiStatus status = new MultiStatus("uk.ac.diamond.scisoft.ncd", IStatus.OK, "NCD batch data reduction", null);
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					status.add(results.get(i).get());
+				} catch (ExecutionException e) {
+					logger.error("SCISOFT NCD: Error processing input file " + filePaths.get(i), e.getCause());
+					status.add(new Status(IStatus.ERROR, "uk.ac.diamond.scisoft.ncd", "Failed to process input file '" + filePaths.get(i) + "'", e.getCause()));
+				}
+			}
+			return status;
+		} finally {
+			executor.shutdownNow();
+			try {
+				if (dawbBgWriter != null) {
+					dawbBgWriter.close();
+				}
+			} catch (Exception ex) {
+				logger.error("SCISOFT NCD: Error closing background processing results file", ex);
+			}
+		}
+	}
+	
+	private DiffractionDetector createDetector(String detectorName, Amount<Length> pxSize, int dim) {
+		DiffractionDetector detector = new DiffractionDetector();
+		detector.setDetectorName(detectorName);
+		detector.setxPixelSize(dim == 1 ? null : pxSize);
+		detector.setyPixelSize(pxSize);
+		return detector;
+	}
+	
+	/**
+	 * Set absolute intensity scaling and normalisation channel for the input file
+	 * 
+	 * @param bgProcessing
+	 *            - background processing model. Can be null if background is not processed.
+	 */
+	private void setNormalisationParameters(String inputfilePath, IDataReductionContext context, NcdReductionFlags flags,
+			IDataReductionProcess processing, IDataReductionProcess bgProcessing) {
+		
+		String inputfileExtension = FilenameUtils.getExtension(inputfilePath);
 
 		// Get thickness and set normalization parameters
 		Double fileThickness = readSampleThickness(inputfilePath, inputfileExtension);
@@ -227,80 +399,106 @@ public class DataReductionServiceImpl implements IDataReductionService {
 		}
 		
 		if (absScaling != null) {
-			if (thickness != null) {
-				processing.setAbsScaling(absScaling / thickness);
-				bgProcessing.setAbsScaling(absScaling / thickness);
-			} else {
-				processing.setAbsScaling(absScaling);
-				bgProcessing.setAbsScaling(absScaling);
+			Double scaling = (thickness != null ? absScaling / thickness : absScaling);
+			processing.setAbsScaling(scaling);
+			if (bgProcessing != null) {
+				bgProcessing.setAbsScaling(scaling);
 			}
 		}
 		processing.setNormChannel(normChannel);
-		bgProcessing.setNormChannel(normChannel);
-
-		// Process background
+		if (bgProcessing != null) {
+			bgProcessing.setNormChannel(normChannel);
+		}
+	}
+	
+	protected void processBackground(IDataReductionContext context, IDataReductionProcess processing,
+			DiffractionDetector detectorWaxs, DiffractionDetector detectorSaxs, IProgressMonitor monitor) throws Exception {
+		
+		IDataReductionProcess bgProcessing = context.getBgProcessing();
+		final String bgPath = context.getBgPath();
+		final String bgName = FilenameUtils.getName(bgPath);
+		
 		IHierarchicalDataFile dawbReader = null;
 		IHierarchicalDataFile dawbWriter = null;
 		String bgFilename = null;
-		
-		if (context.isEnableBackground()) {  // Processes the background once after the configure and sets
-			                                 // background processing disabled for future calls.
+		try {
+			dawbReader = HierarchicalDataFactory.getReader(context.getBgPath());
+			NexusMetadataReader metadataReader = new NexusMetadataReader(bgPath);
 			try {
-				dawbReader = HierarchicalDataFactory.getReader(context.getBgPath());
-				bgFilename = createResultsFile(context, bgName, bgPath, "background");
-				dawbWriter = HierarchicalDataFactory.getWriter(bgFilename);
-				if (enableWaxs && bgFilename != null) {
-						bgProcessing.setNcdDetector(detectorWaxs);
-						bgProcessing.execute(bgFilename, monitor);
-				}
-				if (enableSaxs && bgFilename != null) {
-						bgProcessing.setNcdDetector(detectorSaxs);
-						bgProcessing.execute(bgFilename, monitor);
-				}
-				processing.setBgFile(bgFilename);
+				bgFilename = createResultsFile(context, bgName, metadataReader, "background");
+			} finally {
+				metadataReader.close();
+			}
+			dawbWriter = HierarchicalDataFactory.getWriter(bgFilename);
+			if (detectorWaxs != null && bgFilename != null) {
+					bgProcessing.setNcdDetector(detectorWaxs);
+					bgProcessing.execute(bgFilename, monitor);
+			}
+			if (detectorSaxs != null && bgFilename != null) {
+					bgProcessing.setNcdDetector(detectorSaxs);
+					bgProcessing.execute(bgFilename, monitor);
+			}
+			processing.setBgFile(bgFilename);
 
-				context.setBgName(bgFilename);
-				context.setEnableBackground(false); // We have done it now.
-			} catch (Exception e) {
-				logger.error("SCISOFT NCD: Error processing background file", e);
-				throw e;
+			context.setBgName(bgFilename);
+			context.setEnableBackground(false); // We have done it now.
+		} catch (Exception e) {
+			logger.error("SCISOFT NCD: Error processing background file", e);
+			throw e;
+		} finally {
+			try {
+				if (dawbReader != null) {
+					dawbReader.close();
+				}
+			} catch (Exception ex) {
+				logger.error("SCISOFT NCD: Failed to close input background file", ex);
 			} finally {
 				try {
-					if (dawbReader != null) {
-						dawbReader.close();
+					if (dawbWriter != null) {
+						dawbWriter.close();
 					}
 				} catch (Exception ex) {
-					logger.error("SCISOFT NCD: Failed to close input background file", ex);
-				} finally {
-					try {
-						if (dawbWriter != null) {
-							dawbWriter.close();
-						}
-					} catch (Exception ex) {
-						logger.error("SCISOFT NCD: Failed to close processing background file", ex);
-					}
+					logger.error("SCISOFT NCD: Failed to close processing background file", ex);
 				}
 			}
 		}
+	}
 	
-		if (ignoreInputFile(context, inputfilePath, inputfileExtension)) {
-			return new Status(IStatus.WARNING, "uk.ac.diamond.scisoft.ncd", "Input file '"+inputfilePath+" is invalid but other files may still be processed.");
+	/**
+	 * @param openBgFile
+	 *            - open background results file while the file is processed. Batch processing keeps
+	 *            the file open for all input files.
+	 */
+	protected IStatus processFile(String inputfilePath, IDataReductionContext context, IDataReductionProcess processing,
+			DiffractionDetector detectorWaxs, DiffractionDetector detectorSaxs, boolean openBgFile, IProgressMonitor monitor) throws Exception {
+		
+		final String inputfileExtension = FilenameUtils.getExtension(inputfilePath);
+		final String inputfileName      = FilenameUtils.getName(inputfilePath);
+		
+		final String filename;
+		NexusMetadataReader metadataReader = new NexusMetadataReader(inputfilePath);
+		try {
+			if (ignoreInputFile(context, metadataReader, inputfileExtension)) {
+				return new Status(IStatus.WARNING, "uk.ac.diamond.scisoft.ncd", "Input file '"+inputfilePath+" is invalid but other files may still be processed.");
+			}
+			logger.info("Processing: " + inputfileName);
+			filename = createResultsFile(context, inputfileName, metadataReader, "results");
+		} finally {
+			metadataReader.close();
 		}
-		logger.info("Processing: " + inputfileName);
 		
 		IHierarchicalDataFile dawbOutputReader = null;
 		IHierarchicalDataFile dawbOutputWriter = null;
 		IHierarchicalDataFile dawbBgWriter     = null;
 		try {
 			dawbOutputReader = HierarchicalDataFactory.getReader(inputfilePath);
-			final String filename = createResultsFile(context, inputfileName, inputfilePath, "results");
 			context.setResultsFile(filename);
 			dawbOutputWriter = HierarchicalDataFactory.getWriter(filename);
-			if (context.getBgName() != null) {
+			if (openBgFile && context.getBgName() != null) {
 				dawbBgWriter = HierarchicalDataFactory.getWriter(context.getBgName());
 			}
 
-			if (enableWaxs && detectorWaxs != null) {
+			if (detectorWaxs != null) {
 				processing.setBgDetector(detectorWaxs.getDetectorName()+"_result");
 				processing.setNcdDetector(detectorWaxs);
 				processing.execute(filename, monitor);
@@ -310,7 +508,7 @@ public class DataReductionServiceImpl implements IDataReductionService {
 				return Status.CANCEL_STATUS;
 			}
 
-			if (enableSaxs && detectorSaxs != null) {
+			if (detectorSaxs != null) {
 				processing.setBgDetector(detectorSaxs.getDetectorName() + "_result");
 				processing.setNcdDetector(detectorSaxs);
 				processing.execute(filename, monitor);
@@ -351,8 +549,93 @@ public class DataReductionServiceImpl implements IDataReductionService {
 		return Status.OK_STATUS; // Will then process next file, if required.
 	}
 	
-	private String createResultsFile(IDataReductionContext context, String inputfileName, String inputfilePath, String prefix) {
+	/**
+	 * Estimate memory needed for reducing the file from the size of the detector frames
+	 * that the fork/join pipeline keeps in flight
+	 */
+	protected int estimateMemoryMB(String inputfilePath, IDataReductionContext context,
+			DiffractionDetector detectorWaxs, DiffractionDetector detectorSaxs) {
+		NcdDetectors ncdDetectors = context.getNcdDetectors();
+		long bytes = 0;
+		try {
+			if (detectorWaxs != null) {
+				bytes = Math.max(bytes, estimateMemory(inputfilePath, detectorWaxs.getDetectorName(), ncdDetectors.getDimWaxs()));
+			}
+			if (detectorSaxs != null) {
+				bytes = Math.max(bytes, estimateMemory(inputfilePath, detectorSaxs.getDetectorName(), ncdDetectors.getDimSaxs()));
+			}
+		} catch (Exception e) {
+			logger.debug("SCISOFT NCD: Couldn't read detector data shape from {}", inputfilePath);
+		}
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (bytes + MB - 1) / MB));
+	}
+	
+	/**
+	 * Read detector response data shared by all files in the batch
+	 */
+	protected Dataset readDetectorResponse(String drFile, String detector) throws HDF5Exception {
+		return NcdProcessingModel.readDetectorResponse(drFile, detector);
+	}
+	
+	private long estimateMemory(String inputfilePath, String detector, int dim) throws HDF5Exception {
+		long[] frames = NcdProcessingModel.readDataShape(detector, inputfilePath);
+		long[] typeSizes = NcdProcessingModel.readDataTypeSizes(detector, inputfilePath);
+		long framePixels = 1;
+		long totalFrames = 1;
+		for (int i = 0; i < frames.length; i++) {
+			if (i < frames.length - dim) {
+				totalFrames *= frames[i];
+			} else {
+				framePixels *= frames[i];
+			}
+		}
+		long framesInFlight = Math.min(totalFrames, NcdAbstractDataForkJoinTransformer.getFrameParallelism());
+		return NcdAbstractDataForkJoinTransformer.getFrameFootprint(framePixels, typeSizes[0], typeSizes[1]) * framesInFlight;
+	}
+	
+	/**
+	 * Progress monitor wrapper that can be shared by files processed concurrently
+	 */
+	private static class SynchronizedProgressMonitor extends ProgressMonitorWrapper {
+
+		public SynchronizedProgressMonitor(IProgressMonitor monitor) {
+			super(monitor);
+		}
+
+		@Override
+		public synchronized void beginTask(String name, int totalWork) {
+			super.beginTask(name, totalWork);
+		}
+
+		@Override
+		public synchronized void done() {
+			super.done();
+		}
+
+		@Override
+		public synchronized void internalWorked(double work) {
+			super.internalWorked(work);
+		}
+
+		@Override
+		public synchronized void setTaskName(String name) {
+			super.setTaskName(name);
+		}
+
+		@Override
+		public synchronized void subTask(String name) {
+			super.subTask(name);
+		}
+
+		@Override
+		public synchronized void worked(int work) {
+			super.worked(work);
+		}
+	}
+	
+	private String createResultsFile(IDataReductionContext context, String inputfileName, NexusMetadataReader inputReader, String prefix) {
 		
+		final String inputfilePath = inputReader.getFilePath();
 		String datetime = generateDateTimeStamp();
 		String detNames = "_" + ((context.isEnableWaxs()) ? context.getWaxsDetectorName() : "") + ((context.isEnableSaxs()) ? context.getSaxsDetectorName() : "") + "_";
 		final String filename = context.getWorkingDir() + File.separator + prefix + "_" + FilenameUtils.getBaseName(inputfileName) + detNames + datetime + ".nxs";
@@ -385,16 +668,16 @@ public class DataReductionServiceImpl implements IDataReductionService {
 				H5.H5Gclose(calib_id);
 			}
 
-			writeNCDMetadata(entry_id, inputfilePath);
+			writeNCDMetadata(entry_id, inputReader);
 
-			createInstrumentNode(entry_id, inputfilePath);
+			createInstrumentNode(entry_id, inputReader);
 			
 			if (context.isEnableWaxs()) {
-				createDetectorNode(context.getWaxsDetectorName(), entry_id, inputfilePath);
+				createDetectorNode(context.getWaxsDetectorName(), entry_id, inputReader);
 			}
 
 			if (context.isEnableSaxs()) {
-				createDetectorNode(context.getSaxsDetectorName(), entry_id, inputfilePath);
+				createDetectorNode(context.getSaxsDetectorName(), entry_id, inputReader);
 			}
 
 		} catch (HDF5Exception e) {
@@ -418,14 +701,12 @@ public class DataReductionServiceImpl implements IDataReductionService {
 	}
 
 
-	private void writeNCDMetadata(long entry_id, String inputfilePath) {
+	private void writeNCDMetadata(long entry_id, NexusMetadataReader inputReader) {
 		try {
-			Tree inputFileTree = new HDF5Loader(inputfilePath).loadTree();
-
-			writeStringMetadata("/entry1/entry_identifier", "entry_identifier", entry_id, inputFileTree);
-			writeStringMetadata("/entry1/scan_command", "scan_command", entry_id, inputFileTree);
-			writeStringMetadata("/entry1/scan_identifier", "scan_identifier", entry_id, inputFileTree);
-			writeStringMetadata("/entry1/title", "title", entry_id, inputFileTree);
+			writeStringMetadata("/entry1/entry_identifier", "entry_identifier", entry_id, inputReader);
+			writeStringMetadata("/entry1/scan_command", "scan_command", entry_id, inputReader);
+			writeStringMetadata("/entry1/scan_identifier", "scan_identifier", entry_id, inputReader);
+			writeStringMetadata("/entry1/title", "title", entry_id, inputReader);
 			
 			String dawnVersion = BundleUtils.getDawnVersion();
 			String dawnString = (dawnVersion != null ?
@@ -443,40 +724,29 @@ public class DataReductionServiceImpl implements IDataReductionService {
 		}
 	}
 	
-	private void writeStringMetadata(String nodeName, String textName, long entry_id, Tree inputFileTree) throws HDF5Exception {
-		
-		Node node;
-		NodeLink nodeLink;
-		nodeLink = inputFileTree.findNodeLink(nodeName);
-		if (nodeLink != null) {
-			node = nodeLink.getDestination();
-			if (node instanceof DataNode) {
-				String text;
-				try {
-					text = DatasetUtils.sliceAndConvertLazyDataset(((DataNode) node).getDataset()).getString(0);
-				} catch (DatasetException e) {
-					throw new HDF5Exception("Could not get data from lazy dataset");
-				}
+	private void writeStringMetadata(String nodeName, String textName, long entry_id, NexusMetadataReader inputReader) throws HDF5Exception {
+		
+		String text = inputReader.readString(nodeName);
+		if (text != null) {
+			long text_type = H5.H5Tcopy(HDF5Constants.H5T_C_S1);
+			H5.H5Tset_size(text_type, text.length());
+			long text_id = NcdNexusUtils.makedata(entry_id, textName, text_type, new long[] {1});
+			long filespace_id = H5.H5Dget_space(text_id);
+			long memspace_id = H5.H5Screate_simple(1, new long[] {1}, null);
+			H5.H5Sselect_all(filespace_id);
+			H5.H5Dwrite(text_id, text_type, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT, text.getBytes());
 				
-				long text_type = H5.H5Tcopy(HDF5Constants.H5T_C_S1);
-				H5.H5Tset_size(text_type, text.length());
-				long text_id = NcdNexusUtils.makedata(entry_id, textName, text_type, new long[] {1});
-				long filespace_id = H5.H5Dget_space(text_id);
-				long memspace_id = H5.H5Screate_simple(1, new long[] {1}, null);
-				H5.H5Sselect_all(filespace_id);
-				H5.H5Dwrite(text_id, text_type, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT, text.getBytes());
-					
-				H5.H5Sclose(filespace_id);
-				H5.H5Sclose(memspace_id);
-				H5.H5Tclose(text_type);
-				H5.H5Dclose(text_id);
-			}
+			H5.H5Sclose(filespace_id);
+			H5.H5Sclose(memspace_id);
+			H5.H5Tclose(text_type);
+			H5.H5Dclose(text_id);
 		}
 	}
 
-	private void createInstrumentNode(long entry_id, String inputfilePath) throws HDF5Exception {
+	private void createInstrumentNode(long entry_id, NexusMetadataReader inputReader) throws HDF5Exception {
 		
-		long file_handle = HDF5Utils.H5Fopen(inputfilePath, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+		final String inputfilePath = inputReader.getFilePath();
+		long file_handle = inputReader.getFileID();
 		long entry_group_id = H5.H5Gopen(file_handle, "entry1", HDF5Constants.H5P_DEFAULT);
 		long instrument_group_id = H5.H5Gopen(entry_group_id, "instrument", HDF5Constants.H5P_DEFAULT);
 		
@@ -484,14 +754,14 @@ public class DataReductionServiceImpl implements IDataReductionService {
 		
 		H5.H5Gclose(instrument_group_id);
 		H5.H5Gclose(entry_group_id);
-		H5.H5Fclose(file_handle);
 	}
 	
-	private void createDetectorNode(String detector, long entry_id, String inputfilePath) throws HDF5Exception, URISyntaxException {
+	private void createDetectorNode(String detector, long entry_id, NexusMetadataReader inputReader) throws HDF5Exception, URISyntaxException {
 		
+		final String inputfilePath = inputReader.getFilePath();
 		long detector_id = NcdNexusUtils.makegroup(entry_id, detector, Nexus.DATA);
 		
-		long file_handle = HDF5Utils.H5Fopen(inputfilePath, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+		long file_handle = inputReader.getFileID();
 		long entry_group_id = H5.H5Gopen(file_handle, "entry1", HDF5Constants.H5P_DEFAULT);
 		long detector_group_id = H5.H5Gopen(entry_group_id, detector, HDF5Constants.H5P_DEFAULT);
 		long input_data_id = H5.H5Dopen(detector_group_id, "data", HDF5Constants.H5P_DEFAULT);
@@ -525,7 +795,6 @@ public class DataReductionServiceImpl implements IDataReductionService {
 						H5.H5Dclose(input_data_id);
 						H5.H5Gclose(detector_group_id);
 						H5.H5Gclose(entry_group_id);
-						H5.H5Fclose(file_handle);
 						
 						throw new HDF5Exception("File, " + lpath + ", does not exist");
 					}
@@ -551,7 +820,6 @@ public class DataReductionServiceImpl implements IDataReductionService {
 		H5.H5Dclose(input_data_id);
 		H5.H5Gclose(detector_group_id);
 		H5.H5Gclose(entry_group_id);
-		H5.H5Fclose(file_handle);
 	}
 	
 	private void putattr(long dataset_id, String name, Object value) throws HDF5Exception {
@@ -581,29 +849,20 @@ public class DataReductionServiceImpl implements IDataReductionService {
 		H5.H5Aclose(attribute_id);
 	}
 	
-	private boolean ignoreInputFile(IDataReductionContext context, String inputfilePath, String inputfileExtension) {
+	private boolean ignoreInputFile(IDataReductionContext context, NexusMetadataReader inputReader, String inputfileExtension) {
 		if (!inputfileExtension.equals("nxs")) {
 			return true;
 		}
-		Tree dataTree;
 		try {
-			dataTree = new HDF5Loader(inputfilePath).loadTree();
-		} catch (Exception e) {
-			logger.info("Error loading Nexus tree from {}", inputfilePath);
-			return true;
-		}
-		if (context.isEnableWaxs()) {
-			NodeLink node = dataTree.findNodeLink("/entry1/"+context.getWaxsDetectorName()+"/data");
-			if (node == null) {
+			if (context.isEnableWaxs() && !inputReader.exists("/entry1/"+context.getWaxsDetectorName()+"/data")) {
 				return true;
 			}
-		}
-		
-		if (context.isEnableSaxs()) {
-			NodeLink node = dataTree.findNodeLink("/entry1/"+context.getSaxsDetectorName()+"/data");
-			if (node == null) {
+			if (context.isEnableSaxs() && !inputReader.exists("/entry1/"+context.getSaxsDetectorName()+"/data")) {
 				return true;
 			}
+		} catch (Exception e) {
+			logger.info("Error reading Nexus file {}", inputReader.getFilePath());
+			return true;
 		}
 		
 		return false;
@@ -714,6 +973,9 @@ public class DataReductionServiceImpl implements IDataReductionService {
 		processing.setFrameSelection(frameSelection);
 		processing.setGridAverageSelection(gridAverage);
 		processing.setCalibration(context.getCalibrationName());
+		if (context.getPersistedStages() != null) {
+			processing.setPersistedStages(context.getPersistedStages());
+		}
 		
 		processing.setSaxsAnalysisStatsParameters(context.getSaxsAnalysisStatParameters());
 	}
@@ -790,21 +1052,20 @@ public class DataReductionServiceImpl implements IDataReductionService {
 		if (!inputfileExtension.equals("nxs")) {
 			return 1.0;
 		}
-		Tree dataTree;
+		NexusMetadataReader inputReader = new NexusMetadataReader(inputfilePath);
 		try {
-			dataTree = new HDF5Loader(inputfilePath).loadTree();
+			Double thickness = inputReader.readDouble("/entry1/sample/thickness");
+			if (thickness != null) {
+				assert "mm".equals(inputReader.readStringAttribute("/entry1/sample/thickness", "units")); //units of sample thickness must be mm
+				return thickness;
+			}
 		} catch (Exception e) {
-			logger.info("Error loading Nexus tree from {}", inputfilePath);
-			return 1.0;
-		}
-		NodeLink node = dataTree.findNodeLink("/entry1/sample/thickness");
-		if (node != null) {
+			logger.info("Error reading sample thickness from {}", inputfilePath);
+		} finally {
 			try {
-				IDataset sampleThicknessSet = ((DataNode) node.getDestination()).getDataset().getSlice();
-				assert node.getDestination().getAttribute("units").getFirstElement().equals("mm"); //units of sample thickness must be mm
-				return sampleThicknessSet.getDouble(0);
-			} catch (DatasetException e) {
-				logger.error("Error reading thickness dataset", e);
+				inputReader.close();
+			} catch (Exception e) {
+				logger.error("SCISOFT NCD: Error closing input data file", e);
 			}
 		}
 		return 1.0;
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.analysis.processing.operations.ncd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.diamond.scisoft.ncd.processing.NcdResourceCache;
+
+public class NcdResourceCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static class CountingLoader implements Callable<Object> {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Object call() throws Exception {
+			count.incrementAndGet();
+			return new Object();
+		}
+	}
+
+	private static class DatasetLoader implements Callable<Dataset> {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Dataset call() throws Exception {
+			count.incrementAndGet();
+			return DatasetFactory.zeros(DoubleDataset.class, 100);
+		}
+	}
+
+	@Test
+	public void testResourceReadOncePerRun() throws Exception {
+		File file = folder.newFile("background.nxs");
+		String path = file.getAbsolutePath();
+		NcdResourceCache cache = new NcdResourceCache(1000000);
+		CountingLoader loader = new CountingLoader();
+
+		cache.retain();
+		Object first = cache.get(Object.class, path, "/entry1/data", null, loader);
+		for (int i = 0; i < 10; i++) {
+			assertSame(first, cache.get(Object.class, path, "/entry1/data", null, loader));
+		}
+		assertEquals(1, loader.count.get());
+
+		// Different slice is a separate resource
+		cache.get(Object.class, path, "/entry1/data", "[0:1]", loader);
+		assertEquals(2, loader.count.get());
+
+		// File modification time is only checked once per run
+		file.setLastModified(file.lastModified() - 10000);
+		assertSame(first, cache.get(Object.class, path, "/entry1/data", null, loader));
+		assertEquals(2, loader.count.get());
+
+		cache.release();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+	}
+
+	@Test
+	public void testModifiedFileOutsideRun() throws Exception {
+		File file = folder.newFile("response.nxs");
+		String path = file.getAbsolutePath();
+		NcdResourceCache cache = new NcdResourceCache(1000000);
+		CountingLoader loader = new CountingLoader();
+
+		Object first = cache.get(Object.class, path, "/entry1/data", null, loader);
+		assertSame(first, cache.get(Object.class, path, "/entry1/data", null, loader));
+		assertEquals(1, loader.count.get());
+
+		// Modified file is read again
+		file.setLastModified(file.lastModified() - 10000);
+		cache.get(Object.class, path, "/entry1/data", null, loader);
+		assertEquals(2, loader.count.get());
+	}
+
+	@Test
+	public void testTypeNamespaces() throws Exception {
+		String path = folder.newFile("calibration.nxs").getAbsolutePath();
+		NcdResourceCache cache = new NcdResourceCache(1000000);
+		CountingLoader loader = new CountingLoader();
+		DatasetLoader datasetLoader = new DatasetLoader();
+
+		Object value = cache.get(Object.class, path, "/entry1/data", null, loader);
+		Dataset data = cache.get(Dataset.class, path, "/entry1/data", null, datasetLoader);
+		assertEquals(1, loader.count.get());
+		assertEquals(1, datasetLoader.count.get());
+		assertNotSame(value, data);
+		assertSame(data, cache.get(Dataset.class, path, "/entry1/data", null, datasetLoader));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testBoundedSize() throws Exception {
+		String path = folder.newFile("data.nxs").getAbsolutePath();
+		long datasetBytes = DatasetFactory.zeros(DoubleDataset.class, 100).getNbytes();
+		long maxBytes = 4 * (datasetBytes + 1024);
+		NcdResourceCache cache = new NcdResourceCache(maxBytes);
+		DatasetLoader loader = new DatasetLoader();
+		for (int i = 0; i < 10; i++) {
+			cache.get(Dataset.class, path, "/entry1/data", Integer.toString(i), loader);
+			assertTrue("Cached data fits the limit", cache.getBytes() <= maxBytes);
+		}
+		assertEquals(4, cache.size());
+
+		// Least recently used entries are evicted
+		cache.get(Dataset.class, path, "/entry1/data", "9", loader);
+		assertEquals(10, loader.count.get());
+		cache.get(Dataset.class, path, "/entry1/data", "0", loader);
+		assertEquals(11, loader.count.get());
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.analysis.processing.operations.ncd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
+import org.eclipse.dawnsci.analysis.api.processing.OperationData;
+import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
+import org.eclipse.january.dataset.BooleanDataset;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.FloatDataset;
+import org.eclipse.january.metadata.MaskMetadata;
+import org.eclipse.january.metadata.MetadataFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.diamond.scisoft.analysis.io.DiffractionMetadata;
+
+public class NcdSectorIntegrationOperationTest {
+
+	private static final int[] shape = new int[] {32, 32};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private NcdSectorIntegrationOperation operation;
+
+	@Before
+	public void createOperation() throws Exception {
+		// Calibration file without calibration results gives q-axis in pixels
+		File calibration = folder.newFile("calibration.xml");
+		FileWriter writer = new FileWriter(calibration);
+		try {
+			writer.write("<data_reduction_parameters><ncdCalibrationSourceProvider/></data_reduction_parameters>");
+		} finally {
+			writer.close();
+		}
+
+		NcdSectorIntegrationModel model = new NcdSectorIntegrationModel();
+		model.setRegion(new SectorROI(16, 16, 2, 14, 0, Math.PI));
+		model.setCalibrationPath(calibration.getAbsolutePath());
+		operation = new NcdSectorIntegrationOperation();
+		operation.setModel(model);
+		operation.init();
+	}
+
+	private static BooleanDataset createMask(int maskedPixels) {
+		BooleanDataset mask = DatasetFactory.ones(BooleanDataset.class, shape);
+		for (int i = 0; i < maskedPixels; i++) {
+			mask.set(false, 16 + i % 8, 16 + i / 8);
+		}
+		return mask;
+	}
+
+	private static Dataset createSlice(Dataset mask) throws Exception {
+		Dataset slice = DatasetFactory.createRange(FloatDataset.class, shape[0] * shape[1]).reshape(shape);
+		slice.setMetadata(MetadataFactory.createMetadata(MaskMetadata.class, mask));
+		slice.setMetadata(new DiffractionMetadata(null, DetectorProperties.getDefaultDetectorProperties(shape),
+				DiffractionCrystalEnvironment.getDefaultDiffractionCrystalEnvironment()));
+		return slice;
+	}
+
+	@Test
+	public void testSetupSharedForEqualMasks() throws Exception {
+		// Every slice carries its own copy of the mask
+		OperationData first = operation.process(createSlice(createMask(10)), null);
+		NcdSectorIntegrationOperation.IntegrationSetup setup = operation.setup;
+		assertNotNull(setup);
+
+		OperationData second = operation.process(createSlice(createMask(10)), null);
+		assertSame("Setup was rebuilt for equal mask", setup, operation.setup);
+		assertArrayEquals(first.getData().getShape(), second.getData().getShape());
+
+		operation.process(createSlice(createMask(20)), null);
+		assertNotSame("Setup wasn't rebuilt for different mask", setup, operation.setup);
+	}
+}
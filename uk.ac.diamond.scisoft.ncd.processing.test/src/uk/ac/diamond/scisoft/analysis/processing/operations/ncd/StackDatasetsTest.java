@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.analysis.processing.operations.ncd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
+import org.eclipse.january.dataset.Slice;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.ncd.processing.NcdOperationUtils;
+
+public class StackDatasetsTest {
+
+	private static final int ROWS = 5;
+	private static final int POINTS = 20;
+
+	private static List<Dataset> createProfiles(boolean withErrors) {
+		List<Dataset> profiles = new ArrayList<Dataset>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			Dataset profile = DatasetFactory.createRange(FloatDataset.class, i * POINTS, (i + 1) * POINTS, 1);
+			if (withErrors) {
+				profile.setErrorBuffer(DatasetFactory.createRange(FloatDataset.class, i, i + POINTS, 1));
+			}
+			profiles.add(profile);
+		}
+		return profiles;
+	}
+
+	@Test
+	public void testStack() throws Exception {
+		List<Dataset> profiles = createProfiles(false);
+		// Views and datasets of different types are copied as well
+		Dataset view = DatasetFactory.createRange(DoubleDataset.class, 0, 2 * POINTS, 1).getSliceView(new Slice(0, null, 2));
+		profiles.add(view);
+
+		Dataset stack = NcdOperationUtils.convertListOfDatasetsToDataset(profiles);
+		assertEquals(Dataset.FLOAT32, stack.getDType());
+		assertArrayEquals(new int[] { ROWS + 1, POINTS }, stack.getShape());
+		for (int i = 0; i < ROWS; i++) {
+			for (int j = 0; j < POINTS; j++) {
+				assertEquals(i * POINTS + j, stack.getFloat(i, j), 0.0);
+			}
+		}
+		for (int j = 0; j < POINTS; j++) {
+			assertEquals(2 * j, stack.getFloat(ROWS, j), 0.0);
+		}
+		assertNull(stack.getErrorBuffer());
+	}
+
+	@Test
+	public void testStackErrors() throws Exception {
+		Dataset stack = NcdOperationUtils.stackDatasets(createProfiles(true));
+		Dataset errorBuffer = stack.getErrorBuffer();
+		assertArrayEquals(new int[] { ROWS, POINTS }, errorBuffer.getShape());
+		for (int i = 0; i < ROWS; i++) {
+			for (int j = 0; j < POINTS; j++) {
+				assertEquals(i * POINTS + j, stack.getFloat(i, j), 0.0);
+				assertEquals(i + j, errorBuffer.getFloat(i, j), 0.0);
+			}
+		}
+
+		// Single error value is broadcast to every point of the dataset
+		List<Dataset> profiles = createProfiles(true);
+		profiles.get(2).setErrors(2.0);
+		errorBuffer = NcdOperationUtils.stackDatasets(profiles).getErrorBuffer();
+		assertArrayEquals(new int[] { ROWS, POINTS }, errorBuffer.getShape());
+		for (int i = 0; i < ROWS; i++) {
+			for (int j = 0; j < POINTS; j++) {
+				assertEquals(i == 2 ? 4.0 : i + j, errorBuffer.getDouble(i, j), 0.0);
+			}
+		}
+
+		// Errors are stacked only if available for every dataset
+		profiles = createProfiles(true);
+		profiles.get(1).setErrors(null);
+		assertNull(NcdOperationUtils.stackDatasets(profiles).getErrorBuffer());
+	}
+
+	@Test(expected = Exception.class)
+	public void testSizeMismatch() throws Exception {
+		List<Dataset> profiles = createProfiles(false);
+		profiles.add(DatasetFactory.zeros(FloatDataset.class, POINTS + 1));
+		NcdOperationUtils.convertListOfDatasetsToDataset(profiles);
+	}
+}
@@ -86,15 +86,11 @@ public class ExportNcd1dOperation extends AbstractOperation<ExportNcd1dModel, Op
 			IConversionContext context = service.open("/dls/path_to_some_hdf5_file.nxs"); //a dummy file to create context - TODO provide file-free way to create context!
 			Dataset ag = null;
 			try {
-				ag = NcdOperationUtils.convertListOfDatasetsToDataset(sliceData);
-				
-				//copy errors from input datasets
-				List<Dataset> errorDatasets = new ArrayList<Dataset>(ssm.getTotalSlices());
-				for (int i=0; i < ssm.getTotalSlices(); ++i) {
-					errorDatasets.add(i, sliceData.get(i).getErrors());
+				//stack data and errors from input datasets
+				ag = NcdOperationUtils.stackDatasets(sliceData);
+				if (ag.getErrorBuffer() == null) {
+					throw new Exception("errors are not available for all input datasets");
 				}
-				Dataset errorDataset = NcdOperationUtils.convertListOfDatasetsToDataset(errorDatasets);
-				ag.setErrors(errorDataset);
 				
 				//now set other metadata
 				ILazyDataset qAxis = sliceData.get(0).getMetadata(AxesMetadata.class).get(0).getAxis(0)[0];
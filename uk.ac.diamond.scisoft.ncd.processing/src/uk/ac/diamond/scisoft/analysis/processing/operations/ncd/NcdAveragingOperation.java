@@ -22,22 +22,25 @@ import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
-import org.eclipse.january.DatasetException;
 import org.eclipse.january.IMonitor;
-import org.eclipse.january.dataset.AggregateDataset;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
 import org.eclipse.january.dataset.IDataset;
 import org.jscience.physics.amount.Amount;
 
+import uk.ac.diamond.scisoft.ncd.core.StreamingAverage;
 import uk.ac.diamond.scisoft.ncd.core.data.stats.SaxsAnalysisStats;
 import uk.ac.diamond.scisoft.ncd.core.data.stats.SaxsAnalysisStatsParameters;
 import uk.ac.diamond.scisoft.ncd.processing.NcdOperationUtils;
 
 public class NcdAveragingOperation extends AbstractOperation<NcdAveragingModel, OperationData> implements IExportOperation {
 
-	private Dataset[] sliceData;
+	private StreamingAverage average;
+	private List<Dataset> sliceData;
+	private double[] rG;
+	private double[] rGError;
 	private int counter;
 
 	@Override
@@ -47,7 +50,10 @@ public class NcdAveragingOperation extends AbstractOperation<NcdAveragingModel,
 
 	@Override
 	public void init() {
+		average = null;
 		sliceData = null;
+		rG = null;
+		rGError = null;
 		counter = 0;
 	}
 
@@ -56,34 +62,39 @@ public class NcdAveragingOperation extends AbstractOperation<NcdAveragingModel,
 		
 		SliceFromSeriesMetadata ssm = getSliceSeriesMetadata(input);
 		
-		Dataset d = DatasetUtils.cast(input,Dataset.FLOAT64);
+		DoubleDataset d = (DoubleDataset) DatasetUtils.cast(input,Dataset.FLOAT64);
+		int totalSlices = ssm.getTotalSlices();
 		
-		if (sliceData == null) {
-			sliceData = new Dataset[ssm.getTotalSlices()];
+		if (counter == 0) {
+			average = new StreamingAverage(d.getSize());
+			if (model.isUseFiltering()) {
+				sliceData = new ArrayList<Dataset>(totalSlices);
+				rG = new double[totalSlices];
+				rGError = new double[totalSlices];
+			}
 		}
 		
-		//first accumulate all data
-		sliceData[counter] = d;
+		if (model.isUseFiltering()) {
+			//calculate Rg from GuinierPlotData - same as in GuinierOperation
+			try {
+				Object[] guinierParams = NcdOperationUtils.getGuinierPlotParameters(d);
+				Amount<Dimensionless> rGAmount = (Amount<Dimensionless>)guinierParams[1];
+				rG[counter] = rGAmount.getEstimatedValue();
+				rGError[counter] = rGAmount.getAbsoluteError();
+			} catch (Exception e) {
+				throw new OperationException(this, "Exception during Guinier calculation" + e);
+			}
+			// frame selection is only known once Rg values for all frames are available
+			sliceData.add(d);
+		} else {
+			addToAverage(d);
+		}
 		counter++;
 		
-		if (counter == ssm.getTotalSlices()) {
+		if (counter == totalSlices) {
 
 			Serializable[] filterData = null;
 			if (model.isUseFiltering()) {
-				//calculate Rg from GuinierPlotData - same as in GuinierOperation
-				double[] rG = new double[counter];
-				double[] rGError = new double[counter];
-				for (int i=0; i < counter; ++i) {
-					try {
-						Object[] guinierParams = NcdOperationUtils.getGuinierPlotParameters(sliceData[i]);
-						Amount<Dimensionless> rGAmount = (Amount<Dimensionless>)guinierParams[1];
-						rG[i] = rGAmount.getEstimatedValue();
-						rGError[i] = rGAmount.getAbsoluteError();
-					} catch (Exception e) {
-						throw new OperationException(this, "Exception during Guinier calculation" + e);
-					}
-					
-				}
 				//filter using method from NcdSaxsDataStatsForkJoinTransformer - this part from NcdDataReductionTransformer
 				String saxsSelectionAlgorithm = "Data Filter"; //TODO these parameters are from preferences in Irakli's GUI
 				String strDBSCANClustererEps = "0.1";
@@ -107,46 +118,17 @@ public class NcdAveragingOperation extends AbstractOperation<NcdAveragingModel,
 				Dataset removalFilter = NcdOperationUtils.getSaxsAnalysisStats(rgDataset, saxsAnalysisStatParams); //remove frame[i] if true
 				removalFilter.setName("Removal filter");
 				
-				List<Dataset> filteredDataset = new ArrayList<Dataset>();
 				for (int i=0; i < counter; ++i) {
 					if (removalFilter.getBoolean(i) == false) {
-						filteredDataset.add(sliceData[i]);
+						addToAverage(sliceData.get(i));
 					}
+					sliceData.set(i, null);
 				}
-				sliceData = new Dataset[filteredDataset.size()];
-				sliceData = filteredDataset.toArray(sliceData);
 				filterData = new Serializable[]{rgDataset, removalFilter};
 			}
 			
-			//after filtering (if done), do the averaging
-			AggregateDataset aggregate = new AggregateDataset(true, sliceData);
-			int numImages = sliceData.length;
-			Dataset[] errorData = new Dataset[numImages];
-			boolean hasError = false;
-			for (int i=0; i < numImages; ++i) {
-				Dataset slice = sliceData[i];
-				errorData[i] = NcdOperationUtils.getErrorBuffer(slice);
-				if (errorData[i] != null) {
-					hasError = true;
-				}
-			}
-
-			Dataset errorSum = null;
-			if (hasError) {
-				AggregateDataset aggregateErrors = new AggregateDataset(true, errorData);
-				try {
-					errorSum = aggregateErrors.getSlice().sum(0, false);
-				} catch (DatasetException e) {
-					throw new OperationException(this, e);
-				}
-			}
-
-			Dataset out;
-			try {
-				out = aggregate.getSlice().mean(0, false);
-			} catch (DatasetException e) {
-				throw new OperationException(this, e);
-			}
+			//after filtering (if done), get the average
+			Dataset out = DatasetFactory.createFromObject(average.getMean(), input.getShape());
 			copyMetadata(input, out);
 			SliceFromSeriesMetadata outsmm = ssm.clone();
 			for (int i = 0; i < ssm.getParent().getRank(); i++) {
@@ -155,11 +137,10 @@ public class NcdAveragingOperation extends AbstractOperation<NcdAveragingModel,
 				
 			}
 			out.setMetadata(outsmm);
-			if (hasError) {
-				out.setErrors(errorSum.ipower(0.5).idivide(numImages));
+			if (average.hasErrors()) {
+				out.setErrors(DatasetFactory.createFromObject(average.getErrors(), input.getShape()));
 			}
-			sliceData = null;
-			counter = 0;
+			init();
 			if (model.isUseFiltering()) {
 				return new OperationData(out, filterData);
 			}
@@ -169,6 +150,19 @@ public class NcdAveragingOperation extends AbstractOperation<NcdAveragingModel,
 		return null;
 	}
 
+	private void addToAverage(Dataset data) {
+		Dataset errors = NcdOperationUtils.getErrorBuffer(data);
+		double[] variances = (errors == null ? null : getBuffer(errors));
+		average.add(getBuffer(data), variances);
+	}
+
+	/**
+	 * Slices can be views, so copy the values into a contiguous buffer before accessing it directly
+	 */
+	private static double[] getBuffer(Dataset data) {
+		return ((DoubleDataset) DatasetUtils.cast(data, Dataset.FLOAT64).getSlice().flatten()).getData();
+	}
+
 	@Override
 	public OperationRank getInputRank() {
 		return OperationRank.ONE;
@@ -30,6 +30,7 @@ import org.eclipse.january.dataset.Slice;
 import uk.ac.diamond.scisoft.ncd.core.BackgroundSubtraction;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.processing.NcdOperationUtils;
+import uk.ac.diamond.scisoft.ncd.processing.NcdResourceCache;
 
 /**
  * Run the NCD background subtraction using the current data file for background data.
@@ -57,6 +58,16 @@ public class NcdBackgroundSubtractionFromDataOperation extends AbstractOperation
 		return OperationRank.SAME;
 	}
 	
+	@Override
+	public void init() {
+		NcdResourceCache.getInstance().retain();
+	}
+
+	@Override
+	public void dispose() {
+		NcdResourceCache.getInstance().release();
+	}
+
 	public String getDataPath(IDataset slice) throws Exception {
 		if (slice.getRank() == 2) {
 			return "/entry1/instrument/detector/data";
@@ -73,7 +84,7 @@ public class NcdBackgroundSubtractionFromDataOperation extends AbstractOperation
 		String fileToRead = getSliceSeriesMetadata(slice).getSourceInfo().getFilePath();
 
 		try {
-			background = NcdOperationUtils.getDataset(this, fileToRead, new ArrayList<String>(){{add(getDataPath(slice));}});
+			background = NcdOperationUtils.getCachedDataset(this, fileToRead, new ArrayList<String>(){{add(getDataPath(slice));}});
 			if (background == null) {
 				throw new Exception("No background dataset found");
 			}
@@ -88,7 +99,8 @@ public class NcdBackgroundSubtractionFromDataOperation extends AbstractOperation
 
 		Dataset bgSlice;
 		try {
-			bgSlice = NcdOperationUtils.getBackgroundSlice(ssm, slice, backgroundToProcess);
+			String bgPath = getDataPath(slice) + "#" + model.getImageSelectionString();
+			bgSlice = NcdOperationUtils.getBackgroundSlice(fileToRead, bgPath, ssm, slice, backgroundToProcess);
 		} catch (Exception e1) {
 			throw new OperationException(this, e1);
 		}
@@ -26,6 +26,7 @@ import org.eclipse.january.dataset.ILazyDataset;
 
 import uk.ac.diamond.scisoft.ncd.core.BackgroundSubtraction;
 import uk.ac.diamond.scisoft.ncd.processing.NcdOperationUtils;
+import uk.ac.diamond.scisoft.ncd.processing.NcdResourceCache;
 
 /**
  * Run the NCD background subtraction code.
@@ -51,6 +52,16 @@ public class NcdBackgroundSubtractionOperation extends AbstractOperation<NcdBack
 		return OperationRank.SAME;
 	}
 	
+	@Override
+	public void init() {
+		NcdResourceCache.getInstance().retain();
+	}
+
+	@Override
+	public void dispose() {
+		NcdResourceCache.getInstance().release();
+	}
+
 	public String getDataPath(IDataset slice) throws Exception {
 		if (slice.getRank() == 2) {
 			return "/entry1/instrument/detector/data";
@@ -71,7 +82,7 @@ public class NcdBackgroundSubtractionOperation extends AbstractOperation<NcdBack
 		String fileToRead = model.getFilePath();
 
 		try {
-			background = NcdOperationUtils.getDataset(this, fileToRead, new ArrayList<String>(){{add(getDataPath(slice));}});
+			background = NcdOperationUtils.getCachedDataset(this, fileToRead, new ArrayList<String>(){{add(getDataPath(slice));}});
 			if (background == null) {
 				throw new Exception("No background dataset found");
 			}
@@ -84,15 +95,17 @@ public class NcdBackgroundSubtractionOperation extends AbstractOperation<NcdBack
 
 		Dataset bgSlice;
 		try {
-			bgSlice = NcdOperationUtils.getBackgroundSlice(ssm, slice, background);
+			bgSlice = NcdOperationUtils.getBackgroundSlice(fileToRead, getDataPath(slice), ssm, slice, background);
 		} catch (Exception e1) {
 			throw new OperationException(this, e1);
 		}
 		
 		if (model.getBgScale() != 0 && model.getBgScale() != Double.NaN) {
+			// Background can be cached, so scale a copy
 			double bgScaling = model.getBgScale();
+			DoubleDataset bgErrors = (DoubleDataset) bgSlice.getErrorBuffer().clone();
+			bgSlice = bgSlice.clone();
 			bgSlice.imultiply(bgScaling);
-			DoubleDataset bgErrors = (DoubleDataset) bgSlice.getErrorBuffer();
 			bgErrors.imultiply(bgScaling * bgScaling);
 			bgSlice.setErrorBuffer(bgErrors);
 		}
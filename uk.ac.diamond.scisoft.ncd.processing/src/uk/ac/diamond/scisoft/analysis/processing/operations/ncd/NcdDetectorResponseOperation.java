@@ -10,6 +10,7 @@
 package uk.ac.diamond.scisoft.analysis.processing.operations.ncd;
 
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
@@ -25,6 +26,7 @@ import org.eclipse.january.dataset.IntegerDataset;
 
 import uk.ac.diamond.scisoft.ncd.core.DetectorResponse;
 import uk.ac.diamond.scisoft.ncd.processing.NcdOperationUtils;
+import uk.ac.diamond.scisoft.ncd.processing.NcdResourceCache;
 
 public class NcdDetectorResponseOperation extends AbstractOperation<NcdDetectorResponseModel, OperationData> {
 	
@@ -45,17 +47,36 @@ public class NcdDetectorResponseOperation extends AbstractOperation<NcdDetectorR
 		return OperationRank.SAME;
 	}
 	
+	@Override
+	public void init() {
+		NcdResourceCache.getInstance().retain();
+	}
+
+	@Override
+	public void dispose() {
+		NcdResourceCache.getInstance().release();
+	}
+
 	@Override
 	public OperationData process(IDataset slice, IMonitor monitor) throws OperationException {
-		DetectorResponse response = new DetectorResponse();
+		DetectorResponse response;
 		try {
-			@SuppressWarnings("serial")
-			Dataset loadedSet = DatasetUtils.sliceAndConvertLazyDataset(NcdOperationUtils.getDataset(this, model.getFilePath(),
-					new ArrayList<String>() {{add("/entry1/instrument/detector/data");}}));
-			if (loadedSet == null) {
-				throw new Exception("No detector response dataset found");
-			}
-			response.setResponse(loadedSet.squeeze().getSlice());
+			// Detector response is read once per run and shared between slices
+			response = NcdResourceCache.getInstance().get(DetectorResponse.class, model.getFilePath(), "/entry1/instrument/detector/data", null,
+					new Callable<DetectorResponse>() {
+						@SuppressWarnings("serial")
+						@Override
+						public DetectorResponse call() throws Exception {
+							Dataset loadedSet = DatasetUtils.sliceAndConvertLazyDataset(NcdOperationUtils.getDataset(NcdDetectorResponseOperation.this, model.getFilePath(),
+									new ArrayList<String>() {{add("/entry1/instrument/detector/data");}}));
+							if (loadedSet == null) {
+								throw new Exception("No detector response dataset found");
+							}
+							DetectorResponse detectorResponse = new DetectorResponse();
+							detectorResponse.setResponse(loadedSet.squeeze().getSlice());
+							return detectorResponse;
+						}
+					});
 		} catch (Exception e) {
 			throw new OperationException(this, e);
 		}
@@ -34,10 +34,8 @@ import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
 import org.eclipse.january.IMonitor;
 import org.eclipse.january.MetadataException;
 import org.eclipse.january.dataset.Dataset;
-import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DatasetUtils;
 import org.eclipse.january.dataset.DoubleDataset;
-import org.eclipse.january.dataset.FloatDataset;
 import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.metadata.AxesMetadata;
 import org.eclipse.january.metadata.MaskMetadata;
@@ -48,11 +46,12 @@ import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVector;
 import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVectorOverDistance;
 import uk.ac.diamond.scisoft.analysis.processing.io.NexusNcdMetadataReader;
 import uk.ac.diamond.scisoft.analysis.processing.io.QAxisCalibration;
-import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
 import uk.ac.diamond.scisoft.ncd.core.SectorIntegration;
+import uk.ac.diamond.scisoft.ncd.core.data.MaskSignature;
 import uk.ac.diamond.scisoft.ncd.core.data.NcdDetectorSettings;
 import uk.ac.diamond.scisoft.ncd.core.rcp.NcdCalibrationSourceProvider;
 import uk.ac.diamond.scisoft.ncd.core.rcp.NcdSourceProviderAdapter;
+import uk.ac.diamond.scisoft.ncd.core.utils.QAxisCalculator;
 import uk.ac.diamond.scisoft.ncd.processing.NcdOperationUtils;
 
 public class NcdSectorIntegrationOperation extends AbstractOperation<NcdSectorIntegrationModel, OperationData> {
@@ -72,48 +71,76 @@ public class NcdSectorIntegrationOperation extends AbstractOperation<NcdSectorIn
 		return OperationRank.ONE;
 	}
 	
-	@Override
-	public OperationData process(IDataset slice, IMonitor monitor) throws OperationException {
-		IROI roi = model.getRegion();
-		if (model.getRegion() == null) {
-			try {
-				NexusNcdMetadataReader reader = new NexusNcdMetadataReader(model.getFilePath());
-				roi = reader.getROIDataFromFile();
-				if (roi == null) {
-					throw new Exception("ROI must be defined for this operation");
-				}
-			} catch (Exception e) {
-				throw new OperationException(this, e);
-			}
-		}
+	/**
+	 * Integration settings shared by all slices processed in a run. Instances are immutable,
+	 * and the contained datasets must not be modified.
+	 */
+	static final class IntegrationSetup {
+		private final int[] areaShape;
+		private final MaskSignature mask;
+		private final double pxSize;
 
-		if (!(roi instanceof SectorROI)) {
-			throw new OperationException(this, new IllegalArgumentException("The ROI must be a sector ROI"));
+		private final SectorROI sectorRoi;
+		private final boolean calculateAzimuthal;
+		private final Dataset[] areaData;
+		private final Dataset maskDataset;
+		private final Dataset qaxis;
+
+		public IntegrationSetup(int[] areaShape, Dataset maskSource, double pxSize, SectorROI sectorRoi,
+				boolean calculateAzimuthal, Dataset[] areaData, Dataset maskDataset, Dataset qaxis) {
+			this.areaShape = areaShape;
+			this.mask = new MaskSignature(maskSource);
+			this.pxSize = pxSize;
+			this.sectorRoi = sectorRoi;
+			this.calculateAzimuthal = calculateAzimuthal;
+			this.areaData = areaData;
+			this.maskDataset = maskDataset;
+			this.qaxis = qaxis;
 		}
-		SectorROI sectorRoi = (SectorROI) roi;
-		if (!sectorRoi.checkSymmetry(sectorRoi.getSymmetry())){
-			throw new OperationException(this, new IllegalArgumentException("The symmetry is not compatible with the ROI"));
+
+		public boolean matches(int[] areaShape, Dataset maskSource, double pxSize) {
+			return Arrays.equals(this.areaShape, areaShape) && Double.compare(this.pxSize, pxSize) == 0
+					&& mask.matches(maskSource);
 		}
-		sectorRoi.setAverageArea(false);
-		sectorRoi.setClippingCompensation(true);
-		model.setRegion(sectorRoi);
-		
-		SectorIntegration sec = new SectorIntegration();
+	}
+
+	volatile IntegrationSetup setup;
+
+	@Override
+	public void init() {
+		setup = null;
+	}
+
+	@Override
+	public void dispose() {
+		setup = null;
+	}
+
+	@Override
+	public OperationData process(IDataset slice, IMonitor monitor) throws OperationException {
 		int[] frames = NcdOperationUtils.addDimension(slice.getShape());
 		int dimension = 2; //should match input rank
 		int[] areaShape = (int[]) ConvertUtils.convert(
 				Arrays.copyOfRange(frames, frames.length - dimension, frames.length), int[].class);
 		List<MaskMetadata> mask;
+		IDiffractionMetadata dif;
 		try {
 			mask = slice.getMetadata(MaskMetadata.class);
+			if (slice.getMetadata(IDiffractionMetadata.class) == null) {
+				throw new Exception("Diffraction metadata is required for this operation - add an Import Detector Calibration operation before this sector integration");
+			}
+			dif = getFirstDiffractionMetadata(slice);
 		} catch (Exception e) {
 			throw new OperationException(this, e);
 		}
 		
-		Dataset maskDataset = null;
+		Dataset maskSource = null;
 		if (mask != null) {
-			maskDataset = DatasetUtils.convertToDataset(mask.get(0).getMask()).getSlice();
+			// Area normalisation is cached for the mask contents, so slices can carry their own mask copies
+			maskSource = DatasetUtils.convertToDataset(mask.get(0).getMask());
 		}
+		IntegrationSetup current = getSetup(areaShape, maskSource, dif);
+		
 		Dataset sliceDataset = DatasetUtils.convertToDataset(slice.getSliceView());
 		
 		sliceDataset.resize(NcdOperationUtils.addDimension(sliceDataset.getShape()));
@@ -122,25 +149,18 @@ public class NcdSectorIntegrationOperation extends AbstractOperation<NcdSectorIn
 		sliceDataset.setErrors(sliceErrors);
 		if (!sliceDataset.hasErrors()) {
 			// Use counting statistics if no input error estimates are available 
-			DoubleDataset inputErrorsBuffer = sliceDataset.clone().cast(DoubleDataset.class);
+			DoubleDataset inputErrorsBuffer = (sliceDataset instanceof DoubleDataset ? (DoubleDataset) sliceDataset.clone()
+					: sliceDataset.cast(DoubleDataset.class));
 			sliceDataset.setErrorBuffer(inputErrorsBuffer);
 		}
 
-		boolean calculateAzimuthal;
-		if (model.getAzimuthalOrRadialIntegration().equals(NcdSectorIntegrationModel.IntegrationOperationName.azimuthal)) {
-			calculateAzimuthal = false; //azimuthal integration, so calculate radial profile
-		}
-		else {
-			calculateAzimuthal = true;
-		}
-		Dataset[] areaData = ROIProfile.area(areaShape, Dataset.FLOAT32, maskDataset, sectorRoi, !calculateAzimuthal, calculateAzimuthal, false);
-
-		sec.setAreaData(areaData);
-		sec.setCalculateRadial(!calculateAzimuthal);
-		sec.setCalculateAzimuthal(calculateAzimuthal);
-		sec.setROI(sectorRoi);
+		SectorIntegration sec = new SectorIntegration();
+		sec.setAreaData(current.areaData);
+		sec.setCalculateRadial(!current.calculateAzimuthal);
+		sec.setCalculateAzimuthal(current.calculateAzimuthal);
+		sec.setROI(current.sectorRoi);
 		
-		Dataset[] mydata = sec.process(sliceDataset, 1, maskDataset);
+		Dataset[] mydata = sec.process(sliceDataset, 1, current.maskDataset);
 		int resLength = slice.getShape().length - dimension + 1;
 
 		int dataIndex;
@@ -151,48 +171,114 @@ public class NcdSectorIntegrationOperation extends AbstractOperation<NcdSectorIn
 		else {
 			dataIndex = 1;
 		}
-		Dataset myraddata = DatasetUtils.cast(mydata[dataIndex], Dataset.FLOAT32);
+		// Integration results are created for every slice, so they are returned without copying
+		Dataset myres = DatasetUtils.cast(mydata[dataIndex], Dataset.FLOAT32);
 		Dataset myraderrors = null;
-		if (myraddata != null) {
-			if (myraddata.hasErrors()) {
-				myraderrors = NcdOperationUtils.getErrorBuffer(mydata[dataIndex]);
+		if (myres.hasErrors()) {
+			myraderrors = DatasetUtils.cast(NcdOperationUtils.getErrorBuffer(mydata[dataIndex]), Dataset.FLOAT64);
+		}
+		int[] resRadShape = Arrays.copyOf(slice.getShape(), resLength);
+		resRadShape[resLength - 1] = myres.getShape()[myres.getRank() - 1];
+		myres = myres.reshape(resRadShape);
+		if (myraderrors != null) {
+			myraderrors = myraderrors.reshape(resRadShape);
+			myres.setErrorBuffer(myraderrors);
+		}
+
+		Dataset qaxis = current.qaxis;
+		int numPoints = resRadShape[resLength - 1];
+		if (qaxis == null || qaxis.getSize() != numPoints) {
+			qaxis = calculateQaxisDataset(getQAxisCalibration(null), dif, myres.getShape(), current.sectorRoi);
+		}
+		OperationData toReturn = new OperationData();
+		AxesMetadata axes;
+		try {
+			axes = MetadataFactory.createMetadata(AxesMetadata.class, 1);
+		} catch (MetadataException e) {
+			throw new OperationException(this, e);
+		}
+		axes.setAxis(0, qaxis);
+		myres.setMetadata(axes);
+		toReturn.setData(myres);
+		return toReturn;
+	}
+	
+	/**
+	 * Get integration settings for the current run. Sector region, area normalisation data,
+	 * mask and q-axis are set up when the first slice is processed and are rebuilt only
+	 * if image shape, mask contents or detector pixel size change.
+	 */
+	private IntegrationSetup getSetup(int[] areaShape, Dataset maskSource, IDiffractionMetadata dif) {
+		double pxSize = dif.getOriginalDetector2DProperties().getHPxSize();
+		IntegrationSetup current = setup;
+		if (current != null && current.matches(areaShape, maskSource, pxSize)) {
+			return current;
+		}
+		synchronized (this) {
+			current = setup;
+			if (current != null && current.matches(areaShape, maskSource, pxSize)) {
+				return current;
+			}
+			
+			IROI roi = model.getRegion();
+			NexusNcdMetadataReader reader = null;
+			if (roi == null) {
+				try {
+					reader = new NexusNcdMetadataReader(model.getFilePath());
+					roi = reader.getROIDataFromFile();
+					if (roi == null) {
+						throw new Exception("ROI must be defined for this operation");
+					}
+				} catch (Exception e) {
+					throw new OperationException(this, e);
+				}
+			}
+
+			if (!(roi instanceof SectorROI)) {
+				throw new OperationException(this, new IllegalArgumentException("The ROI must be a sector ROI"));
+			}
+			SectorROI sectorRoi = (SectorROI) roi;
+			if (!sectorRoi.checkSymmetry(sectorRoi.getSymmetry())){
+				throw new OperationException(this, new IllegalArgumentException("The symmetry is not compatible with the ROI"));
 			}
-			int[] resRadShape = Arrays.copyOf(slice.getShape(), resLength);
-			resRadShape[resLength - 1] = myraddata.getShape()[myraddata.getRank() - 1];
-			myraddata = myraddata.reshape(resRadShape);
-			if (myraderrors != null) {
-				myraderrors = myraderrors.reshape(resRadShape);
-				myraddata.setErrorBuffer(myraderrors);
+			sectorRoi.setAverageArea(false);
+			sectorRoi.setClippingCompensation(true);
+			model.setRegion(sectorRoi);
+
+			boolean calculateAzimuthal;
+			if (model.getAzimuthalOrRadialIntegration().equals(NcdSectorIntegrationModel.IntegrationOperationName.azimuthal)) {
+				calculateAzimuthal = false; //azimuthal integration, so calculate radial profile
+			}
+			else {
+				calculateAzimuthal = true;
 			}
+			Dataset[] areaData = SectorIntegration.getAreaData(areaShape, sectorRoi, maskSource, !calculateAzimuthal, calculateAzimuthal, false);
+			Dataset maskDataset = (maskSource != null ? maskSource.getSlice() : null);
+
+			// Profile length is given by the number of area normalisation bins
+			Dataset qaxis = null;
+			Dataset area = areaData[calculateAzimuthal ? 1 : 0];
+			if (area != null) {
+				int[] profileShape = new int[] { area.getSize() };
+				qaxis = calculateQaxisDataset(getQAxisCalibration(reader), dif, profileShape, sectorRoi);
+			}
+
+			current = new IntegrationSetup(areaShape, maskSource, pxSize, sectorRoi, calculateAzimuthal,
+					areaData, maskDataset, qaxis);
+			setup = current;
+			return current;
 		}
+	}
 
-		Dataset qaxis = null;
+	private QAxisCalibration getQAxisCalibration(NexusNcdMetadataReader reader) {
 		try {
-			if (slice.getMetadata(IDiffractionMetadata.class) == null) {
-				throw new Exception("Diffraction metadata is required for this operation - add an Import Detector Calibration operation before this sector integration");
+			if (reader == null) {
+				reader = new NexusNcdMetadataReader(model.getFilePath());
 			}
-			NexusNcdMetadataReader reader = new NexusNcdMetadataReader(model.getFilePath());
-			qaxis = calculateQaxisDataset(reader.getQAxisCalibrationFromFile(), getFirstDiffractionMetadata(slice), myraddata.getShape(), (SectorROI)model.getRegion());
+			return reader.getQAxisCalibrationFromFile();
 		} catch (Exception e) {
 			throw new OperationException(this, e);
 		}
-		OperationData toReturn = new OperationData();
-		Dataset myres = myraddata.clone();
-		if (myraderrors != null) {
-			myres.setErrorBuffer(myraderrors.clone().cast(Dataset.FLOAT64));
-		}
-		if (qaxis != null) {
-			AxesMetadata axes;
-			try {
-				axes = MetadataFactory.createMetadata(AxesMetadata.class, 1);
-			} catch (MetadataException e) {
-				throw new OperationException(this, e);
-			}
-			axes.setAxis(0, qaxis);
-			myres.setMetadata(axes);
-		}
-		toReturn.setData(myres);
-		return toReturn;
 	}
 	
 	/**
@@ -202,7 +288,6 @@ public class NcdSectorIntegrationOperation extends AbstractOperation<NcdSectorIn
 	private Dataset calculateQaxisDataset(QAxisCalibration cal, IDiffractionMetadata dif, int[] datasetShape, SectorROI intSector) {
 		
 		Dataset qaxis = null;
-		Dataset qaxisErr = null;
 		
 		if (dif == null) {
 			throw new OperationException(this, new Exception("No diffraction metadata available"));
@@ -239,16 +324,9 @@ public class NcdSectorIntegrationOperation extends AbstractOperation<NcdSectorIn
 		int[] secFrames = datasetShape;
 		int numPoints = (int) secFrames[secFrames.length - 1];
 		if (gradient != null &&	intercept != null && pxSize != null &&	axisUnit != null) {
-			qaxis = DatasetFactory.zeros(FloatDataset.class, numPoints);
-			qaxisErr = DatasetFactory.zeros(FloatDataset.class, numPoints);
 			double d2bs = intSector.getRadii()[0];
-			for (int i = 0; i < numPoints; i++) {
-				Amount<ScatteringVector> amountQaxis = gradient.times(i + d2bs).times(pxSize).plus(intercept)
-						.to(axisUnit);
-				qaxis.set(amountQaxis.getEstimatedValue(), i);
-				qaxisErr.set(amountQaxis.getAbsoluteError(), i);
-			}
-			qaxis.setErrors(qaxisErr);
+			QAxisCalculator calculator = new QAxisCalculator(gradient, intercept, pxSize, axisUnit);
+			qaxis = calculator.createDataset(numPoints, d2bs, true);
 			qaxis.setName("q");
 			return qaxis;
 		}
@@ -23,9 +23,9 @@ import org.eclipse.january.dataset.IDataset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import uk.ac.diamond.scisoft.analysis.processing.operations.utils.ProcessingUtils;
 import uk.ac.diamond.scisoft.ncd.core.Normalisation;
 import uk.ac.diamond.scisoft.ncd.processing.NcdOperationUtils;
+import uk.ac.diamond.scisoft.ncd.processing.NcdResourceCache;
 
 public class NormalisationOperation extends AbstractOperation<NormalisationModel, OperationData> {
 
@@ -55,6 +55,7 @@ public class NormalisationOperation extends AbstractOperation<NormalisationModel
 	
 	@Override
 	public void init() {
+		NcdResourceCache.getInstance().retain();
 		if (!model.isThicknessFromFileIsDefault()) {
 			if (model.getThickness() > 0) {
 				thickness = model.getThickness();
@@ -71,6 +72,12 @@ public class NormalisationOperation extends AbstractOperation<NormalisationModel
 			absScale = model.getAbsScale();
 		}
 	}
+
+	@Override
+	public void dispose() {
+		NcdResourceCache.getInstance().release();
+	}
+
 	@Override
 	public OperationData process(IDataset slice, IMonitor monitor) throws OperationException {
 		Normalisation norm = new Normalisation();
@@ -85,7 +92,7 @@ public class NormalisationOperation extends AbstractOperation<NormalisationModel
 		if (model.isThicknessFromFileIsDefault()) {
 			//use value from dataset if > 0
 			String dataFile = getSliceSeriesMetadata(slice).getSourceInfo().getFilePath();
-			IDataset thicknessDataset = ProcessingUtils.getDataset(this, dataFile, ENTRY1_SAMPLE_THICKNESS);
+			IDataset thicknessDataset = getCachedDataset(dataFile, ENTRY1_SAMPLE_THICKNESS);
 			
 			thickness = thicknessDataset.getDouble();
 			
@@ -139,7 +146,7 @@ public class NormalisationOperation extends AbstractOperation<NormalisationModel
 				throw new IllegalArgumentException("Calibration default path not used, but no data path defined");
 			}
 		}
-		calibration = ProcessingUtils.getDataset(this, calibDataFile, calibDataPath);
+		calibration = getCachedDataset(calibDataFile, calibDataPath);
 		SliceFromSeriesMetadata ssm = getSliceSeriesMetadata(slice);
 		
 		Dataset calibrationSlice;
@@ -181,7 +188,15 @@ public class NormalisationOperation extends AbstractOperation<NormalisationModel
 
 	private double getAbsScale(IDataset slice) {
 		String originalFile = getSliceSeriesMetadata(slice).getSourceInfo().getFilePath();
-		IDataset d = ProcessingUtils.getDataset(this, originalFile, ENTRY1_DETECTOR_SCALING_FACTOR);
+		IDataset d = getCachedDataset(originalFile, ENTRY1_DETECTOR_SCALING_FACTOR);
 		return d.getDouble();
 	}
+
+	private IDataset getCachedDataset(String file, String path) throws OperationException {
+		try {
+			return NcdOperationUtils.getCachedDataset(this, file, path);
+		} catch (Exception e) {
+			throw new OperationException(this, e);
+		}
+	}
 }
@@ -12,6 +12,7 @@ package uk.ac.diamond.scisoft.ncd.processing;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.eclipse.dawnsci.analysis.api.processing.IOperation;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
@@ -19,6 +20,7 @@ import org.eclipse.january.DatasetException;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.DoubleDataset;
 import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.ILazyDataset;
 import org.eclipse.january.dataset.IndexIterator;
@@ -108,6 +110,30 @@ public class NcdOperationUtils {
 		return mydata;
 	}
 	
+	/**
+	 * Get dataset using {@link #getDataset(IOperation, String, List)} through the resource cache
+	 */
+	public static ILazyDataset getCachedDataset(final IOperation<?, ?> op, final String fileToRead, final List<String> dataPathsToTry) throws Exception {
+		return NcdResourceCache.getInstance().get(ILazyDataset.class, fileToRead, dataPathsToTry.toString(), null, new Callable<ILazyDataset>() {
+			@Override
+			public ILazyDataset call() throws Exception {
+				return getDataset(op, fileToRead, new ArrayList<String>(dataPathsToTry));
+			}
+		});
+	}
+	
+	/**
+	 * Get dataset using ProcessingUtils.getDataset through the resource cache
+	 */
+	public static IDataset getCachedDataset(final IOperation<?, ?> op, final String fileToRead, final String dataPath) throws Exception {
+		return NcdResourceCache.getInstance().get(IDataset.class, fileToRead, dataPath, null, new Callable<IDataset>() {
+			@Override
+			public IDataset call() throws Exception {
+				return ProcessingUtils.getDataset(op, fileToRead, dataPath);
+			}
+		});
+	}
+	
 	/**
 	 * Provide an easy way to get the errorBuffer because only error may be defined
 	 * @param data
@@ -155,6 +181,27 @@ public class NcdOperationUtils {
 		return bgSlice;
 	}
 	
+	/**
+	 * Get background slice through the resource cache. Only backgrounds used as a whole for every data slice
+	 * are cached, as per-slice backgrounds are only read once.
+	 * 
+	 * @param filePath
+	 *            - background data file
+	 * @param dataPath
+	 *            - background dataset identifier in the file
+	 */
+	public static Dataset getBackgroundSlice(String filePath, String dataPath, final SliceFromSeriesMetadata ssm, final IDataset slice, final ILazyDataset background) throws Exception {
+		if (Arrays.equals(ShapeUtils.squeezeShape(slice.getShape(), false), ShapeUtils.squeezeShape(background.getShape(), false))) {
+			return NcdResourceCache.getInstance().get(Dataset.class, filePath, dataPath, Arrays.toString(background.getShape()), new Callable<Dataset>() {
+				@Override
+				public Dataset call() throws Exception {
+					return getBackgroundSlice(ssm, slice, background);
+				}
+			});
+		}
+		return getBackgroundSlice(ssm, slice, background);
+	}
+	
 	private static int getNumberOfImages(ILazyDataset backgroundToProcess2, SliceFromSeriesMetadata ssm, IDataset slice) {
 		//find location of data dimensions in origin, see if we have them in background
 		ILazyDataset origin = ssm.getParent();
@@ -204,25 +251,62 @@ public class NcdOperationUtils {
 		return totalSize;
 	}
 	
+	/**
+	 * Stack datasets of the same size into a 2D dataset with one row per input dataset.
+	 * Each row is copied from the input buffer with a single bulk copy.
+	 */
 	public static Dataset convertListOfDatasetsToDataset(List<Dataset> ag) throws Exception {
-		Dataset first = null;
+		Dataset first = ag.get(0);
+		int size = first.getSize();
+		int dtype = first.getDType();
 		for (Dataset dataset : ag) {
-			if (first == null) {
-				first = dataset;
-			}
-			if (dataset.getSize() != first.getSize()) {
+			if (dataset.getSize() != size) {
 				throw new Exception("all component datasets must be the same size");
 			}
 		}
-		Dataset newDataset = DatasetFactory.zeros(new int[] {ag.size(), first.getSize()}, first.getDType());
-		for (int i=0; i < ag.size(); ++i) {
+		Dataset newDataset = DatasetFactory.zeros(new int[] {ag.size(), size}, dtype);
+		Object buffer = newDataset.getBuffer();
+		int isize = newDataset.getElementsPerItem();
+		for (int i = 0; i < ag.size(); ++i) {
 			Dataset dataset = ag.get(i);
-			for (int j=0; j < dataset.getSize(); ++j) {
-				newDataset.set(dataset.getObject(j), i, j);
+			if (dataset.getDType() != dtype) {
+				dataset = dataset.cast(dtype);
+			}
+			// Views share a larger buffer, so they are copied into a contiguous one first
+			if (dataset.getStrides() != null) {
+				dataset = dataset.getSlice();
+			}
+			if (dataset.getElementsPerItem() != isize) {
+				throw new Exception("all component datasets must have the same number of elements per item");
 			}
+			System.arraycopy(dataset.getBuffer(), 0, buffer, i * size * isize, size * isize);
 		}
 		return newDataset;
 	}
+	
+	/**
+	 * Stack datasets using {@link #convertListOfDatasetsToDataset(List)}. Error buffers are stacked
+	 * into the error buffer of the result if every input dataset has errors.
+	 */
+	public static Dataset stackDatasets(List<Dataset> datasets) throws Exception {
+		Dataset stack = convertListOfDatasetsToDataset(datasets);
+		List<Dataset> errorBuffers = new ArrayList<Dataset>(datasets.size());
+		for (Dataset dataset : datasets) {
+			Dataset errorBuffer = dataset.getErrorBuffer();
+			if (errorBuffer == null) {
+				return stack;
+			}
+			if (errorBuffer.getSize() == 1 && dataset.getSize() != 1) {
+				// Errors set with a single value are broadcast to the dataset shape
+				Dataset expanded = DatasetFactory.zeros(DoubleDataset.class, dataset.getShape());
+				expanded.fill(errorBuffer.getElementDoubleAbs(0));
+				errorBuffer = expanded;
+			}
+			errorBuffers.add(errorBuffer);
+		}
+		stack.setErrorBuffer(convertListOfDatasetsToDataset(errorBuffers));
+		return stack;
+	}
 
 	/**
 	 * Class to hold the three parameters from fitting the Porod constant
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.ncd.processing;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.IDataset;
+
+import uk.ac.diamond.scisoft.ncd.core.DetectorResponse;
+
+/**
+ * Cache for static inputs of NCD processing operations, e.g. background, detector response
+ * and calibration data, so that they are read once per processing run rather than for every slice.
+ * <p>
+ * Entries are keyed by value type, file path, dataset path, slice description and file modification time.
+ * Modification time of every file is checked once per run, while the cache is retained, and on every
+ * request otherwise. Operations retain the cache when initialised and release it when disposed.
+ * All entries are dropped when the last operation releases the cache. Least recently used entries
+ * are evicted when the estimated size of the cached data exceeds the limit.
+ * Cached objects are shared between threads and operations, and must not be modified.
+ */
+public class NcdResourceCache {
+
+	// Nominal size of values which don't hold data buffers, e.g. lazy datasets
+	private static final long ENTRY_BYTES = 1024;
+
+	private static final NcdResourceCache instance = new NcdResourceCache(Runtime.getRuntime().maxMemory() / 8);
+
+	private final long maxBytes;
+	private final Map<Key, Entry> entries;
+	private final Map<String, Long> modifiedTimes;
+	private long bytes;
+	private int users;
+
+	/**
+	 * @param maxBytes
+	 *            - limit on the estimated size of the cached data
+	 */
+	public NcdResourceCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		modifiedTimes = new HashMap<String, Long>();
+	}
+
+	public static NcdResourceCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Register operation run using the cache
+	 */
+	public synchronized void retain() {
+		users++;
+	}
+
+	/**
+	 * Unregister operation run and clear cache if it is not used anymore
+	 */
+	public synchronized void release() {
+		users = Math.max(0, users - 1);
+		if (users == 0) {
+			clear();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		modifiedTimes.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return estimated size of the cached data in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get cached resource or load it. Concurrent requests for the same resource wait for a single load.
+	 * Failed loads are not cached.
+	 *
+	 * @param type
+	 *            - type of the resource. Resources of different types are cached separately.
+	 * @param filePath
+	 *            - file containing the resource
+	 * @param dataPath
+	 *            - path of the dataset in the file
+	 * @param slice
+	 *            - description of the selected data slice. Can be null if the full dataset is used.
+	 * @param loader
+	 *            - reads the resource if it isn't available in the cache
+	 * @return cached resource
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Class<T> type, String filePath, String dataPath, String slice, Callable<? extends T> loader) throws Exception {
+		Key key = new Key(type, filePath, dataPath, slice, getModified(filePath));
+		Entry entry;
+		boolean load = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(new FutureTask<Object>((Callable<Object>) loader));
+				entries.put(key, entry);
+				load = true;
+			}
+		}
+		if (load) {
+			entry.task.run();
+		}
+		Object value;
+		try {
+			value = entry.task.get();
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				if (entries.get(key) == entry) {
+					entries.remove(key);
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+		if (load) {
+			long size = estimateBytes(value);
+			synchronized (this) {
+				if (entries.get(key) == entry) {
+					entry.bytes = size;
+					bytes += size;
+					evict(entry);
+				}
+			}
+		}
+		return type.cast(value);
+	}
+
+	private long getModified(String filePath) {
+		if (filePath == null) {
+			return 0;
+		}
+		synchronized (this) {
+			Long modified = modifiedTimes.get(filePath);
+			if (modified == null) {
+				modified = new File(filePath).lastModified();
+				if (users > 0) {
+					modifiedTimes.put(filePath, modified);
+				}
+			}
+			return modified;
+		}
+	}
+
+	/**
+	 * Remove least recently used entries until the cached data fits the limit
+	 */
+	private void evict(Entry keep) {
+		Iterator<Entry> itr = entries.values().iterator();
+		while (bytes > maxBytes && itr.hasNext()) {
+			Entry entry = itr.next();
+			if (entry != keep && entry.task.isDone()) {
+				itr.remove();
+				bytes -= entry.bytes;
+			}
+		}
+	}
+
+	private static long estimateBytes(Object value) {
+		if (value instanceof DetectorResponse) {
+			return estimateBytes(((DetectorResponse) value).getResponse());
+		}
+		if (value instanceof IDataset) {
+			Dataset data = DatasetUtils.convertToDataset((IDataset) value);
+			long size = data.getNbytes();
+			if (data.getErrors() != null) {
+				size += DatasetUtils.convertToDataset(data.getErrors()).getNbytes();
+			}
+			return size + ENTRY_BYTES;
+		}
+		return ENTRY_BYTES;
+	}
+
+	private static class Entry {
+		private final FutureTask<Object> task;
+		private long bytes;
+
+		public Entry(FutureTask<Object> task) {
+			this.task = task;
+		}
+	}
+
+	private static class Key {
+		private final Class<?> type;
+		private final String filePath;
+		private final String dataPath;
+		private final String slice;
+		private final long modified;
+
+		public Key(Class<?> type, String filePath, String dataPath, String slice, long modified) {
+			this.type = type;
+			this.filePath = filePath;
+			this.dataPath = dataPath;
+			this.slice = slice;
+			this.modified = modified;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + type.hashCode();
+			result = prime * result + ((filePath == null) ? 0 : filePath.hashCode());
+			result = prime * result + ((dataPath == null) ? 0 : dataPath.hashCode());
+			result = prime * result + ((slice == null) ? 0 : slice.hashCode());
+			result = prime * result + (int) (modified ^ (modified >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return modified == other.modified && type == other.type
+					&& (filePath == null ? other.filePath == null : filePath.equals(other.filePath))
+					&& (dataPath == null ? other.dataPath == null : dataPath.equals(other.dataPath))
+					&& (slice == null ? other.slice == null : slice.equals(other.slice));
+		}
+	}
+}
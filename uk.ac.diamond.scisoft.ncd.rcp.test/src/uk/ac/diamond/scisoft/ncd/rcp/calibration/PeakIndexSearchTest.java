@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.rcp.calibration;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+import org.junit.Test;
+import org.uncommons.maths.combinatorics.CombinationGenerator;
+
+import uk.ac.diamond.scisoft.ncd.calibration.PeakIndexSearch;
+
+public class PeakIndexSearchTest {
+
+	// h^2 + k^2 + l^2 of the silicon reflections
+	private static final int[] siliconHKL = new int[] {3, 8, 11, 16, 19, 24, 27, 32, 35, 40, 43, 48, 51, 56, 59};
+	private static final double siliconLattice = 5.431;
+	// q-value per pixel
+	private static final double gradient = 0.002;
+
+	private static double[] getSiliconQValues() {
+		double[] qValues = new double[siliconHKL.length];
+		for (int i = 0; i < qValues.length; i++) {
+			qValues[i] = 2.0 * Math.PI * Math.sqrt(siliconHKL[i]) / siliconLattice;
+		}
+		return qValues;
+	}
+
+	@Test
+	public void testMissingPeaks() {
+		double[] qValues = getSiliconQValues();
+		int[] rings = new int[] {0, 1, 3, 4, 6, 8, 9};
+		double[] positions = new double[rings.length];
+		for (int i = 0; i < rings.length; i++) {
+			positions[i] = qValues[rings[i]] / gradient;
+		}
+		int[] result = new PeakIndexSearch(positions, qValues).search();
+		assertArrayEquals(rings, result);
+		assertArrayEquals(bruteForce(positions, qValues), result);
+	}
+
+	@Test
+	public void testRandomPeaks() {
+		double[] qValues = getSiliconQValues();
+		Random random = new Random(12345);
+		for (int n = 0; n < 50; n++) {
+			// Random subset of at least three rings with noisy peak positions
+			List<Double> found = new ArrayList<Double>();
+			for (int i = 0; i < qValues.length; i++) {
+				if (random.nextDouble() < 0.5) {
+					found.add(qValues[i] / gradient * (1.0 + 0.003 * random.nextGaussian()));
+				}
+			}
+			if (found.size() < 3) {
+				continue;
+			}
+			double[] positions = new double[found.size()];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = found.get(i);
+			}
+			Arrays.sort(positions);
+			assertArrayEquals("Assignment for peaks " + Arrays.toString(positions), bruteForce(positions, qValues),
+					new PeakIndexSearch(positions, qValues).search());
+		}
+	}
+
+	@Test
+	public void testTies() {
+		// Both assignments fit exactly, the last one in lexicographic order is kept
+		double[] positions = new double[] {1.0, 2.0};
+		double[] qValues = new double[] {1.0, 2.0, 4.0};
+		assertArrayEquals(new int[] {1, 2}, bruteForce(positions, qValues));
+		assertArrayEquals(new int[] {1, 2}, new PeakIndexSearch(positions, qValues).search());
+
+		positions = new double[] {1.0, 2.0, 3.0};
+		qValues = new double[] {1.0, 2.0, 3.0, 4.0, 6.0};
+		assertArrayEquals(new int[] {1, 3, 4}, bruteForce(positions, qValues));
+		assertArrayEquals(new int[] {1, 3, 4}, new PeakIndexSearch(positions, qValues).search());
+	}
+
+	/**
+	 * Fit every combination of reflections to the peaks keeping the last one with the smallest residual
+	 */
+	private static int[] bruteForce(double[] positions, double[] qValues) {
+		List<Integer> reflections = new ArrayList<Integer>();
+		for (int i = 0; i < qValues.length; i++) {
+			reflections.add(i);
+		}
+		CombinationGenerator<Integer> combinations = new CombinationGenerator<Integer>(reflections, positions.length);
+		int[] best = null;
+		double minVar = Double.MAX_VALUE;
+		for (List<Integer> comb : combinations) {
+			SimpleRegression regression = new SimpleRegression(false);
+			for (int i = 0; i < comb.size(); i++) {
+				regression.addData(positions[i], qValues[comb.get(i)]);
+			}
+			double var = regression.getSumSquaredErrors();
+			if (var > minVar) {
+				continue;
+			}
+			best = new int[comb.size()];
+			for (int i = 0; i < best.length; i++) {
+				best[i] = comb.get(i);
+			}
+			minVar = var;
+		}
+		return best;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.rcp.plots;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.measure.unit.NonSI;
+import javax.measure.unit.Unit;
+
+import org.apache.commons.beanutils.ConvertUtils;
+import org.eclipse.january.dataset.Dataset;
+import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DoubleDataset;
+import org.eclipse.january.dataset.FloatDataset;
+import org.eclipse.january.dataset.Maths;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import uk.ac.diamond.scisoft.analysis.IOTestUtils;
+import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVector;
+import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
+import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
+import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.data.plots.GuinierPlotData;
+import uk.ac.diamond.scisoft.ncd.data.plots.KratkyPlotData;
+import uk.ac.diamond.scisoft.ncd.data.plots.PorodPlotData;
+import uk.ac.diamond.scisoft.ncd.data.plots.SaxsPlotData;
+import uk.ac.diamond.scisoft.ncd.data.plots.SaxsPlotEngine;
+
+public class SaxsPlotEngineTest {
+
+	private static final String detector = "Rapid2D";
+	private static String filename;
+
+	// Rows of seven frames are read in blocks of three, so the last block of every row is partial
+	private static long[] shape = new long[] {2, 3, 7, 40};
+	private static int[] shape_int = (int[]) ConvertUtils.convert(shape, int[].class);
+	private static int frameBatch = 3;
+	private static int points = (int) shape[shape.length - 1];
+	private static int frames = (int) (shape[0] * shape[1] * shape[2]);
+
+	private static float[] data;
+	private static double[] errors;
+	private static Dataset qaxis;
+	private static Unit<ScatteringVector> qaxisUnit = NonSI.ANGSTROM.inverse().asType(ScatteringVector.class);
+
+	@BeforeClass
+	public static void writeTestNexusFile() throws Exception {
+		String testScratchDirectoryName = IOTestUtils.generateDirectorynameFromClassname(SaxsPlotEngineTest.class.getCanonicalName());
+		IOTestUtils.makeScratchDirectory(testScratchDirectoryName);
+		filename = testScratchDirectoryName + "saxs_plot_engine_test.nxs";
+
+		qaxis = DatasetFactory.createRange(DoubleDataset.class, 1, points + 1, 1);
+		qaxis.imultiply(0.01);
+		qaxis.setErrors(Maths.multiply(qaxis, 0.01));
+
+		data = new float[frames * points];
+		errors = new double[frames * points];
+		for (int frame = 0; frame < frames; frame++) {
+			for (int j = 0; j < points; j++) {
+				int idx = frame * points + j;
+				data[idx] = (float) ((frame + 1) * 1000.0 * Math.exp(-0.1 * j));
+				errors[idx] = Math.sqrt(data[idx]);
+			}
+		}
+
+		long nxsFile = H5.H5Fcreate(filename, HDF5Constants.H5F_ACC_TRUNC, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+		long entry_id = NcdNexusUtils.makegroup(nxsFile, "entry1", "NXentry");
+		long datagroup_id = NcdNexusUtils.makegroup(entry_id, detector, "NXdata");
+		long data_id = NcdNexusUtils.makedata(datagroup_id, "data", HDF5Constants.H5T_NATIVE_FLOAT, shape, true, "counts");
+		long errors_id = NcdNexusUtils.makedata(datagroup_id, "errors", HDF5Constants.H5T_NATIVE_DOUBLE, shape, true, "counts");
+		writeDataset(data_id, data);
+		writeDataset(errors_id, errors);
+		NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(errors_id, data_id, datagroup_id, entry_id, nxsFile)));
+	}
+
+	private static void writeDataset(long dataset_id, Object buffer) throws HDF5Exception {
+		long filespace_id = H5.H5Dget_space(dataset_id);
+		long type_id = H5.H5Dget_type(dataset_id);
+		long memspace_id = H5.H5Screate_simple(shape.length, shape, null);
+		H5.H5Sselect_all(filespace_id);
+		H5.H5Dwrite(dataset_id, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT, buffer);
+		H5.H5Sclose(memspace_id);
+		H5.H5Sclose(filespace_id);
+		H5.H5Tclose(type_id);
+	}
+
+	@Test
+	public void testEngineMatchesFrames() throws Exception {
+		List<SaxsPlotData> plots = Arrays.<SaxsPlotData> asList(new GuinierPlotData(), new PorodPlotData(), new KratkyPlotData());
+		String[] groupNames = new String[] {"guinier", "porod", "kratky"};
+		for (SaxsPlotData plot : plots) {
+			plot.setDetector(detector);
+			plot.setQaxis(qaxis, qaxisUnit);
+		}
+
+		long nxsFile = H5.H5Fopen(filename, HDF5Constants.H5F_ACC_RDWR, HDF5Constants.H5P_DEFAULT);
+		long entry_id = H5.H5Gopen(nxsFile, "entry1", HDF5Constants.H5P_DEFAULT);
+		long datagroup_id = H5.H5Gopen(entry_id, detector, HDF5Constants.H5P_DEFAULT);
+		long data_id = H5.H5Dopen(datagroup_id, "data", HDF5Constants.H5P_DEFAULT);
+		long errors_id = H5.H5Dopen(datagroup_id, "errors", HDF5Constants.H5P_DEFAULT);
+		HDF5IOService ioService = new HDF5IOService();
+		try {
+			DataSliceIdentifiers input_ids = new DataSliceIdentifiers();
+			input_ids.setIDs(datagroup_id, data_id);
+			DataSliceIdentifiers input_errors_ids = new DataSliceIdentifiers();
+			input_errors_ids.setIDs(datagroup_id, errors_id);
+
+			SaxsPlotEngine engine = new SaxsPlotEngine(plots, qaxis, 2, frameBatch);
+			engine.execute(entry_id, input_ids, input_errors_ids, ioService, null);
+
+			for (int p = 0; p < plots.size(); p++) {
+				long plotgroup_id = H5.H5Gopen(entry_id, detector + "_" + groupNames[p], HDF5Constants.H5P_DEFAULT);
+				Dataset plotData = readDataset(plotgroup_id, "data");
+				Dataset plotErrors = readDataset(plotgroup_id, "errors");
+				H5.H5Gclose(plotgroup_id);
+				assertArrayEquals(shape_int, plotData.getShape());
+				assertArrayEquals(shape_int, plotErrors.getShape());
+
+				for (int frame = 0; frame < frames; frame++) {
+					int[] pos = new int[] {frame / (int) (shape[1] * shape[2]), (frame / (int) shape[2]) % (int) shape[1],
+							frame % (int) shape[2], 0};
+					Dataset expected = plots.get(p).getSaxsPlotDataset(getFrame(frame), qaxis);
+					for (int j = 0; j < points; j++) {
+						pos[3] = j;
+						String msg = groupNames[p] + " frame " + Arrays.toString(pos);
+						assertEquals(msg, expected.getFloat(j), plotData.getFloat(pos), 0.0);
+						double error = expected.getError(j);
+						assertEquals(msg, error, plotErrors.getDouble(pos), 1e-6 * Math.abs(error));
+					}
+				}
+			}
+		} finally {
+			ioService.shutdown();
+			NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(errors_id, data_id, datagroup_id, entry_id, nxsFile)));
+		}
+	}
+
+	private static Dataset getFrame(int frame) {
+		Dataset frameData = DatasetFactory.createFromObject(FloatDataset.class,
+				Arrays.copyOfRange(data, frame * points, (frame + 1) * points));
+		frameData.setErrors(DatasetFactory.createFromObject(DoubleDataset.class,
+				Arrays.copyOfRange(errors, frame * points, (frame + 1) * points)));
+		return frameData;
+	}
+
+	private static Dataset readDataset(long group_id, String name) throws HDF5Exception {
+		long dataset_id = H5.H5Dopen(group_id, name, HDF5Constants.H5P_DEFAULT);
+		try {
+			DataSliceIdentifiers ids = new DataSliceIdentifiers();
+			ids.setIDs(group_id, dataset_id);
+			SliceSettings slice = new SliceSettings(shape, 0, (int) shape[0]);
+			slice.setStart(new int[shape.length]);
+			return NcdNexusUtils.sliceInputData(slice, ids);
+		} finally {
+			H5.H5Dclose(dataset_id);
+		}
+	}
+}
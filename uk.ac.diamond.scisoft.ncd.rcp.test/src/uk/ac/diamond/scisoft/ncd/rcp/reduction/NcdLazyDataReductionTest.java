@@ -19,13 +19,13 @@ package uk.ac.diamond.scisoft.ncd.rcp.reduction;
 import static org.junit.Assert.assertEquals;
 
 import org.apache.commons.beanutils.ConvertUtils;
-import org.eclipse.core.runtime.jobs.ILock;
-import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
 import org.eclipse.dawnsci.hdf5.HDF5Utils;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DoubleDataset;
+import org.junit.After;
 import org.junit.AfterClass;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -36,6 +36,7 @@ import uk.ac.diamond.scisoft.analysis.IOTestUtils;
 import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
 import uk.ac.diamond.scisoft.ncd.rcp.utils.NcdNexusUtilsTest;
 import uk.ac.diamond.scisoft.ncd.reduction.LazyAverage;
@@ -56,7 +57,7 @@ public class NcdLazyDataReductionTest {
 	private static String testDatasetName = "testInput"; 
 	private static String testNormName = "testNorm"; 
 	
-	private ILock lock = Job.getJobManager().newLock();
+	private HDF5IOService ioService;
 	
 	private static Dataset data;
 	private static long [] shape = new long[] {5, 3, 91, 32, 64};
@@ -289,6 +290,21 @@ public class NcdLazyDataReductionTest {
 		data.setErrors(error);
 	}
 	
+	@Before
+	public void createIOService() {
+		ioService = new HDF5IOService();
+	}
+	
+	@After
+	public void shutdownIOService() throws HDF5Exception {
+		try {
+			// Check that all queued result writes have succeeded
+			ioService.flush();
+		} finally {
+			ioService.shutdown();
+		}
+	}
+	
 	@Test
 	public void testLazyNormalisation() throws HDF5Exception {
 		
@@ -304,7 +320,7 @@ public class NcdLazyDataReductionTest {
 		SliceSettings slice = new SliceSettings(shape, 0, (int) shape[0]);
 		slice.setStart(new int[] {0, 0, 0, 0, 0});
 		lazyNormalisation.configure(dim, shape, entry_id, processing_group_id);
-		Dataset outData = lazyNormalisation.execute(dim, data, slice, lock);
+		Dataset outData = lazyNormalisation.execute(dim, data, slice, ioService, null);
 		Dataset outErrors = outData.getErrors();
 		
 		for (int h = 0; h < shape[0]; h++) {
@@ -359,7 +375,7 @@ public class NcdLazyDataReductionTest {
 		SliceSettings slice = new SliceSettings(shape, 0, (int) shape[0]);
 		slice.setStart(new int[] {0, 0, 0, 0, 0});
 		lazyBackgroundSubtraction.configure(dim, shape, processing_group_id);
-		Dataset outData = lazyBackgroundSubtraction.execute(dim, data, bgData, slice, lock);
+		Dataset outData = lazyBackgroundSubtraction.execute(dim, data, bgData, slice, ioService, null);
 		Dataset outErrors = outData.getErrors();
 			
 		for (int h = 0; h < shape[0]; h++)
@@ -391,7 +407,7 @@ public class NcdLazyDataReductionTest {
 		SliceSettings slice = new SliceSettings(shape, 0, (int) shape[0]);
 		slice.setStart(new int[] {0, 0, 0, 0, 0});
 		lazyDetectorResponse.configure(dim, shape, entry_id, processing_group_id);
-		Dataset outData = lazyDetectorResponse.execute(dim, data, slice, lock);
+		Dataset outData = lazyDetectorResponse.execute(dim, data, slice, ioService, null);
 		Dataset outErrors = outData.getErrors(); 
 		
 		for (int h = 0; h < shape[0]; h++)
@@ -421,7 +437,7 @@ public class NcdLazyDataReductionTest {
 		SliceSettings slice = new SliceSettings(invShape, 0, (int) invShape[0]);
 		slice.setStart(new int[] {0, 0, 0});
 		lazyInvariant.configure(dim, shape, entry_id, processing_group_id);
-		Dataset outData = lazyInvariant.execute(dim, data, slice, lock);
+		Dataset outData = lazyInvariant.execute(dim, data, slice, ioService, null);
 		Dataset outErrors = outData.getErrors();
 		for (int h = 0; h < invShape[0]; h++) {
 		  for (int g = 0; g < invShape[1]; g++) {
@@ -468,7 +484,7 @@ public class NcdLazyDataReductionTest {
 		
 		SliceSettings slice = new SliceSettings(shape, 0, (int) shape[0]);
 		slice.setStart(new int[] {0, 0, 0, 0, 0});
-		Dataset[] outDataset = lazySectorIntegration.execute(dim, data, slice, lock);
+		Dataset[] outDataset = lazySectorIntegration.execute(dim, data, slice, ioService, null);
 		Dataset[] outErrors = new Dataset[] {outDataset[0].getErrors(), outDataset[1].getErrors()};
 			
 		intSector.setAverageArea(true);
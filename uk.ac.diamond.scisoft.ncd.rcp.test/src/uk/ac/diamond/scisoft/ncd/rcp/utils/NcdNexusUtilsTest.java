@@ -18,6 +18,7 @@ package uk.ac.diamond.scisoft.ncd.rcp.utils;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -44,6 +45,7 @@ import uk.ac.diamond.scisoft.analysis.IOTestUtils;
 import uk.ac.diamond.scisoft.analysis.io.HDF5Loader;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.DatasetLayout;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
 
@@ -151,6 +153,47 @@ public class NcdNexusUtilsTest {
 		}
 	}
 	
+	@Test
+	public void testImageChunkShape() {
+		// 4MB float frames are split into 512kB chunks of whole rows
+		long[] chunk = NcdNexusUtils.getChunkShape(new long[] { 1, 100, 1024, 1024 }, 4);
+		assertArrayEquals(new long[] { 1, 1, 128, 1024 }, chunk);
+
+		// Small frames are grouped into chunks spanning consecutive frames
+		chunk = NcdNexusUtils.getChunkShape(new long[] { 1, 100, 64, 64 }, 4);
+		assertArrayEquals(new long[] { 1, 32, 64, 64 }, chunk);
+	}
+
+	@Test
+	public void testProfileChunkShape() {
+		long[] chunk = NcdNexusUtils.getChunkShape(new long[] { 10, 20, 1000 }, 8);
+		assertArrayEquals(new long[] { 3, 20, 1000 }, chunk);
+
+		chunk = NcdNexusUtils.getChunkShape(new long[] { 5, 1000 }, 4);
+		assertArrayEquals(new long[] { 5, 1000 }, chunk);
+	}
+	
+	@Test
+	public void testDatasetLayout() throws Exception {
+		String testScratchDirectoryName = IOTestUtils.generateDirectorynameFromClassname(NcdNexusUtilsTest.class.getCanonicalName());
+		IOTestUtils.makeScratchDirectory(testScratchDirectoryName);
+		String filename = testScratchDirectoryName + "dataset_layout_test.nxs";
+		long[] shape = new long[] {1, 100, 64, 64};
+		
+		long file_id = H5.H5Fcreate(filename, HDF5Constants.H5F_ACC_TRUNC, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+		long contiguous_id = -1, chunked_id = -1;
+		try {
+			// Datasets are contiguous unless a layout is requested
+			contiguous_id = NcdNexusUtils.makedata(file_id, "contiguous", HDF5Constants.H5T_NATIVE_FLOAT, shape, true, "counts");
+			assertNull(NcdNexusUtils.getDatasetChunkShape(contiguous_id));
+			
+			chunked_id = NcdNexusUtils.makedata(file_id, "chunked", HDF5Constants.H5T_NATIVE_FLOAT, shape, true, "counts",
+					DatasetLayout.chunked(1, true));
+			assertArrayEquals(NcdNexusUtils.getChunkShape(shape, 4), NcdNexusUtils.getDatasetChunkShape(chunked_id));
+		} finally {
+			NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(chunked_id, contiguous_id, file_id)));
+		}
+	}
 	
 	public static DataSliceIdentifiers[] readDataId(String dataFile, String detector, String dataset, String errors) throws HDF5Exception {
 		long file_handle = HDF5Utils.H5Fopen(dataFile, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
@@ -18,7 +18,9 @@ package uk.ac.diamond.scisoft.ncd.rcp.handlers;
 
 import java.io.File;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import javax.measure.quantity.Energy;
 import javax.measure.quantity.Length;
@@ -95,7 +97,7 @@ public class DataReductionHandler extends AbstractHandler {
 			monitor.beginTask("Running NCD data reduction", work * (selObjects.length + 1));
 			monitor.worked(work);
 			
-			// Process each file 
+			List<String> inputfilePaths = new ArrayList<String>(selObjects.length);
 			for (int i = 0; i < selObjects.length; i++) {
 				final String inputfilePath;
 				if (selObjects[i] instanceof IFile) {
@@ -103,45 +105,48 @@ public class DataReductionHandler extends AbstractHandler {
 				} else {
 					inputfilePath = ((File) selObjects[i]).getAbsolutePath();
 				}
-				if (inputfilePath == null) {
-					continue;
+				if (inputfilePath != null) {
+					inputfilePaths.add(inputfilePath);
 				}
+			}
 
-				try {
-					monitor.setTaskName("Processing : " + inputfilePath);
-					IStatus status = service.process(inputfilePath, context, monitor);
-					monitor.worked(work);
-					if (status.getSeverity() == IStatus.CANCEL) {
-						monitor.done();
-						return;
-					}
-				} catch (Exception e) {
-					Throwable th = e.getCause() != null ? e.getCause() : e;
-					while (th.getCause() != null) {
-						th = th.getCause();
-					}
-					String msg = "SCISOFT NCD: NCD data reduction process has terminated";
-					logger.error(msg, th);
+			// Files are processed concurrently by the data reduction service
+			try {
+				monitor.setTaskName("Processing " + inputfilePaths.size() + " files");
+				IStatus status = service.processBatch(inputfilePaths, context, monitor);
+				if (status.getSeverity() == IStatus.CANCEL) {
 					monitor.done();
-					
-					int status = IStatus.ERROR;
-					if (th instanceof OperationCanceledException) {
-						status = IStatus.CANCEL;
-					}
-					
-					IStatus mStatus;
-					if (status == IStatus.ERROR) {
-						mStatus = new MultiStatus(Activator.PLUGIN_ID, status, msg, th);
-						for (StackTraceElement ste : th.getStackTrace()) {
-							((MultiStatus) mStatus).add(new Status(status, Activator.PLUGIN_ID, ste.toString()));
-						}
-						StatusManager.getManager().handle(mStatus, StatusManager.BLOCK | StatusManager.SHOW);
-					} else {
-						mStatus = new Status(status, Activator.PLUGIN_ID, msg, th);
+					return;
+				}
+				if (status.getSeverity() == IStatus.ERROR) {
+					StatusManager.getManager().handle(status, StatusManager.BLOCK | StatusManager.SHOW);
+				}
+			} catch (Exception e) {
+				Throwable th = e.getCause() != null ? e.getCause() : e;
+				while (th.getCause() != null) {
+					th = th.getCause();
+				}
+				String msg = "SCISOFT NCD: NCD data reduction process has terminated";
+				logger.error(msg, th);
+				monitor.done();
+				
+				int status = IStatus.ERROR;
+				if (th instanceof OperationCanceledException) {
+					status = IStatus.CANCEL;
+				}
+				
+				IStatus mStatus;
+				if (status == IStatus.ERROR) {
+					mStatus = new MultiStatus(Activator.PLUGIN_ID, status, msg, th);
+					for (StackTraceElement ste : th.getStackTrace()) {
+						((MultiStatus) mStatus).add(new Status(status, Activator.PLUGIN_ID, ste.toString()));
 					}
 					StatusManager.getManager().handle(mStatus, StatusManager.BLOCK | StatusManager.SHOW);
-					return;
+				} else {
+					mStatus = new Status(status, Activator.PLUGIN_ID, msg, th);
 				}
+				StatusManager.getManager().handle(mStatus, StatusManager.BLOCK | StatusManager.SHOW);
+				return;
 			}
 			monitor.done();
 		}
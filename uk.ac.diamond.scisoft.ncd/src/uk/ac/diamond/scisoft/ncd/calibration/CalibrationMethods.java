@@ -111,24 +111,28 @@ public class CalibrationMethods {
 	    return twoTheta;
 	}
 	   
+	/**
+	 *   Assigns reflections to peaks keeping their order, so that the peak positions
+	 *   fit q-values of the reflections with a line through the origin with the smallest residual
+	 */
 	private LinkedHashMap<IPeak, HKL> indexPeaks(LinkedHashMap<HKL, Amount<Angle>> twoTheta) {
+		List<HKL> reflections = new ArrayList<HKL>(twoTheta.keySet());
+		if (peaks.size() > reflections.size()) {
+			throw new IllegalArgumentException("Number of peaks exceeds the number of calibrant reflections");
+		}
+		double[] positions = new double[peaks.size()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = peaks.get(i).getPosition();
+		}
+		double[] qValues = new double[reflections.size()];
+		for (int i = 0; i < qValues.length; i++) {
+			qValues[i] = 2.0 * Math.PI / reflections.get(i).getD().doubleValue(unit);
+		}
+		
+		int[] assignment = new PeakIndexSearch(positions, qValues).search();
 		LinkedHashMap<IPeak, HKL> indexedPeaks = new LinkedHashMap<IPeak, HKL>(peaks.size());
-		CombinationGenerator<HKL> combinations = new CombinationGenerator<HKL>(twoTheta.keySet(), peaks.size());
-		Double minVar = Double.MAX_VALUE;
-		for (List<HKL> comb : combinations) {
-			ArrayList<Double> distance = new ArrayList<Double>();
-			LinkedHashMap<IPeak, HKL> tmpResult = new LinkedHashMap<IPeak, HKL>();
-			for (int i = 0; i < comb.size(); i++) {
-				IPeak peak = peaks.get(i); 
-				HKL tmpHKL = comb.get(i); 
-	            distance.add(peak.getPosition() / Math.tan(twoTheta.get(tmpHKL).doubleValue(SI.RADIAN)));
-	            tmpResult.put(peak, tmpHKL);
-			}
-			double var = fitFunctionToData(tmpResult, false);
-			if (var > minVar)
-				continue;
-			indexedPeaks = tmpResult;
-			minVar = var;
+		for (int i = 0; i < assignment.length; i++) {
+			indexedPeaks.put(peaks.get(i), reflections.get(assignment[i]));
 		}
 		
 		indexedPeakList = new ArrayList<CalibrationPeak>();
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.calibration;
+
+import java.util.Arrays;
+
+/**
+ * Branch-and-bound search over monotonic assignments of reflections to peaks. Peaks are assigned in order
+ * and every peak takes a reflection following the one assigned to the previous peak. Regression sums are
+ * accumulated along the search path, so the residual of a partial assignment is available in constant time.
+ * Adding a point never reduces the residual of a least squares fit, so a branch is abandoned as soon as its
+ * residual exceeds the best complete assignment found so far.
+ */
+public class PeakIndexSearch {
+	
+	private final double[] positions;
+	private final double[] qValues;
+	private final int[] current;
+	private int[] best;
+	private double bestResidual;
+	
+	/**
+	 * @param positions
+	 *            - peak positions in increasing order
+	 * @param qValues
+	 *            - q-values of the calibrant reflections in increasing order
+	 */
+	public PeakIndexSearch(double[] positions, double[] qValues) {
+		this.positions = positions;
+		this.qValues = qValues;
+		this.current = new int[positions.length];
+	}
+	
+	/**
+	 * @return index of the reflection assigned to every peak
+	 */
+	public int[] search() {
+		best = null;
+		bestResidual = Double.MAX_VALUE;
+		search(0, 0, 0.0, 0.0, 0.0);
+		return best;
+	}
+	
+	private void search(int peak, int first, double sumXX, double sumXY, double sumYY) {
+		if (peak == positions.length) {
+			// Ties are resolved in favour of the last assignment in lexicographic order
+			double residual = getResidual(sumXX, sumXY, sumYY);
+			if (residual <= bestResidual) {
+				bestResidual = residual;
+				best = Arrays.copyOf(current, current.length);
+			}
+			return;
+		}
+		double x = positions[peak];
+		// Leave enough reflections for the remaining peaks
+		int last = qValues.length - (positions.length - peak);
+		for (int i = first; i <= last; i++) {
+			double y = qValues[i];
+			double xx = sumXX + x * x;
+			double xy = sumXY + x * y;
+			double yy = sumYY + y * y;
+			if (getResidual(xx, xy, yy) > bestResidual) {
+				continue;
+			}
+			current[peak] = i;
+			search(peak + 1, i + 1, xx, xy, yy);
+		}
+	}
+	
+	/**
+	 * Sum of squared errors of the regression through the origin as calculated by
+	 * {@link org.apache.commons.math3.stat.regression.SimpleRegression}
+	 */
+	private static double getResidual(double sumXX, double sumXY, double sumYY) {
+		if (sumXX == 0.0) {
+			return sumYY;
+		}
+		return Math.max(0.0, sumYY - sumXY * sumXY / sumXX);
+	}
+}
@@ -16,6 +16,7 @@
 
 package uk.ac.diamond.scisoft.ncd.data.plots;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import javax.measure.unit.UnitFormat;
@@ -26,84 +27,64 @@ import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.IDataset;
 import org.eclipse.january.dataset.IndexIterator;
-import org.eclipse.january.dataset.ShapeUtils;
-import org.eclipse.january.dataset.SliceIterator;
-import org.eclipse.january.dataset.SliceND;
 
 import hdf.hdf5lib.H5;
 import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5Exception;
 import hdf.hdf5lib.exceptions.HDF5LibraryException;
-import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
-import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
 import uk.ac.diamond.scisoft.ncd.core.data.plots.ISaxsPlotData;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 import uk.ac.diamond.scisoft.ncd.reduction.LazyDataReduction;
 
 public abstract class SaxsPlotData extends LazyDataReduction implements ISaxsPlotData {
 
 	protected String groupName, dataName, variableName;
 	
-	public void execute(long entry_group_id, DataSliceIdentifiers input_ids, DataSliceIdentifiers input_errors_ids) throws HDF5Exception {
-		
-		long[] frames = NcdNexusUtils.getIdsDatasetShape(input_ids.dataspace_id);
-		int[] frames_int = (int[]) ConvertUtils.convert(frames, int[].class);
-		
-		long group_id = NcdNexusUtils.makegroup(entry_group_id, detector + "_" + groupName, Nexus.DATA);
+	private long group_id = -1;
+	private long data_id = -1;
+	private long errors_id = -1;
+	
+	/**
+	 * Create group and datasets for plot data of the input frames
+	 */
+	public void createOutput(long entry_group_id, long[] frames) throws HDF5Exception {
+		group_id = NcdNexusUtils.makegroup(entry_group_id, detector + "_" + groupName, Nexus.DATA);
 		long type = H5.H5Tcopy(HDF5Constants.H5T_NATIVE_FLOAT);
-		long data_id = NcdNexusUtils.makedata(group_id, "data", type, frames, true, "a.u.");
+		data_id = NcdNexusUtils.makedata(group_id, "data", type, frames, true, "a.u.");
 		H5.H5Tclose(type);
 	    type = H5.H5Tcopy(HDF5Constants.H5T_NATIVE_DOUBLE);
-	    long errors_id = NcdNexusUtils.makedata(group_id, "errors", type, frames, true, "a.u.");
+	    errors_id = NcdNexusUtils.makedata(group_id, "errors", type, frames, true, "a.u.");
 		H5.H5Tclose(type);
-		
-    	SliceSettings sliceSettings = new SliceSettings(frames, frames.length - 2, 1);
-		int[] step = new int[frames_int.length];
-		Arrays.fill(step, 1);
-		step[step.length - 1] = frames_int[frames_int.length - 1];
-		SliceND slice = new SliceND(frames_int, null, frames_int, step);
-		IndexIterator iter = new SliceIterator(frames_int, ShapeUtils.calcSize(frames_int), slice);
-		int[] pos = iter.getPos();
-		while (iter.hasNext()) {
-			sliceSettings.setStart(pos);
-			Dataset data_slice = NcdNexusUtils.sliceInputData(sliceSettings, input_ids).squeeze();
-			Dataset errors_slice = NcdNexusUtils.sliceInputData(sliceSettings, input_errors_ids).squeeze();
-			data_slice.setErrors(errors_slice);
-			Dataset tmpFrame = getSaxsPlotDataset(data_slice, qaxis);
-			
-			long filespace_id = H5.H5Dget_space(data_id);
-			long type_id = H5.H5Dget_type(data_id);
-			long[] ave_start = (long[]) ConvertUtils.convert(slice, long[].class);
-			long[] ave_step = (long[]) ConvertUtils.convert(step, long[].class);
-			long[] ave_count_data = new long[frames.length];
-			Arrays.fill(ave_count_data, 1);
-			long memspace_id = H5.H5Screate_simple(ave_step.length, ave_step, null);
-			
-			H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET, ave_start, ave_step, ave_count_data,
-					ave_step);
-			H5.H5Dwrite(data_id, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT,
-					tmpFrame.getBuffer());
-			
-			H5.H5Sclose(filespace_id);
-			H5.H5Sclose(memspace_id);
-			H5.H5Tclose(type_id);
-			
-			if (tmpFrame.hasErrors()) {
-				filespace_id = H5.H5Dget_space(errors_id);
-				type_id = H5.H5Dget_type(errors_id);
-				memspace_id = H5.H5Screate_simple(ave_step.length, ave_step, null);
-				H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET, ave_start, ave_step, ave_count_data,
-						ave_step);
-				H5.H5Dwrite(errors_id, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT,
-						tmpFrame.getErrors().getBuffer());
-			
-				H5.H5Sclose(filespace_id);
-				H5.H5Sclose(memspace_id);
-				H5.H5Tclose(type_id);
-			}
-			
+	}
+	
+	/**
+	 * Queue write of a block of plot data frames
+	 * 
+	 * @param start
+	 *            - position of the block in the output dataset
+	 * @param block
+	 *            - shape of the block
+	 * @param data
+	 *            - plot data values
+	 * @param errors
+	 *            - plot data errors, not written if null
+	 * @param stage
+	 *            - metrics of the plot stage, can be null
+	 */
+	public void writeBlock(HDF5IOService ioService, long[] start, long[] block, float[] data, double[] errors,
+			StageMetrics stage) {
+		ioService.writeSlice(data_id, start, block, data, stage);
+		if (errors != null) {
+			ioService.writeSlice(errors_id, start, block, errors, stage);
 		}
-		
+	}
+	
+	/**
+	 * Write data attributes and plot axis after all plot data frames have been written
+	 */
+	public void completeOutput() throws HDF5Exception {
 		// add long_name attribute
 		{
 			long attrspace_id = H5.H5Screate_simple(1, new long[] { 1 }, null);
@@ -125,10 +106,13 @@ public abstract class SaxsPlotData extends LazyDataReduction implements ISaxsPlo
 		}
 		
 		writeAxisData(group_id);
-		
-		H5.H5Dclose(data_id);
-		H5.H5Dclose(errors_id);
-		H5.H5Gclose(group_id);
+	}
+	
+	public void closeOutput() throws HDF5LibraryException {
+		NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(data_id, errors_id, group_id)));
+		data_id = -1;
+		errors_id = -1;
+		group_id = -1;
 	}
 	
 	private void writeAxisData(long group_id) throws HDF5LibraryException, NullPointerException, HDF5Exception {
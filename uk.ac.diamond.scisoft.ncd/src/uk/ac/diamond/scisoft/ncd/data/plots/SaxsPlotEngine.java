@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.ac.diamond.scisoft.ncd.data.plots;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.january.dataset.Dataset;
+
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
+import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
+import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
+
+/**
+ * Calculates data for several SAXS plot types in a single pass over the input frames.
+ * <p>
+ * Blocks of consecutive frames are read once on the I/O thread, with the next block read while
+ * the current one is processed. All requested plot transforms are calculated for the frames of a block
+ * in parallel and the results for every plot are queued as a single hyperslab write per block.
+ */
+public class SaxsPlotEngine {
+
+	private final List<SaxsPlotData> plots;
+	private final Dataset qaxis;
+	private final int threads;
+	private final int frameBatch;
+
+	/**
+	 * @param plots
+	 *            - plot types to calculate
+	 * @param qaxis
+	 *            - q-axis of the input frames
+	 * @param threads
+	 *            - number of threads calculating plot data
+	 * @param frameBatch
+	 *            - maximum number of frames read and written in a single block
+	 */
+	public SaxsPlotEngine(List<SaxsPlotData> plots, Dataset qaxis, int threads, int frameBatch) {
+		this.plots = new ArrayList<SaxsPlotData>(plots);
+		this.qaxis = qaxis;
+		this.threads = Math.max(1, threads);
+		this.frameBatch = Math.max(1, frameBatch);
+	}
+
+	/**
+	 * @param stage
+	 *            - metrics of the plot stage recorded by the I/O requests, can be null
+	 */
+	public void execute(long entry_group_id, DataSliceIdentifiers input_ids, DataSliceIdentifiers input_errors_ids,
+			HDF5IOService ioService, StageMetrics stage) throws HDF5Exception {
+
+		if (plots.isEmpty()) {
+			return;
+		}
+
+		long[] frames = NcdNexusUtils.getIdsDatasetShape(input_ids.dataspace_id);
+		long errorsID = -1;
+		if (input_errors_ids != null && input_errors_ids.dataset_id >= 0) {
+			errorsID = input_errors_ids.dataset_id;
+		}
+		int batch = (int) Math.max(1, Math.min(frameBatch, frames[frames.length - 2]));
+		List<int[]> blocks = getBlockPositions(frames, batch);
+
+		// Every calculating thread uses its own copy of the axis dataset
+		int nTasks = Math.min(threads, batch);
+		Dataset[] axes = new Dataset[nTasks];
+		for (int i = 0; i < nTasks; i++) {
+			axes[i] = (qaxis != null ? qaxis.clone() : null);
+		}
+
+		ExecutorService executor = (nTasks > 1 ? Executors.newFixedThreadPool(nTasks) : null);
+		boolean completed = false;
+		try {
+			for (SaxsPlotData plot : plots) {
+				plot.createOutput(entry_group_id, frames);
+			}
+			Future<Dataset> nextBlock = null;
+			for (int i = 0; i < blocks.size(); i++) {
+				if (nextBlock == null) {
+					nextBlock = readBlock(ioService, frames, batch, blocks.get(i), input_ids.dataset_id, errorsID,
+							stage);
+				}
+				Dataset block = HDF5IOService.get(nextBlock, stage);
+				nextBlock = null;
+				if (i + 1 < blocks.size()) {
+					nextBlock = readBlock(ioService, frames, batch, blocks.get(i + 1), input_ids.dataset_id, errorsID,
+							stage);
+				}
+				processBlock(executor, axes, ioService, stage, block, blocks.get(i));
+			}
+			ioService.flush();
+			for (SaxsPlotData plot : plots) {
+				plot.completeOutput();
+			}
+			completed = true;
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
+			if (!completed) {
+				try {
+					// Pending writes have to finish before output datasets are closed.
+					// Any write error is superseded by the exception already being thrown.
+					ioService.flush();
+				} catch (HDF5Exception e) {
+				}
+			}
+			for (SaxsPlotData plot : plots) {
+				plot.closeOutput();
+			}
+		}
+	}
+
+	/**
+	 * @return start positions of the blocks of frames along the second to last dimension
+	 */
+	private static List<int[]> getBlockPositions(long[] frames, int batch) {
+		int rank = frames.length;
+		int rowDim = rank - 2;
+		int rows = (int) frames[rowDim];
+
+		List<int[]> blocks = new ArrayList<int[]>();
+		int[] start = new int[rank];
+		boolean hasNext = true;
+		while (hasNext) {
+			for (int row = 0; row < rows; row += batch) {
+				int[] pos = Arrays.copyOf(start, rank);
+				pos[rowDim] = row;
+				blocks.add(pos);
+			}
+			int i = rowDim - 1;
+			for (; i >= 0; i--) {
+				if (++start[i] < frames[i]) {
+					break;
+				}
+				start[i] = 0;
+			}
+			hasNext = (i >= 0);
+		}
+		return blocks;
+	}
+
+	private static Future<Dataset> readBlock(HDF5IOService ioService, long[] frames, int batch, int[] pos, long dataID,
+			long errorsID, StageMetrics stage) {
+		SliceSettings sliceSettings = new SliceSettings(frames, frames.length - 2, batch);
+		sliceSettings.setStart(pos);
+		return ioService.readSlice(sliceSettings, dataID, errorsID, stage);
+	}
+
+	private void processBlock(ExecutorService executor, Dataset[] axes, HDF5IOService ioService, StageMetrics stage,
+			Dataset block, int[] pos) throws HDF5Exception {
+
+		int rank = pos.length;
+		int[] shape = block.getShape();
+		final int count = shape[rank - 2];
+		final int points = shape[rank - 1];
+
+		Dataset errors = block.getErrors();
+		final Dataset[] frameData = new Dataset[count];
+		int[] sliceStart = new int[rank];
+		int[] sliceStop = Arrays.copyOf(shape, rank);
+		for (int k = 0; k < count; k++) {
+			sliceStart[rank - 2] = k;
+			sliceStop[rank - 2] = k + 1;
+			frameData[k] = block.getSlice(sliceStart, sliceStop, null).squeeze();
+			if (errors != null) {
+				frameData[k].setErrors(errors.getSlice(sliceStart, sliceStop, null).squeeze());
+			}
+		}
+
+		final float[][] results = new float[plots.size()][count * points];
+		final double[][] resultErrors = new double[plots.size()][];
+		if (errors != null) {
+			for (int p = 0; p < plots.size(); p++) {
+				resultErrors[p] = new double[count * points];
+			}
+		}
+
+		if (executor == null || count == 1) {
+			calculate(frameData, axes[0], 0, count, points, results, resultErrors);
+		} else {
+			int nTasks = Math.min(axes.length, count);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(nTasks);
+			for (int t = 0; t < nTasks; t++) {
+				final Dataset axis = axes[t];
+				final int from = t * count / nTasks;
+				final int to = (t + 1) * count / nTasks;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						calculate(frameData, axis, from, to, points, results, resultErrors);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				HDF5IOService.get(future);
+			}
+		}
+
+		long[] start = new long[rank];
+		long[] blockShape = new long[rank];
+		for (int i = 0; i < rank; i++) {
+			start[i] = pos[i];
+			blockShape[i] = 1;
+		}
+		blockShape[rank - 2] = count;
+		blockShape[rank - 1] = points;
+		for (int p = 0; p < plots.size(); p++) {
+			plots.get(p).writeBlock(ioService, start, blockShape, results[p], resultErrors[p], stage);
+		}
+	}
+
+	private void calculate(Dataset[] frameData, Dataset axis, int from, int to, int points, float[][] results,
+			double[][] resultErrors) {
+		for (int k = from; k < to; k++) {
+			int offset = k * points;
+			for (int p = 0; p < plots.size(); p++) {
+				Dataset plotFrame = plots.get(p).getSaxsPlotDataset(frameData[k], axis);
+				float[] plotResults = results[p];
+				double[] plotErrors = resultErrors[p];
+				for (int j = 0; j < points; j++) {
+					plotResults[offset + j] = plotFrame.getFloat(j);
+				}
+				if (plotErrors != null && plotFrame.hasErrors()) {
+					for (int j = 0; j < points; j++) {
+						plotErrors[offset + j] = plotFrame.getError(j);
+					}
+				}
+			}
+		}
+	}
+}
@@ -27,6 +27,8 @@ import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.dawnsci.hdf.object.Nexus;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
+import org.eclipse.january.dataset.DatasetUtils;
+import org.eclipse.january.dataset.FloatDataset;
 import org.eclipse.january.dataset.IndexIterator;
 import org.eclipse.january.dataset.ShapeUtils;
 import org.eclipse.january.dataset.SliceIterator;
@@ -36,6 +38,7 @@ import hdf.hdf5lib.H5;
 import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5Exception;
 import hdf.hdf5lib.exceptions.HDF5LibraryException;
+import uk.ac.diamond.scisoft.ncd.core.StreamingAverage;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
@@ -121,6 +124,13 @@ public class LazyAverage extends LazyDataReduction {
 		SliceND slice = new SliceND(iter_array, null, iter_array, step);
 		IndexIterator iter = new SliceIterator(iter_array, ShapeUtils.calcSize(iter_array), slice);
 		
+		// Frames are accumulated one by one, so memory use doesn't depend on the number of averaged frames.
+		// Every output position in the dimensions that aren't averaged gets a single averaged image.
+		int[] aveShape = Arrays.copyOfRange(framesAve_int, framesAve_int.length - dim, framesAve_int.length);
+		StreamingAverage average = new StreamingAverage(ShapeUtils.calcSize(aveShape));
+		FloatDataset ave_frame = DatasetFactory.zeros(FloatDataset.class, aveShape);
+		FloatDataset ave_errors_frame = DatasetFactory.zeros(FloatDataset.class, aveShape);
+		
 		// This loop iterates over the output averaged dataset image by image
 		while (iter.hasNext()) {
 			
@@ -159,12 +169,9 @@ public class LazyAverage extends LazyDataReduction {
 			slice = new SliceND(data_stop, data_start, data_stop, data_step);
 			IndexIterator data_iter = new SliceIterator(data_stop, ShapeUtils.calcSize(data_stop), slice);
 			
-			int[] aveShape = Arrays.copyOfRange(framesAve_int, sliceDim + 1, framesAve_int.length);
-			Dataset ave_frame = DatasetFactory.zeros(aveShape, Dataset.FLOAT32);
-			Dataset ave_errors_frame = DatasetFactory.zeros(aveShape, Dataset.FLOAT32);
+			average.reset();
 			
 			// This loop iterates over chunks of data that need to be averaged for the current output image
-			int totalFrames = 0;
 			SliceSettings sliceSettings = new SliceSettings(data_iter_array, sliceDim, sliceSize);
 			while (data_iter.hasNext()) {
 				
@@ -173,39 +180,30 @@ public class LazyAverage extends LazyDataReduction {
 				}
 				
 				sliceSettings.setStart(data_iter.getPos());
-				Dataset data_slice = NcdNexusUtils.sliceInputData(sliceSettings, input_ids);
-				Dataset errors_slice;
+				FloatDataset data_slice = (FloatDataset) DatasetUtils.cast(NcdNexusUtils.sliceInputData(sliceSettings, input_ids), Dataset.FLOAT32);
+				float[] variances;
 				if (input_errors_ids.dataset_id != -1) {
-					errors_slice = NcdNexusUtils.sliceInputData(sliceSettings, input_errors_ids);
-					errors_slice.ipower(2);
+					Dataset errors_slice = DatasetUtils.cast(NcdNexusUtils.sliceInputData(sliceSettings, input_errors_ids), Dataset.FLOAT32);
+					variances = ((FloatDataset) errors_slice.ipower(2)).getData();
 				} else {
-					errors_slice = data_slice.clone();
+					// Counting statistics
+					variances = data_slice.getData();
 				}
-				int data_slice_rank = data_slice.getRank();
 				
 				if (monitor.isCanceled()) {
 					return;
 				}
 				
-				int totalFramesBatch = 1;
-				for (int idx = (data_slice_rank - dim - 1); idx >= sliceDim; idx--) {
-					if (ArrayUtils.contains(averageIndices, idx + 1)) {
-						totalFramesBatch *= data_slice.getShape()[idx];
-						data_slice = data_slice.sum(idx);
-						errors_slice = errors_slice.sum(idx);
-					}
-				}
-				totalFrames += totalFramesBatch;
-				ave_frame = ave_frame.iadd(data_slice);
-				ave_errors_frame = ave_errors_frame.iadd(errors_slice);
+				// Data slice contains a sequence of frames that all belong to the current output image
+				average.add(data_slice.getData(), variances);
 			}
 			
 			if (monitor.isCanceled()) {
 				return;
 			}
 			
-			ave_frame =  ave_frame.idivide(totalFrames);
-			ave_errors_frame =  ave_errors_frame.ipower(0.5).idivide(totalFrames);
+			average.getMean(ave_frame.getData());
+			average.getErrors(ave_errors_frame.getData());
 			
 			if (monitor.isCanceled()) {
 				return;
@@ -23,7 +23,6 @@ import java.util.List;
 
 import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.lang.ArrayUtils;
-import org.eclipse.core.runtime.jobs.ILock;
 import org.eclipse.dawnsci.hdf.object.Nexus;
 import org.eclipse.dawnsci.hdf5.HDF5Utils;
 import org.eclipse.january.dataset.Dataset;
@@ -37,7 +36,9 @@ import hdf.hdf5lib.exceptions.HDF5LibraryException;
 import uk.ac.diamond.scisoft.ncd.core.BackgroundSubtraction;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 
 public class LazyBackgroundSubtraction extends LazyDataReduction {
 
@@ -152,7 +153,7 @@ public class LazyBackgroundSubtraction extends LazyDataReduction {
 		}
 	}
 	
-	public Dataset execute(int dim, Dataset data, Dataset bgData, SliceSettings sliceData, ILock lock) throws HDF5Exception {
+	public Dataset execute(int dim, Dataset data, Dataset bgData, SliceSettings sliceData, HDF5IOService ioService, StageMetrics stage) {
 		
 		if (bgScaling != null) {
 			bgData.imultiply(bgScaling);
@@ -188,39 +189,8 @@ public class LazyBackgroundSubtraction extends LazyDataReduction {
 			Dataset myres = DatasetFactory.createFromObject(mydata, dataShape);
 			myres.setErrorBuffer(myerror);
 			
-			try {
-				lock.acquire();
-				
-				long[] frames = sliceData.getFrames();
-				long[] start_pos = (long[]) ConvertUtils.convert(sliceData.getStart(), long[].class);
-				int sliceDim = sliceData.getSliceDim();
-				int sliceSize = sliceData.getSliceSize();
-
-				long[] start = Arrays.copyOf(start_pos, frames.length);
-
-				long[] block = Arrays.copyOf(frames, frames.length);
-				Arrays.fill(block, 0, sliceData.getSliceDim(), 1);
-				block[sliceDim] = Math.min(frames[sliceDim] - start_pos[sliceDim], sliceSize);
-
-				long[] count = new long[frames.length];
-				Arrays.fill(count, 1);
-				
-				long filespace_id = H5.H5Dget_space(bg_data_id);
-				long type_id = H5.H5Dget_type(bg_data_id);
-				long memspace_id = H5.H5Screate_simple(block.length, block, null);
-				H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				H5.H5Dwrite(bg_data_id, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT, myres.getBuffer());
-				
-				
-				long err_filespace_id = H5.H5Dget_space(bg_errors_id);
-				long err_type_id = H5.H5Dget_type(bg_errors_id);
-				long err_memspace_id = H5.H5Screate_simple(block.length, block, null);
-				H5.H5Sselect_hyperslab(err_filespace_id, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				H5.H5Dwrite(bg_errors_id, err_type_id, err_memspace_id, err_filespace_id, HDF5Constants.H5P_DEFAULT, myres.getErrors().getBuffer());
-				
-			} finally {
-				lock.release();
-			}
+			ioService.writeSlice(bg_data_id, sliceData, myres.getBuffer(), stage);
+			ioService.writeSlice(bg_errors_id, sliceData, myres.getErrors().getBuffer(), stage);
 
 			return myres;
 			
@@ -21,7 +21,6 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.beanutils.ConvertUtils;
-import org.eclipse.core.runtime.jobs.ILock;
 import org.eclipse.dawnsci.hdf.object.Nexus;
 import org.eclipse.dawnsci.hdf5.HDF5Utils;
 import org.eclipse.january.dataset.Dataset;
@@ -33,7 +32,9 @@ import hdf.hdf5lib.exceptions.HDF5Exception;
 import hdf.hdf5lib.exceptions.HDF5LibraryException;
 import uk.ac.diamond.scisoft.ncd.core.DetectorResponse;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 
 public class LazyDetectorResponse extends LazyDataReduction {
 
@@ -105,7 +106,7 @@ public class LazyDetectorResponse extends LazyDataReduction {
 		writeNcdMetadata(dr_group_id);
 	}
 	
-	public Dataset execute(int dim, Dataset data, SliceSettings sliceData, ILock lock) throws HDF5Exception {
+	public Dataset execute(int dim, Dataset data, SliceSettings sliceData, HDF5IOService ioService, StageMetrics stage) {
 		
 			DetectorResponse dr = new DetectorResponse();
 			int[] dataShape = data.getShape();
@@ -127,37 +128,9 @@ public class LazyDetectorResponse extends LazyDataReduction {
 			Dataset myres = DatasetFactory.createFromObject(mydata, dataShape);
 			myres.setErrorBuffer(DatasetFactory.createFromObject(myerrors, dataShape));
 			
-			try {
-				lock.acquire();
-				
-				long[] frames = sliceData.getFrames();
-				long[] start_pos = (long[]) ConvertUtils.convert(sliceData.getStart(), long[].class);
-				int sliceDim = sliceData.getSliceDim();
-				int sliceSize = sliceData.getSliceSize();
-
-				long[] start = Arrays.copyOf(start_pos, frames.length);
-
-				long[] block = Arrays.copyOf(frames, frames.length);
-				Arrays.fill(block, 0, sliceData.getSliceDim(), 1);
-				block[sliceDim] = Math.min(frames[sliceDim] - start_pos[sliceDim], sliceSize);
-
-				long[] count = new long[frames.length];
-				Arrays.fill(count, 1);
-
-				long filespace_id = H5.H5Dget_space(dr_data_id);
-				long type_id = H5.H5Dget_type(dr_data_id);
-				long memspace_id = H5.H5Screate_simple(block.length, block, null);
-				H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				H5.H5Dwrite(dr_data_id, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT, mydata);
-				
-				filespace_id = H5.H5Dget_space(dr_errors_id);
-				type_id = H5.H5Dget_type(dr_errors_id);
-				memspace_id = H5.H5Screate_simple(block.length, block, null);
-				H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				H5.H5Dwrite(dr_errors_id, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT, myres.getErrors().getBuffer());
-			} finally {
-				lock.release();
-			}
+			// Result buffers are not modified after this point, so they are written behind processing
+			ioService.writeSlice(dr_data_id, sliceData, mydata, stage);
+			ioService.writeSlice(dr_errors_id, sliceData, myres.getErrors().getBuffer(), stage);
 
 			return myres;
 	}
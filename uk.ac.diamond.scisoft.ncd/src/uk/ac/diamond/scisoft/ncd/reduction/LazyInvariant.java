@@ -20,19 +20,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.apache.commons.beanutils.ConvertUtils;
-import org.eclipse.core.runtime.jobs.ILock;
 import org.eclipse.dawnsci.hdf.object.Nexus;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 
-import hdf.hdf5lib.H5;
 import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5Exception;
 import hdf.hdf5lib.exceptions.HDF5LibraryException;
 import uk.ac.diamond.scisoft.ncd.core.Invariant;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 
 public class LazyInvariant extends LazyDataReduction {
 
@@ -53,7 +52,7 @@ public class LazyInvariant extends LazyDataReduction {
 		writeNcdMetadata(inv_group_id);
 	}
 	
-	public Dataset execute(int dim, Dataset data, SliceSettings sliceData, ILock lock) throws HDF5Exception {
+	public Dataset execute(int dim, Dataset data, SliceSettings sliceData, HDF5IOService ioService, StageMetrics stage) {
 		
 			Invariant inv = new Invariant();
 			
@@ -68,37 +67,8 @@ public class LazyInvariant extends LazyDataReduction {
 			Dataset myres = DatasetFactory.createFromObject(mydata, dataShape);
 			myres.setErrorBuffer(DatasetFactory.createFromObject(myerrors, dataShape));
 			
-			try {
-				lock.acquire();
-				
-				long[] frames = sliceData.getFrames();
-				long[] start_pos = (long[]) ConvertUtils.convert(sliceData.getStart(), long[].class);
-				int sliceDim = sliceData.getSliceDim();
-				int sliceSize = sliceData.getSliceSize();
-
-				long[] start = Arrays.copyOf(start_pos, frames.length);
-
-				long[] block = Arrays.copyOf(frames, frames.length);
-				Arrays.fill(block, 0, sliceData.getSliceDim(), 1);
-				block[sliceDim] = Math.min(frames[sliceDim] - start_pos[sliceDim], sliceSize);
-
-				long[] count = new long[frames.length];
-				Arrays.fill(count, 1);
-
-				long filespace_id = H5.H5Dget_space(inv_data_id);
-				long type_id = H5.H5Dget_type(inv_data_id);
-				long memspace_id = H5.H5Screate_simple(block.length, block, null);
-				H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET, start, block, count,	block);
-				H5.H5Dwrite(inv_data_id, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT, mydata);
-				
-				filespace_id = H5.H5Dget_space(inv_errors_id);
-				type_id = H5.H5Dget_type(inv_errors_id);
-				memspace_id = H5.H5Screate_simple(block.length, block, null);
-				H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET, start, block, count, block);
-				H5.H5Dwrite(inv_errors_id, type_id, memspace_id, filespace_id, HDF5Constants.H5P_DEFAULT, myres.getErrors().getBuffer());
-			} finally {
-				lock.release();
-			}
+			ioService.writeSlice(inv_data_id, sliceData, mydata, stage);
+			ioService.writeSlice(inv_errors_id, sliceData, myres.getErrors().getBuffer(), stage);
 			
 			return myres;
 	}
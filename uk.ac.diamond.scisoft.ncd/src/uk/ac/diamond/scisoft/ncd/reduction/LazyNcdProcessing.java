@@ -19,6 +19,7 @@ package uk.ac.diamond.scisoft.ncd.reduction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import javax.measure.quantity.Energy;
 import javax.measure.quantity.Length;
@@ -33,7 +34,6 @@ import org.apache.commons.math3.util.MultidimensionalCounter;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.ILock;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
 import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
@@ -45,11 +45,7 @@ import org.eclipse.january.dataset.BooleanDataset;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
 import org.eclipse.january.dataset.DatasetUtils;
-import org.eclipse.january.dataset.IndexIterator;
-import org.eclipse.january.dataset.IntegerDataset;
 import org.eclipse.january.dataset.ShapeUtils;
-import org.eclipse.january.dataset.SliceIterator;
-import org.eclipse.january.dataset.SliceND;
 import org.jscience.physics.amount.Amount;
 import org.jscience.physics.amount.Constants;
 
@@ -63,17 +59,24 @@ import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVectorOverDistan
 import uk.ac.diamond.scisoft.analysis.io.NexusDiffractionMetaReader;
 import uk.ac.diamond.scisoft.ncd.core.data.CalibrationResultsBean;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
+import uk.ac.diamond.scisoft.ncd.core.data.SliceGenerator;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
 import uk.ac.diamond.scisoft.ncd.core.preferences.NcdDetectors;
 import uk.ac.diamond.scisoft.ncd.core.preferences.NcdReductionFlags;
+import uk.ac.diamond.scisoft.ncd.core.utils.AdaptiveBatchPlanner;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdDataUtils;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.ProcessingMetrics;
+import uk.ac.diamond.scisoft.ncd.core.utils.QAxisCalculator;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 import uk.ac.diamond.scisoft.ncd.data.plots.DebyeBuechePlotData;
 import uk.ac.diamond.scisoft.ncd.data.plots.GuinierPlotData;
 import uk.ac.diamond.scisoft.ncd.data.plots.KratkyPlotData;
 import uk.ac.diamond.scisoft.ncd.data.plots.LogLogPlotData;
 import uk.ac.diamond.scisoft.ncd.data.plots.PorodPlotData;
 import uk.ac.diamond.scisoft.ncd.data.plots.SaxsPlotData;
+import uk.ac.diamond.scisoft.ncd.data.plots.SaxsPlotEngine;
 import uk.ac.diamond.scisoft.ncd.data.plots.ZimmPlotData;
 
 public class LazyNcdProcessing {
@@ -102,12 +105,11 @@ public class LazyNcdProcessing {
 	private String frameSelection;
 	private String gridAverage;
 	
-	private int frameBatch;
-	
-	private static ILock lock;
+	private HDF5IOService ioService;
+	private ProcessingMetrics metrics;
 	
 	private int cores;
-    private long maxMemory;
+	private AdaptiveBatchPlanner planner;
     
 	private long nxsfile_handle, entry_group_id, processing_group_id, detector_group_id, input_data_id, input_errors_id;
 	private long inputfile_handle;
@@ -141,18 +143,85 @@ public class LazyNcdProcessing {
     	protected DataSliceIdentifiers tmp_ids, tmp_errors_ids;
     	protected DataSliceIdentifiers tmp_bgIds,  tmp_errors_bgIds;
 		protected SliceSettings currentSliceParams;
+		protected Future<Dataset> inputData;
+		protected StageMetrics stage;
+		protected int frameCount;
+		protected long footprint;
 		
 		public DataReductionJob(String name) {
 			super(name);
 			
+			stage = metrics.getStage(name);
+
 			tmp_ids = null;
 			tmp_errors_ids = null;
 			tmp_bgIds = null;
 			tmp_errors_bgIds = null;
 			currentSliceParams = null;
+			inputData = null;
+		}
+		
+		/**
+		 * Queue input data read on the I/O thread ahead of running the job
+		 */
+		protected void prefetchInputData() {
+			long errorsID = -1;
+			if (tmp_errors_ids != null && tmp_errors_ids.dataset_id >= 0) {
+				errorsID = tmp_errors_ids.dataset_id;
+			}
+			inputData = ioService.readSlice(currentSliceParams, tmp_ids.dataset_id, errorsID, stage);
+		}
+		
+		protected Dataset readInputData() throws HDF5Exception {
+			if (inputData == null) {
+				prefetchInputData();
+			}
+			Dataset data = HDF5IOService.get(inputData, stage);
+			inputData = null;
+			if (tmp_errors_ids != null && tmp_errors_ids.dataset_id < 0) {
+				tmp_errors_ids.setSlice(currentSliceParams);
+			}
+			return data;
+		}
+		
+		/**
+		 * Add data and error buffers to the memory footprint of the job
+		 */
+		protected Dataset track(Dataset data) {
+			footprint += getNbytes(data);
+			return data;
+		}
+		
+		/**
+		 * Record job duration together with the number of processed frames and the size of the results.
+		 * Memory footprint of the job is passed to the batch planner.
+		 */
+		protected void recordTask(long startTime, Dataset input, int frameDim, Dataset result) {
+			stage.getTaskTime().record(System.nanoTime() - startTime);
+			if (input != null) {
+				int[] shape = input.getShapeRef();
+				long count = 1;
+				for (int i = 0; i < shape.length - frameDim; i++) {
+					count *= shape[i];
+				}
+				stage.addFrames(count);
+				planner.recordFootprint(count, footprint);
+			}
+			stage.addBytesOut(getNbytes(result));
+		}
+		
+		private long getNbytes(Dataset data) {
+			if (data == null) {
+				return 0;
+			}
+			long bytes = data.getNbytes();
+			if (data.getErrors() != null) {
+				bytes += DatasetUtils.convertToDataset(data.getErrors()).getNbytes();
+			}
+			return bytes;
 		}
     }
-	
+    
 	public LazyNcdProcessing() {
 		enableMask = false;
 		normChannel = -1;
@@ -176,7 +245,6 @@ public class LazyNcdProcessing {
 		ncdDetectors = new NcdDetectors();
 				
 		cores = Runtime.getRuntime().availableProcessors();
-		maxMemory = Runtime.getRuntime().maxMemory();
 		
 		inputfile_handle = -1;
 		
@@ -192,8 +260,6 @@ public class LazyNcdProcessing {
 		
 		result_group_id =  -1;
 		
-		lock = Job.getJobManager().newLock();
-		
 		qaxis = null;
 	}
 
@@ -369,6 +435,8 @@ public class LazyNcdProcessing {
 			frames_int = (int[]) ConvertUtils.convert(frames, int[].class);
 		}
 		
+		planner = createBatchPlanner(dim, frames);
+		
 		lazyDetectorResponse = new LazyDetectorResponse(drFile, detector);
 		if(flags.isEnableDetectorResponse()) {
 			lazyDetectorResponse.setDrFile(drFile);
@@ -417,7 +485,7 @@ public class LazyNcdProcessing {
 			lazyBackgroundSubtraction.setBgScale(bgScaling);
 			lazyBackgroundSubtraction.configure(dimension, flags.isEnableSector() ? secFrames : frames, processing_group_id);
 			
-			lazyBackgroundSubtraction.preprocess(dimension, frames, frameBatch);
+			lazyBackgroundSubtraction.preprocess(dimension, frames, planner.getFrameBatch());
 		}
 		
 		lazyInvariant = new LazyInvariant();
@@ -433,16 +501,33 @@ public class LazyNcdProcessing {
 	 * @throws HDF5Exception 
 	 */
 	public void execute(final IProgressMonitor monitor) throws HDF5Exception {
+		// Input slices are read on a dedicated I/O thread ahead of the reduction jobs
+		// and results are written behind them
+		ioService = new HDF5IOService();
+		metrics = new ProcessingMetrics();
+		try {
+			executeStages(monitor);
+			if (!monitor.isCanceled()) {
+				metrics.writeNexus(entry_group_id, detector + "_provenance");
+			}
+		} finally {
+			ioService.shutdown();
+			ioService = null;
+		}
+	}
+	
+	private void executeStages(final IProgressMonitor monitor) throws HDF5Exception {
 		
 		int sliceDim = 0;
 		int sliceSize = (int) frames[0];
+		boolean adaptive = false;
 			 		
 		// We will slice only 2D data. 1D data is loaded into memory completely
 		if (dim == 2) {
 			
-			estimateFrameBatchSize(dim, frames);
-			
-			// Find dimension that needs to be sliced
+			// Slice dimension is chosen for the initial batch size. Jobs then take
+			// a varying number of steps along it following the batch planner.
+			int frameBatch = planner.getFrameBatch();
 			MultidimensionalCounter dimCounter = new MultidimensionalCounter(Arrays.copyOfRange(frames_int, 0, rank - dim));
 			if (dimCounter.getSize() > frameBatch) {
 				int[] sliceIdx = dimCounter.getCounts(frameBatch);
@@ -453,262 +538,49 @@ public class LazyNcdProcessing {
 					}
 				}
 				sliceSize = sliceIdx[sliceDim];
+				adaptive = true;
 			}
 		}
 		
-		SliceSettings sliceParams = new SliceSettings(frames, sliceDim, sliceSize);
-		
-		int[] iter_array = Arrays.copyOfRange(frames_int, 0, sliceDim + 1);
-		int [] start = new int[iter_array.length];
-		int[] step =  new int[iter_array.length];
-		Arrays.fill(start, 0);
-		Arrays.fill(step, 1);
-		step[sliceDim] = sliceSize;
-		SliceND slice = new SliceND(iter_array, null, iter_array, step);
-		IndexIterator iter = new SliceIterator(iter_array, ShapeUtils.calcSize(iter_array), slice);
-		
 		if (flags.isEnableSector() && dim == 2) {
-			ArrayList<Job> sectorJobList = new ArrayList<Job>();
-			ArrayList<Job> runningJobList = new ArrayList<Job>();
-			
-			while (iter.hasNext()) {
-				
-				DataReductionJob sectorJob = new DataReductionJob("Sector Integration") {
-
-					@Override
-					protected IStatus run(IProgressMonitor jobmonitor) {
-						try {
-							Dataset data;
-							try {
-								lock.acquire();
-								data = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_ids);
-								if (tmp_errors_ids != null) { 
-									if(tmp_errors_ids.dataset_id >= 0) {
-										Dataset errors = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_errors_ids);
-										data.setErrors(errors);
-									} else {
-										tmp_errors_ids.setSlice(currentSliceParams);
-									}
-								}
-							} catch (Exception e) {
-								throw e;
-							} finally {
-								lock.release();
-							}
-
-							if (flags.isEnableDetectorResponse()) {
-								jobmonitor.setTaskName(monitorFile + " : Correct for detector response");
-								data = lazyDetectorResponse.execute(dim, data, currentSliceParams, lock);
-							}
-
-							jobmonitor.setTaskName(monitorFile + " : Performing sector integration");
-							
-							data = lazySectorIntegration.execute(dim, data, currentSliceParams, lock)[1];
-						} catch (Exception e) {
-							e.printStackTrace();
-							return Status.CANCEL_STATUS;
-						}
-
-						return Status.OK_STATUS;
-					}
-				};
-				
-				sectorJob.tmp_ids = new DataSliceIdentifiers(input_ids);
-				sectorJob.tmp_errors_ids = new DataSliceIdentifiers(input_errors_ids);
-				sliceParams.setStart(iter.getPos());
-				sectorJob.currentSliceParams = new SliceSettings(sliceParams);
-				sectorJobList.add(sectorJob);
-				
-			}
+			StageMetrics sectorStage = metrics.getStage("Sector Integration");
+			sectorStage.start();
+			monitor.beginTask(monitorFile + " : Running Sector Integration Stage", getFrameCount(0, rank - dim));
+			boolean completed = runJobs(true, sliceDim, sliceSize, adaptive, monitor);
+			sectorStage.stop();
 			
-			monitor.beginTask(monitorFile + " : Running Sector Integration Stage", sectorJobList.size());
-			for (Job job : sectorJobList) {
-				if (monitor.isCanceled()) {
-					sectorJobList.clear();
-					for (Job runningJob : runningJobList) {
-						runningJob.cancel();
-					}
-					break;
-				}
-				while (runningJobList.size() >= cores) {
-					try {
-						runningJobList.get(0).join();
-						runningJobList.remove(0);
-						monitor.worked(1);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-				job.schedule();
-				runningJobList.add(job);				
-			}
-			
-			for (Job job : sectorJobList) {
-				try {
-					job.join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-			
-			if (monitor.isCanceled()) {
+			if (!completed || monitor.isCanceled()) {
 				return;
 			}
 			
 			monitor.done();
+			ProcessingMetrics.report(monitor, sectorStage);
 			
 			dim = 1;
 			rank = secRank;
 			sliceDim = 0;
 			sliceSize = (int) secFrames[0];
+			adaptive = false;
 			
 			frames = secFrames;
 			frames_int = (int[]) ConvertUtils.convert(secFrames, int[].class);
 
-			sliceParams = new SliceSettings(frames, sliceDim, sliceSize);
-			IntegerDataset idx_dataset = DatasetFactory.createFromObject(IntegerDataset.class, new int[] {sliceSize}, new int[] {1});
-			iter = idx_dataset.getSliceIterator(new int[] {0}, new int[] {1}, new int[] {1});
-			
 			input_ids.setIDs(lazySectorIntegration.sec_group_id, lazySectorIntegration.sec_data_id);
 			input_errors_ids.setIDs(lazySectorIntegration.sec_group_id, lazySectorIntegration.sec_errors_id);
 		}
 
-		ArrayList<DataReductionJob> processingJobList = new ArrayList<DataReductionJob>();
-		ArrayList<DataReductionJob> runningJobList = new ArrayList<DataReductionJob>();
-		
-		while (iter.hasNext()) {
-
-			DataReductionJob processingJob = new DataReductionJob("Data Reduction") {
-
-				@Override
-				protected IStatus run(IProgressMonitor jobmonitor) {
-					try {
-						Dataset data;
-						int finalSliceDim = currentSliceParams.getSliceDim();
-						int finalSliceSize = currentSliceParams.getSliceSize();
-						
-						try {
-							lock.acquire();
-							data = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_ids);
-							if (tmp_errors_ids != null) { 
-								if(tmp_errors_ids.dataset_id >= 0) {
-									Dataset errors = NcdNexusUtils.sliceInputData(currentSliceParams, tmp_errors_ids);
-									data.setErrors(errors);
-								} else {
-									tmp_errors_ids.setSlice(currentSliceParams);
-								}
-							}
-						} catch (Exception e) {
-							throw e;
-						} finally {
-							lock.release();
-						}
-
-						if (flags.isEnableDetectorResponse() && !flags.isEnableSector()) {
-							jobmonitor.setTaskName(monitorFile + " : Correct for detector response");
-							data = lazyDetectorResponse.execute(dim, data, currentSliceParams, lock);
-						}
-
-						if (flags.isEnableNormalisation()) {
-							jobmonitor.setTaskName(monitorFile + " : Normalising data");
-							data = lazyNormalisation.execute(dim, data, currentSliceParams, lock);
-						}
-
-						if (flags.isEnableBackground()) {
-							jobmonitor.setTaskName(monitorFile + " : Subtracting background");
-
-							long[] bgFrames = lazyBackgroundSubtraction.bgFrames; 
-							int[] bgFrames_int = lazyBackgroundSubtraction.bgFrames_int;
-							int bgSliceSize = Math.min(finalSliceSize, bgFrames_int [finalSliceDim]);
-							int[] bgStart = new int[finalSliceDim + 1];
-							for (int i = 0; i <= finalSliceDim; i++) {
-								bgStart[i] = Math.min(currentSliceParams.getStart()[i], bgFrames_int[i] - 1);
-							}
-							SliceSettings bgSliceParams = new SliceSettings(bgFrames, finalSliceDim, bgSliceSize);
-							bgSliceParams.setStart(bgStart);
-							Dataset bgData = NcdNexusUtils.sliceInputData(bgSliceParams, tmp_bgIds);
-							if(tmp_errors_bgIds != null) {
-								if (tmp_errors_bgIds.dataset_id >= 0) {
-									Dataset bgErrors = NcdNexusUtils.sliceInputData(bgSliceParams, tmp_errors_bgIds);
-									bgData.setErrors(bgErrors);
-								} else {
-									tmp_errors_bgIds.setSlice(bgSliceParams);
-								}
-							}
-							Dataset[] remapData = NcdDataUtils.matchDataDimensions(data, bgData);
-							Dataset[] remapErrors = NcdDataUtils.matchDataDimensions(data.getErrors(), bgData.getErrors());
-							remapData[0].setErrors(remapErrors[0]);
-							remapData[1].setErrors(remapErrors[1]);
-							Dataset res = lazyBackgroundSubtraction.execute(dim, remapData[0], remapData[1], currentSliceParams, lock);
-							remapData[0] = res;
-							remapErrors[0] = res.getErrors();
-
-							// restore original axis order in output dataset
-							data = DatasetUtils.transpose(remapData[0], (int[]) remapData[2].getBuffer());
-							data.setErrors(DatasetUtils.transpose(remapErrors[0], (int[]) remapErrors[2].getBuffer()));
-						}
-
-						if (flags.isEnableInvariant()) {
-							jobmonitor.setTaskName(monitorFile + " : Calculating invariant");
-							SliceSettings invSliceParam = new SliceSettings(lazyInvariant.invFrames, finalSliceDim, finalSliceSize);
-							invSliceParam.setStart(Arrays.copyOf(currentSliceParams.getStart(), finalSliceDim + 1));
-							lazyInvariant.execute(dim, data, invSliceParam, lock);
-						}
-					} catch (Exception e) {
-						e.printStackTrace();
-						return Status.CANCEL_STATUS;
-					}
-
-					return Status.OK_STATUS;
-				}
-			};
-			
-			processingJob.tmp_ids = new DataSliceIdentifiers(input_ids);
-			processingJob.tmp_errors_ids = new DataSliceIdentifiers(input_errors_ids);
-			sliceParams.setStart(iter.getPos());
-			processingJob.currentSliceParams = new SliceSettings(sliceParams);
-			if (flags.isEnableBackground()) {
-				processingJob.tmp_bgIds = new DataSliceIdentifiers(lazyBackgroundSubtraction.bgIds);
-				processingJob.tmp_errors_bgIds = new DataSliceIdentifiers(lazyBackgroundSubtraction.bgErrorsIds);
-			}
-			processingJobList.add(processingJob);
-		}
-
-		monitor.beginTask(monitorFile + " : Running NCD Data Reduction stages", processingJobList.size());
-		for (DataReductionJob job : processingJobList) {
-			if (monitor.isCanceled()) {
-				processingJobList.clear();
-				for (Job runningJob : runningJobList) {
-					runningJob.cancel();
-				}
-				break;
-			}
-			while (runningJobList.size() >= cores) {
-				try {
-					runningJobList.get(0).join();
-					runningJobList.remove(0);
-					monitor.worked(1);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-			job.schedule();
-			runningJobList.add(job);
-		}
+		StageMetrics processingStage = metrics.getStage("Data Reduction");
+		processingStage.start();
+		monitor.beginTask(monitorFile + " : Running NCD Data Reduction stages", getFrameCount(0, rank - dim));
+		boolean completed = runJobs(false, sliceDim, sliceSize, adaptive, monitor);
+		processingStage.stop();
 		
-		for (DataReductionJob job : processingJobList) {
-			try {
-				job.join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-		
-		if (monitor.isCanceled()) {
+		if (!completed || monitor.isCanceled()) {
 			return;
 		}
 		
 		monitor.done();
+		ProcessingMetrics.report(monitor, processingStage);
 		
 		if (flags.isEnableBackground()) {
 			input_ids.setIDs(lazyBackgroundSubtraction.bg_group_id, lazyBackgroundSubtraction.bg_data_id);
@@ -722,6 +594,8 @@ public class LazyNcdProcessing {
 		}
 		
 		if(flags.isEnableAverage()) {
+			StageMetrics averageStage = metrics.getStage("Average");
+			averageStage.start();
 			monitor.beginTask(monitorFile + " : Averaging  datasets", IProgressMonitor.UNKNOWN);
 			int[] averageIndices = new int[frames.length - dim];
 			for (int i = 0; i < averageIndices.length; i++) {
@@ -733,8 +607,10 @@ public class LazyNcdProcessing {
 			lazyAverage = new LazyAverage();
 			lazyAverage.setAverageIndices(averageIndices);
 			lazyAverage.setMonitor(monitor);
-			lazyAverage.configure(dim, frames_int, processing_group_id, frameBatch);
+			lazyAverage.configure(dim, frames_int, processing_group_id, planner.getFrameBatch());
 			lazyAverage.execute(input_ids, input_errors_ids);
+			averageStage.stop();
+			averageStage.addFrames(ShapeUtils.calcLongSize(Arrays.copyOf(frames_int, frames_int.length - dim)));
 			
 			if (monitor.isCanceled()) {
 				return;
@@ -747,6 +623,7 @@ public class LazyNcdProcessing {
 			lazyAverage.writeNcdMetadata(input_ids.datagroup_id);
 			
 			monitor.done();
+			ProcessingMetrics.report(monitor, averageStage);
 		}
 		
 	    H5.H5Lcopy(input_ids.datagroup_id, "./data", result_group_id, "./data", HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
@@ -760,41 +637,247 @@ public class LazyNcdProcessing {
 		    }
 	    }
 	    
+	    List<SaxsPlotData> plots = new ArrayList<SaxsPlotData>();
 	    if (flags.isEnableLogLogPlot()) {
-	    	SaxsPlotData plotData = new LogLogPlotData();
-	    	addPlotData(plotData, detector, qaxis);
+	    	plots.add(new LogLogPlotData());
 	    }
-	    
 	    if (flags.isEnableGuinierPlot()) {
-	    	SaxsPlotData plotData = new GuinierPlotData();
-	    	addPlotData(plotData, detector, qaxis);
+	    	plots.add(new GuinierPlotData());
 	    }
-	    
 	    if (flags.isEnablePorodPlot()) {
-	    	SaxsPlotData plotData = new PorodPlotData();
-	    	addPlotData(plotData, detector, qaxis);
+	    	plots.add(new PorodPlotData());
 	    }
-	    
 	    if (flags.isEnableKratkyPlot()) {
-	    	SaxsPlotData plotData = new KratkyPlotData();
-	    	addPlotData(plotData, detector, qaxis);
+	    	plots.add(new KratkyPlotData());
 	    }
-	    
 	    if (flags.isEnableZimmPlot()) {
-	    	SaxsPlotData plotData = new ZimmPlotData();
-	    	addPlotData(plotData, detector, qaxis);
+	    	plots.add(new ZimmPlotData());
 	    }
-	    
 	    if (flags.isEnableDebyeBuechePlot()) {
-	    	SaxsPlotData plotData = new DebyeBuechePlotData();
-	    	addPlotData(plotData, detector, qaxis);
+	    	plots.add(new DebyeBuechePlotData());
+	    }
+	    if (!plots.isEmpty()) {
+	    	executePlots(plots, qaxis, monitor);
 	    }
 	}
 	
-	private void addPlotData(SaxsPlotData plotData, String detector, Dataset qaxis) throws HDF5Exception {
-    	plotData.setDetector(detector);
-    	plotData.setQaxis(qaxis, qaxisUnit);
-    	plotData.execute(entry_group_id, input_ids, input_errors_ids);
+	/**
+	 * Calculate all enabled SAXS plots reading every frame of the reduced data once
+	 */
+	private void executePlots(List<SaxsPlotData> plots, Dataset qaxis, IProgressMonitor monitor) throws HDF5Exception {
+		for (SaxsPlotData plotData : plots) {
+			plotData.setDetector(detector);
+			plotData.setQaxis(qaxis, qaxisUnit);
+		}
+		
+		long[] frames = NcdNexusUtils.getIdsDatasetShape(input_ids.dataspace_id);
+		int points = (int) frames[frames.length - 1];
+		long totalFrames = 1;
+		for (int i = 0; i < frames.length - 1; i++) {
+			totalFrames *= frames[i];
+		}
+		// Input and output blocks of every plot hold float data and double errors
+		AdaptiveBatchPlanner plotPlanner = new AdaptiveBatchPlanner(AdaptiveBatchPlanner.DEFAULT_HEAP_FRACTION, 1,
+				(int) Math.min(totalFrames, Integer.MAX_VALUE), 12L * points * (1 + plots.size()));
+		
+		StageMetrics plotStage = metrics.getStage("SAXS Plots");
+		plotStage.start();
+		try {
+			SaxsPlotEngine engine = new SaxsPlotEngine(plots, qaxis, cores, plotPlanner.getFrameBatch());
+			engine.execute(entry_group_id, input_ids, input_errors_ids, ioService, plotStage);
+		} finally {
+			plotStage.stop();
+		}
+		plotStage.addFrames(totalFrames);
+		ProcessingMetrics.report(monitor, plotStage);
+	}
+	
+	/**
+	 * Run reduction jobs over consecutive data slices. At most as many jobs as allowed by the batch planner
+	 * run at the same time, and the planner is updated as the jobs complete.
+	 * 
+	 * @param sectorStage
+	 *            - run sector integration jobs instead of the data reduction jobs
+	 * @param sliceDim
+	 *            - dimension along which data is sliced
+	 * @param sliceSize
+	 *            - number of steps along the slice dimension in every job
+	 * @param adaptive
+	 *            - take the number of steps from the frame batch size planned for the next job instead
+	 * @return false if processing was cancelled
+	 * @throws HDF5Exception
+	 *             if writing results of any job has failed
+	 */
+	private boolean runJobs(boolean sectorStage, int sliceDim, int sliceSize, boolean adaptive, IProgressMonitor monitor) throws HDF5Exception {
+		SliceGenerator slices = new SliceGenerator(frames, sliceDim, rank - dim);
+		List<DataReductionJob> runningJobList = new ArrayList<DataReductionJob>();
+		while (slices.hasNext()) {
+			if (monitor.isCanceled()) {
+				for (Job runningJob : runningJobList) {
+					runningJob.cancel();
+				}
+				return false;
+			}
+			SliceSettings slice = (adaptive ? slices.nextBatch(planner.getFrameBatch()) : slices.next(sliceSize));
+			DataReductionJob job = (sectorStage ? createSectorJob(slice) : createProcessingJob(slice));
+			job.frameCount = slice.getSliceSize() * slices.getStepFrames();
+			// Input of the next job is read while waiting for a free slot
+			job.prefetchInputData();
+			while (runningJobList.size() >= planner.getConcurrency()) {
+				DataReductionJob runningJob = runningJobList.remove(0);
+				join(runningJob);
+				monitor.worked(runningJob.frameCount);
+				planner.update();
+			}
+			job.schedule();
+			runningJobList.add(job);
+		}
+		
+		for (DataReductionJob job : runningJobList) {
+			join(job);
+			monitor.worked(job.frameCount);
+		}
+		// Results of the last jobs can still be queued for writing
+		ioService.flush();
+		return true;
+	}
+	
+	private static void join(Job job) {
+		try {
+			job.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private DataReductionJob createSectorJob(SliceSettings slice) {
+		DataReductionJob sectorJob = new DataReductionJob("Sector Integration") {
+
+			@Override
+			protected IStatus run(IProgressMonitor jobmonitor) {
+				try {
+					long startTime = System.nanoTime();
+					Dataset input = track(readInputData());
+					Dataset data = input;
+
+					if (flags.isEnableDetectorResponse()) {
+						jobmonitor.setTaskName(monitorFile + " : Correct for detector response");
+						data = track(lazyDetectorResponse.execute(dim, data, currentSliceParams, ioService, stage));
+					}
+
+					jobmonitor.setTaskName(monitorFile + " : Performing sector integration");
+					
+					data = track(lazySectorIntegration.execute(dim, data, currentSliceParams, ioService, stage)[1]);
+					recordTask(startTime, input, dim, data);
+				} catch (Exception e) {
+					e.printStackTrace();
+					return Status.CANCEL_STATUS;
+				}
+
+				return Status.OK_STATUS;
+			}
+		};
+		
+		sectorJob.tmp_ids = new DataSliceIdentifiers(input_ids);
+		sectorJob.tmp_errors_ids = new DataSliceIdentifiers(input_errors_ids);
+		sectorJob.currentSliceParams = slice;
+		return sectorJob;
+	}
+	
+	private DataReductionJob createProcessingJob(SliceSettings slice) {
+		DataReductionJob processingJob = new DataReductionJob("Data Reduction") {
+
+			@Override
+			protected IStatus run(IProgressMonitor jobmonitor) {
+				try {
+					Dataset data;
+					int finalSliceDim = currentSliceParams.getSliceDim();
+					int finalSliceSize = currentSliceParams.getSliceSize();
+					
+					long startTime = System.nanoTime();
+					data = track(readInputData());
+					Dataset input = data;
+
+					if (flags.isEnableDetectorResponse() && !flags.isEnableSector()) {
+						jobmonitor.setTaskName(monitorFile + " : Correct for detector response");
+						data = track(lazyDetectorResponse.execute(dim, data, currentSliceParams, ioService, stage));
+					}
+
+					if (flags.isEnableNormalisation()) {
+						jobmonitor.setTaskName(monitorFile + " : Normalising data");
+						data = track(lazyNormalisation.execute(dim, data, currentSliceParams, ioService, stage));
+					}
+
+					if (flags.isEnableBackground()) {
+						jobmonitor.setTaskName(monitorFile + " : Subtracting background");
+
+						long[] bgFrames = lazyBackgroundSubtraction.bgFrames; 
+						int[] bgFrames_int = lazyBackgroundSubtraction.bgFrames_int;
+						int bgSliceSize = Math.min(finalSliceSize, bgFrames_int [finalSliceDim]);
+						int[] bgStart = new int[finalSliceDim + 1];
+						for (int i = 0; i <= finalSliceDim; i++) {
+							bgStart[i] = Math.min(currentSliceParams.getStart()[i], bgFrames_int[i] - 1);
+						}
+						SliceSettings bgSliceParams = new SliceSettings(bgFrames, finalSliceDim, bgSliceSize);
+						bgSliceParams.setStart(bgStart);
+						long bgErrorsID = -1;
+						if(tmp_errors_bgIds != null) {
+							if (tmp_errors_bgIds.dataset_id >= 0) {
+								bgErrorsID = tmp_errors_bgIds.dataset_id;
+							} else {
+								tmp_errors_bgIds.setSlice(bgSliceParams);
+							}
+						}
+						Dataset bgData = HDF5IOService.get(ioService.readSlice(bgSliceParams, tmp_bgIds.dataset_id, bgErrorsID, stage), stage);
+						track(bgData);
+						Dataset[] remapData = NcdDataUtils.matchDataDimensions(data, bgData);
+						Dataset[] remapErrors = NcdDataUtils.matchDataDimensions(data.getErrors(), bgData.getErrors());
+						remapData[0].setErrors(remapErrors[0]);
+						remapData[1].setErrors(remapErrors[1]);
+						Dataset res = track(lazyBackgroundSubtraction.execute(dim, remapData[0], remapData[1], currentSliceParams, ioService, stage));
+						remapData[0] = res;
+						remapErrors[0] = res.getErrors();
+
+						// restore original axis order in output dataset
+						data = DatasetUtils.transpose(remapData[0], (int[]) remapData[2].getBuffer());
+						data.setErrors(DatasetUtils.transpose(remapErrors[0], (int[]) remapErrors[2].getBuffer()));
+					}
+
+					if (flags.isEnableInvariant()) {
+						jobmonitor.setTaskName(monitorFile + " : Calculating invariant");
+						SliceSettings invSliceParam = new SliceSettings(lazyInvariant.invFrames, finalSliceDim, finalSliceSize);
+						invSliceParam.setStart(Arrays.copyOf(currentSliceParams.getStart(), finalSliceDim + 1));
+						lazyInvariant.execute(dim, data, invSliceParam, ioService, stage);
+					}
+					recordTask(startTime, input, dim, data);
+				} catch (Exception e) {
+					e.printStackTrace();
+					return Status.CANCEL_STATUS;
+				}
+
+				return Status.OK_STATUS;
+			}
+		};
+		
+		processingJob.tmp_ids = new DataSliceIdentifiers(input_ids);
+		processingJob.tmp_errors_ids = new DataSliceIdentifiers(input_errors_ids);
+		processingJob.currentSliceParams = slice;
+		if (flags.isEnableBackground()) {
+			processingJob.tmp_bgIds = new DataSliceIdentifiers(lazyBackgroundSubtraction.bgIds);
+			processingJob.tmp_errors_bgIds = new DataSliceIdentifiers(lazyBackgroundSubtraction.bgErrorsIds);
+		}
+		return processingJob;
+	}
+	
+	/**
+	 * @return number of frames in the given range of data dimensions
+	 */
+	private int getFrameCount(int from, int to) {
+		long count = 1;
+		for (int i = from; i < to; i++) {
+			count *= frames[i];
+		}
+		return (int) Math.min(count, Integer.MAX_VALUE);
 	}
 	
 	public void complete() throws HDF5LibraryException {
@@ -818,28 +901,40 @@ public class LazyNcdProcessing {
 		}
 	}
 	
-	private void estimateFrameBatchSize(int dim, long[] frames) {
-		int batchSize = 12; // use 12 byte for float data and double errors
+	/**
+	 * Create batch planner with initial frame footprint estimated from the enabled stages.
+	 * The estimate is replaced by the footprint measured by the reduction jobs.
+	 */
+	private AdaptiveBatchPlanner createBatchPlanner(int dim, long[] frames) {
+		long frameBytes = 12; // use 12 byte for float data and double errors
 		for (int i = frames.length - dim; i < frames.length; i++) {
-			batchSize *= frames[i];
+			frameBytes *= frames[i];
+		}
+		// Input frames and the results of every enabled stage are kept until the job completes
+		int buffers = 1;
+		if (flags.isEnableDetectorResponse()) {
+			buffers++;
 		}
-		int totalBatch = Math.max(1, (int) (maxMemory / (10 * batchSize)));
-		if (totalBatch <= cores) {
-			cores = totalBatch;
-			frameBatch = 1;
-		} else {
-			frameBatch = totalBatch / cores;
+		if (flags.isEnableSector()) {
+			buffers++;
+		}
+		if (flags.isEnableNormalisation()) {
+			buffers++;
+		}
+		if (flags.isEnableBackground()) {
+			buffers += 2;
 		}
-		if (!flags.isEnableSector() && dim == 2) {
-			cores = Math.min(cores, 2);
-			frameBatch = 1;
+		long totalFrames = 1;
+		for (int i = 0; i < frames.length - dim; i++) {
+			totalFrames *= frames[i];
 		}
+		return new AdaptiveBatchPlanner(AdaptiveBatchPlanner.DEFAULT_HEAP_FRACTION, cores,
+				(int) Math.min(totalFrames, Integer.MAX_VALUE), buffers * frameBytes);
 	}
 
 	private Dataset calculateQaxisDataset(String detector, int dim, long[] secFrames, long[] frames) throws HDF5LibraryException {
 		
 		Dataset qaxis = null;
-		Dataset qaxisErr = null;
 		IDiffractionMetadata dm = null;
 		boolean hasErrors = true;
 		
@@ -891,33 +986,19 @@ public class LazyNcdProcessing {
 		
 		if (slope != null && intercept != null) {
 			int numPoints = (int) secFrames[secFrames.length - 1];
-			qaxis = DatasetFactory.zeros(new int[] { numPoints }, Dataset.FLOAT32);
-			qaxisErr = DatasetFactory.zeros(new int[] { numPoints }, Dataset.FLOAT32);
 			if (dim == 1) {
-				Amount<Length> pxWaxs = ncdDetectors.getPxWaxs();
-				for (int i = 0; i < numPoints; i++) {
-					Amount<ScatteringVector> amountQaxis = slope.times(i).times(pxWaxs).plus(intercept).to(qaxisUnit); 
-					qaxis.set(amountQaxis.getEstimatedValue(), i);
-					if (hasErrors) {
-						qaxisErr.set(amountQaxis.getAbsoluteError(), i);
-					}
-				}
+				QAxisCalculator calculator = new QAxisCalculator(slope, intercept, ncdDetectors.getPxWaxs(), qaxisUnit);
+				qaxis = calculator.createDataset(numPoints, 0.0, hasErrors);
+			} else if (flags.isEnableSector()) {
+				double d2bs = intSector.getRadii()[0];
+				QAxisCalculator calculator = new QAxisCalculator(slope, intercept, ncdDetectors.getPxSaxs(), qaxisUnit);
+				qaxis = calculator.createDataset(numPoints, d2bs, hasErrors);
 			} else {
-				if (dim > 1 && flags.isEnableSector()) {
-					double d2bs = intSector.getRadii()[0];
-					Amount<Length> pxSaxs = ncdDetectors.getPxSaxs();
-					for (int i = 0; i < numPoints; i++) {
-						Amount<ScatteringVector> amountQaxis = slope.times(i + d2bs).times(pxSaxs).plus(intercept).to(qaxisUnit);
-						qaxis.set(amountQaxis.getEstimatedValue(), i);
-						if (hasErrors) {
-							qaxisErr.set(amountQaxis.getAbsoluteError(), i);
-						}
-					}
+				qaxis = DatasetFactory.zeros(new int[] { numPoints }, Dataset.FLOAT32);
+				if (hasErrors) {
+					qaxis.setErrors(DatasetFactory.zeros(new int[] { numPoints }, Dataset.FLOAT32));
 				}
 			}
-			if (hasErrors) {
-				qaxis.setErrors(qaxisErr);
-			}
 		}
 		
 		return qaxis;
@@ -16,12 +16,9 @@
 
 package uk.ac.diamond.scisoft.ncd.reduction;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
-import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.lang.ArrayUtils;
-import org.eclipse.core.runtime.jobs.ILock;
 import org.eclipse.dawnsci.hdf.object.Nexus;
 import org.eclipse.january.dataset.Dataset;
 import org.eclipse.january.dataset.DatasetFactory;
@@ -32,7 +29,9 @@ import hdf.hdf5lib.exceptions.HDF5Exception;
 import uk.ac.diamond.scisoft.ncd.core.Normalisation;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 
 public class LazyNormalisation extends LazyDataReduction {
 	
@@ -105,7 +104,7 @@ public class LazyNormalisation extends LazyDataReduction {
 		writeNcdMetadata(norm_group_id);
 	}
 	
-	public Dataset execute(int dim, Dataset data, SliceSettings sliceData, ILock lock) throws HDF5Exception {
+	public Dataset execute(int dim, Dataset data, SliceSettings sliceData, HDF5IOService ioService, StageMetrics stage) throws HDF5Exception {
 			Normalisation nm = new Normalisation();
 			nm.setCalibChannel(normChannel);
 			if(absScaling != null) {
@@ -118,7 +117,7 @@ public class LazyNormalisation extends LazyDataReduction {
 			
 			SliceSettings calibrationSliceParams = new SliceSettings(sliceData);
 			calibrationSliceParams.setFrames(framesCal);
-			Dataset dataCal = NcdNexusUtils.sliceInputData(calibrationSliceParams, calibration_ids);
+			Dataset dataCal = HDF5IOService.get(ioService.readSlice(calibrationSliceParams, calibration_ids.dataset_id, -1, stage), stage);
 			Dataset calibngd = flattenGridData(dataCal, 1);
 			
 			Object[] myobj = nm.process(data.getBuffer(), errors.getBuffer(), calibngd.getBuffer(), data.getShape()[0], data.getShape(), calibngd.getShape());
@@ -128,65 +127,8 @@ public class LazyNormalisation extends LazyDataReduction {
 			Dataset myres = DatasetFactory.createFromObject(mydata, dataShape);
 			myres.setErrorBuffer(DatasetFactory.createFromObject(myerrors, dataShape));
 
-			long filespace_id = -1;
-			long type_id = -1;
-			long memspace_id = -1;
-			long select_id = -1;
-			long write_id = -1;
-			
-			try{
-				lock.acquire();
-				
-				long[] frames = sliceData.getFrames();
-				long[] start_pos = (long[]) ConvertUtils.convert(sliceData.getStart(), long[].class);
-				int sliceDim = sliceData.getSliceDim();
-				int sliceSize = sliceData.getSliceSize();
-
-				long[] start = Arrays.copyOf(start_pos, frames.length);
-
-				long[] block = Arrays.copyOf(frames, frames.length);
-				Arrays.fill(block, 0, sliceData.getSliceDim(), 1);
-				block[sliceDim] = Math.min(frames[sliceDim] - start_pos[sliceDim], sliceSize);
-
-				long[] count = new long[frames.length];
-				Arrays.fill(count, 1);
-
-				filespace_id = H5.H5Dget_space(norm_data_id);
-				type_id = H5.H5Dget_type(norm_data_id);
-				memspace_id = H5.H5Screate_simple(block.length, block, null);
-				
-				select_id = H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET,
-						start, block, count, block);
-				if (select_id < 0) {
-					throw new HDF5Exception("Failed to allocate space fro writing Normalisation data");
-				}
-				
-				write_id = H5.H5Dwrite(norm_data_id, type_id, memspace_id, filespace_id,
-						HDF5Constants.H5P_DEFAULT, mydata);
-				if (write_id < 0) {
-					throw new HDF5Exception("Failed to write Normalisation data into the results file");
-				}
-				
-				NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspace_id, type_id, filespace_id)));
-				
-				filespace_id = H5.H5Dget_space(norm_errors_id);
-				type_id = H5.H5Dget_type(norm_errors_id);
-				memspace_id = H5.H5Screate_simple(block.length, block, null);
-				select_id = H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET,
-						start, block, count, block);
-				if (select_id < 0) {
-					throw new HDF5Exception("Failed to allocate space for writing Normalisation error data");
-				}
-				write_id = H5.H5Dwrite(norm_errors_id, type_id, memspace_id, filespace_id,
-						HDF5Constants.H5P_DEFAULT, myres.getErrors().getBuffer());
-				if (write_id < 0) {
-					throw new HDF5Exception("Failed to write Normalisation error data into the results file");
-				}
-				
-			} finally {
-				lock.release();
-				NcdNexusUtils.closeH5idList(new ArrayList<Long>(Arrays.asList(memspace_id, type_id, filespace_id)));
-			}
+			ioService.writeSlice(norm_data_id, sliceData, mydata, stage);
+			ioService.writeSlice(norm_errors_id, sliceData, myres.getErrors().getBuffer(), stage);
 			
 			return myres;
 	}
@@ -28,7 +28,6 @@ import javax.measure.unit.Unit;
 import javax.measure.unit.UnitFormat;
 
 import org.apache.commons.beanutils.ConvertUtils;
-import org.eclipse.core.runtime.jobs.ILock;
 import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
 import org.eclipse.dawnsci.hdf.object.Nexus;
 import org.eclipse.january.dataset.Dataset;
@@ -41,16 +40,19 @@ import hdf.hdf5lib.exceptions.HDF5Exception;
 import hdf.hdf5lib.exceptions.HDF5LibraryException;
 import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVector;
 import uk.ac.diamond.scisoft.analysis.crystallography.ScatteringVectorOverDistance;
-import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
 import uk.ac.diamond.scisoft.ncd.core.SectorIntegration;
+import uk.ac.diamond.scisoft.ncd.core.SectorIntegrationPlan;
 import uk.ac.diamond.scisoft.ncd.core.data.DataSliceIdentifiers;
 import uk.ac.diamond.scisoft.ncd.core.data.SliceSettings;
+import uk.ac.diamond.scisoft.ncd.core.utils.HDF5IOService;
 import uk.ac.diamond.scisoft.ncd.core.utils.NcdNexusUtils;
+import uk.ac.diamond.scisoft.ncd.core.utils.StageMetrics;
 
 public class LazySectorIntegration extends LazyDataReduction {
 
 	private SectorROI intSector;
 	private Dataset[] areaData;
+	private SectorIntegrationPlan integrationPlan;
 	private Amount<ScatteringVectorOverDistance> gradient;
 	private Amount<ScatteringVector> intercept;
 	private Amount<Length> cameraLength;
@@ -140,7 +142,12 @@ public class LazySectorIntegration extends LazyDataReduction {
 		az_errors_id = NcdNexusUtils.makedata(sec_group_id, "azimuth_errors", typeDouble, azFrames, false, "counts");
 		
 		int[] areaShape = (int[]) ConvertUtils.convert(Arrays.copyOfRange(frames, frames.length - dim, frames.length), int[].class); 
-		areaData = ROIProfile.area(areaShape, Dataset.FLOAT32, mask, intSector, calculateRadial, calculateAzimuthal, fast);
+		areaData = SectorIntegration.getAreaData(areaShape, intSector, mask, calculateRadial, calculateAzimuthal, fast);
+		integrationPlan = null;
+		if (fast && SectorIntegrationPlan.isSupported(intSector)) {
+			integrationPlan = SectorIntegrationPlan.create(areaShape, intSector, mask);
+			areaData = integrationPlan.getAreaData();
+		}
 		
 		if (qaxis != null) {
 			writeQaxisData(secRank, sec_group_id);
@@ -148,7 +155,7 @@ public class LazySectorIntegration extends LazyDataReduction {
 		writeNcdMetadata(sec_group_id);
 	}
 	
-	public Dataset[] execute(int dim, Dataset inputData, SliceSettings currentSliceParams, ILock lock) throws Exception {
+	public Dataset[] execute(int dim, Dataset inputData, SliceSettings currentSliceParams, HDF5IOService ioService, StageMetrics stage) {
 		
 		DataSliceIdentifiers sector_id = new DataSliceIdentifiers();
 		sector_id.setIDs(sec_group_id, sec_data_id);
@@ -170,6 +177,7 @@ public class LazySectorIntegration extends LazyDataReduction {
 			SectorIntegration sec = new SectorIntegration();
 			sec.setROI(intSector);
 			sec.setAreaData(areaData);
+			sec.setIntegrationPlan(integrationPlan);
 			sec.setCalculateRadial(calculateRadial);
 			sec.setCalculateAzimuthal(calculateAzimuthal);
 			sec.setFast(fast);
@@ -197,48 +205,32 @@ public class LazySectorIntegration extends LazyDataReduction {
 					myraddata = myraddata.reshape(resRadShape);
 				}
 			}
-			try {
-				lock.acquire();
-				if (calculateAzimuthal && myazdata != null) {
-					writeResults(azimuth_id, myazdata, dataShape, dim);
-					if (myazdata.hasErrors()) {
-						writeResults(err_azimuth_id, myazdata.getErrors(), dataShape, dim);
-					}
+			if (calculateAzimuthal && myazdata != null) {
+				writeResults(azimuth_id, myazdata, dataShape, dim, ioService, stage);
+				if (myazdata.hasErrors()) {
+					writeResults(err_azimuth_id, myazdata.getErrors(), dataShape, dim, ioService, stage);
 				}
-				if(calculateRadial && myraddata != null) {
-					writeResults(sector_id, myraddata, dataShape, dim);
-					if (myraddata.hasErrors()) {
-						writeResults(err_sector_id, myraddata.getErrors(), dataShape, dim);
-					}
+			}
+			if(calculateRadial && myraddata != null) {
+				writeResults(sector_id, myraddata, dataShape, dim, ioService, stage);
+				if (myraddata.hasErrors()) {
+					writeResults(err_sector_id, myraddata.getErrors(), dataShape, dim, ioService, stage);
 				}
-			} catch (Exception e) {
-				throw e;
-			} finally {
-				lock.release();
 			}
 			
-			
 			return new Dataset[] {myazdata, myraddata};
 	}
 	
-	private void writeResults(DataSliceIdentifiers dataIDs, Dataset data, int[] dataShape, int dim) throws HDF5Exception {
-		long filespace_id = H5.H5Dget_space(dataIDs.dataset_id);
-		long type_id = H5.H5Dget_type(dataIDs.dataset_id);
-		
+	private void writeResults(DataSliceIdentifiers dataIDs, Dataset data, int[] dataShape, int dim,
+			HDF5IOService ioService, StageMetrics stage) {
 		int resLength =  dataShape.length - dim + 1;
 		int integralLength = data.getShape()[data.getRank() - 1];
 		
 		long[] res_start = Arrays.copyOf(dataIDs.start, resLength);
-		long[] res_count = Arrays.copyOf(dataIDs.count, resLength);
 		long[] res_block = Arrays.copyOf(dataIDs.block, resLength);
 		res_block[resLength - 1] = integralLength;
 		
-		long memspace_id = H5.H5Screate_simple(resLength, res_block, null);
-		H5.H5Sselect_hyperslab(filespace_id, HDF5Constants.H5S_SELECT_SET,
-				res_start, res_block, res_count, res_block);
-		
-		H5.H5Dwrite(dataIDs.dataset_id, type_id, memspace_id, filespace_id,
-				HDF5Constants.H5P_DEFAULT, data.getBuffer());
+		ioService.writeSlice(dataIDs.dataset_id, res_start, res_block, data.getBuffer(), stage);
 	}
 	
 	@Override